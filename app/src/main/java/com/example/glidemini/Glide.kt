@@ -27,6 +27,7 @@ import androidx.annotation.GuardedBy
 import androidx.annotation.RequiresApi
 import com.example.glidemini.cache.memoryCache.MemoryCache
 import com.example.glidemini.load.engine.Engine
+import com.example.glidemini.load.resource.bitmap.RawBitmapDecoder
 import java.io.File
 import java.io.InputStream
 import java.net.URL
@@ -145,6 +146,7 @@ class Glide private constructor(
 
     override fun onTrimMemory(level: Int) {
 //        trimMemory(level);
+        engine.trimMemory(level)
     }
 
     override fun onConfigurationChanged(newConfig: Configuration) {
@@ -153,6 +155,7 @@ class Glide private constructor(
 
     override fun onLowMemory() {
 //        clearMemory();
+        engine.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
     }
 
     /**
@@ -232,12 +235,21 @@ class Glide private constructor(
         val resourceLoaderAssetFileDescriptorFactory: ResourceLoader.AssetFileDescriptorFactory =
             AssetFileDescriptorFactory(resources)
         val bitmapEncoder = BitmapEncoder(arrayPool)
+        // Reads resource cache entries written with BitmapEncoder.ENCODE_RAW_PIXELS, ahead of the
+        // decoders below that would otherwise try, and fail, to decode them as images.
+        val rawBitmapDecoder = RawBitmapDecoder(bitmapPool)
         val bitmapBytesTranscoder = BitmapBytesTranscoder()
         val gifDrawableBytesTranscoder = GifDrawableBytesTranscoder()
         val contentResolver = context.contentResolver
         registry
             .append(ByteBuffer::class.java, ByteBufferEncoder())
             .append(InputStream::class.java, StreamEncoder(arrayPool)) /* Bitmaps */
+            .append(
+                Registry.BUCKET_BITMAP,
+                ByteBuffer::class.java,
+                Bitmap::class.java,
+                rawBitmapDecoder
+            )
             .append(
                 Registry.BUCKET_BITMAP,
                 ByteBuffer::class.java,
@@ -283,6 +295,12 @@ class Glide private constructor(
                 UnitBitmapDecoder()
             )
             .append(Bitmap::class.java, bitmapEncoder) /* BitmapDrawables */
+            .append(
+                Registry.BUCKET_BITMAP_DRAWABLE,
+                ByteBuffer::class.java,
+                BitmapDrawable::class.java,
+                BitmapDrawableDecoder(resources, rawBitmapDecoder)
+            )
             .append(
                 Registry.BUCKET_BITMAP_DRAWABLE,
                 ByteBuffer::class.java,
@@ -351,6 +369,11 @@ class Glide private constructor(
                 File::class.java,
                 File::class.java,
                 UnitModelLoader.Factory.< File > getInstance < java . io . File ? > ()
+            ) // SegmentedDiskCache returns cached data as a mapped ByteBuffer instead of a File.
+            .append(
+                ByteBuffer::class.java,
+                ByteBuffer::class.java,
+                UnitModelLoader.Factory.< ByteBuffer > getInstance < java . nio . ByteBuffer ? > ()
             ) /* Models */
             .register(Factory(arrayPool))
         if (ParcelFileDescriptorRewinder.isSupported()) {
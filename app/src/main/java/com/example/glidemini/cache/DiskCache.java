@@ -6,6 +6,7 @@ import androidx.annotation.Nullable;
 import com.example.glidemini.cache.key.Key;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 
 /**
  * 磁盘cache
@@ -30,13 +31,66 @@ public interface DiskCache {
         boolean write(@NonNull File file);
     }
 
+    /**
+     * 一次由调用方控制写入时机的编辑，见{@link #edit}
+     */
+    interface Editor {
+        //要写入数据的文件
+        @NonNull
+        File getFile();
+
+        //提交写入的数据，让其他读取方可见
+        void commit();
+
+        //放弃这次编辑；已经commit过时什么都不做
+        void abortUnlessCommitted();
+    }
+
     //根据Key, 获取对应的缓存文件
     @Nullable
     File get(Key key);
 
-    //添加到缓存
+    /**
+     * 根据Key, 以只读ByteBuffer(通常是MappedByteBuffer)的形式获取缓存数据
+     *
+     * <p>解码器可以直接读取映射的内存，不需要先把整个文件通过流拷贝到堆上。只有不把每个条目单独存成一个文件的实现
+     * (比如{@link SegmentedDiskCache})需要覆盖这个方法，它们的{@link #get}总是返回null。
+     * 把条目存成文件的实现直接返回默认的null，调用方先调用{@link #get}，拿到文件后自己映射，避免同一个key查找两次
+     */
+    @Nullable
+    default ByteBuffer getBuffer(Key key) {
+        return null;
+    }
+
+    /**
+     * 是否缓存了这个key的数据
+     *
+     * <p>默认通过{@link #get}判断，不把条目单独存成文件的实现(比如{@link SegmentedDiskCache})必须覆盖这个方法
+     */
+    default boolean contains(Key key) {
+        return get(key) != null;
+    }
+
+    /**
+     * 添加到缓存，返回后通常就能读到写入的数据
+     *
+     * <p>同一个key正在被{@link #edit}编辑时，put不会等编辑结束，也不写入，直接返回(以前会抛出IllegalStateException)。
+     * 这时返回后{@link #get}可能仍然是null，直到那次编辑提交；编辑被放弃时这个key就没有缓存，调用方应该和写入失败一样处理
+     */
     void put(Key key, Writer writer);
 
+    /**
+     * 开始写入一个条目。和{@link #put}不同，这里不要求在一次调用中写完，调用方可以一边读取数据一边写入文件，
+     * 最后调用{@link Editor#commit}或{@link Editor#abortUnlessCommitted}结束编辑
+     *
+     * <p>数据通常来自网络，实现不应该在编辑期间一直持有这个key的写锁，编辑没有结束前，同一个key的其他edit返回null，
+     * put直接返回。条目已经存在、正在被编辑、或者实现不支持时返回null，这时调用方应该回退到{@link #put}
+     */
+    @Nullable
+    default Editor edit(Key key) {
+        return null;
+    }
+
     //移除缓存
     void delete(Key key);
 
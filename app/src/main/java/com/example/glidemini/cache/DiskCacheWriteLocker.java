@@ -1,104 +1,161 @@
 package com.example.glidemini.cache;
 
-
-import java.util.ArrayDeque;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.locks.Lock;
+import com.example.glidemini.util.Synthetic;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Keeps a map of keys to locks that allows locks to be removed from the map when no longer in use
- * so the size of the collection is bounded.
+ * Serializes disk cache writes per safe key with a fixed array of lock stripes, so puts of
+ * different keys don't share a monitor and acquiring a lock never allocates.
+ *
+ * <p>By default each key maps to a single {@link ReentrantLock}. Keys that share a stripe
+ * serialize their writes, which is safe but rare: safe keys are uniformly distributed hashes and
+ * there are far more stripes than disk cache threads.
  *
- * <p>This class will be accessed by multiple threads in a thread pool and ensures that the number
- * of threads interested in each lock is updated atomically so that when the count reaches 0, the
- * lock can safely be removed from the map.
+ * <p>With exact fencing, each stripe instead hands out a small, fixed set of per-key slots, so
+ * keys that share a stripe only contend for the few instructions it takes to claim a slot. Only
+ * when every slot of a stripe is held by another key does a writer wait.
+ *
+ * <p>A lock must be released on the thread that acquired it. Callers must not acquire a lock for
+ * one key while holding the lock for another, since the two may map to stripes that another thread
+ * acquires in the opposite order.
  */
-final class DiskCacheWriteLocker {
-  private final Map<String, WriteLock> locks = new HashMap<>();
-  private final WriteLockPool writeLockPool = new WriteLockPool();
+public final class DiskCacheWriteLocker {
+  private static final int DEFAULT_STRIPE_COUNT = 64;
+  private static final int SLOTS_PER_STRIPE = 4;
 
-  void acquire(String safeKey) {
-    WriteLock writeLock;
-    synchronized (this) {
-      writeLock = locks.get(safeKey);
-      if (writeLock == null) {
-        writeLock = writeLockPool.obtain();
-        locks.put(safeKey, writeLock);
-      }
-      writeLock.interestedThreads++;
-    }
+  private final int mask;
+  private final ReentrantLock[] locks;
+  private final Stripe[] stripes;
 
-    writeLock.lock.lock();
+  public DiskCacheWriteLocker() {
+    this(/*isExact=*/ false);
   }
 
-  void release(String safeKey) {
-    WriteLock writeLock;
-    synchronized (this) {
-      writeLock = Preconditions.checkNotNull(locks.get(safeKey));
-      if (writeLock.interestedThreads < 1) {
-        throw new IllegalStateException(
-            "Cannot release a lock that is not held"
-                + ", safeKey: "
-                + safeKey
-                + ", interestedThreads: "
-                + writeLock.interestedThreads);
-      }
+  /** @param isExact {@code true} to fence exactly per key, rather than per stripe. */
+  public DiskCacheWriteLocker(boolean isExact) {
+    this(DEFAULT_STRIPE_COUNT, isExact);
+  }
 
-      writeLock.interestedThreads--;
-      if (writeLock.interestedThreads == 0) {
-        WriteLock removed = locks.remove(safeKey);
-        if (!removed.equals(writeLock)) {
-          throw new IllegalStateException(
-              "Removed the wrong lock"
-                  + ", expected to remove: "
-                  + writeLock
-                  + ", but actually removed: "
-                  + removed
-                  + ", safeKey: "
-                  + safeKey);
-        }
-        writeLockPool.offer(removed);
+  /**
+   * @param stripeCount The number of stripes, rounded up to a power of two.
+   * @param isExact {@code true} to fence exactly per key, rather than per stripe.
+   */
+  public DiskCacheWriteLocker(int stripeCount, boolean isExact) {
+    if (stripeCount <= 0) {
+      throw new IllegalArgumentException("Stripe count must be positive: " + stripeCount);
+    }
+    int size = Integer.highestOneBit(stripeCount);
+    if (size < stripeCount) {
+      size <<= 1;
+    }
+    mask = size - 1;
+    if (isExact) {
+      locks = null;
+      stripes = new Stripe[size];
+      for (int i = 0; i < size; i++) {
+        stripes[i] = new Stripe();
+      }
+    } else {
+      locks = new ReentrantLock[size];
+      stripes = null;
+      for (int i = 0; i < size; i++) {
+        locks[i] = new ReentrantLock();
       }
     }
+  }
 
-    writeLock.lock.unlock();
+  public void acquire(String safeKey) {
+    int index = indexFor(safeKey);
+    if (locks != null) {
+      locks[index].lock();
+    } else {
+      stripes[index].claim(safeKey).lock.lock();
+    }
   }
 
-  private static class WriteLock {
-    final Lock lock = new ReentrantLock();
-    int interestedThreads;
+  public void release(String safeKey) {
+    int index = indexFor(safeKey);
+    if (locks != null) {
+      // Throws if the current thread doesn't hold the lock.
+      locks[index].unlock();
+    } else {
+      stripes[index].unclaim(safeKey).lock.unlock();
+    }
+  }
 
-    @Synthetic
-    WriteLock() {}
+  private int indexFor(String safeKey) {
+    // String caches its hash code. Spread the high bits, since only the low bits pick a stripe.
+    int hash = safeKey.hashCode();
+    return (hash ^ (hash >>> 16)) & mask;
   }
 
-  private static class WriteLockPool {
-    private static final int MAX_POOL_SIZE = 10;
-    private final Queue<WriteLock> pool = new ArrayDeque<>();
+  /** A fixed set of per-key locks, claimed by keys while they're in use. */
+  private static final class Stripe {
+    private final Slot[] slots = new Slot[SLOTS_PER_STRIPE];
 
     @Synthetic
-    WriteLockPool() {}
-
-    WriteLock obtain() {
-      WriteLock result;
-      synchronized (pool) {
-        result = pool.poll();
+    Stripe() {
+      for (int i = 0; i < slots.length; i++) {
+        slots[i] = new Slot();
       }
-      if (result == null) {
-        result = new WriteLock();
+    }
+
+    synchronized Slot claim(String safeKey) {
+      boolean isInterrupted = false;
+      try {
+        while (true) {
+          Slot free = null;
+          for (Slot slot : slots) {
+            if (safeKey.equals(slot.safeKey)) {
+              slot.interestedThreads++;
+              return slot;
+            } else if (free == null && slot.safeKey == null) {
+              free = slot;
+            }
+          }
+          if (free != null) {
+            free.safeKey = safeKey;
+            free.interestedThreads = 1;
+            return free;
+          }
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            // Like Lock#lock(), keep waiting and restore the interrupt afterwards.
+            isInterrupted = true;
+          }
+        }
+      } finally {
+        if (isInterrupted) {
+          Thread.currentThread().interrupt();
+        }
       }
-      return result;
     }
 
-    void offer(WriteLock writeLock) {
-      synchronized (pool) {
-        if (pool.size() < MAX_POOL_SIZE) {
-          pool.offer(writeLock);
+    synchronized Slot unclaim(String safeKey) {
+      for (Slot slot : slots) {
+        // Checked before touching the count, so a bad release doesn't free a slot that's in use.
+        if (safeKey.equals(slot.safeKey) && slot.lock.isHeldByCurrentThread()) {
+          if (--slot.interestedThreads == 0) {
+            // The lock itself is still held, the next owner of the slot waits on it as usual.
+            slot.safeKey = null;
+            notifyAll();
+          }
+          return slot;
         }
       }
+      throw new IllegalStateException(
+          "Cannot release a lock that is not held, safeKey: " + safeKey);
     }
   }
+
+  private static final class Slot {
+    final ReentrantLock lock = new ReentrantLock();
+    // Both guarded by the stripe that owns the slot.
+    String safeKey;
+    int interestedThreads;
+
+    @Synthetic
+    Slot() {}
+  }
 }
@@ -0,0 +1,185 @@
+package com.example.glidemini.cache;
+
+import androidx.annotation.NonNull;
+import java.security.MessageDigest;
+
+/**
+ * The 128 bit x64 variant of MurmurHash3 with a seed of 0, wrapped as a {@link MessageDigest} so
+ * that {@link com.example.glidemini.cache.key.Key#updateDiskCacheKey(MessageDigest)} can use it
+ * unchanged.
+ *
+ * <p>Not a cryptographic hash, but distributed well enough for disk cache keys and much faster
+ * than SHA-256. The output matches Guava's {@code Hashing.murmur3_128()}: h1 followed by h2, each
+ * in little endian order.
+ *
+ * <p>Not thread safe. Like other {@link MessageDigest}s, instances must be pooled or kept per
+ * thread.
+ */
+final class Murmur3Digest extends MessageDigest {
+  private static final int BLOCK_SIZE = 16;
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+  private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+  // Holds input until there is a full block to process.
+  private final byte[] buffer = new byte[BLOCK_SIZE];
+  private int bufferLength;
+  private long totalLength;
+  private long h1;
+  private long h2;
+
+  Murmur3Digest() {
+    super("Murmur3-128");
+  }
+
+  @Override
+  protected int engineGetDigestLength() {
+    return BLOCK_SIZE;
+  }
+
+  @Override
+  protected void engineUpdate(byte input) {
+    buffer[bufferLength++] = input;
+    totalLength++;
+    if (bufferLength == BLOCK_SIZE) {
+      processBlock(getLong(buffer, 0), getLong(buffer, 8));
+      bufferLength = 0;
+    }
+  }
+
+  @Override
+  protected void engineUpdate(byte[] input, int offset, int length) {
+    totalLength += length;
+    int end = offset + length;
+    // Complete the partial block left over from the previous update first.
+    if (bufferLength > 0) {
+      int count = Math.min(BLOCK_SIZE - bufferLength, length);
+      System.arraycopy(input, offset, buffer, bufferLength, count);
+      bufferLength += count;
+      offset += count;
+      if (bufferLength < BLOCK_SIZE) {
+        return;
+      }
+      processBlock(getLong(buffer, 0), getLong(buffer, 8));
+      bufferLength = 0;
+    }
+    // Whole blocks are read straight from the input without copying.
+    while (end - offset >= BLOCK_SIZE) {
+      processBlock(getLong(input, offset), getLong(input, offset + 8));
+      offset += BLOCK_SIZE;
+    }
+    bufferLength = end - offset;
+    System.arraycopy(input, offset, buffer, 0, bufferLength);
+  }
+
+  @Override
+  protected byte[] engineDigest() {
+    finish();
+    byte[] result = new byte[BLOCK_SIZE];
+    for (int i = 0; i < 8; i++) {
+      result[i] = (byte) (h1 >>> (i * 8));
+      result[i + 8] = (byte) (h2 >>> (i * 8));
+    }
+    engineReset();
+    return result;
+  }
+
+  /**
+   * Equivalent to {@code Util.sha256BytesToHex(digest())}, but without the intermediate byte array
+   * or contending for a global lock. Resets the digest.
+   */
+  @NonNull
+  String hexDigest() {
+    finish();
+    char[] result = new char[BLOCK_SIZE * 2];
+    appendHex(h1, result, 0);
+    appendHex(h2, result, 16);
+    engineReset();
+    return new String(result);
+  }
+
+  @Override
+  protected void engineReset() {
+    bufferLength = 0;
+    totalLength = 0;
+    h1 = 0;
+    h2 = 0;
+  }
+
+  private void processBlock(long k1, long k2) {
+    h1 ^= mixK1(k1);
+    h1 = Long.rotateLeft(h1, 27);
+    h1 += h2;
+    h1 = h1 * 5 + 0x52dce729;
+
+    h2 ^= mixK2(k2);
+    h2 = Long.rotateLeft(h2, 31);
+    h2 += h1;
+    h2 = h2 * 5 + 0x38495ab5;
+  }
+
+  private void finish() {
+    long k1 = 0;
+    long k2 = 0;
+    for (int i = bufferLength - 1; i >= 8; i--) {
+      k2 = (k2 << 8) | (buffer[i] & 0xff);
+    }
+    for (int i = Math.min(bufferLength, 8) - 1; i >= 0; i--) {
+      k1 = (k1 << 8) | (buffer[i] & 0xff);
+    }
+    if (bufferLength > 8) {
+      h2 ^= mixK2(k2);
+    }
+    if (bufferLength > 0) {
+      h1 ^= mixK1(k1);
+    }
+
+    h1 ^= totalLength;
+    h2 ^= totalLength;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix64(h1);
+    h2 = fmix64(h2);
+    h1 += h2;
+    h2 += h1;
+  }
+
+  private static long mixK1(long k1) {
+    k1 *= C1;
+    k1 = Long.rotateLeft(k1, 31);
+    return k1 * C2;
+  }
+
+  private static long mixK2(long k2) {
+    k2 *= C2;
+    k2 = Long.rotateLeft(k2, 33);
+    return k2 * C1;
+  }
+
+  private static long fmix64(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  // Reads 8 bytes in little endian order.
+  private static long getLong(byte[] bytes, int offset) {
+    long result = 0;
+    for (int i = offset + 7; i >= offset; i--) {
+      result = (result << 8) | (bytes[i] & 0xff);
+    }
+    return result;
+  }
+
+  // Writes the bytes in little endian order, matching engineDigest().
+  private static void appendHex(long value, char[] target, int offset) {
+    for (int i = 0; i < 8; i++) {
+      int b = (int) (value >>> (i * 8)) & 0xff;
+      target[offset + i * 2] = HEX_CHARS[b >>> 4];
+      target[offset + i * 2 + 1] = HEX_CHARS[b & 0x0f];
+    }
+  }
+}
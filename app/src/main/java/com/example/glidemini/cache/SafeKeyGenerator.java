@@ -3,7 +3,7 @@ package com.example.glidemini.cache;
 import androidx.annotation.NonNull;
 import androidx.core.util.Pools;
 import com.example.glidemini.cache.key.Key;
-import com.bumptech.glide.util.LruCache;
+import com.example.glidemini.cache.memoryCache.StripedLruCache;
 import com.bumptech.glide.util.Preconditions;
 import com.bumptech.glide.util.Synthetic;
 import com.bumptech.glide.util.Util;
@@ -15,34 +15,78 @@ import java.security.NoSuchAlgorithmException;
 /**
  * A class that generates and caches safe and unique string file names from {@link
  * Key}s.
+ *
+ * <p>Hits in the cache of recently generated names are lock free. The {@link Scheme} is part of
+ * the on disk format: a disk cache must always be opened with the scheme it was written with.
  */
 // Public API.
 @SuppressWarnings("WeakerAccess")
 public class SafeKeyGenerator {
-  private final LruCache<Key, String> loadIdToSafeHash = new LruCache<>(1000);
-  private final Pools.Pool<PoolableDigestContainer> digestPool =
-      FactoryPools.threadSafe(
-          10,
-          new FactoryPools.Factory<PoolableDigestContainer>() {
-            @Override
-            public PoolableDigestContainer create() {
-              try {
-                return new PoolableDigestContainer(MessageDigest.getInstance("SHA-256"));
-              } catch (NoSuchAlgorithmException e) {
-                throw new RuntimeException(e);
+  /** The hash used to derive file names from {@link Key}s. */
+  public enum Scheme {
+    /** 64 character SHA-256 hex digests, the format of all existing caches. */
+    SHA_256(0),
+    /**
+     * 32 character hex digests of the 128 bit x64 MurmurHash3. Not cryptographic, but several
+     * times faster to compute than SHA-256 and distributed well enough for file names.
+     */
+    MURMUR3_128(1);
+
+    private final int id;
+
+    Scheme(int id) {
+      this.id = id;
+    }
+
+    /** The stable id of the scheme, as recorded by disk caches. */
+    public int getId() {
+      return id;
+    }
+
+    @Synthetic
+    MessageDigest newDigest() {
+      if (this == MURMUR3_128) {
+        return new Murmur3Digest();
+      }
+      try {
+        return MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  private final StripedLruCache<Key, String> loadIdToSafeHash = new StripedLruCache<>(1000);
+  private final Scheme scheme;
+  private final Pools.Pool<PoolableDigestContainer> digestPool;
+
+  public SafeKeyGenerator() {
+    this(Scheme.SHA_256);
+  }
+
+  public SafeKeyGenerator(@NonNull final Scheme scheme) {
+    this.scheme = scheme;
+    digestPool =
+        FactoryPools.threadSafe(
+            10,
+            new FactoryPools.Factory<PoolableDigestContainer>() {
+              @Override
+              public PoolableDigestContainer create() {
+                return new PoolableDigestContainer(scheme.newDigest());
               }
-            }
-          });
+            });
+  }
+
+  @NonNull
+  public Scheme getScheme() {
+    return scheme;
+  }
 
   public String getSafeKey(Key key) {
-    String safeKey;
-    synchronized (loadIdToSafeHash) {
-      safeKey = loadIdToSafeHash.get(key);
-    }
+    String safeKey = loadIdToSafeHash.get(key);
     if (safeKey == null) {
       safeKey = calculateHexStringDigest(key);
-    }
-    synchronized (loadIdToSafeHash) {
+      // Only misses write, a get already marks the entry as recently used.
       loadIdToSafeHash.put(key, safeKey);
     }
     return safeKey;
@@ -51,9 +95,13 @@ public class SafeKeyGenerator {
   private String calculateHexStringDigest(Key key) {
     PoolableDigestContainer container = Preconditions.checkNotNull(digestPool.acquire());
     try {
-      key.updateDiskCacheKey(container.messageDigest);
-      // calling digest() will automatically reset()
-      return Util.sha256BytesToHex(container.messageDigest.digest());
+      MessageDigest messageDigest = container.messageDigest;
+      key.updateDiskCacheKey(messageDigest);
+      // Both calling digest() and hexDigest() will automatically reset()
+      if (messageDigest instanceof Murmur3Digest) {
+        return ((Murmur3Digest) messageDigest).hexDigest();
+      }
+      return Util.sha256BytesToHex(messageDigest.digest());
     } finally {
       digestPool.release(container);
     }
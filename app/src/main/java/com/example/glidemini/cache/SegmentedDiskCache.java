@@ -0,0 +1,797 @@
+package com.example.glidemini.cache;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.example.glidemini.cache.diskLruCache.DiskLruCacheThreadFactory;
+import com.example.glidemini.cache.key.Key;
+import com.example.glidemini.util.Synthetic;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link DiskCache} that appends entries to large segment files instead of storing each entry
+ * in its own file.
+ *
+ * <p>Hits don't open, stat and close a file per entry and writes don't rename one, so there is no
+ * per-entry inode churn for small thumbnails. An in-memory index maps safe keys to an offset and
+ * length within a segment and is rebuilt by scanning the segments when the cache is opened.
+ *
+ * <p>Entries are read with {@link #getBuffer(Key)} as read-only mappings of the segment, {@link
+ * #get(Key)} always returns {@code null}, use {@link #contains(Key)} to check for an entry. Writes
+ * follow the {@link DiskCache.Writer} contract: the writer fills a per-thread scratch file, which
+ * is then appended to the active segment and deleted. Only the space for the record is reserved
+ * under the cache's lock, the data is copied outside it, so concurrent puts of large entries don't
+ * queue up.
+ *
+ * <p>When the cache is over its max size the oldest segment is dropped as a whole. Sealed segments
+ * that are mostly dead (deleted or overwritten entries) are compacted in the background by copying
+ * their live entries to the active segment, the same way puts append outside the lock.
+ *
+ * <p>Segment layout: a header {@code [int segment magic][int key scheme id]} followed by a sequence
+ * of records {@code [int magic][short key length][key bytes][int data length][data]}. The header
+ * records the {@link SafeKeyGenerator.Scheme} the keys were generated with, segments written with
+ * another scheme are deleted when the cache is opened. Segments without a header were written
+ * before schemes could be selected and hold SHA-256 keys. A data length of -1 marks a deletion, a key length of 0 marks padding left
+ * by a failed write. The header of a record is written after its data, so a record interrupted by a
+ * crash ends the segment instead of pointing at incomplete data.
+ *
+ * <p>A deletion only removes an entry once the segments are scanned again if the deleted record is
+ * still on disk. Deletions are therefore carried over to the active segment when the segment holding
+ * them is dropped while the segment holding the deleted record isn't.
+ */
+public class SegmentedDiskCache implements DiskCache {
+  private static final String TAG = "SegmentedDiskCache";
+  private static final String SEGMENT_PREFIX = "segment_";
+  private static final String SEGMENT_SUFFIX = ".blob";
+  private static final String SCRATCH_DIRECTORY = "scratch";
+  private static final int SEGMENT_MAGIC = 0x474c5348; // "GLSH"
+  private static final int SEGMENT_HEADER_SIZE = 8;
+  private static final int RECORD_MAGIC = 0x474c5342; // "GLSB"
+  private static final int TOMBSTONE = -1;
+  // Magic, key length and data length.
+  private static final int HEADER_SIZE = 10;
+  private static final long DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+  // Sealed segments with less than this fraction of live bytes are compacted.
+  private static final float COMPACTION_THRESHOLD = 0.5f;
+
+  private final SafeKeyGenerator safeKeyGenerator;
+  private final DiskCacheWriteLocker writeLocker;
+  private final File directory;
+  private final File scratchDirectory;
+  private final long maxSize;
+  private final long segmentSize;
+  private final Map<String, Location> index = new ConcurrentHashMap<>();
+  private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+  // Safe keys of deleted entries, mapped to where the deletion and the deleted record are.
+  private final Map<String, Tombstone> tombstones = new HashMap<>();
+  private final ExecutorService compactionExecutor =
+      new ThreadPoolExecutor(
+          0,
+          1,
+          60L,
+          TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(),
+          new DiskLruCacheThreadFactory());
+
+  private volatile boolean isOpen;
+  // The fields below are guarded by this.
+  private Segment activeSegment;
+  private int nextSegmentId;
+  private long totalSize;
+
+  public static DiskCache create(File directory, long maxSize) {
+    return create(directory, maxSize, DEFAULT_SEGMENT_SIZE);
+  }
+
+  public static DiskCache create(File directory, long maxSize, long segmentSize) {
+    return create(directory, maxSize, segmentSize, SafeKeyGenerator.Scheme.SHA_256);
+  }
+
+  /**
+   * Create a new SegmentedDiskCache whose keys are generated with the given scheme. Changing the
+   * scheme of an existing cache deletes its entries, {@link SafeKeyGenerator.Scheme#SHA_256} keeps
+   * existing caches.
+   */
+  public static DiskCache create(
+      File directory, long maxSize, long segmentSize, SafeKeyGenerator.Scheme keyScheme) {
+    return create(directory, maxSize, segmentSize, keyScheme, /*isExactFencing=*/ false);
+  }
+
+  /**
+   * Create a new SegmentedDiskCache that optionally fences puts exactly per key, rather than per
+   * lock stripe, see {@link DiskCacheWriteLocker}.
+   */
+  public static DiskCache create(
+      File directory,
+      long maxSize,
+      long segmentSize,
+      SafeKeyGenerator.Scheme keyScheme,
+      boolean isExactFencing) {
+    return new SegmentedDiskCache(directory, maxSize, segmentSize, keyScheme, isExactFencing);
+  }
+
+  private SegmentedDiskCache(
+      File directory,
+      long maxSize,
+      long segmentSize,
+      SafeKeyGenerator.Scheme keyScheme,
+      boolean isExactFencing) {
+    if (segmentSize <= SEGMENT_HEADER_SIZE || segmentSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(
+          "segmentSize must be in (" + SEGMENT_HEADER_SIZE + ", Integer.MAX_VALUE]");
+    }
+    this.safeKeyGenerator = new SafeKeyGenerator(keyScheme);
+    this.writeLocker = new DiskCacheWriteLocker(isExactFencing);
+    this.directory = directory;
+    this.scratchDirectory = new File(directory, SCRATCH_DIRECTORY);
+    this.maxSize = maxSize;
+    this.segmentSize = segmentSize;
+  }
+
+  /** Entries don't live in their own files, use {@link #getBuffer(Key)}. */
+  @Nullable
+  @Override
+  public File get(Key key) {
+    return null;
+  }
+
+  @Override
+  public boolean contains(Key key) {
+    try {
+      ensureOpen();
+    } catch (IOException e) {
+      if (Log.isLoggable(TAG, Log.WARN)) {
+        Log.w(TAG, "Unable to open disk cache", e);
+      }
+      return false;
+    }
+    return index.containsKey(safeKeyGenerator.getSafeKey(key));
+  }
+
+  @Nullable
+  @Override
+  public ByteBuffer getBuffer(Key key) {
+    String safeKey = safeKeyGenerator.getSafeKey(key);
+    try {
+      ensureOpen();
+      // A concurrent compaction may move the entry between the index lookup and the mapping.
+      for (int attempt = 0; attempt < 2; attempt++) {
+        Location location = index.get(safeKey);
+        if (location == null) {
+          return null;
+        }
+        Segment segment = segments.get(location.segmentId);
+        if (segment == null) {
+          continue;
+        }
+        try {
+          return segment.channel
+              .map(FileChannel.MapMode.READ_ONLY, location.offset, location.length)
+              .asReadOnlyBuffer();
+        } catch (IOException e) {
+          // The segment was closed by eviction or compaction, look the entry up again.
+        }
+      }
+    } catch (IOException e) {
+      if (Log.isLoggable(TAG, Log.WARN)) {
+        Log.w(TAG, "Unable to get from disk cache", e);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void put(Key key, Writer writer) {
+    String safeKey = safeKeyGenerator.getSafeKey(key);
+    File scratch = null;
+    writeLocker.acquire(safeKey);
+    try {
+      ensureOpen();
+      // We assume we only need to put once, so if data was written while we were trying to get the
+      // lock, we can simply abort.
+      if (index.containsKey(safeKey)) {
+        return;
+      }
+      scratch = getScratchFile();
+      if (!writer.write(scratch)) {
+        return;
+      }
+      append(safeKey, scratch);
+    } catch (IOException e) {
+      if (Log.isLoggable(TAG, Log.WARN)) {
+        Log.w(TAG, "Unable to put to disk cache", e);
+      }
+    } finally {
+      writeLocker.release(safeKey);
+      // The data now lives in a segment, don't keep a copy per thread that ever wrote.
+      if (scratch != null && scratch.exists() && !scratch.delete()
+          && Log.isLoggable(TAG, Log.WARN)) {
+        Log.w(TAG, "Unable to delete scratch file: " + scratch);
+      }
+    }
+  }
+
+  @Override
+  public void delete(Key key) {
+    String safeKey = safeKeyGenerator.getSafeKey(key);
+    try {
+      ensureOpen();
+      synchronized (this) {
+        Location removed = index.remove(safeKey);
+        if (removed == null) {
+          return;
+        }
+        markDead(removed);
+        writeTombstone(safeKey, removed.segmentId);
+        maybeScheduleCompaction();
+      }
+    } catch (IOException e) {
+      if (Log.isLoggable(TAG, Log.WARN)) {
+        Log.w(TAG, "Unable to delete from disk cache", e);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void clear() {
+    for (Segment segment : segments.values()) {
+      segment.close();
+    }
+    segments.clear();
+    index.clear();
+    tombstones.clear();
+    activeSegment = null;
+    totalSize = 0;
+    nextSegmentId = 0;
+    isOpen = false;
+    deleteContents(directory);
+  }
+
+  private void ensureOpen() throws IOException {
+    if (!isOpen) {
+      open();
+    }
+  }
+
+  private synchronized void open() throws IOException {
+    if (isOpen) {
+      return;
+    }
+    if (!scratchDirectory.isDirectory() && !scratchDirectory.mkdirs()) {
+      throw new IOException("Unable to create cache directory: " + scratchDirectory);
+    }
+    // Left behind by puts interrupted by a crash.
+    deleteContents(scratchDirectory);
+    List<Integer> ids = new ArrayList<>();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        String name = file.getName();
+        if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+          try {
+            ids.add(
+                Integer.parseInt(
+                    name.substring(
+                        SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+          } catch (NumberFormatException e) {
+            // Not one of ours.
+          }
+        }
+      }
+    }
+    Collections.sort(ids);
+    for (int id : ids) {
+      nextSegmentId = id + 1;
+      Segment segment = new Segment(id, getSegmentFile(id));
+      if (!readSegmentHeader(segment)) {
+        segment.close();
+        if (!segment.file.delete() && Log.isLoggable(TAG, Log.WARN)) {
+          Log.w(TAG, "Unable to delete segment: " + segment.file);
+        }
+        continue;
+      }
+      segments.put(id, segment);
+      scan(segment);
+      if (segment.isEmpty()) {
+        dropSegment(segment);
+      }
+    }
+    rollSegment();
+    isOpen = true;
+    trimToSize();
+  }
+
+  /**
+   * Reads where the records of a segment start, returns {@code false} if the segment was written
+   * with another key scheme or has no valid header.
+   */
+  private boolean readSegmentHeader(Segment segment) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+    int read = segment.channel.read(header, 0);
+    int keyScheme;
+    if (read >= 4 && header.getInt(0) == RECORD_MAGIC) {
+      // Written before the header existed.
+      segment.recordsStart = 0;
+      keyScheme = SafeKeyGenerator.Scheme.SHA_256.getId();
+    } else if (read == SEGMENT_HEADER_SIZE && header.getInt(0) == SEGMENT_MAGIC) {
+      segment.recordsStart = SEGMENT_HEADER_SIZE;
+      keyScheme = header.getInt(4);
+    } else {
+      return false;
+    }
+    return keyScheme == safeKeyGenerator.getScheme().getId();
+  }
+
+  /** Replays one segment into the index, truncating a partially written trailing record. */
+  private void scan(Segment segment) throws IOException {
+    FileChannel channel = segment.channel;
+    long fileSize = channel.size();
+    long position = segment.recordsStart;
+    ByteBuffer header = ByteBuffer.allocate(6);
+    ByteBuffer length = ByteBuffer.allocate(4);
+    while (position < fileSize) {
+      header.clear();
+      if (channel.read(header, position) != 6 || header.getInt(0) != RECORD_MAGIC) {
+        break;
+      }
+      int keyLength = header.getShort(4) & 0xffff;
+      ByteBuffer keyBytes = ByteBuffer.allocate(keyLength);
+      length.clear();
+      if (channel.read(keyBytes, position + 6) != keyLength
+          || channel.read(length, position + 6 + keyLength) != 4) {
+        break;
+      }
+      String safeKey = new String(keyBytes.array(), "US-ASCII");
+      int dataLength = length.getInt(0);
+      long dataOffset = position + HEADER_SIZE + keyLength;
+      if (dataLength == TOMBSTONE) {
+        Location removed = index.remove(safeKey);
+        if (removed != null) {
+          markDead(removed);
+          tombstones.put(safeKey, new Tombstone(segment.id, removed.segmentId));
+        }
+        position = dataOffset;
+        continue;
+      }
+      if (dataLength < 0 || dataOffset + dataLength > fileSize) {
+        break;
+      }
+      if (keyLength == 0) {
+        // Padding.
+        position = dataOffset + dataLength;
+        continue;
+      }
+      tombstones.remove(safeKey);
+      Location previous = index.put(safeKey, new Location(segment.id, dataOffset, dataLength));
+      if (previous != null) {
+        markDead(previous);
+      }
+      segment.liveBytes += dataLength;
+      position = dataOffset + dataLength;
+    }
+    if (position < fileSize) {
+      channel.truncate(position);
+    }
+    segment.size = position;
+    totalSize += position;
+  }
+
+  private void append(String safeKey, File scratch) throws IOException {
+    FileInputStream is = new FileInputStream(scratch);
+    try {
+      FileChannel source = is.getChannel();
+      long dataLength = source.size();
+      if (dataLength > Integer.MAX_VALUE) {
+        throw new IOException("Entry too large: " + dataLength);
+      }
+      long recordLength = HEADER_SIZE + safeKey.length() + dataLength;
+      Segment segment;
+      long recordOffset;
+      synchronized (this) {
+        if (!activeSegment.isEmpty() && activeSegment.size + recordLength > segmentSize) {
+          rollSegment();
+        }
+        segment = activeSegment;
+        recordOffset = segment.size;
+        // transferFrom doesn't write past the end of the file, so allocate the reserved space.
+        segment.raf.setLength(recordOffset + recordLength);
+        segment.size += recordLength;
+        segment.pendingWrites++;
+        totalSize += recordLength;
+      }
+
+      boolean isWritten = false;
+      try {
+        long dataOffset = recordOffset + HEADER_SIZE + safeKey.length();
+        long transferred = 0;
+        while (transferred < dataLength) {
+          long count =
+              segment.channel.transferFrom(
+                  source, dataOffset + transferred, dataLength - transferred);
+          if (count <= 0) {
+            throw new IOException("Unexpected end of scratch file: " + scratch);
+          }
+          transferred += count;
+        }
+        writeRecordHeader(segment, recordOffset, safeKey, (int) dataLength);
+        isWritten = true;
+      } finally {
+        synchronized (this) {
+          segment.pendingWrites--;
+          if (isWritten && segments.get(segment.id) == segment) {
+            segment.liveBytes += dataLength;
+            Location previous =
+                index.put(
+                    safeKey,
+                    new Location(
+                        segment.id, recordOffset + HEADER_SIZE + safeKey.length(), (int) dataLength));
+            if (previous != null) {
+              markDead(previous);
+            }
+            tombstones.remove(safeKey);
+          } else if (!isWritten) {
+            writePadding(segment, recordOffset, recordLength);
+          }
+          trimToSize();
+        }
+      }
+    } finally {
+      is.close();
+    }
+  }
+
+  /** Appends a deletion of the given key, whose deleted record is in the given segment. */
+  private void writeTombstone(String safeKey, int deletedSegmentId) throws IOException {
+    Segment segment = activeSegment;
+    long recordOffset = segment.size;
+    segment.size += HEADER_SIZE + safeKey.length();
+    totalSize += HEADER_SIZE + safeKey.length();
+    writeRecordHeader(segment, recordOffset, safeKey, TOMBSTONE);
+    tombstones.put(safeKey, new Tombstone(segment.id, deletedSegmentId));
+  }
+
+  /** Marks a record whose write failed as padding, so scans skip rather than stop at it. */
+  private void writePadding(Segment segment, long recordOffset, long recordLength) {
+    if (segments.get(segment.id) != segment) {
+      return;
+    }
+    try {
+      writeRecordHeader(segment, recordOffset, "", (int) (recordLength - HEADER_SIZE));
+    } catch (IOException e) {
+      if (Log.isLoggable(TAG, Log.WARN)) {
+        Log.w(TAG, "Unable to pad failed write, later records in the segment may be lost", e);
+      }
+    }
+  }
+
+  /** Writes a record header at the given offset, whose space was already reserved. */
+  private static void writeRecordHeader(
+      Segment segment, long recordOffset, String safeKey, int dataLength) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + safeKey.length());
+    header.putInt(RECORD_MAGIC);
+    header.putShort((short) safeKey.length());
+    for (int i = 0; i < safeKey.length(); i++) {
+      header.put((byte) safeKey.charAt(i));
+    }
+    header.putInt(dataLength);
+    header.flip();
+    long position = recordOffset;
+    while (header.hasRemaining()) {
+      position += segment.channel.write(header, position);
+    }
+  }
+
+  private void markDead(Location location) {
+    Segment segment = segments.get(location.segmentId);
+    if (segment != null) {
+      segment.liveBytes -= location.length;
+    }
+  }
+
+  private void rollSegment() throws IOException {
+    int id = nextSegmentId++;
+    Segment segment = new Segment(id, getSegmentFile(id));
+    ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+    header.putInt(SEGMENT_MAGIC);
+    header.putInt(safeKeyGenerator.getScheme().getId());
+    header.flip();
+    long position = 0;
+    while (header.hasRemaining()) {
+      position += segment.channel.write(header, position);
+    }
+    segment.recordsStart = SEGMENT_HEADER_SIZE;
+    segment.size = SEGMENT_HEADER_SIZE;
+    totalSize += SEGMENT_HEADER_SIZE;
+    segments.put(id, segment);
+    activeSegment = segment;
+    maybeScheduleCompaction();
+  }
+
+  /** Drops the oldest sealed segments until the cache fits in its max size. */
+  private void trimToSize() {
+    while (totalSize > maxSize) {
+      Segment oldest = null;
+      for (Segment segment : segments.values()) {
+        if (segment != activeSegment
+            && segment.pendingWrites == 0
+            && (oldest == null || segment.id < oldest.id)) {
+          oldest = segment;
+        }
+      }
+      if (oldest == null) {
+        return;
+      }
+      dropSegment(oldest);
+    }
+  }
+
+  private void dropSegment(Segment segment) {
+    Iterator<Location> iterator = index.values().iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().segmentId == segment.id) {
+        iterator.remove();
+      }
+    }
+    segments.remove(segment.id);
+    totalSize -= segment.size;
+    segment.close();
+    if (!segment.file.delete() && Log.isLoggable(TAG, Log.WARN)) {
+      Log.w(TAG, "Unable to delete segment: " + segment.file);
+    }
+    carryTombstones(segment);
+  }
+
+  /**
+   * Rewrites the deletions held by a dropped segment to the active segment if the records they
+   * delete are still on disk, and forgets the deletions of records that were in the dropped one.
+   */
+  private void carryTombstones(Segment dropped) {
+    Iterator<Map.Entry<String, Tombstone>> iterator = tombstones.entrySet().iterator();
+    List<String> toCarry = null;
+    while (iterator.hasNext()) {
+      Map.Entry<String, Tombstone> entry = iterator.next();
+      Tombstone tombstone = entry.getValue();
+      if (!segments.containsKey(tombstone.deletedSegmentId)) {
+        iterator.remove();
+      } else if (tombstone.segmentId == dropped.id) {
+        if (toCarry == null) {
+          toCarry = new ArrayList<>();
+        }
+        toCarry.add(entry.getKey());
+      }
+    }
+    if (toCarry == null || activeSegment == null) {
+      return;
+    }
+    try {
+      for (String safeKey : toCarry) {
+        writeTombstone(safeKey, tombstones.get(safeKey).deletedSegmentId);
+      }
+    } catch (IOException e) {
+      if (Log.isLoggable(TAG, Log.WARN)) {
+        Log.w(TAG, "Unable to carry over deletions, deleted entries may reappear", e);
+      }
+    }
+  }
+
+  private void maybeScheduleCompaction() {
+    for (final Segment segment : segments.values()) {
+      if (segment != activeSegment
+          && segment.pendingWrites == 0
+          && !segment.compactionScheduled
+          && segment.liveBytes < segment.size * COMPACTION_THRESHOLD) {
+        segment.compactionScheduled = true;
+        compactionExecutor.execute(
+            new Runnable() {
+              @Override
+              public void run() {
+                compact(segment);
+              }
+            });
+      }
+    }
+  }
+
+  /**
+   * Copies the live entries of a sealed segment to the active segment and deletes it.
+   *
+   * <p>Like {@link #append(String, File)}, only the space for each copy is reserved under the
+   * cache's lock and the data is copied outside it, so puts and deletes aren't blocked while a
+   * large segment is compacted. The index is switched to the copy under the lock once it's written.
+   */
+  @Synthetic
+  void compact(Segment segment) {
+    List<String> liveKeys = new ArrayList<>();
+    synchronized (this) {
+      if (segments.get(segment.id) != segment) {
+        // Already dropped or the cache was cleared.
+        return;
+      }
+      if (segment.pendingWrites > 0) {
+        // Picked up again by the next roll or deletion once the write finished.
+        segment.compactionScheduled = false;
+        return;
+      }
+      for (Map.Entry<String, Location> entry : index.entrySet()) {
+        if (entry.getValue().segmentId == segment.id) {
+          liveKeys.add(entry.getKey());
+        }
+      }
+    }
+    try {
+      for (String safeKey : liveKeys) {
+        copyLiveEntry(segment, safeKey);
+      }
+      synchronized (this) {
+        // Sealed segments don't get new entries, so everything live was moved by now unless the
+        // segment was dropped while we were copying.
+        if (segments.get(segment.id) == segment) {
+          dropSegment(segment);
+        }
+      }
+    } catch (IOException e) {
+      synchronized (this) {
+        segment.compactionScheduled = false;
+      }
+      if (Log.isLoggable(TAG, Log.WARN)) {
+        Log.w(TAG, "Unable to compact disk cache segment", e);
+      }
+    }
+  }
+
+  /**
+   * Copies one entry of a segment being compacted to the active segment, unless it was overwritten,
+   * deleted or dropped in the meantime.
+   */
+  private void copyLiveEntry(Segment segment, String safeKey) throws IOException {
+    Location location;
+    Segment target;
+    long recordOffset;
+    long recordLength;
+    synchronized (this) {
+      location = index.get(safeKey);
+      if (location == null || location.segmentId != segment.id) {
+        return;
+      }
+      recordLength = HEADER_SIZE + safeKey.length() + location.length;
+      if (!activeSegment.isEmpty() && activeSegment.size + recordLength > segmentSize) {
+        rollSegment();
+      }
+      target = activeSegment;
+      recordOffset = target.size;
+      target.raf.setLength(recordOffset + recordLength);
+      target.size += recordLength;
+      target.pendingWrites++;
+      totalSize += recordLength;
+    }
+
+    boolean isWritten = false;
+    long dataOffset = recordOffset + HEADER_SIZE + safeKey.length();
+    try {
+      // Only the single compaction thread moves the position of a segment's channel.
+      target.channel.position(dataOffset);
+      long transferred = 0;
+      while (transferred < location.length) {
+        long count =
+            segment.channel.transferTo(
+                location.offset + transferred, location.length - transferred, target.channel);
+        if (count <= 0) {
+          throw new IOException("Unexpected end of segment: " + segment.file);
+        }
+        transferred += count;
+      }
+      writeRecordHeader(target, recordOffset, safeKey, location.length);
+      isWritten = true;
+    } finally {
+      synchronized (this) {
+        target.pendingWrites--;
+        if (isWritten && segments.get(target.id) == target && index.get(safeKey) == location) {
+          target.liveBytes += location.length;
+          index.put(safeKey, new Location(target.id, dataOffset, location.length));
+        } else {
+          // Either the copy failed or the entry changed while it was copied, a copy left on disk
+          // would bring back a stale entry when the segments are scanned again.
+          writePadding(target, recordOffset, recordLength);
+        }
+      }
+    }
+  }
+
+  private File getScratchFile() {
+    return new File(scratchDirectory, "scratch_" + Thread.currentThread().getId());
+  }
+
+  private File getSegmentFile(int id) {
+    return new File(directory, SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+  }
+
+  private static void deleteContents(File dir) {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (file.isDirectory()) {
+        deleteContents(file);
+      }
+      if (!file.delete() && Log.isLoggable(TAG, Log.WARN)) {
+        Log.w(TAG, "Unable to delete: " + file);
+      }
+    }
+  }
+
+  private static final class Location {
+    @Synthetic final int segmentId;
+    @Synthetic final long offset;
+    @Synthetic final int length;
+
+    Location(int segmentId, long offset, int length) {
+      this.segmentId = segmentId;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  private static final class Tombstone {
+    // The segment holding the deletion record.
+    @Synthetic final int segmentId;
+    // The segment holding the deleted record.
+    @Synthetic final int deletedSegmentId;
+
+    Tombstone(int segmentId, int deletedSegmentId) {
+      this.segmentId = segmentId;
+      this.deletedSegmentId = deletedSegmentId;
+    }
+  }
+
+  @Synthetic
+  static final class Segment {
+    final int id;
+    final File file;
+    final RandomAccessFile raf;
+    final FileChannel channel;
+    // Guarded by the owning cache.
+    long size;
+    long liveBytes;
+    boolean compactionScheduled;
+    // Appends whose space is reserved but whose data is still being copied.
+    int pendingWrites;
+    // Where the first record starts, after the segment header.
+    long recordsStart;
+
+    Segment(int id, File file) throws IOException {
+      this.id = id;
+      this.file = file;
+      this.raf = new RandomAccessFile(file, "rw");
+      this.channel = raf.getChannel();
+    }
+
+    boolean isEmpty() {
+      return size <= recordsStart;
+    }
+
+    void close() {
+      try {
+        raf.close();
+      } catch (IOException e) {
+        // Ignored.
+      }
+    }
+  }
+}
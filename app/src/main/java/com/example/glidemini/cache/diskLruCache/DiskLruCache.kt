@@ -10,6 +10,8 @@ import android.os.StrictMode
 import com.example.glidemini.util.Util
 import java.io.*
 import java.lang.IllegalStateException
+import java.nio.BufferUnderflowException
+import java.nio.ByteBuffer
 import java.nio.charset.Charset
 import java.util.*
 import java.util.concurrent.*
@@ -43,23 +45,40 @@ import java.util.concurrent.*
  *
  * T当缓存操作发生时，日志文件被追加到其中。日记账有时可以通过去掉多余的行来压缩。
  * 在压缩过程中会使用一个名为"journal.tmp"的临时文件;如果在打开缓存时存在该文件，则应该删除该文件。
+ *
+ * 上面是旧的文本格式。现在实际写入的是二进制日志"journal.bin"，记录的含义和文本格式一一对应：
+ *     header: [int magic] [int version] [int appVersion] [int valueCount] [int keyScheme]
+ *     record: [byte 操作] [short key长度] [key的ASCII字节] [CLEAN时: valueCount个long的文件大小]
+ * 压缩(rebuildJournal)时会把所有条目作为快照一次性写到日志开头，之后的操作继续追加在后面；
+ * 打开缓存时整个文件一次读入内存再解析，不再逐行按US-ASCII解析。
+ * 如果目录下只有旧的文本日志，打开时会读取它并转换成二进制日志，然后删除文本日志。
+ * keyScheme是生成key的算法(见SafeKeyGenerator.Scheme)，
+ * 和打开时指定的不一致时，旧的key都不会再被命中，整个缓存按损坏处理删掉。
+ * 版本号不是BINARY_VERSION的二进制日志(比如没有keyScheme字段的版本1)同样按损坏处理。
  */
 class DiskLruCache private constructor(
     val directory: File,
     private val appVersion: Int,
     valueCount: Int,
-    maxSize: Long
+    maxSize: Long,
+    private val keyScheme: Int
 ) : Closeable {
     private val journalFile: File
     private val journalFileTmp: File
     private val journalFileBackup: File
+    private val legacyJournalFile: File
+    private val legacyJournalFileTmp: File
     private var maxSize: Long
     private val valueCount: Int
     private var size: Long = 0
-    private var journalWriter: Writer? = null
+    private var journalWriter: DataOutputStream? = null
     private val lruEntries = LinkedHashMap<String, Entry?>(0, 0.75f, true)
     private var redundantOpCount = 0
 
+    //已提交条目的布隆过滤器，用于不加锁地判断key一定不存在；重建日志时一起重建，清掉已移除的key
+    @Volatile
+    private var bloomFilter = SafeKeyBloomFilter(0)
+
     //为了区分旧快照和当前快照，每次编辑时都会给每个条目一个序列号。
     //如果快照的序列号与其条目的序列号不相等，那么快照就是过时的。
     private var nextSequenceNumber: Long = 0
@@ -84,11 +103,97 @@ class DiskLruCache private constructor(
         null
     }
 
-    //内部维护一个日志文件, 用于APP再次启动之后的缓存
+    //内部维护一个二进制日志文件, 用于APP再次启动之后的缓存；整个文件一次性读入后再解析
     @Throws(IOException::class)
     private fun readJournal() {
+        val buffer = ByteBuffer.wrap(journalFile.readBytes())
+        try {
+            val magic = buffer.int
+            val version = buffer.int
+            val appVersionValue = buffer.int
+            val valueCountValue = buffer.int
+            val keySchemeValue = buffer.int
+            //日志文件, 合法性校验
+            if (BINARY_MAGIC != magic
+                || BINARY_VERSION != version
+                || appVersion != appVersionValue
+                || valueCount != valueCountValue
+                || keyScheme != keySchemeValue
+            ) {
+                throw IOException(
+                    "unexpected journal header: [ $magic, $version $valueCountValue $keySchemeValue"
+                )
+            }
+        } catch (e: BufferUnderflowException) {
+            throw IOException("truncated journal header")
+        }
+        var recordCount = 0
+        var truncated = false
+        while (buffer.hasRemaining()) {
+            if (!readJournalRecord(buffer)) {
+                truncated = true
+                break
+            }
+            recordCount++
+        }
+        redundantOpCount = recordCount - lruEntries.size
+
+        // 当检测到文件最后结尾处,不正常截断，则会重新构建日志文件.
+        if (truncated) {
+            rebuildJournal()
+        } else {
+            journalWriter = newJournalWriter(journalFile, append = true)
+        }
+    }
+
+    //读取一条二进制记录，如果记录不完整(写入时被中断)，返回false
+    @Throws(IOException::class)
+    private fun readJournalRecord(buffer: ByteBuffer): Boolean {
+        if (buffer.remaining() < 3) {
+            return false
+        }
+        val op = buffer.get()
+        val keyLength = buffer.short.toInt() and 0xffff
+        if (buffer.remaining() < keyLength) {
+            return false
+        }
+        val key = String(buffer.array(), buffer.position(), keyLength, Charsets.US_ASCII)
+        buffer.position(buffer.position() + keyLength)
+        if (op == OP_REMOVE) {
+            lruEntries.remove(key)
+            return true
+        }
+        if (op == OP_CLEAN && buffer.remaining() < valueCount * 8) {
+            return false
+        }
+        if (lruEntries[key] == null) {
+            lruEntries[key] = Entry(key, valueCount, directory)
+        }
+        val entry = lruEntries[key]!!
+        when (op) {
+            OP_CLEAN -> {
+                entry.readable = true
+                entry.currentEditor = null
+                for (i in 0 until valueCount) {
+                    entry.lengths[i] = buffer.long
+                }
+            }
+            OP_DIRTY -> {
+                entry.currentEditor = Editor(entry, this)
+            }
+            OP_READ -> {
+                //已经通过调用lruEntries.get()完成了。
+            }
+            else -> throw IOException("unexpected journal record: $op")
+        }
+        return true
+    }
+
+    //读取旧的文本日志，只在迁移到二进制日志时使用
+    @Throws(IOException::class)
+    private fun readLegacyJournal() {
         val reader =
-            StrictLineReader(FileInputStream(journalFile), charset = Charset.forName("US-ASCII"))
+            StrictLineReader(FileInputStream(legacyJournalFile), charset = Charsets.US_ASCII)
         try {
             val magic: String = reader.readLine()
             val version: String = reader.readLine()
@@ -96,35 +201,22 @@ class DiskLruCache private constructor(
             val valueCountString: String = reader.readLine()
             val blank: String = reader.readLine()
             //日志文件, 合法性校验
+            //旧的文本日志里都是SHA-256的key
             if (MAGIC != magic || VERSION_1 != version
+                || keyScheme != KEY_SCHEME_SHA_256
                 || appVersion.toString() != appVersionString
                 || valueCount.toString() != valueCountString
                 || blank.isNotEmpty()
             ) {
                 throw IOException("unexpected journal header: [ $magic, $version $valueCountString")
             }
-            var lineCount = 0
             while (true) {
                 try {
                     readJournalLine(reader.readLine())
-                    lineCount++
                 } catch (endOfJournal: EOFException) {
                     break
                 }
             }
-            redundantOpCount = lineCount - lruEntries.size
-
-            // 当检测到文件最后结尾处,不正常截断，则会重新构建日志文件.
-            if (reader.hasUnterminatedLine()) {
-                rebuildJournal()
-            } else {
-                journalWriter = BufferedWriter(
-                    OutputStreamWriter(
-                        FileOutputStream(journalFile, true),
-                        Charset.forName("US-ASCII")
-                    )
-                )
-            }
         } finally {
             Util.closeQuietly(reader)
         }
@@ -152,7 +244,7 @@ class DiskLruCache private constructor(
                 entry.setLengths(parts)
             }
             DIRTY -> {
-                entry.currentEditor = Editor(entry)
+                entry.currentEditor = Editor(entry, this)
             }
             READ -> {
                 //已经通过调用lruEntries.get()完成了。
@@ -167,6 +259,7 @@ class DiskLruCache private constructor(
     @Throws(IOException::class)
     private fun processJournal() {
         deleteIfExists(journalFileTmp)
+        deleteIfExists(legacyJournalFileTmp)
         val i = lruEntries.values.iterator()
         while (i.hasNext()) {
             val entry = i.next()
@@ -183,39 +276,55 @@ class DiskLruCache private constructor(
                 i.remove()
             }
         }
+        rebuildBloomFilter()
+    }
+
+    private fun rebuildBloomFilter() {
+        val filter = SafeKeyBloomFilter(lruEntries.size)
+        for (entry in lruEntries.values) {
+            if (entry!!.readable) {
+                filter.put(entry.key)
+            }
+        }
+        bloomFilter = filter
     }
 
-    //创建一个省略冗余信息的新日志。这将替换当前日志
+    /**
+     * 不加锁地判断key是否可能在缓存中。返回false时key一定不在缓存中，可以跳过[get]；
+     * 返回true时仍需要调用[get]确认
+     */
+    fun mightContain(key: String): Boolean {
+        return bloomFilter.mightContain(key)
+    }
+
+    /**
+     * key是否有可读的条目，不检查条目的文件是否存在。
+     * [mightContain]返回true而[get]返回null时，用来区分布隆过滤器的误判和文件在磁盘上丢失
+     */
+    @Synchronized
+    fun hasReadableEntry(key: String): Boolean {
+        return lruEntries[key]?.readable == true
+    }
+
+    //创建一个省略冗余信息的新日志(所有条目的快照)。这将替换当前日志
     @Synchronized
     @Throws(IOException::class)
     private fun rebuildJournal() {
         if (journalWriter != null) {
             closeWriter(journalWriter!!)
         }
-        val writer: Writer = BufferedWriter(
-            OutputStreamWriter(FileOutputStream(journalFileTmp), Charset.forName("US-ASCII"))
-        )
+        val writer = newJournalWriter(journalFileTmp, append = false)
         try {
-            writer.write(MAGIC)
-            writer.write("\n")
-            writer.write(VERSION_1)
-            writer.write("\n")
-            writer.write(Integer.toString(appVersion))
-            writer.write("\n")
-            writer.write(Integer.toString(valueCount))
-            writer.write("\n")
-            writer.write("\n")
+            writer.writeInt(BINARY_MAGIC)
+            writer.writeInt(BINARY_VERSION)
+            writer.writeInt(appVersion)
+            writer.writeInt(valueCount)
+            writer.writeInt(keyScheme)
             for (entry in lruEntries.values) {
                 if (entry!!.currentEditor != null) {
-                    writer.write(
-                        """$DIRTY ${entry.key}
-"""
-                    )
+                    writeRecord(writer, OP_DIRTY, entry.key)
                 } else {
-                    writer.write(
-                        """$CLEAN ${entry.key}${entry.getLengths()}
-"""
-                    )
+                    writeRecord(writer, OP_CLEAN, entry.key, entry.lengths)
                 }
             }
         } finally {
@@ -226,9 +335,10 @@ class DiskLruCache private constructor(
         }
         renameTo(journalFileTmp, journalFile, false)
         journalFileBackup.delete()
-        journalWriter = BufferedWriter(
-            OutputStreamWriter(FileOutputStream(journalFile, true), Charset.forName("US-ASCII"))
-        )
+        //二进制日志已经包含了所有条目，旧的文本日志不再需要
+        legacyJournalFile.delete()
+        rebuildBloomFilter()
+        journalWriter = newJournalWriter(journalFile, append = true)
     }
 
     // 返回名为key的条目的快照，如果该条目不存在，则返回null，当前不可读。
@@ -247,11 +357,11 @@ class DiskLruCache private constructor(
             }
         }
         redundantOpCount++
-        journalWriter.appendLine("$READ $key")
+        writeRecord(journalWriter, OP_READ, key)
         if (journalRebuildRequired()) {
             executorService.submit(cleanupCallable)
         }
-        return Value(key, entry.sequenceNumber, entry.cleanFiles, entry.lengths)
+        return Value(this, key, entry.sequenceNumber, entry.cleanFiles, entry.lengths)
     }
 
     /**
@@ -265,7 +375,7 @@ class DiskLruCache private constructor(
 
     @Synchronized
     @Throws(IOException::class)
-    private fun edit(key: String, expectedSequenceNumber: Long): Editor? {
+    internal fun edit(key: String, expectedSequenceNumber: Long): Editor? {
         checkNotClosed()
         var entry = lruEntries[key]
         if (expectedSequenceNumber != ANY_SEQUENCE_NUMBER && (entry == null
@@ -274,19 +384,16 @@ class DiskLruCache private constructor(
             return null // Value is stale.
         }
         if (entry == null) {
-            entry = Entry(key)
+            entry = Entry(key, valueCount, directory)
             lruEntries[key] = entry
         } else if (entry.currentEditor != null) {
             return null // Another edit is in progress.
         }
-        val editor: Editor = Editor(entry)
-        entry!!.currentEditor = editor
+        val editor = Editor(entry, this)
+        entry.currentEditor = editor
 
         // Flush the journal before creating files to prevent file leaks.
-        journalWriter!!.append(DIRTY)
-        journalWriter!!.append(' ')
-        journalWriter!!.append(key)
-        journalWriter!!.append('\n')
+        writeRecord(journalWriter!!, OP_DIRTY, key)
         flushWriter(journalWriter)
         return editor
     }
@@ -322,7 +429,7 @@ class DiskLruCache private constructor(
 
     @Synchronized
     @Throws(IOException::class)
-    private fun completeEdit(editor: Editor, success: Boolean) {
+    internal fun completeEdit(editor: Editor, success: Boolean) {
         val entry = editor.entry
         check(entry.currentEditor == editor)
 
@@ -358,20 +465,18 @@ class DiskLruCache private constructor(
         entry.currentEditor = null
         if (entry.readable or success) {
             entry.readable = true
-            journalWriter!!.append(CLEAN)
-            journalWriter!!.append(' ')
-            journalWriter!!.append(entry.key)
-            journalWriter!!.append(entry.getLengths())
-            journalWriter!!.append('\n')
+            bloomFilter.put(entry.key)
+            if (bloomFilter.isOverCapacity) {
+                //过滤器装满后误判率会迅速上升，按当前条目数重新分配，顺便去掉已移除的key
+                rebuildBloomFilter()
+            }
+            writeRecord(journalWriter!!, OP_CLEAN, entry.key, entry.lengths)
             if (success) {
                 entry.sequenceNumber = nextSequenceNumber++
             }
         } else {
             lruEntries.remove(entry.key)
-            journalWriter!!.append(REMOVE)
-            journalWriter!!.append(' ')
-            journalWriter!!.append(entry.key)
-            journalWriter!!.append('\n')
+            writeRecord(journalWriter!!, OP_REMOVE, entry.key)
         }
         flushWriter(journalWriter)
         if (size > maxSize || journalRebuildRequired()) {
@@ -412,10 +517,7 @@ class DiskLruCache private constructor(
             entry.lengths[i] = 0
         }
         redundantOpCount++
-        journalWriter!!.append(REMOVE)
-        journalWriter!!.append(' ')
-        journalWriter!!.append(key)
-        journalWriter!!.append('\n')
+        writeRecord(journalWriter!!, OP_REMOVE, key)
         lruEntries.remove(key)
         if (journalRebuildRequired()) {
             executorService.submit(cleanupCallable)
@@ -451,15 +553,17 @@ class DiskLruCache private constructor(
             return  // Already closed.
         }
         for (entry in ArrayList(lruEntries.values)) {
-            if (entry!!.currentEditor != null) {
-                entry.currentEditor.abort()
-            }
+            entry!!.currentEditor?.abort()
         }
         trimToSize()
         closeWriter(journalWriter!!)
         journalWriter = null
     }
 
+    private fun checkNotClosed() {
+        checkNotNull(journalWriter) { "cache is closed" }
+    }
+
     @Throws(IOException::class)
     private fun trimToSize() {
         while (size > maxSize) {
@@ -476,18 +580,31 @@ class DiskLruCache private constructor(
     @Throws(IOException::class)
     fun delete() {
         close()
-        Util.deleteContents(directory)
+        com.example.glidemini.cache.diskLruCache.Util.deleteContents(directory)
     }
 
 
 
 
     companion object {
+        //旧的文本日志，只用于迁移
         const val JOURNAL_FILE = "journal"
         const val JOURNAL_FILE_TEMP = "journal.tmp"
         const val JOURNAL_FILE_BACKUP = "journal.bkp"
         const val MAGIC = "libcore.io.DiskLruCache"
         const val VERSION_1 = "1"
+
+        //二进制日志
+        const val BINARY_JOURNAL_FILE = "journal.bin"
+        const val BINARY_JOURNAL_FILE_TEMP = "journal.bin.tmp"
+        const val BINARY_JOURNAL_FILE_BACKUP = "journal.bin.bkp"
+        const val BINARY_MAGIC = 0x474c444a // "GLDJ"
+        const val BINARY_VERSION = 2
+        const val KEY_SCHEME_SHA_256 = 0
+        private const val OP_CLEAN: Byte = 1
+        private const val OP_DIRTY: Byte = 2
+        private const val OP_REMOVE: Byte = 3
+        private const val OP_READ: Byte = 4
         const val ANY_SEQUENCE_NUMBER: Long = -1
         private const val CLEAN = "CLEAN"
         private const val DIRTY = "DIRTY"
@@ -501,17 +618,26 @@ class DiskLruCache private constructor(
          * @param directory  a writable directory
          * @param valueCount the number of values per cache entry. Must be positive.
          * @param maxSize    the maximum number of bytes this cache should use to store
+         * @param keyScheme  the id of the scheme the keys are generated with. A cache written with
+         *                   another scheme is deleted.
          * @throws IOException if reading or writing the cache directory fails
          */
+        @JvmStatic
         @Throws(IOException::class)
-        fun open(directory: File, appVersion: Int, valueCount: Int, maxSize: Long): DiskLruCache {
+        fun open(
+            directory: File,
+            appVersion: Int,
+            valueCount: Int,
+            maxSize: Long,
+            keyScheme: Int = KEY_SCHEME_SHA_256
+        ): DiskLruCache {
             require(maxSize > 0) { "maxSize <= 0" }
             require(valueCount > 0) { "valueCount <= 0" }
 
             // If a bkp file exists, use it instead.
-            val backupFile = File(directory, JOURNAL_FILE_BACKUP)
+            val backupFile = File(directory, BINARY_JOURNAL_FILE_BACKUP)
             if (backupFile.exists()) {
-                val journalFile = File(directory, JOURNAL_FILE)
+                val journalFile = File(directory, BINARY_JOURNAL_FILE)
                 // If journal file also exists just delete backup file.
                 if (journalFile.exists()) {
                     backupFile.delete()
@@ -520,12 +646,30 @@ class DiskLruCache private constructor(
                 }
             }
 
+            //旧版本重建文本日志时，如果在两次重命名之间被中断，只会留下journal.bkp，恢复它之后再迁移
+            val legacyBackupFile = File(directory, JOURNAL_FILE_BACKUP)
+            if (legacyBackupFile.exists()) {
+                val legacyJournalFile = File(directory, JOURNAL_FILE)
+                if (legacyJournalFile.exists() || File(directory, BINARY_JOURNAL_FILE).exists()) {
+                    legacyBackupFile.delete()
+                } else {
+                    renameTo(legacyBackupFile, legacyJournalFile, false)
+                }
+            }
+
             // Prefer to pick up where we left off.
-            var cache = DiskLruCache(directory, appVersion, valueCount, maxSize)
-            if (cache.journalFile.exists()) {
+            var cache = DiskLruCache(directory, appVersion, valueCount, maxSize, keyScheme)
+            if (cache.journalFile.exists() || cache.legacyJournalFile.exists()) {
                 try {
-                    cache.readJournal()
-                    cache.processJournal()
+                    if (cache.journalFile.exists()) {
+                        cache.readJournal()
+                        cache.processJournal()
+                    } else {
+                        // 旧的文本日志，读取后转换为二进制日志
+                        cache.readLegacyJournal()
+                        cache.processJournal()
+                        cache.rebuildJournal()
+                    }
                     return cache
                 } catch (journalIsCorrupt: IOException) {
                     println(
@@ -541,7 +685,7 @@ class DiskLruCache private constructor(
 
             // Create a new empty cache.
             directory.mkdirs()
-            cache = DiskLruCache(directory, appVersion, valueCount, maxSize)
+            cache = DiskLruCache(directory, appVersion, valueCount, maxSize, keyScheme)
             cache.rebuildJournal()
             return cache
         }
@@ -563,6 +707,29 @@ class DiskLruCache private constructor(
             }
         }
 
+        @Throws(IOException::class)
+        private fun newJournalWriter(file: File, append: Boolean): DataOutputStream {
+            return DataOutputStream(BufferedOutputStream(FileOutputStream(file, append)))
+        }
+
+        //写入一条二进制记录；key只包含ASCII字符
+        @Throws(IOException::class)
+        private fun writeRecord(
+            writer: DataOutputStream,
+            op: Byte,
+            key: String,
+            lengths: LongArray? = null
+        ) {
+            writer.writeByte(op.toInt())
+            writer.writeShort(key.length)
+            writer.writeBytes(key)
+            if (lengths != null) {
+                for (length in lengths) {
+                    writer.writeLong(length)
+                }
+            }
+        }
+
         @Throws(IOException::class)
         fun inputStreamToString(`in`: InputStream): String {
             return Util.readFully(InputStreamReader(`in`, Charset.forName("UTF-8")))
@@ -576,7 +743,7 @@ class DiskLruCache private constructor(
          */
         @TargetApi(VERSION_CODES.O)
         @Throws(IOException::class)
-        private fun closeWriter(writer: Writer) {
+        private fun closeWriter(writer: OutputStream) {
             // If API is less than 26, we don't need to whitelist with StrictMode.
             if (VERSION.SDK_INT < VERSION_CODES.O) {
                 writer.close()
@@ -600,7 +767,7 @@ class DiskLruCache private constructor(
          */
         @TargetApi(VERSION_CODES.O)
         @Throws(IOException::class)
-        private fun flushWriter(writer: Writer?) {
+        private fun flushWriter(writer: OutputStream?) {
             // If API is less than 26, we don't need to whitelist with StrictMode.
             if (VERSION.SDK_INT < VERSION_CODES.O) {
                 writer!!.flush()
@@ -618,9 +785,11 @@ class DiskLruCache private constructor(
     }
 
     init {
-        journalFile = File(directory, JOURNAL_FILE)
-        journalFileTmp = File(directory, JOURNAL_FILE_TEMP)
-        journalFileBackup = File(directory, JOURNAL_FILE_BACKUP)
+        journalFile = File(directory, BINARY_JOURNAL_FILE)
+        journalFileTmp = File(directory, BINARY_JOURNAL_FILE_TEMP)
+        journalFileBackup = File(directory, BINARY_JOURNAL_FILE_BACKUP)
+        legacyJournalFile = File(directory, JOURNAL_FILE)
+        legacyJournalFileTmp = File(directory, JOURNAL_FILE_TEMP)
         this.valueCount = valueCount
         this.maxSize = maxSize
     }
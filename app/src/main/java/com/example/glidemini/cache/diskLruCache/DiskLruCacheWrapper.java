@@ -6,17 +6,29 @@ package com.example.glidemini.cache.diskLruCache;
 
 import android.util.Log;
 
+import androidx.annotation.NonNull;
 import com.example.glidemini.cache.DiskCache;
 import com.example.glidemini.cache.DiskCacheWriteLocker;
 import com.example.glidemini.cache.SafeKeyGenerator;
 import com.example.glidemini.cache.key.Key;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * The default DiskCache implementation. There must be no more than one active instance for a given
  * directory at a time.
  *
+ * <p>Optionally the cache can be split into shards (see {@link #create(File, long, int)}). Keys
+ * hash to one of N independent {@link DiskLruCache}s, each in its own sub directory with its own
+ * journal, entries, size budget and cleanup thread, so that reads and writes of different keys
+ * don't queue behind a single cache monitor.
+ *
+ * <p>Each {@link DiskLruCache} keeps a Bloom filter of the keys it holds, so most misses are
+ * answered without taking the cache monitor or touching the file system. See {@link
+ * #getBloomFilterFalsePositiveRate()}.
+ *
  * @see #get(java.io.File, long)
  */
 public class DiskLruCacheWrapper implements DiskCache {
@@ -24,13 +36,21 @@ public class DiskLruCacheWrapper implements DiskCache {
 
   private static final int APP_VERSION = 1;
   private static final int VALUE_COUNT = 1;
+  private static final String SHARD_DIRECTORY_PREFIX = "shard_";
   private static DiskLruCacheWrapper wrapper;
 
   private final SafeKeyGenerator safeKeyGenerator;
   private final File directory;
   private final long maxSize;
-  private final DiskCacheWriteLocker writeLocker = new DiskCacheWriteLocker();
-  private DiskLruCache diskLruCache;
+  private final int shardCount;
+  private final DiskCacheWriteLocker writeLocker;
+  // Lazily opened, guarded by the matching entry in shardLocks.
+  private final AtomicReferenceArray<DiskLruCache> diskLruCaches;
+  private final Object[] shardLocks;
+  // Gets the Bloom filter answered as definite misses.
+  private final AtomicLong bloomFilterNegatives = new AtomicLong();
+  // Gets the Bloom filter let through for keys the cache holds no entry for.
+  private final AtomicLong bloomFilterFalsePositives = new AtomicLong();
 
   /**
    * Get a DiskCache in the given directory and size. If a disk cache has already been created with
@@ -65,21 +85,131 @@ public class DiskLruCacheWrapper implements DiskCache {
     return new DiskLruCacheWrapper(directory, maxSize);
   }
 
+  /**
+   * Create a new DiskCache in the given directory with a specified max size, split into the given
+   * number of independent shards.
+   *
+   * <p>Each shard lives in its own sub directory and gets an equal share of {@code maxSize}. A
+   * {@code shardCount} of 1 is equivalent to {@link #create(File, long)} and uses the directory
+   * layout of existing caches. Changing the shard count for an existing directory doesn't migrate
+   * entries, so pick one value and keep it.
+   *
+   * @param directory The directory for the disk cache
+   * @param maxSize The max size for the disk cache
+   * @param shardCount The number of shards, must be positive
+   * @return The new disk cache with the given arguments
+   */
+  public static DiskCache create(File directory, long maxSize, int shardCount) {
+    return create(directory, maxSize, shardCount, SafeKeyGenerator.Scheme.SHA_256);
+  }
+
+  /**
+   * Create a new DiskCache like {@link #create(File, long, int)} whose file names are generated
+   * with the given scheme.
+   *
+   * <p>The scheme is recorded in each journal. A cache written with a different scheme is deleted
+   * when it's opened, since none of its entries could be found. {@link
+   * SafeKeyGenerator.Scheme#SHA_256} keeps existing caches.
+   *
+   * @param directory The directory for the disk cache
+   * @param maxSize The max size for the disk cache
+   * @param shardCount The number of shards, must be positive
+   * @param keyScheme The scheme to generate file names with
+   * @return The new disk cache with the given arguments
+   */
+  public static DiskCache create(
+      File directory, long maxSize, int shardCount, SafeKeyGenerator.Scheme keyScheme) {
+    return create(directory, maxSize, shardCount, keyScheme, /*isExactFencing=*/ false);
+  }
+
+  /**
+   * Create a new DiskCache like {@link #create(File, long, int, SafeKeyGenerator.Scheme)} that
+   * optionally fences writes exactly per key.
+   *
+   * <p>By default keys that hash to the same lock stripe serialize their puts. With exact fencing a
+   * put only waits for puts of the same key, at the cost of a little bookkeeping per write. See
+   * {@link DiskCacheWriteLocker}.
+   *
+   * @param directory The directory for the disk cache
+   * @param maxSize The max size for the disk cache
+   * @param shardCount The number of shards, must be positive
+   * @param keyScheme The scheme to generate file names with
+   * @param isExactFencing {@code true} to fence writes per key rather than per lock stripe
+   * @return The new disk cache with the given arguments
+   */
+  public static DiskCache create(
+      File directory,
+      long maxSize,
+      int shardCount,
+      SafeKeyGenerator.Scheme keyScheme,
+      boolean isExactFencing) {
+    return new DiskLruCacheWrapper(directory, maxSize, shardCount, keyScheme, isExactFencing);
+  }
+
   /** @deprecated Do not extend this class. */
   @Deprecated
   // Deprecated public API.
   @SuppressWarnings({"WeakerAccess", "DeprecatedIsStillUsed"})
   protected DiskLruCacheWrapper(File directory, long maxSize) {
+    this(
+        directory,
+        maxSize,
+        /*shardCount=*/ 1,
+        SafeKeyGenerator.Scheme.SHA_256,
+        /*isExactFencing=*/ false);
+  }
+
+  private DiskLruCacheWrapper(
+      File directory,
+      long maxSize,
+      int shardCount,
+      SafeKeyGenerator.Scheme keyScheme,
+      boolean isExactFencing) {
+    if (shardCount <= 0) {
+      throw new IllegalArgumentException("shardCount must be > 0");
+    }
     this.directory = directory;
     this.maxSize = maxSize;
-    this.safeKeyGenerator = new SafeKeyGenerator();
+    this.shardCount = shardCount;
+    this.safeKeyGenerator = new SafeKeyGenerator(keyScheme);
+    this.writeLocker = new DiskCacheWriteLocker(isExactFencing);
+    this.diskLruCaches = new AtomicReferenceArray<>(shardCount);
+    this.shardLocks = new Object[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shardLocks[i] = new Object();
+    }
+  }
+
+  private DiskLruCache getDiskCache(String safeKey) throws IOException {
+    return getDiskCache(shardFor(safeKey));
   }
 
-  private synchronized DiskLruCache getDiskCache() throws IOException {
-    if (diskLruCache == null) {
-      diskLruCache = DiskLruCache.open(directory, APP_VERSION, VALUE_COUNT, maxSize);
+  private DiskLruCache getDiskCache(int shard) throws IOException {
+    DiskLruCache result = diskLruCaches.get(shard);
+    if (result == null) {
+      synchronized (shardLocks[shard]) {
+        result = diskLruCaches.get(shard);
+        if (result == null) {
+          result =
+              DiskLruCache.open(
+                  getShardDirectory(shard),
+                  APP_VERSION,
+                  VALUE_COUNT,
+                  maxSize / shardCount,
+                  safeKeyGenerator.getScheme().getId());
+          diskLruCaches.set(shard, result);
+        }
+      }
     }
-    return diskLruCache;
+    return result;
+  }
+
+  private int shardFor(String safeKey) {
+    return shardCount == 1 ? 0 : (safeKey.hashCode() & Integer.MAX_VALUE) % shardCount;
+  }
+
+  private File getShardDirectory(int shard) {
+    return shardCount == 1 ? directory : new File(directory, SHARD_DIRECTORY_PREFIX + shard);
   }
 
   @Override
@@ -93,9 +223,18 @@ public class DiskLruCacheWrapper implements DiskCache {
       // It is possible that the there will be a put in between these two gets. If so that shouldn't
       // be a problem because we will always put the same value at the same key so our input streams
       // will still represent the same data.
-      final DiskLruCache.Value value = getDiskCache().get(safeKey);
+      DiskLruCache diskCache = getDiskCache(safeKey);
+      if (!diskCache.mightContain(safeKey)) {
+        bloomFilterNegatives.incrementAndGet();
+        return null;
+      }
+      final Value value = diskCache.get(safeKey);
       if (value != null) {
         result = value.getFile(0);
+      } else if (!diskCache.hasReadableEntry(safeKey)) {
+        // Only a key the cache holds no entry for is a false positive. A readable entry whose file
+        // was deleted behind the cache's back is one the filter got right.
+        bloomFilterFalsePositives.incrementAndGet();
       }
     } catch (IOException e) {
       if (Log.isLoggable(TAG, Log.WARN)) {
@@ -105,6 +244,14 @@ public class DiskLruCacheWrapper implements DiskCache {
     return result;
   }
 
+  /**
+   * Writes the entry for the given key unless it's already cached.
+   *
+   * <p>If a streaming edit of the same key is in progress (see {@link #edit(Key)}), the put returns
+   * right away without writing and the entry only becomes readable once that edit is committed.
+   * Puts used to throw an {@link IllegalStateException} in that case, back when an edit held the
+   * key's write lock until it finished and the two could only overlap through a bug.
+   */
   @Override
   public void put(Key key, Writer writer) {
     // We want to make sure that puts block so that data is available when put completes. We may
@@ -118,15 +265,20 @@ public class DiskLruCacheWrapper implements DiskCache {
       try {
         // We assume we only need to put once, so if data was written while we were trying to get
         // the lock, we can simply abort.
-        DiskLruCache diskCache = getDiskCache();
-        Value current = diskCache.get(safeKey);
+        DiskLruCache diskCache = getDiskCache(safeKey);
+        Value current = diskCache.mightContain(safeKey) ? diskCache.get(safeKey) : null;
         if (current != null) {
           return;
         }
 
-        DiskLruCache.Editor editor = diskCache.edit(safeKey);
+        com.example.glidemini.cache.diskLruCache.Editor editor = diskCache.edit(safeKey);
         if (editor == null) {
-          throw new IllegalStateException("Had two simultaneous puts for: " + safeKey);
+          // A streaming edit of the same key is in progress, see edit(Key). It writes the same
+          // data, so there's nothing left to do here.
+          if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Put: Skipping, key is being edited: " + safeKey);
+          }
+          return;
         }
         try {
           File file = editor.getFile(0);
@@ -146,11 +298,59 @@ public class DiskLruCacheWrapper implements DiskCache {
     }
   }
 
+  /**
+   * Starts a streaming edit of the entry for the given key.
+   *
+   * <p>The write lock for the key is only held while the edit is opened, not while it's written,
+   * since the data usually arrives from the network. The open DiskLruCache editor keeps
+   * other writers of the same key out until it's committed or aborted: other edits return {@code
+   * null} and puts return without writing.
+   */
+  @Override
+  public DiskCache.Editor edit(Key key) {
+    String safeKey = safeKeyGenerator.getSafeKey(key);
+    writeLocker.acquire(safeKey);
+    try {
+      DiskLruCache diskCache = getDiskCache(safeKey);
+      if (diskCache.mightContain(safeKey) && diskCache.get(safeKey) != null) {
+        return null;
+      }
+      com.example.glidemini.cache.diskLruCache.Editor editor = diskCache.edit(safeKey);
+      if (editor == null) {
+        // Another edit of the same key is in progress.
+        return null;
+      }
+      return new EntryEditor(editor, editor.getFile(0));
+    } catch (IOException e) {
+      if (Log.isLoggable(TAG, Log.WARN)) {
+        Log.w(TAG, "Unable to edit disk cache", e);
+      }
+      return null;
+    } finally {
+      writeLocker.release(safeKey);
+    }
+  }
+
+  /**
+   * Returns the fraction of lookups for absent keys that the Bloom filter failed to reject, or 0
+   * if there have been none yet.
+   *
+   * <p>Misses for keys the cache does hold an entry for, such as one whose file was deleted
+   * externally, aren't counted. Stale keys of removed or evicted entries count here until the
+   * filter is next rebuilt, either with the journal or once it holds more keys than it was sized
+   * for.
+   */
+  public double getBloomFilterFalsePositiveRate() {
+    long falsePositives = bloomFilterFalsePositives.get();
+    long negatives = bloomFilterNegatives.get() + falsePositives;
+    return negatives == 0 ? 0 : (double) falsePositives / negatives;
+  }
+
   @Override
   public void delete(Key key) {
     String safeKey = safeKeyGenerator.getSafeKey(key);
     try {
-      getDiskCache().remove(safeKey);
+      getDiskCache(safeKey).remove(safeKey);
     } catch (IOException e) {
       if (Log.isLoggable(TAG, Log.WARN)) {
         Log.w(TAG, "Unable to delete from disk cache", e);
@@ -160,21 +360,72 @@ public class DiskLruCacheWrapper implements DiskCache {
 
   @Override
   public synchronized void clear() {
-    try {
-      getDiskCache().delete();
-    } catch (IOException e) {
-      if (Log.isLoggable(TAG, Log.WARN)) {
-        Log.w(TAG, "Unable to clear disk cache or disk cache cleared externally", e);
+    for (int i = 0; i < shardCount; i++) {
+      clearShard(i);
+    }
+  }
+
+  private void clearShard(int shard) {
+    synchronized (shardLocks[shard]) {
+      try {
+        getDiskCache(shard).delete();
+      } catch (IOException e) {
+        if (Log.isLoggable(TAG, Log.WARN)) {
+          Log.w(TAG, "Unable to clear disk cache or disk cache cleared externally", e);
+        }
+      } finally {
+        // Delete can close the cache but still throw. If we don't null out the disk cache here,
+        // every subsequent request will try to act on a closed disk cache and fail. By nulling out
+        // the disk cache we at least allow for attempts to open the cache in the future. See #2465.
+        diskLruCaches.set(shard, null);
       }
-    } finally {
-      // Delete can close the cache but still throw. If we don't null out the disk cache here, every
-      // subsequent request will try to act on a closed disk cache and fail. By nulling out the disk
-      // cache we at least allow for attempts to open the cache in the future. See #2465.
-      resetDiskCache();
     }
   }
 
-  private synchronized void resetDiskCache() {
-    diskLruCache = null;
+  /** Adapts a {@link DiskLruCache} editor to {@link DiskCache.Editor}. */
+  private static final class EntryEditor implements DiskCache.Editor {
+    private final com.example.glidemini.cache.diskLruCache.Editor editor;
+    private final File file;
+    private boolean isDone;
+
+    EntryEditor(com.example.glidemini.cache.diskLruCache.Editor editor, File file) {
+      this.editor = editor;
+      this.file = file;
+    }
+
+    @NonNull
+    @Override
+    public File getFile() {
+      return file;
+    }
+
+    @Override
+    public void commit() {
+      if (isDone) {
+        return;
+      }
+      try {
+        editor.commit();
+      } catch (IOException e) {
+        if (Log.isLoggable(TAG, Log.WARN)) {
+          Log.w(TAG, "Unable to commit to disk cache", e);
+        }
+      } finally {
+        done();
+      }
+    }
+
+    @Override
+    public void abortUnlessCommitted() {
+      if (!isDone) {
+        done();
+      }
+    }
+
+    private void done() {
+      // Also aborts a failed commit, which lets other writers edit the key.
+      editor.abortUnlessCommitted();
+      isDone = true;
+    }
   }
 }
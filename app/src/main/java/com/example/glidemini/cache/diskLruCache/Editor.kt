@@ -6,7 +6,7 @@ import java.io.*
 /**
  * 编辑条目的值
  */
-class Editor(val entry: Entry) {
+class Editor(val entry: Entry, private val cache: DiskLruCache) {
     val written: BooleanArray?
     private var committed = false
 
@@ -40,7 +40,7 @@ class Editor(val entry: Entry) {
                 written!![index] = true
             }
             val dirtyFile = entry.getDirtyFile(index)
-            directory.mkdirs()
+            cache.directory.mkdirs()
             return dirtyFile
         }
     }
@@ -53,7 +53,7 @@ class Editor(val entry: Entry) {
         var writer: Writer? = null
         try {
             val os: OutputStream = FileOutputStream(getFile(index))
-            writer = OutputStreamWriter(os, Util.UTF_8)
+            writer = OutputStreamWriter(os, Charsets.UTF_8)
             writer!!.write(value)
         } finally {
             Util.closeQuietly(writer)
@@ -70,7 +70,7 @@ class Editor(val entry: Entry) {
         // during the write. If there is an error and they call commit
         // anyway, we will assume whatever they managed to write was valid.
         // Normally they should call abort.
-        completeEdit(this, true)
+        cache.completeEdit(this, true)
         committed = true
     }
 
@@ -80,7 +80,7 @@ class Editor(val entry: Entry) {
      */
     @Throws(IOException::class)
     fun abort() {
-        completeEdit(this, false)
+        cache.completeEdit(this, false)
     }
 
     fun abortUnlessCommitted() {
@@ -93,6 +93,6 @@ class Editor(val entry: Entry) {
     }
 
     init {
-        written = if (entry.readable) null else BooleanArray(valueCount)
+        written = if (entry.readable) null else BooleanArray(entry.lengths.size)
     }
 }
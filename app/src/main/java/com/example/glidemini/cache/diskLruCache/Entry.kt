@@ -26,12 +26,12 @@ class Entry(
     var readable = false
 
     //正在进行的编辑;如果该条目未被编辑，则为空。
-    var currentEditor: DiskLruCache.Editor? = null
+    var currentEditor: Editor? = null
 
     /**
      * The sequence number of the most recently committed edit to this entry.
      */
-    val sequenceNumber: Long = 0
+    var sequenceNumber: Long = 0
 
     @Throws(IOException::class)
     fun getLengths(): String {
@@ -74,18 +74,17 @@ class Entry(
 
     init {
         lengths = LongArray(valueCount)
-        cleanFiles = arrayOfNulls(valueCount)
-        dirtyFiles = arrayOfNulls(valueCount)
 
         // The names are repetitive so re-use the same builder to avoid allocations.
         val fileBuilder = StringBuilder(key).append('.')
         val truncateTo = fileBuilder.length
-        for (i in 0 until valueCount) {
-            fileBuilder.append(i)
-            cleanFiles[i] = File(directory, fileBuilder.toString())
-            fileBuilder.append(".tmp")
-            dirtyFiles[i] = File(directory, fileBuilder.toString())
+        cleanFiles = Array(valueCount) { i ->
             fileBuilder.setLength(truncateTo)
+            File(directory, fileBuilder.append(i).toString())
+        }
+        dirtyFiles = Array(valueCount) { i ->
+            fileBuilder.setLength(truncateTo)
+            File(directory, fileBuilder.append(i).append(".tmp").toString())
         }
     }
 }
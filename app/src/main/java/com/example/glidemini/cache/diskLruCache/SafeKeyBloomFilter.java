@@ -0,0 +1,94 @@
+package com.example.glidemini.cache.diskLruCache;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 磁盘缓存中已存在的safe key的布隆过滤器，用来在未命中时跳过磁盘缓存的锁和文件检查
+ *
+ * <p>mightContain返回false时，key一定不在缓存中；返回true时，key可能在缓存中。
+ * 布隆过滤器不支持删除，被移除的key会一直留在过滤器中(只会造成误判，不会漏判)，直到{@link DiskLruCache}重建日志时重建过滤器。
+ *
+ * <p>插入的key超过容量后误判率会迅速上升，{@link #isOverCapacity()}返回true时DiskLruCache会按当前条目数重建过滤器。
+ *
+ * <p>读写都不加锁，写入由DiskLruCache的锁串行化。
+ */
+final class SafeKeyBloomFilter {
+    private static final int BITS_PER_ENTRY = 10;
+    //每个key约10个bit时，7个hash函数的误判率约为1%
+    private static final int HASH_COUNT = 7;
+    private static final int MIN_EXPECTED_ENTRIES = 1024;
+    private static final int MAX_BIT_COUNT = 1 << 30;
+
+    private final AtomicLongArray bits;
+    private final int bitMask;
+    //按每个key约10个bit计算，误判率保持在约1%以内能容纳的key数
+    private final int capacity;
+    //设置了新bit的put次数，近似于插入的不同key数，由DiskLruCache的锁保护
+    private int insertCount;
+
+    //expectedEntries: 当前的条目数，会预留一倍的增长空间
+    SafeKeyBloomFilter(int expectedEntries) {
+        long wanted = (long) Math.max(expectedEntries * 2L, MIN_EXPECTED_ENTRIES) * BITS_PER_ENTRY;
+        int bitCount = 64;
+        while (bitCount < wanted && bitCount < MAX_BIT_COUNT) {
+            bitCount <<= 1;
+        }
+        bits = new AtomicLongArray(bitCount >>> 6);
+        bitMask = bitCount - 1;
+        capacity = bitCount / BITS_PER_ENTRY;
+    }
+
+    void put(@NonNull String key) {
+        long hash = hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        //已经在过滤器中的key(比如同一个key再次提交)不会设置新的bit，不计入插入数
+        boolean isNewKey = false;
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = (h1 + i * h2) & bitMask;
+            int index = bit >>> 6;
+            long mask = 1L << bit;
+            long current;
+            do {
+                current = bits.get(index);
+                if ((current & mask) != 0) {
+                    break;
+                }
+                isNewKey = true;
+            } while (!bits.compareAndSet(index, current, current | mask));
+        }
+        if (isNewKey) {
+            insertCount++;
+        }
+    }
+
+    //插入的key超过容量时返回true，过滤器已达到最大大小时重建也无济于事，返回false
+    boolean isOverCapacity() {
+        return insertCount > capacity && bitMask + 1 < MAX_BIT_COUNT;
+    }
+
+    boolean mightContain(@NonNull String key) {
+        long hash = hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = (h1 + i * h2) & bitMask;
+            if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //FNV-1a 64位hash
+    private static long hash64(@NonNull String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
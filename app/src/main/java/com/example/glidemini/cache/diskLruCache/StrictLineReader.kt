@@ -78,9 +78,11 @@ class StrictLineReader(
             // Let's anticipate up to 80 characters on top of those already read.
             val out: ByteArrayOutputStream = object : ByteArrayOutputStream(end - pos + 80) {
                 override fun toString(): String {
-                    val length = if (count > 0 && buf[count - 1] == CR) count - 1 else count
+                    //这里的buf是ByteArrayOutputStream自己的缓冲，不是外面的局部变量buf
+                    val bytes = this.buf
+                    val length = if (count > 0 && bytes[count - 1] == CR) count - 1 else count
                     return try {
-                        String(buf, 0, length, charset)
+                        String(bytes, 0, length, charset)
                     } catch (e: UnsupportedEncodingException) {
                         throw AssertionError(e) // Since we control the charset this will never happen.
                     }
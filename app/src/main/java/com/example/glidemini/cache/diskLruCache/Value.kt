@@ -10,6 +10,7 @@ import java.io.InputStream
  */
 
 class Value(
+    private val cache: DiskLruCache,
     private val key: String,
     private val sequenceNumber: Long,
     private val files: Array<File>,
@@ -21,8 +22,8 @@ class Value(
      * is in progress.
      */
     @Throws(IOException::class)
-    fun edit(): Editor {
-        return this@DiskLruCache.edit(key, sequenceNumber)
+    fun edit(): Editor? {
+        return cache.edit(key, sequenceNumber)
     }
 
     fun getFile(index: Int): File {
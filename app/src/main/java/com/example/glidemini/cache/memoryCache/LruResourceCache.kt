@@ -7,9 +7,9 @@ import com.example.glidemini.cache.key.Key
 import com.example.glidemini.load.engine.Resource
 
 /**
- * LRU存储资源
+ * LRU存储资源，基于分段加锁的[StripedLruCache]，读不加锁
  */
-class LruResourceCache(size: Long) : LruCache<Key, Resource<*>?>(size), MemoryCache {
+class LruResourceCache(size: Long) : StripedLruCache<Key, Resource<*>?>(size), MemoryCache {
     private var listener: ResourceRemovedListener? = null
 
     override fun setResourceRemovedListener(listener: ResourceRemovedListener) {
@@ -0,0 +1,273 @@
+package com.example.glidemini.cache.memoryCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.glidemini.util.Synthetic;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分段加锁的并发LRU cache，和{@link LruCache}的getSize/onItemEvicted/setSizeMultiplier/trimToSize约定一致
+ *
+ * <p>LruCache所有的get/put都要抢同一把锁，解码线程和主线程在滑动列表时会互相阻塞。这里的做法是：
+ *
+ * <ul>
+ *   <li>读：直接查ConcurrentHashMap，不加锁，只把节点的referenced标记置为true
+ *   <li>写：按key的hash找到对应的segment，只锁这一个segment
+ *   <li>淘汰：每个segment内部按插入顺序排成链表，用CLOCK(second chance)算法近似LRU：
+ *       链表头部的节点如果被访问过，清掉标记挪到尾部，否则淘汰
+ * </ul>
+ *
+ * <p>大小仍然按getSize加权，总大小超过maxSize时，会轮流从各个segment淘汰，直到回到maxSize以内
+ */
+public class StripedLruCache<T, Y> {
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    private final ConcurrentHashMap<T, Node<T, Y>> cache;
+    private final Segment<T, Y>[] segments;
+    private final int segmentMask;
+    //淘汰时轮流选择segment的游标
+    private final AtomicInteger evictionCursor = new AtomicInteger();
+    private final AtomicLong currentSize = new AtomicLong();
+    private final long initialMaxSize;
+    private volatile long maxSize;
+
+    public StripedLruCache(long size) {
+        this(size, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    //concurrencyLevel会向上取整为2的幂，即segment的数量
+    @SuppressWarnings("unchecked")
+    public StripedLruCache(long size, int concurrencyLevel) {
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("Concurrency level must be > 0");
+        }
+        int segmentCount = 1;
+        while (segmentCount < concurrencyLevel) {
+            segmentCount <<= 1;
+        }
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment<>();
+        }
+        this.segmentMask = segmentCount - 1;
+        this.cache = new ConcurrentHashMap<>(100, 0.75f, segmentCount);
+        this.initialMaxSize = size;
+        this.maxSize = size;
+    }
+
+    /**
+     * 设置新的最大大小，为初始大小的倍数
+     */
+    public void setSizeMultiplier(float multiplier) {
+        if (multiplier < 0) {
+            throw new IllegalArgumentException("Multiplier must be >= 0");
+        }
+        maxSize = Math.round(initialMaxSize * multiplier);
+        evict();
+    }
+
+    //一个对象所占的空间，默认为1，子类可以按照图片的大小计算
+    protected int getSize(@Nullable Y item) {
+        return 1;
+    }
+
+    //cache的元素个数
+    protected int getCount() {
+        return cache.size();
+    }
+
+    //缓存数据被移除, 触发回调；不会在持有segment锁的时候调用
+    protected void onItemEvicted(@NonNull T key, @NonNull Y item) {
+        // optional override
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public long getCurrentSize() {
+        return currentSize.get();
+    }
+
+    public boolean contains(@NonNull T key) {
+        return cache.containsKey(key);
+    }
+
+    //无锁读，只标记一下最近被访问过
+    @Nullable
+    public Y get(@NonNull T key) {
+        Node<T, Y> node = cache.get(key);
+        if (node == null) {
+            return null;
+        }
+        node.referenced = true;
+        return node.value;
+    }
+
+    //添加元素，item为null时等同于remove
+    @Nullable
+    public Y put(@NonNull T key, @Nullable Y item) {
+        if (item == null) {
+            return remove(key);
+        }
+        final int itemSize = getSize(item);
+
+        //当前要存储的元素，比总共的存储空间都大，没法处理；那就抛给子类处理吧
+        if (itemSize >= maxSize) {
+            onItemEvicted(key, item);
+            return null;
+        }
+
+        Node<T, Y> node = new Node<>(key, item, itemSize);
+        Node<T, Y> old;
+        Segment<T, Y> segment = segmentFor(key);
+        synchronized (segment) {
+            old = cache.put(key, node);
+            if (old != null) {
+                segment.unlink(old);
+                currentSize.addAndGet(-old.size);
+            }
+            segment.linkLast(node);
+            currentSize.addAndGet(itemSize);
+        }
+
+        if (old != null && !old.value.equals(item)) {
+            onItemEvicted(old.key, old.value);
+        }
+        evict();
+
+        return old != null ? old.value : null;
+    }
+
+    // 移除一个元素
+    @Nullable
+    public Y remove(@NonNull T key) {
+        Segment<T, Y> segment = segmentFor(key);
+        Node<T, Y> removed;
+        synchronized (segment) {
+            removed = cache.remove(key);
+            if (removed == null) {
+                return null;
+            }
+            segment.unlink(removed);
+            currentSize.addAndGet(-removed.size);
+        }
+        return removed.value;
+    }
+
+    public void clearMemory() {
+        trimToSize(0);
+    }
+
+    // 缩容至指定大小，轮流从各个segment中淘汰
+    protected void trimToSize(long size) {
+        int emptySegments = 0;
+        while (currentSize.get() > size && emptySegments < segments.length) {
+            Segment<T, Y> segment =
+                    segments[evictionCursor.getAndIncrement() & segmentMask];
+            Node<T, Y> victim;
+            synchronized (segment) {
+                victim = segment.findVictim();
+                if (victim != null) {
+                    cache.remove(victim.key, victim);
+                    segment.unlink(victim);
+                    currentSize.addAndGet(-victim.size);
+                }
+            }
+            if (victim == null) {
+                //所有segment都为空时退出，避免并发修改下死循环
+                emptySegments++;
+                continue;
+            }
+            emptySegments = 0;
+            onItemEvicted(victim.key, victim.value);
+        }
+    }
+
+    private void evict() {
+        trimToSize(maxSize);
+    }
+
+    private Segment<T, Y> segmentFor(@NonNull T key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return segments[h & segmentMask];
+    }
+
+    /**
+     * 一个segment，维护按插入顺序排列的双向链表，所有字段都由segment自身的锁保护
+     */
+    private static final class Segment<T, Y> {
+        private Node<T, Y> head;
+        private Node<T, Y> tail;
+        private int count;
+
+        @Synthetic
+        Segment() {
+        }
+
+        void linkLast(Node<T, Y> node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            count++;
+        }
+
+        void unlink(Node<T, Y> node) {
+            Node<T, Y> prev = node.prev;
+            Node<T, Y> next = node.next;
+            if (prev == null) {
+                head = next;
+            } else {
+                prev.next = next;
+            }
+            if (next == null) {
+                tail = prev;
+            } else {
+                next.prev = prev;
+            }
+            node.prev = null;
+            node.next = null;
+            count--;
+        }
+
+        //CLOCK算法：被访问过的节点清除标记后移到尾部，给一次机会；最多转一圈，转完还没找到就淘汰头部
+        @Nullable
+        Node<T, Y> findVictim() {
+            Node<T, Y> candidate = head;
+            for (int i = count; i > 0 && candidate.referenced; i--) {
+                candidate.referenced = false;
+                unlink(candidate);
+                linkLast(candidate);
+                candidate = head;
+            }
+            return candidate;
+        }
+    }
+
+    @Synthetic
+    static final class Node<T, Y> {
+        final T key;
+        final Y value;
+        final int size;
+        volatile boolean referenced;
+        Node<T, Y> prev;
+        Node<T, Y> next;
+
+        @Synthetic
+        Node(T key, Y value, int size) {
+            this.key = key;
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.example.glidemini.cache.memoryCache;
+
+import android.content.ComponentCallbacks2;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.glidemini.cache.key.Key;
+import com.example.glidemini.load.engine.Resource;
+import com.example.glidemini.util.Synthetic;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 带频率准入(W-TinyLFU)的资源内存缓存，可以替换{@link LruResourceCache}
+ *
+ * <p>纯LRU在快速滑动长列表时，只出现一次的图片会把头像、图标这类每个页面都会用到的图片挤出去。这里把缓存分成三段：
+ *
+ * <ul>
+ *   <li>window：新放入的资源先进入这里，按LRU淘汰，占总大小的1%
+ *   <li>probation：从window淘汰出来的资源，要和probation头部的资源比较访问频率，频率更高才能进来
+ *   <li>protected：被重复访问过的资源，占main(probation + protected)的80%，溢出的降级到probation
+ * </ul>
+ *
+ * <p>访问频率由{@link FrequencySketch}估算。注意Engine命中内存缓存时调用的是{@link #remove}(资源转移到active
+ * resources)，用完之后再{@link #put}回来，所以每次remove都记为一次访问；remove命中过的资源put回来时，说明资源被重复
+ * 使用过，直接放入protected。这里不能用频率判断：sketch的计数器有碰撞，只访问过一次的key频率也可能大于1
+ *
+ * <p>大小按{@link #getSize}以字节计算
+ */
+public class TinyLfuResourceCache implements MemoryCache {
+    private static final float WINDOW_PERCENT = 0.01f;
+    private static final float PROTECTED_PERCENT = 0.8f;
+    private static final int DEFAULT_EXPECTED_ENTRIES = 1024;
+
+    private final Map<Key, Entry> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, Entry> protectedMap = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    //remove命中、还没有put回来的key，最多记录expectedEntries个，超出时丢弃最早的
+    private final Map<Key, Boolean> hitKeys;
+    private final long initialMaxSize;
+
+    //不在锁里设置，volatile保证淘汰资源的线程能看到
+    @Nullable
+    private volatile ResourceRemovedListener listener;
+    private long maxSize;
+    private long windowMaxSize;
+    private long protectedMaxSize;
+    private long windowSize;
+    private long probationSize;
+    private long protectedSize;
+    private long hitCount;
+    private long missCount;
+
+    public TinyLfuResourceCache(long size) {
+        this(size, DEFAULT_EXPECTED_ENTRIES);
+    }
+
+    //expectedEntries: 预计缓存中同时存在的资源个数，决定频率统计表的大小
+    public TinyLfuResourceCache(long size, int expectedEntries) {
+        this.initialMaxSize = size;
+        this.sketch = new FrequencySketch(expectedEntries);
+        this.hitKeys = new LinkedHashMap<Key, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+                return size() > expectedEntries;
+            }
+        };
+        setMaxSize(size);
+    }
+
+    //一个资源所占的空间，以字节为单位
+    protected int getSize(@NonNull Resource<?> item) {
+        return item.getSize();
+    }
+
+    @Override
+    public synchronized long getCurrentSize() {
+        return windowSize + probationSize + protectedSize;
+    }
+
+    @Override
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    //命中次数，用来统计命中率
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    //未命中次数
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    @Override
+    public synchronized void setSizeMultiplier(float multiplier) {
+        if (multiplier < 0) {
+            throw new IllegalArgumentException("Multiplier must be >= 0");
+        }
+        setMaxSize(Math.round(initialMaxSize * multiplier));
+        trimToSize(maxSize);
+    }
+
+    @Override
+    public void setResourceRemovedListener(@NonNull ResourceRemovedListener listener) {
+        this.listener = listener;
+    }
+
+    //Engine每次查询内存缓存都会调用remove，命中与否都记一次访问
+    @Nullable
+    @Override
+    public synchronized Resource<?> remove(@NonNull Key key) {
+        sketch.increment(key);
+        Entry entry = removeEntry(key);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        hitKeys.put(key, Boolean.TRUE);
+        return entry.value;
+    }
+
+    @Nullable
+    @Override
+    public synchronized Resource<?> put(@NonNull Key key, @Nullable Resource<?> resource) {
+        boolean isReused = hitKeys.remove(key) != null;
+        if (resource == null) {
+            Entry removed = removeEntry(key);
+            return removed != null ? removed.value : null;
+        }
+        final int itemSize = getSize(resource);
+
+        //当前要存储的元素，比总共的存储空间都大，直接回调移除
+        if (itemSize >= maxSize) {
+            notifyRemoved(resource);
+            return null;
+        }
+
+        Entry old = removeEntry(key);
+        if (old != null && !old.value.equals(resource)) {
+            notifyRemoved(old.value);
+        }
+
+        Entry entry = new Entry(key, resource, itemSize);
+        if (isReused) {
+            //被重复使用过的资源，跳过window直接进入protected
+            protectedMap.put(key, entry);
+            protectedSize += itemSize;
+            demoteProtected();
+            evictFromMain();
+        } else {
+            window.put(key, entry);
+            windowSize += itemSize;
+            evictFromWindow();
+        }
+
+        return old != null ? old.value : null;
+    }
+
+    @Override
+    public synchronized void clearMemory() {
+        trimToSize(0);
+    }
+
+    @Override
+    public synchronized void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            // Entering list of cached background apps
+            // Evict our entire bitmap cache
+            clearMemory();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            // The app's UI is no longer visible, or app is in the foreground but system is running
+            // critically low on memory
+            // Evict oldest half of our bitmap cache
+            trimToSize(maxSize / 2);
+        }
+    }
+
+    // 缩容至指定大小，依次从window、probation、protected的头部淘汰
+    protected synchronized void trimToSize(long size) {
+        while (getCurrentSize() > size) {
+            Entry victim;
+            if (!window.isEmpty()) {
+                victim = pollFirst(window);
+                windowSize -= victim.size;
+            } else if (!probation.isEmpty()) {
+                victim = pollFirst(probation);
+                probationSize -= victim.size;
+            } else {
+                victim = pollFirst(protectedMap);
+                protectedSize -= victim.size;
+            }
+            notifyRemoved(victim.value);
+        }
+    }
+
+    private void setMaxSize(long size) {
+        maxSize = size;
+        windowMaxSize = (long) (size * WINDOW_PERCENT);
+        protectedMaxSize = (long) ((size - windowMaxSize) * PROTECTED_PERCENT);
+    }
+
+    //window超出大小时，把头部的资源作为候选者，尝试进入probation
+    private void evictFromWindow() {
+        while (windowSize > windowMaxSize && !window.isEmpty()) {
+            Entry candidate = pollFirst(window);
+            windowSize -= candidate.size;
+            admit(candidate);
+        }
+    }
+
+    /**
+     * 准入判断：如果放入候选者需要淘汰main中的资源，那么候选者的频率必须高于所有要被淘汰的资源，
+     * 否则淘汰候选者自己
+     */
+    private void admit(Entry candidate) {
+        long overflow = getCurrentSize() + candidate.size - maxSize;
+        if (overflow > 0) {
+            int candidateFrequency = sketch.frequency(candidate.key);
+            long freed = 0;
+            int victims = 0;
+            Iterator<Entry> iterator = mainIterator();
+            while (freed < overflow && iterator.hasNext()) {
+                Entry victim = iterator.next();
+                if (sketch.frequency(victim.key) >= candidateFrequency) {
+                    notifyRemoved(candidate.value);
+                    return;
+                }
+                freed += victim.size;
+                victims++;
+            }
+            for (int i = 0; i < victims; i++) {
+                evictFirstFromMain();
+            }
+        }
+        probation.put(candidate.key, candidate);
+        probationSize += candidate.size;
+    }
+
+    //protected超出大小时，头部的资源降级到probation
+    private void demoteProtected() {
+        while (protectedSize > protectedMaxSize && !protectedMap.isEmpty()) {
+            Entry demoted = pollFirst(protectedMap);
+            protectedSize -= demoted.size;
+            probation.put(demoted.key, demoted);
+            probationSize += demoted.size;
+        }
+    }
+
+    private void evictFromMain() {
+        while (getCurrentSize() > maxSize && !(probation.isEmpty() && protectedMap.isEmpty())) {
+            evictFirstFromMain();
+        }
+    }
+
+    private void evictFirstFromMain() {
+        Entry victim;
+        if (!probation.isEmpty()) {
+            victim = pollFirst(probation);
+            probationSize -= victim.size;
+        } else {
+            victim = pollFirst(protectedMap);
+            protectedSize -= victim.size;
+        }
+        notifyRemoved(victim.value);
+    }
+
+    //按淘汰顺序遍历main：先probation，再protected
+    private Iterator<Entry> mainIterator() {
+        final Iterator<Entry> first = probation.values().iterator();
+        final Iterator<Entry> second = protectedMap.values().iterator();
+        return new Iterator<Entry>() {
+            @Override
+            public boolean hasNext() {
+                return first.hasNext() || second.hasNext();
+            }
+
+            @Override
+            public Entry next() {
+                return first.hasNext() ? first.next() : second.next();
+            }
+        };
+    }
+
+    @Nullable
+    private Entry removeEntry(@NonNull Key key) {
+        Entry entry = window.remove(key);
+        if (entry != null) {
+            windowSize -= entry.size;
+            return entry;
+        }
+        entry = probation.remove(key);
+        if (entry != null) {
+            probationSize -= entry.size;
+            return entry;
+        }
+        entry = protectedMap.remove(key);
+        if (entry != null) {
+            protectedSize -= entry.size;
+        }
+        return entry;
+    }
+
+    private static Entry pollFirst(Map<Key, Entry> map) {
+        Iterator<Entry> iterator = map.values().iterator();
+        Entry first = iterator.next();
+        iterator.remove();
+        return first;
+    }
+
+    private void notifyRemoved(@NonNull Resource<?> resource) {
+        ResourceRemovedListener local = listener;
+        if (local != null) {
+            local.onResourceRemoved(resource);
+        }
+    }
+
+    @Synthetic
+    static final class Entry {
+        final Key key;
+        final Resource<?> value;
+        final int size;
+
+        @Synthetic
+        Entry(Key key, Resource<?> value, int size) {
+            this.key = key;
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
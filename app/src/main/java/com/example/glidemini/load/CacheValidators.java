@@ -0,0 +1,296 @@
+package com.example.glidemini.load;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * HTTP validators ({@code ETag} and {@code Last-Modified}) of source data in the disk cache, used
+ * to revalidate expired entries with a conditional request instead of downloading them again.
+ *
+ * <p>Revalidation is enabled per request by setting {@link #MAX_AGE_MILLIS}. Source data fetched
+ * by a {@link ConditionalFetcher} is then cached together with the validators of the response.
+ * Once an entry is older than the response's {@code Cache-Control: max-age}, or {@link
+ * #MAX_AGE_MILLIS} if there was none, the next load asks the server whether it changed. A {@code
+ * 304 Not Modified} response marks the cached entry fresh again without downloading the body,
+ * anything else replaces it.
+ *
+ * <p>With {@link #STALE_WHILE_REVALIDATE}, expired entries are decoded right away and revalidated
+ * in the background, so the load isn't delayed but may show outdated data once.
+ *
+ * <p>Responses without validators are cached with just their age, and are downloaded again in full
+ * once they expire. Entries whose validators are missing, because they were cached before
+ * revalidation was enabled or the validators were evicted separately, are treated as expired.
+ *
+ * <p>Transformed resources derived from source data are cached per {@link #getVersion() version}
+ * of the data, so they're never served for source data that was replaced.
+ */
+public final class CacheValidators {
+  /**
+   * How long cached source data stays fresh when the response didn't include a {@code max-age}.
+   * Defaults to -1, which disables revalidation.
+   */
+  public static final Option<Long> MAX_AGE_MILLIS =
+      Option.memory("com.example.glidemini.load.CacheValidators.MaxAgeMillis", -1L);
+
+  /**
+   * Decode expired source data from the disk cache while it's revalidated in the background,
+   * rather than waiting for the revalidation. Defaults to {@code false}.
+   */
+  public static final Option<Boolean> STALE_WHILE_REVALIDATE =
+      Option.memory("com.example.glidemini.load.CacheValidators.StaleWhileRevalidate", false);
+
+  /** Status code of a response to a conditional request whose cached entry is still valid. */
+  public static final int HTTP_NOT_MODIFIED = 304;
+
+  /** No {@code max-age} was given. */
+  public static final long NO_MAX_AGE = -1;
+
+  private static final int MAGIC = 0x47435656; // "GCVV"
+  private static final int VERSION = 1;
+  private static final Charset CHARSET = Charset.forName("UTF-8");
+  private static final String MAX_AGE_DIRECTIVE = "max-age=";
+
+  /**
+   * A {@link com.example.glidemini.loader.model.DataFetcher} that can make conditional requests.
+   *
+   * <p>A conditional request that finds the cached entry unchanged fails with an {@link
+   * HttpException} with the status code {@link #HTTP_NOT_MODIFIED}.
+   */
+  public interface ConditionalFetcher {
+    /**
+     * Sets the validators of the cached entry to send with the next request, must be called
+     * before {@code loadData}.
+     */
+    void setConditionalValidators(@NonNull CacheValidators validators);
+
+    /**
+     * Returns the validators of the response once data is ready, or {@code null} if it had none.
+     */
+    @Nullable
+    CacheValidators getResponseValidators();
+  }
+
+  @Nullable private final String eTag;
+  @Nullable private final String lastModified;
+  private final long fetchedAtMillis;
+  private final long maxAgeMillis;
+
+  private CacheValidators(
+      @Nullable String eTag,
+      @Nullable String lastModified,
+      long fetchedAtMillis,
+      long maxAgeMillis) {
+    this.eTag = eTag;
+    this.lastModified = lastModified;
+    this.fetchedAtMillis = fetchedAtMillis;
+    this.maxAgeMillis = maxAgeMillis;
+  }
+
+  /**
+   * Returns the validators of a response from its headers. A response with neither an {@code ETag}
+   * nor a {@code Last-Modified} header only records its age, see {@link #hasValidators()}.
+   *
+   * @param cacheControl The {@code Cache-Control} header, for its {@code max-age}.
+   */
+  @NonNull
+  public static CacheValidators fromHeaders(
+      @Nullable String eTag,
+      @Nullable String lastModified,
+      @Nullable String cacheControl,
+      long fetchedAtMillis) {
+    return new CacheValidators(
+        isEmpty(eTag) ? null : eTag,
+        isEmpty(lastModified) ? null : lastModified,
+        fetchedAtMillis,
+        parseMaxAgeMillis(cacheControl));
+  }
+
+  /**
+   * Returns a record of source data fetched at the given time without validators, for sources that
+   * don't provide any.
+   */
+  @NonNull
+  public static CacheValidators withoutValidators(long fetchedAtMillis) {
+    return new CacheValidators(
+        /*eTag=*/ null, /*lastModified=*/ null, fetchedAtMillis, NO_MAX_AGE);
+  }
+
+  /**
+   * Returns {@code true} if a conditional request can be made with these validators, otherwise an
+   * expired entry has to be downloaded again.
+   */
+  public boolean hasValidators() {
+    return eTag != null || lastModified != null;
+  }
+
+  /**
+   * Identifies the cached source data these validators belong to. Revalidating the data keeps its
+   * version, replacing it with a new download changes it.
+   */
+  @NonNull
+  public String getVersion() {
+    if (eTag != null) {
+      return "e" + eTag;
+    } else if (lastModified != null) {
+      return "l" + lastModified;
+    }
+    // Data without validators is never revalidated, only downloaded again.
+    return "t" + fetchedAtMillis;
+  }
+
+  /** The value for the {@code If-None-Match} request header, if any. */
+  @Nullable
+  public String getETag() {
+    return eTag;
+  }
+
+  /** The value for the {@code If-Modified-Since} request header, if any. */
+  @Nullable
+  public String getLastModified() {
+    return lastModified;
+  }
+
+  public long getFetchedAtMillis() {
+    return fetchedAtMillis;
+  }
+
+  /** The {@code max-age} of the response, or {@link #NO_MAX_AGE}. */
+  public long getMaxAgeMillis() {
+    return maxAgeMillis;
+  }
+
+  /**
+   * Returns {@code true} if the entry must be revalidated.
+   *
+   * @param defaultMaxAgeMillis Used when the response had no {@code max-age}.
+   */
+  public boolean isExpired(long nowMillis, long defaultMaxAgeMillis) {
+    long maxAge = maxAgeMillis != NO_MAX_AGE ? maxAgeMillis : defaultMaxAgeMillis;
+    // A clock that moved backwards makes the age unknown, so revalidate.
+    return nowMillis < fetchedAtMillis || nowMillis - fetchedAtMillis >= maxAge;
+  }
+
+  /**
+   * Returns the validators after a {@code 304} response, which may include updated validators and
+   * {@code Cache-Control} that override the cached ones.
+   */
+  @NonNull
+  public CacheValidators refresh(@Nullable CacheValidators response, long nowMillis) {
+    if (response == null) {
+      return new CacheValidators(eTag, lastModified, nowMillis, maxAgeMillis);
+    }
+    return new CacheValidators(
+        response.eTag != null ? response.eTag : eTag,
+        response.lastModified != null ? response.lastModified : lastModified,
+        nowMillis,
+        response.maxAgeMillis != NO_MAX_AGE ? response.maxAgeMillis : maxAgeMillis);
+  }
+
+  @NonNull
+  public byte[] toBytes() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(fetchedAtMillis);
+      out.writeLong(maxAgeMillis);
+      writeString(out, eTag);
+      writeString(out, lastModified);
+    } catch (IOException e) {
+      // ByteArrayOutputStream doesn't throw.
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /** Reads validators written by {@link #toBytes()}, or returns {@code null} if they're invalid. */
+  @Nullable
+  public static CacheValidators fromBytes(@NonNull ByteBuffer data) {
+    ByteBuffer buffer = data.duplicate();
+    try {
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        return null;
+      }
+      long fetchedAtMillis = buffer.getLong();
+      long maxAgeMillis = buffer.getLong();
+      String eTag = readString(buffer);
+      String lastModified = readString(buffer);
+      return new CacheValidators(eTag, lastModified, fetchedAtMillis, maxAgeMillis);
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static void writeString(DataOutputStream out, @Nullable String value)
+      throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = value.getBytes(CHARSET);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  @Nullable
+  private static String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    if (length > buffer.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, CHARSET);
+  }
+
+  // Only max-age matters here, other directives are ignored.
+  private static long parseMaxAgeMillis(@Nullable String cacheControl) {
+    if (cacheControl == null) {
+      return NO_MAX_AGE;
+    }
+    for (String directive : cacheControl.split(",")) {
+      String trimmed = directive.trim().toLowerCase(Locale.US);
+      if (trimmed.equals("no-cache")) {
+        return 0;
+      }
+      if (trimmed.startsWith(MAX_AGE_DIRECTIVE)) {
+        try {
+          long seconds = Long.parseLong(trimmed.substring(MAX_AGE_DIRECTIVE.length()).trim());
+          return seconds < 0 ? NO_MAX_AGE : seconds * 1000;
+        } catch (NumberFormatException e) {
+          return NO_MAX_AGE;
+        }
+      }
+    }
+    return NO_MAX_AGE;
+  }
+
+  private static boolean isEmpty(@Nullable String value) {
+    return value == null || value.isEmpty();
+  }
+
+  @Override
+  public String toString() {
+    return "CacheValidators{"
+        + "eTag="
+        + eTag
+        + ", lastModified="
+        + lastModified
+        + ", fetchedAtMillis="
+        + fetchedAtMillis
+        + ", maxAgeMillis="
+        + maxAgeMillis
+        + '}';
+  }
+}
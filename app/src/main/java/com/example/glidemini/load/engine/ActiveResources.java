@@ -1,77 +1,45 @@
 package com.example.glidemini.load.engine;
 
-import android.os.Process;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import com.example.glidemini.cache.key.Key;
-import com.bumptech.glide.load.engine.EngineResource.ResourceListener;
-import com.bumptech.glide.util.Executors;
+import com.example.glidemini.load.engine.EngineResource.ResourceListener;
 import com.bumptech.glide.util.Preconditions;
 import com.bumptech.glide.util.Synthetic;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadFactory;
-
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resources that are currently in use by at least one request, held weakly.
+ *
+ * <p>Lookups and updates don't take a lock. Instead of a dedicated thread blocking on the {@link
+ * ReferenceQueue}, cleared references are drained opportunistically by {@link
+ * #drainReferenceQueue()}, which {@link Engine} calls on the load path.
+ */
 final class ActiveResources {
   private final boolean isActiveResourceRetentionAllowed;
-  private final Executor monitorClearedResourcesExecutor;
-  @VisibleForTesting final Map<Key, ResourceWeakReference> activeEngineResources = new HashMap<>();
+
+  @VisibleForTesting
+  final Map<Key, ResourceWeakReference> activeEngineResources = new ConcurrentHashMap<>();
+
   private final ReferenceQueue<EngineResource<?>> resourceReferenceQueue = new ReferenceQueue<>();
 
-  private ResourceListener listener;
+  private volatile ResourceListener listener;
 
-  private volatile boolean isShutdown;
   @Nullable private volatile DequeuedResourceCallback cb;
 
   ActiveResources(boolean isActiveResourceRetentionAllowed) {
-    this(
-        isActiveResourceRetentionAllowed,
-        java.util.concurrent.Executors.newSingleThreadExecutor(
-            new ThreadFactory() {
-              @Override
-              public Thread newThread(@NonNull final Runnable r) {
-                return new Thread(
-                    new Runnable() {
-                      @Override
-                      public void run() {
-                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-                        r.run();
-                      }
-                    },
-                    "glide-active-resources");
-              }
-            }));
-  }
-
-  @VisibleForTesting
-  ActiveResources(
-      boolean isActiveResourceRetentionAllowed, Executor monitorClearedResourcesExecutor) {
     this.isActiveResourceRetentionAllowed = isActiveResourceRetentionAllowed;
-    this.monitorClearedResourcesExecutor = monitorClearedResourcesExecutor;
-
-    monitorClearedResourcesExecutor.execute(
-        new Runnable() {
-          @Override
-          public void run() {
-            cleanReferenceQueue();
-          }
-        });
   }
 
   void setListener(ResourceListener listener) {
-    synchronized (listener) {
-      synchronized (this) {
-        this.listener = listener;
-      }
-    }
+    this.listener = listener;
   }
 
-  synchronized void activate(Key key, EngineResource<?> resource) {
+  void activate(Key key, EngineResource<?> resource) {
     ResourceWeakReference toPut =
         new ResourceWeakReference(
             key, resource, resourceReferenceQueue, isActiveResourceRetentionAllowed);
@@ -82,7 +50,7 @@ final class ActiveResources {
     }
   }
 
-  synchronized void deactivate(Key key) {
+  void deactivate(Key key) {
     ResourceWeakReference removed = activeEngineResources.remove(key);
     if (removed != null) {
       removed.reset();
@@ -90,7 +58,7 @@ final class ActiveResources {
   }
 
   @Nullable
-  synchronized EngineResource<?> get(Key key) {
+  EngineResource<?> get(Key key) {
     ResourceWeakReference activeRef = activeEngineResources.get(key);
     if (activeRef == null) {
       return null;
@@ -103,40 +71,40 @@ final class ActiveResources {
     return active;
   }
 
-  @SuppressWarnings({"WeakerAccess", "SynchronizeOnNonFinalField"})
+  @SuppressWarnings("WeakerAccess")
   @Synthetic
   void cleanupActiveReference(@NonNull ResourceWeakReference ref) {
-    synchronized (this) {
-      activeEngineResources.remove(ref.key);
-
-      if (!ref.isCacheable || ref.resource == null) {
-        return;
-      }
+    // Only the thread that removes the reference hands its resource back, so a reference that is
+    // both polled from the queue and found cleared in get() is released once.
+    if (!activeEngineResources.remove(ref.key, ref)) {
+      return;
+    }
+    Resource<?> resource = ref.resource;
+    if (!ref.isCacheable || resource == null) {
+      return;
     }
 
     EngineResource<?> newResource =
         new EngineResource<>(
-            ref.resource, /*isMemoryCacheable=*/ true, /*isRecyclable=*/ false, ref.key, listener);
+            resource, /*isMemoryCacheable=*/ true, /*isRecyclable=*/ false, ref.key, listener);
     listener.onResourceReleased(ref.key, newResource);
   }
 
-  @SuppressWarnings("WeakerAccess")
-  @Synthetic
-  void cleanReferenceQueue() {
-    while (!isShutdown) {
-      try {
-        ResourceWeakReference ref = (ResourceWeakReference) resourceReferenceQueue.remove();
-        cleanupActiveReference(ref);
-
-        // This section for testing only.
-        DequeuedResourceCallback current = cb;
-        if (current != null) {
-          current.onResourceDequeued();
-        }
-        // End for testing only.
-      } catch (InterruptedException e) {
-        Thread.currentThread().interrupt();
+  /**
+   * Releases the resources of any active references that have been garbage collected without
+   * being released by their requests. Never blocks.
+   */
+  void drainReferenceQueue() {
+    ResourceWeakReference ref;
+    while ((ref = (ResourceWeakReference) resourceReferenceQueue.poll()) != null) {
+      cleanupActiveReference(ref);
+
+      // This section for testing only.
+      DequeuedResourceCallback current = cb;
+      if (current != null) {
+        current.onResourceDequeued();
       }
+      // End for testing only.
     }
   }
 
@@ -152,11 +120,7 @@ final class ActiveResources {
 
   @VisibleForTesting
   void shutdown() {
-    isShutdown = true;
-    if (monitorClearedResourcesExecutor instanceof ExecutorService) {
-      ExecutorService service = (ExecutorService) monitorClearedResourcesExecutor;
-      Executors.shutdownAndAwaitTermination(service);
-    }
+    drainReferenceQueue();
   }
 
   @VisibleForTesting
@@ -172,7 +136,7 @@ final class ActiveResources {
     @Nullable
     @SuppressWarnings("WeakerAccess")
     @Synthetic
-    Resource<?> resource;
+    volatile Resource<?> resource;
 
     @Synthetic
     @SuppressWarnings("WeakerAccess")
@@ -0,0 +1,45 @@
+package com.example.glidemini.load.engine;
+
+import androidx.annotation.NonNull;
+import com.example.glidemini.cache.key.Key;
+import java.security.MessageDigest;
+
+/**
+ * A cache key for the {@link com.example.glidemini.load.CacheValidators} of the source data cached
+ * under a {@link DataCacheKey}.
+ */
+final class CacheValidatorsKey implements Key {
+  private static final byte[] ID_BYTES =
+      "com.example.glidemini.load.engine.CacheValidatorsKey".getBytes(CHARSET);
+
+  private final DataCacheKey dataCacheKey;
+
+  CacheValidatorsKey(DataCacheKey dataCacheKey) {
+    this.dataCacheKey = dataCacheKey;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o instanceof CacheValidatorsKey) {
+      CacheValidatorsKey other = (CacheValidatorsKey) o;
+      return dataCacheKey.equals(other.dataCacheKey);
+    }
+    return false;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * dataCacheKey.hashCode() + 17;
+  }
+
+  @Override
+  public String toString() {
+    return "CacheValidatorsKey{" + "dataCacheKey=" + dataCacheKey + '}';
+  }
+
+  @Override
+  public void updateDiskCacheKey(@NonNull MessageDigest messageDigest) {
+    dataCacheKey.updateDiskCacheKey(messageDigest);
+    messageDigest.update(ID_BYTES);
+  }
+}
@@ -1,45 +1,64 @@
 package com.example.glidemini.load.engine;
 
+import android.util.Log;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.example.glidemini.cache.DiskCache;
+import com.example.glidemini.load.CacheValidators;
 import com.example.glidemini.load.DataSource;
 import com.example.glidemini.cache.key.Key;
-import com.bumptech.glide.load.data.DataFetcher;
-import com.bumptech.glide.load.model.ModelLoader;
-import com.bumptech.glide.load.model.ModelLoader.LoadData;
+import com.example.glidemini.loader.model.DataFetcher;
+import com.example.glidemini.loader.model.LoadData;
+import com.example.glidemini.loader.model.ModelLoader;
 import com.bumptech.glide.util.pool.GlideTrace;
+import com.example.glidemini.util.ByteBufferUtil;
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
- * Generates {@link com.bumptech.glide.load.data.DataFetcher DataFetchers} from cache files
- * containing original unmodified source data.
+ * Generates {@link DataFetcher DataFetchers} from cache files containing original unmodified
+ * source data.
  */
 class DataCacheGenerator implements DataFetcherGenerator, DataFetcher.DataCallback<Object> {
+  private static final String TAG = "DataCacheGenerator";
 
   private final List<Key> cacheKeys;
   private final DecodeHelper<?> helper;
   private final FetcherReadyCallback cb;
+  // False when loading an entry the source generator just wrote or revalidated.
+  private final boolean isExpiryChecked;
 
   private int sourceIdIndex = -1;
   private Key sourceKey;
-  private List<ModelLoader<File, ?>> modelLoaders;
+  private List<ModelLoader<Object, ?>> modelLoaders;
   private int modelLoaderIndex;
   private volatile LoadData<?> loadData;
-  // PMD is wrong here, this File must be an instance variable because it may be used across
-  // multiple calls to startNext.
+  // PMD is wrong here, this must be an instance variable because it may be used across multiple
+  // calls to startNext. Either a read-only ByteBuffer mapping of the cache entry or the cache File.
   @SuppressWarnings("PMD.SingularField")
-  private File cacheFile;
+  private Object cacheData;
 
   DataCacheGenerator(DecodeHelper<?> helper, FetcherReadyCallback cb) {
-    this(helper.getCacheKeys(), helper, cb);
+    this(helper.getCacheKeys(), helper, cb, /*isExpiryChecked=*/ true);
   }
 
   // In some cases we may want to load a specific cache key (when loading from source written to
   // cache), so we accept a list of keys rather than just obtain the list from the helper.
   DataCacheGenerator(List<Key> cacheKeys, DecodeHelper<?> helper, FetcherReadyCallback cb) {
+    this(cacheKeys, helper, cb, /*isExpiryChecked=*/ false);
+  }
+
+  private DataCacheGenerator(
+      List<Key> cacheKeys,
+      DecodeHelper<?> helper,
+      FetcherReadyCallback cb,
+      boolean isExpiryChecked) {
     this.cacheKeys = cacheKeys;
     this.helper = helper;
     this.cb = cb;
+    this.isExpiryChecked = isExpiryChecked;
   }
 
   @Override
@@ -56,11 +75,14 @@ class DataCacheGenerator implements DataFetcherGenerator, DataFetcher.DataCallba
         // PMD.AvoidInstantiatingObjectsInLoops The loop iterates a limited number of times
         // and the actions it performs are much more expensive than a single allocation.
         @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
-        Key originalKey = new DataCacheKey(sourceId, helper.getSignature());
-        cacheFile = helper.getDiskCache().get(originalKey);
-        if (cacheFile != null) {
+        DataCacheKey originalKey = new DataCacheKey(sourceId, helper.getSignature());
+        cacheData = getCacheData(originalKey);
+        if (cacheData != null && isExpired(originalKey)) {
+          cacheData = null;
+        }
+        if (cacheData != null) {
           this.sourceKey = sourceId;
-          modelLoaders = helper.getModelLoaders(cacheFile);
+          modelLoaders = helper.getModelLoaders(cacheData);
           modelLoaderIndex = 0;
         }
       }
@@ -68,13 +90,13 @@ class DataCacheGenerator implements DataFetcherGenerator, DataFetcher.DataCallba
       loadData = null;
       boolean started = false;
       while (!started && hasNextModelLoader()) {
-        ModelLoader<File, ?> modelLoader = modelLoaders.get(modelLoaderIndex++);
+        ModelLoader<Object, ?> modelLoader = modelLoaders.get(modelLoaderIndex++);
         loadData =
             modelLoader.buildLoadData(
-                cacheFile, helper.getWidth(), helper.getHeight(), helper.getOptions());
-        if (loadData != null && helper.hasLoadPath(loadData.fetcher.getDataClass())) {
+                cacheData, helper.getWidth(), helper.getHeight(), helper.getOptions());
+        if (loadData != null && helper.hasLoadPath(loadData.getFetcher().getDataClass())) {
           started = true;
-          loadData.fetcher.loadData(helper.getPriority(), this);
+          loadData.getFetcher().loadData(helper.getPriority(), this);
         }
       }
       return started;
@@ -83,6 +105,64 @@ class DataCacheGenerator implements DataFetcherGenerator, DataFetcher.DataCallba
     }
   }
 
+  @Nullable
+  private Object getCacheData(Key key) {
+    return getCacheData(helper.getDiskCache(), key, helper.hasLoadPath(ByteBuffer.class));
+  }
+
+  /**
+   * Returns the cached data for the given key, or {@code null} if there is none, looking the key up
+   * only once.
+   *
+   * <p>If {@code isBufferPreferred}, the cache file is mapped read only, so decoders read straight
+   * from the page cache instead of streaming the File into heap buffers. The File is returned if it
+   * can't be mapped. Caches that don't keep entries in their own files, like {@link
+   * com.example.glidemini.cache.SegmentedDiskCache}, can only be read as buffers.
+   */
+  @Nullable
+  static Object getCacheData(DiskCache diskCache, Key key, boolean isBufferPreferred) {
+    File file = diskCache.get(key);
+    if (file == null) {
+      return isBufferPreferred ? diskCache.getBuffer(key) : null;
+    }
+    if (!isBufferPreferred) {
+      return file;
+    }
+    try {
+      return ByteBufferUtil.fromFile(file);
+    } catch (IOException e) {
+      if (Log.isLoggable(TAG, Log.DEBUG)) {
+        Log.d(TAG, "Unable to map disk cache file, falling back to the File", e);
+      }
+      return file;
+    }
+  }
+
+  /**
+   * Returns {@code true} if the given cached entry has to be revalidated before it's decoded, in
+   * which case the source generator makes a conditional request for it. See {@link
+   * CacheValidators}.
+   */
+  private boolean isExpired(DataCacheKey key) {
+    if (!isExpiryChecked || !helper.isRevalidationEnabled()) {
+      return false;
+    }
+    CacheValidators validators = helper.getSourceValidators(key);
+    if (!helper.isExpired(validators)) {
+      return false;
+    }
+    if (validators == null) {
+      // The validators were evicted, or the entry was cached before revalidation was enabled.
+      validators = CacheValidators.withoutValidators(/*fetchedAtMillis=*/ 0);
+    }
+    if (helper.isStaleWhileRevalidate()) {
+      helper.revalidateInBackground(key, validators);
+      return false;
+    }
+    helper.setStaleEntry(key, validators);
+    return true;
+  }
+
   private boolean hasNextModelLoader() {
     return modelLoaderIndex < modelLoaders.size();
   }
@@ -91,17 +171,18 @@ class DataCacheGenerator implements DataFetcherGenerator, DataFetcher.DataCallba
   public void cancel() {
     LoadData<?> local = loadData;
     if (local != null) {
-      local.fetcher.cancel();
+      local.getFetcher().cancel();
     }
   }
 
   @Override
   public void onDataReady(Object data) {
-    cb.onDataFetcherReady(sourceKey, data, loadData.fetcher, DataSource.DATA_DISK_CACHE, sourceKey);
+    cb.onDataFetcherReady(
+        sourceKey, data, loadData.getFetcher(), DataSource.DATA_DISK_CACHE, sourceKey);
   }
 
   @Override
   public void onLoadFailed(@NonNull Exception e) {
-    cb.onDataFetcherFailed(sourceKey, e, loadData.fetcher, DataSource.DATA_DISK_CACHE);
+    cb.onDataFetcherFailed(sourceKey, e, loadData.getFetcher(), DataSource.DATA_DISK_CACHE);
   }
 }
@@ -1,9 +1,9 @@
 package com.example.glidemini.load.engine;
 
 import androidx.annotation.NonNull;
+import com.example.glidemini.cache.DiskCache;
 import com.example.glidemini.load.Encoder;
 import com.example.glidemini.load.Options;
-import com.bumptech.glide.load.engine.cache.DiskCache;
 import com.example.glidemini.load.ResourceEncoder;
 
 import java.io.File;
@@ -11,7 +11,7 @@ import java.io.File;
 /**
  * Writes original source data or downsampled/transformed resource data to cache using the provided
  * {@link Encoder} or {@link ResourceEncoder} and
- * the given data or {@link com.bumptech.glide.load.engine.Resource}.
+ * the given data or {@link Resource}.
  *
  * @param <DataType> The type of data that will be encoded (InputStream, ByteBuffer,
  *     Resource<Bitmap> etc).
@@ -3,16 +3,15 @@ package com.example.glidemini.load.engine;
 import androidx.annotation.Nullable;
 import com.example.glidemini.load.DataSource;
 import com.example.glidemini.cache.key.Key;
-import com.bumptech.glide.load.data.DataFetcher;
+import com.example.glidemini.loader.model.DataFetcher;
 
 /**
- * Generates a series of {@link com.bumptech.glide.load.data.DataFetcher DataFetchers} using
- * registered {@link com.bumptech.glide.load.model.ModelLoader ModelLoaders} and a model.
+ * Generates a series of {@link DataFetcher DataFetchers} using registered {@link
+ * com.example.glidemini.loader.model.ModelLoader ModelLoaders} and a model.
  */
 interface DataFetcherGenerator {
   /**
-   * Called when the generator has finished loading data from a {@link
-   * com.bumptech.glide.load.data.DataFetcher}.
+   * Called when the generator has finished loading data from a {@link DataFetcher}.
    */
   interface FetcherReadyCallback {
 
@@ -48,8 +47,8 @@ interface DataFetcherGenerator {
   }
 
   /**
-   * Attempts to a single new {@link com.bumptech.glide.load.data.DataFetcher} and returns true if a
-   * {@link com.bumptech.glide.load.data.DataFetcher} was started, and false otherwise.
+   * Attempts to a single new {@link DataFetcher} and returns true if a {@link DataFetcher} was
+   * started, and false otherwise.
    */
   boolean startNext();
 
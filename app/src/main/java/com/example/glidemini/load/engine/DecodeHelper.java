@@ -1,22 +1,24 @@
 package com.example.glidemini.load.engine;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import com.bumptech.glide.GlideContext;
-import com.bumptech.glide.Priority;
+import com.example.glidemini.loader.model.Priority;
 import com.bumptech.glide.Registry;
+import com.example.glidemini.load.CacheValidators;
 import com.example.glidemini.load.Encoder;
 import com.example.glidemini.cache.key.Key;
 import com.example.glidemini.load.Options;
 import com.example.glidemini.load.ResourceEncoder;
 import com.example.glidemini.load.Transformation;
 import com.bumptech.glide.load.data.DataRewinder;
-import com.bumptech.glide.load.engine.DecodeJob.DiskCacheProvider;
-import com.bumptech.glide.load.engine.bitmap_recycle.ArrayPool;
-import com.bumptech.glide.load.engine.cache.DiskCache;
-import com.bumptech.glide.load.model.ModelLoader;
-import com.bumptech.glide.load.model.ModelLoader.LoadData;
+import com.example.glidemini.bitmapRecycle.ArrayPool;
+import com.example.glidemini.cache.DiskCache;
+import com.example.glidemini.loader.model.LoadData;
+import com.example.glidemini.loader.model.ModelLoader;
 import com.example.glidemini.load.resource.UnitTransformation;
-import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -42,6 +44,14 @@ final class DecodeHelper<Transcode> {
   private DiskCacheStrategy diskCacheStrategy;
   private boolean isTransformationRequired;
   private boolean isScaleOnlyOrNoTransform;
+  private boolean onlyRetrieveFromCache;
+  private SourceRevalidator sourceRevalidator;
+  private SourceFetchCoalescer sourceFetchCoalescer;
+  // An expired entry DataCacheGenerator skipped, for SourceGenerator to revalidate.
+  @Nullable private DataCacheKey staleKey;
+  @Nullable private CacheValidators staleValidators;
+  // Validators of cached source data read or written by this load, null values for none.
+  private final Map<DataCacheKey, CacheValidators> sourceValidators = new HashMap<>();
 
   @SuppressWarnings("unchecked")
   <R> void init(
@@ -58,7 +68,10 @@ final class DecodeHelper<Transcode> {
       Map<Class<?>, Transformation<?>> transformations,
       boolean isTransformationRequired,
       boolean isScaleOnlyOrNoTransform,
-      DiskCacheProvider diskCacheProvider) {
+      boolean onlyRetrieveFromCache,
+      DecodeJob.DiskCacheProvider diskCacheProvider,
+      SourceRevalidator sourceRevalidator,
+      SourceFetchCoalescer sourceFetchCoalescer) {
     this.glideContext = glideContext;
     this.model = model;
     this.signature = signature;
@@ -73,6 +86,9 @@ final class DecodeHelper<Transcode> {
     this.transformations = transformations;
     this.isTransformationRequired = isTransformationRequired;
     this.isScaleOnlyOrNoTransform = isScaleOnlyOrNoTransform;
+    this.onlyRetrieveFromCache = onlyRetrieveFromCache;
+    this.sourceRevalidator = sourceRevalidator;
+    this.sourceFetchCoalescer = sourceFetchCoalescer;
   }
 
   void clear() {
@@ -85,6 +101,9 @@ final class DecodeHelper<Transcode> {
     priority = null;
     transformations = null;
     diskCacheStrategy = null;
+    staleKey = null;
+    staleValidators = null;
+    sourceValidators.clear();
 
     loadData.clear();
     isLoadDataSet = false;
@@ -104,6 +123,10 @@ final class DecodeHelper<Transcode> {
     return glideContext.getRegistry().getRewinder(data);
   }
 
+  SourceFetchCoalescer getSourceFetchCoalescer() {
+    return sourceFetchCoalescer;
+  }
+
   Priority getPriority() {
     return priority;
   }
@@ -188,9 +211,10 @@ final class DecodeHelper<Transcode> {
     return glideContext.getRegistry().getResultEncoder(resource);
   }
 
-  List<ModelLoader<File, ?>> getModelLoaders(File file)
+  // The model is either a cache File or a ByteBuffer read from the disk cache.
+  List<ModelLoader<Object, ?>> getModelLoaders(Object cacheData)
       throws Registry.NoModelLoaderAvailableException {
-    return glideContext.getRegistry().getModelLoaders(file);
+    return glideContext.getRegistry().getModelLoaders(cacheData);
   }
 
   boolean isSourceKey(Key key) {
@@ -198,7 +222,7 @@ final class DecodeHelper<Transcode> {
     //noinspection ForLoopReplaceableByForEach to improve perf
     for (int i = 0, size = loadData.size(); i < size; i++) {
       LoadData<?> current = loadData.get(i);
-      if (current.sourceKey.equals(key)) {
+      if (current.getSourceKey().equals(key)) {
         return true;
       }
     }
@@ -230,12 +254,13 @@ final class DecodeHelper<Transcode> {
       //noinspection ForLoopReplaceableByForEach to improve perf
       for (int i = 0, size = loadData.size(); i < size; i++) {
         LoadData<?> data = loadData.get(i);
-        if (!cacheKeys.contains(data.sourceKey)) {
-          cacheKeys.add(data.sourceKey);
+        if (!cacheKeys.contains(data.getSourceKey())) {
+          cacheKeys.add(data.getSourceKey());
         }
-        for (int j = 0; j < data.alternateKeys.size(); j++) {
-          if (!cacheKeys.contains(data.alternateKeys.get(j))) {
-            cacheKeys.add(data.alternateKeys.get(j));
+        List<Key> alternateKeys = data.getAlternateKeys();
+        for (int j = 0; j < alternateKeys.size(); j++) {
+          if (!cacheKeys.contains(alternateKeys.get(j))) {
+            cacheKeys.add(alternateKeys.get(j));
           }
         }
       }
@@ -246,4 +271,86 @@ final class DecodeHelper<Transcode> {
   <X> Encoder<X> getSourceEncoder(X data) throws Registry.NoSourceEncoderAvailableException {
     return glideContext.getRegistry().getSourceEncoder(data);
   }
+
+  boolean isRevalidationEnabled() {
+    return options.get(CacheValidators.MAX_AGE_MILLIS) >= 0;
+  }
+
+  /**
+   * Returns {@code true} if expired source data should be decoded while it's revalidated in the
+   * background, rather than revalidated first. Loads that can't go to the source always do so.
+   */
+  boolean isStaleWhileRevalidate() {
+    return onlyRetrieveFromCache || options.get(CacheValidators.STALE_WHILE_REVALIDATE);
+  }
+
+  void revalidateInBackground(DataCacheKey key, CacheValidators validators) {
+    sourceRevalidator.revalidate(
+        new RegistryComponents(glideContext.getRegistry()),
+        model,
+        width,
+        height,
+        options,
+        key,
+        validators);
+  }
+
+  /**
+   * Returns the validators of the given cached source data, or {@code null} if there are none.
+   * Only read from the disk cache once per load.
+   */
+  @Nullable
+  CacheValidators getSourceValidators(DataCacheKey key) {
+    if (sourceValidators.containsKey(key)) {
+      return sourceValidators.get(key);
+    }
+    CacheValidators result = SourceRevalidator.read(getDiskCache(), key);
+    sourceValidators.put(key, result);
+    return result;
+  }
+
+  /** Called once the validators of the given source data were replaced in the disk cache. */
+  void setSourceValidators(DataCacheKey key, @Nullable CacheValidators validators) {
+    sourceValidators.put(key, validators);
+  }
+
+  /**
+   * Returns {@code true} if the given cached source data must be revalidated before it's used.
+   * Entries without validators are expired, their age is unknown.
+   */
+  boolean isExpired(@Nullable CacheValidators validators) {
+    return validators == null
+        || validators.isExpired(
+            System.currentTimeMillis(), options.get(CacheValidators.MAX_AGE_MILLIS));
+  }
+
+  void setStaleEntry(DataCacheKey key, CacheValidators validators) {
+    staleKey = key;
+    staleValidators = validators;
+  }
+
+  /** Returns the validators of the given entry if it was skipped because it expired. */
+  @Nullable
+  CacheValidators getStaleValidators(DataCacheKey key) {
+    return key.equals(staleKey) ? staleValidators : null;
+  }
+
+  /** Looks up the components of a background revalidation in the {@link Registry}. */
+  private static final class RegistryComponents implements SourceRevalidator.Components {
+    private final Registry registry;
+
+    RegistryComponents(Registry registry) {
+      this.registry = registry;
+    }
+
+    @Override
+    public List<ModelLoader<Object, ?>> getModelLoaders(@NonNull Object model) {
+      return registry.getModelLoaders(model);
+    }
+
+    @Override
+    public <X> Encoder<X> getSourceEncoder(@NonNull X data) {
+      return registry.getSourceEncoder(data);
+    }
+  }
 }
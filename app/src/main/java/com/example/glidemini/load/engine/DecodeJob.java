@@ -3,25 +3,33 @@ package com.example.glidemini.load.engine;
 import android.os.Build;
 import android.util.Log;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.core.util.Pools;
 import com.bumptech.glide.GlideContext;
-import com.bumptech.glide.Priority;
+import com.example.glidemini.loader.model.Priority;
+import com.example.glidemini.load.engine.executor.PrioritizedTask;
+import com.example.glidemini.util.ByteBufferUtil;
 import com.bumptech.glide.Registry;
+import com.example.glidemini.load.CacheValidators;
 import com.example.glidemini.load.DataSource;
 import com.example.glidemini.load.EncodeStrategy;
+import com.example.glidemini.cache.DiskCache;
 import com.example.glidemini.cache.key.Key;
 import com.example.glidemini.load.Options;
 import com.example.glidemini.load.ResourceEncoder;
 import com.example.glidemini.load.Transformation;
-import com.bumptech.glide.load.data.DataFetcher;
+import com.example.glidemini.loader.model.DataFetcher;
 import com.bumptech.glide.load.data.DataRewinder;
-import com.bumptech.glide.load.engine.cache.DiskCache;
 import com.example.glidemini.load.resource.bitmap.Downsampler;
 import com.bumptech.glide.util.LogTime;
 import com.bumptech.glide.util.Synthetic;
 import com.bumptech.glide.util.pool.FactoryPools.Poolable;
 import com.bumptech.glide.util.pool.GlideTrace;
 import com.bumptech.glide.util.pool.StateVerifier;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -37,7 +45,7 @@ import java.util.Map;
  */
 class DecodeJob<R>
     implements DataFetcherGenerator.FetcherReadyCallback,
-        Runnable,
+        PrioritizedTask,
         Comparable<DecodeJob<?>>,
         Poolable {
   private static final String TAG = "DecodeJob";
@@ -46,13 +54,17 @@ class DecodeJob<R>
   private final List<Throwable> throwables = new ArrayList<>();
   private final StateVerifier stateVerifier = StateVerifier.newInstance();
   private final DiskCacheProvider diskCacheProvider;
+  private final ResourceEncodeQueue encodeQueue;
+  private final SourceRevalidator sourceRevalidator;
+  private final SourceFetchCoalescer sourceFetchCoalescer;
   private final Pools.Pool<DecodeJob<?>> pool;
   private final DeferredEncodeManager<?> deferredEncodeManager = new DeferredEncodeManager<>();
   private final ReleaseManager releaseManager = new ReleaseManager();
 
   private GlideContext glideContext;
   private Key signature;
-  private Priority priority;
+  // Read by the executor's queue, and raised by raisePriority, on other threads.
+  private volatile Priority priority;
   private EngineKey loadKey;
   private int width;
   private int height;
@@ -77,9 +89,22 @@ class DecodeJob<R>
   private volatile boolean isCallbackNotified;
   private volatile boolean isCancelled;
   private boolean isLoadingFromAlternateCacheKey;
-
-  DecodeJob(DiskCacheProvider diskCacheProvider, Pools.Pool<DecodeJob<?>> pool) {
+  // Set while the job waits for, or runs on, the decode stage of a staged source executor.
+  private volatile boolean isOnDecodeStage;
+  // Read by HedgedDecode to decide whether the disk cache missed its deadline.
+  private volatile boolean hasRetrievedData;
+  private boolean isSourceOnly;
+
+  DecodeJob(
+      DiskCacheProvider diskCacheProvider,
+      ResourceEncodeQueue encodeQueue,
+      SourceRevalidator sourceRevalidator,
+      SourceFetchCoalescer sourceFetchCoalescer,
+      Pools.Pool<DecodeJob<?>> pool) {
     this.diskCacheProvider = diskCacheProvider;
+    this.encodeQueue = encodeQueue;
+    this.sourceRevalidator = sourceRevalidator;
+    this.sourceFetchCoalescer = sourceFetchCoalescer;
     this.pool = pool;
   }
 
@@ -115,7 +140,10 @@ class DecodeJob<R>
         transformations,
         isTransformationRequired,
         isScaleOnlyOrNoTransform,
-        diskCacheProvider);
+        onlyRetrieveFromCache,
+        diskCacheProvider,
+        sourceRevalidator,
+        sourceFetchCoalescer);
     this.glideContext = glideContext;
     this.signature = signature;
     this.priority = priority;
@@ -132,6 +160,25 @@ class DecodeJob<R>
     return this;
   }
 
+  /**
+   * Makes this job skip the disk cache and start loading from source right away, for the source
+   * half of a hedged load. See {@link LoadHedging}.
+   */
+  DecodeJob<R> skipDiskCache() {
+    isSourceOnly = true;
+    return this;
+  }
+
+  /** Returns {@code true} once any generator handed data to this job. */
+  boolean hasRetrievedData() {
+    return hasRetrievedData;
+  }
+
+  // Exposed for testing.
+  boolean isCancelled() {
+    return isCancelled;
+  }
+
   /**
    * Returns true if this job will attempt to decode a resource from the disk cache, and false if it
    * will always decode from source.
@@ -171,6 +218,11 @@ class DecodeJob<R>
   }
 
   private void releaseInternal() {
+    if (currentGenerator instanceof SourceGenerator) {
+      // If the job ended before a shared fetch finished, let the loads waiting for it go on, or
+      // stop waiting for another job's fetch.
+      ((SourceGenerator) currentGenerator).releaseSharedFetch();
+    }
     releaseManager.reset();
     deferredEncodeManager.clear();
     decodeHelper.clear();
@@ -190,6 +242,9 @@ class DecodeJob<R>
     currentFetcher = null;
     startFetchTime = 0L;
     isCancelled = false;
+    isOnDecodeStage = false;
+    hasRetrievedData = false;
+    isSourceOnly = false;
     model = null;
     throwables.clear();
     pool.release(this);
@@ -204,10 +259,27 @@ class DecodeJob<R>
     return result;
   }
 
-  private int getPriority() {
+  @Override
+  public int getPriority() {
     return priority.ordinal();
   }
 
+  /**
+   * Raises the priority of this job if the given priority is higher, for example when a more
+   * important request joins the job. The caller is responsible for telling the executor, see
+   * {@link com.example.glidemini.load.engine.executor.GlideExecutor#reprioritize(Runnable)}.
+   *
+   * @return {@code true} if the priority changed.
+   */
+  boolean raisePriority(@NonNull Priority newPriority) {
+    Priority current = priority;
+    if (current == null || newPriority.ordinal() >= current.ordinal()) {
+      return false;
+    }
+    priority = newPriority;
+    return true;
+  }
+
   public void cancel() {
     isCancelled = true;
     DataFetcherGenerator local = currentGenerator;
@@ -294,7 +366,9 @@ class DecodeJob<R>
       case DATA_CACHE:
         return new DataCacheGenerator(decodeHelper, this);
       case SOURCE:
-        return new SourceGenerator(decodeHelper, this);
+        // Decoding while caching would decode on the I/O stage of a staged executor.
+        return new SourceGenerator(
+            decodeHelper, this, /*isDecodeWhileCachingAllowed=*/ !callback.isDecodeStaged());
       case FINISHED:
         return null;
       default:
@@ -351,6 +425,9 @@ class DecodeJob<R>
   private Stage getNextStage(Stage current) {
     switch (current) {
       case INITIALIZE:
+        if (isSourceOnly) {
+          return Stage.SOURCE;
+        }
         return diskCacheStrategy.decodeCachedResource()
             ? Stage.RESOURCE_CACHE
             : getNextStage(Stage.RESOURCE_CACHE);
@@ -384,11 +461,12 @@ class DecodeJob<R>
     this.currentDataSource = dataSource;
     this.currentAttemptingKey = attemptedKey;
     this.isLoadingFromAlternateCacheKey = sourceKey != decodeHelper.getCacheKeys().get(0);
+    this.hasRetrievedData = true;
 
     if (Thread.currentThread() != currentThread) {
       runReason = RunReason.DECODE_DATA;
       callback.reschedule(this);
-    } else {
+    } else if (!handOffToDecodeStage()) {
       GlideTrace.beginSection("DecodeJob.decodeFromRetrievedData");
       try {
         decodeFromRetrievedData();
@@ -413,7 +491,46 @@ class DecodeJob<R>
     }
   }
 
+  /**
+   * Hands data retrieved from source to the decode stage if the source executor is staged, see
+   * {@link com.example.glidemini.load.engine.executor.GlideExecutor#newStagedSourceBuilder()}.
+   * Streams are read into memory here first, so the decode stage never touches the network.
+   *
+   * @return {@code true} if the data will be decoded, or the load failed, elsewhere.
+   */
+  private boolean handOffToDecodeStage() {
+    if (stage != Stage.SOURCE || !callback.isDecodeStaged()) {
+      return false;
+    }
+    if (currentData instanceof InputStream) {
+      if (!decodeHelper.hasLoadPath(ByteBuffer.class)) {
+        return false;
+      }
+      try {
+        currentData = ByteBufferUtil.fromStream((InputStream) currentData);
+      } catch (IOException e) {
+        onDataFetcherFailed(currentAttemptingKey, e, currentFetcher, currentDataSource);
+        return true;
+      }
+      // Releases the connection and any permits it holds while the job waits for the decode stage,
+      // cleaning up again once the data was decoded does nothing.
+      currentFetcher.cleanup();
+    } else if (!(currentData instanceof ByteBuffer) && !(currentData instanceof File)) {
+      return false;
+    }
+    isOnDecodeStage = true;
+    runReason = RunReason.DECODE_DATA;
+    if (callback.rescheduleDecode(this)) {
+      return true;
+    }
+    // Too many jobs are already waiting for the decode stage, decode on this thread instead.
+    isOnDecodeStage = false;
+    return false;
+  }
+
   private void decodeFromRetrievedData() {
+    boolean wasOnDecodeStage = isOnDecodeStage;
+    isOnDecodeStage = false;
     if (Log.isLoggable(TAG, Log.VERBOSE)) {
       logWithTimeAndKey(
           "Retrieved data",
@@ -434,6 +551,9 @@ class DecodeJob<R>
     }
     if (resource != null) {
       notifyEncodeAndRelease(resource, currentDataSource, isLoadingFromAlternateCacheKey);
+    } else if (wasOnDecodeStage) {
+      // The decode stage doesn't allow network operations, try the next source on the I/O stage.
+      reschedule();
     } else {
       runGenerators();
     }
@@ -457,18 +577,16 @@ class DecodeJob<R>
       notifyComplete(result, dataSource, isLoadedFromAlternateCacheKey);
 
       stage = Stage.ENCODE;
-      try {
-        if (deferredEncodeManager.hasResourceToEncode()) {
-          deferredEncodeManager.encode(diskCacheProvider, options);
-        }
-      } finally {
-        if (lockedResource != null) {
-          lockedResource.unlock();
-        }
+      if (currentGenerator instanceof SourceGenerator) {
+        // Completes a source stream that was written to the disk cache while it was decoded. Done
+        // before onEncodeComplete, which may release this job and its generator.
+        ((SourceGenerator) currentGenerator).onSourceDecoded(isCancelled);
+      }
+      if (lockedResource != null) {
+        // Written behind, so that this thread can move on to the next job. Both resources stay
+        // locked until the write finishes or is dropped.
+        deferredEncodeManager.encode(encodeQueue, options, lockedResource);
       }
-      // Call onEncodeComplete outside the finally block so that it's not called if the encode
-      // process
-      // throws.
       onEncodeComplete();
     } finally {
       GlideTrace.endSection();
@@ -610,7 +728,8 @@ class DecodeJob<R>
                   height,
                   appliedTransformation,
                   resourceSubClass,
-                  options);
+                  options,
+                  getSourceVersion());
           break;
         default:
           throw new IllegalArgumentException("Unknown strategy: " + encodeStrategy);
@@ -623,6 +742,18 @@ class DecodeJob<R>
     return result;
   }
 
+  // The version of the source data the resource was decoded from, so it's only read from the cache
+  // while that data is current. See ResourceCacheGenerator.
+  @Nullable
+  private String getSourceVersion() {
+    if (!decodeHelper.isRevalidationEnabled()) {
+      return null;
+    }
+    CacheValidators validators =
+        decodeHelper.getSourceValidators(new DataCacheKey(currentSourceKey, signature));
+    return validators != null ? validators.getVersion() : null;
+  }
+
   private final class DecodeCallback<Z> implements DecodePath.DecodeCallback<Z> {
 
     private final DataSource dataSource;
@@ -678,7 +809,7 @@ class DecodeJob<R>
 
   /**
    * Allows transformed resources to be encoded after the transcoded result is already delivered to
-   * requestors.
+   * requestors, on a {@link ResourceEncodeQueue}.
    */
   private static class DeferredEncodeManager<Z> {
     private Key key;
@@ -696,16 +827,20 @@ class DecodeJob<R>
       this.toEncode = (LockedResource<Z>) toEncode;
     }
 
-    void encode(DiskCacheProvider diskCacheProvider, Options options) {
-      GlideTrace.beginSection("DecodeJob.encode");
-      try {
-        diskCacheProvider
-            .getDiskCache()
-            .put(key, new DataCacheWriter<>(encoder, toEncode, options));
-      } finally {
-        toEncode.unlock();
-        GlideTrace.endSection();
-      }
+    void encode(
+        ResourceEncodeQueue encodeQueue, Options options, final LockedResource<?> transcoded) {
+      final LockedResource<Z> toEncode = this.toEncode;
+      encodeQueue.enqueue(
+          key,
+          new DataCacheWriter<>(encoder, toEncode, options),
+          toEncode.getSize(),
+          new Runnable() {
+            @Override
+            public void run() {
+              toEncode.unlock();
+              transcoded.unlock();
+            }
+          });
     }
 
     boolean hasResourceToEncode() {
@@ -727,6 +862,16 @@ class DecodeJob<R>
     void onLoadFailed(GlideException e);
 
     void reschedule(DecodeJob<?> job);
+
+    /** Returns {@code true} if source data is decoded by a separate decode stage. */
+    boolean isDecodeStaged();
+
+    /**
+     * Runs the given job on the decode stage, if there is one and it has room.
+     *
+     * @return {@code false} if the caller should decode the data itself.
+     */
+    boolean rescheduleDecode(DecodeJob<?> job);
   }
 
   interface DiskCacheProvider {
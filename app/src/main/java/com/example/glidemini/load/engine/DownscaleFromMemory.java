@@ -0,0 +1,200 @@
+package com.example.glidemini.load.engine;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import com.example.glidemini.bitmapRecycle.BitmapPool;
+import com.example.glidemini.load.Option;
+import com.example.glidemini.load.resource.bitmap.BitmapResource;
+import com.example.glidemini.load.resource.bitmap.DownsampleStrategy;
+import com.example.glidemini.load.resource.bitmap.LazyBitmapDrawableResource;
+import com.example.glidemini.load.resource.bitmap.TransformationUtils;
+import com.example.glidemini.util.Synthetic;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Derives smaller resources from larger ones of the same load that are already in memory.
+ *
+ * <p>{@link EngineKey}s include the target size, so a thumbnail of a model whose full size version
+ * is in the active resources or the memory cache would otherwise be loaded from disk or source
+ * again. With {@link #ENABLED} set, {@link Engine} keeps an index of loaded keys by everything but
+ * their size. When a load misses the memory cache, the largest resource in memory for the same
+ * model, signature, transformations and options is scaled down instead, without any I/O. The
+ * scaling runs as a job on an executor, see {@link DownscaleJob}.
+ *
+ * <p>Only loads without transformations, or with transformations that only scale, are derived,
+ * and only from {@link Bitmap}s and {@link BitmapDrawable}s at least as large as the target. The
+ * scale factor comes from the load's {@link DownsampleStrategy}, as it would for a decode.
+ */
+public final class DownscaleFromMemory {
+  /**
+   * Whether smaller resources of a load may be derived from larger ones in memory. Defaults to
+   * {@code false}.
+   *
+   * <p>Both the larger and the smaller load must set this option, since options are part of the
+   * memory cache key.
+   */
+  public static final Option<Boolean> ENABLED =
+      Option.memory("com.example.glidemini.load.engine.DownscaleFromMemory.Enabled", false);
+
+  private static final int DEFAULT_MAX_LOADS = 256;
+  // Sizes kept per load, the smallest is dropped first.
+  private static final int MAX_SIZES_PER_LOAD = 4;
+  private static final Comparator<EngineKey> LARGEST_FIRST =
+      new Comparator<EngineKey>() {
+        @Override
+        public int compare(EngineKey first, EngineKey second) {
+          return Long.compare(area(second), area(first));
+        }
+      };
+
+  // Keys without a size, mapped to the keys of the same load that were loaded at some size. Keys
+  // whose resources left memory are only removed once a lookup misses them.
+  @GuardedBy("this")
+  private final Map<EngineKey, List<EngineKey>> loadedSizes;
+
+  DownscaleFromMemory() {
+    this(DEFAULT_MAX_LOADS);
+  }
+
+  DownscaleFromMemory(final int maxLoads) {
+    loadedSizes =
+        new LinkedHashMap<EngineKey, List<EngineKey>>(16, 0.75f, /*accessOrder=*/ true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<EngineKey, List<EngineKey>> eldest) {
+            return size() > maxLoads;
+          }
+        };
+  }
+
+  static boolean isEnabled(EngineKey key) {
+    return key.getOptions().get(ENABLED) && key.getWidth() > 0 && key.getHeight() > 0;
+  }
+
+  /** Records that a resource for the given key is in memory. */
+  synchronized void put(EngineKey key) {
+    EngineKey sizeless = key.withSize(0, 0);
+    List<EngineKey> sizes = loadedSizes.get(sizeless);
+    if (sizes == null) {
+      sizes = new ArrayList<>(MAX_SIZES_PER_LOAD);
+      loadedSizes.put(sizeless, sizes);
+    }
+    if (sizes.contains(key)) {
+      return;
+    }
+    sizes.add(key);
+    Collections.sort(sizes, LARGEST_FIRST);
+    if (sizes.size() > MAX_SIZES_PER_LOAD) {
+      sizes.remove(sizes.size() - 1);
+    }
+  }
+
+  /** Forgets the given key, for example because its resource is no longer in memory. */
+  synchronized void remove(EngineKey key) {
+    EngineKey sizeless = key.withSize(0, 0);
+    List<EngineKey> sizes = loadedSizes.get(sizeless);
+    if (sizes != null) {
+      sizes.remove(key);
+      if (sizes.isEmpty()) {
+        loadedSizes.remove(sizeless);
+      }
+    }
+  }
+
+  /**
+   * Returns the keys of the same load at sizes at least as large as the given key's, largest
+   * first.
+   */
+  synchronized List<EngineKey> getLarger(EngineKey key) {
+    List<EngineKey> sizes = loadedSizes.get(key.withSize(0, 0));
+    if (sizes == null) {
+      return Collections.emptyList();
+    }
+    List<EngineKey> result = new ArrayList<>(sizes.size());
+    for (EngineKey candidate : sizes) {
+      if (!candidate.equals(key)
+          && candidate.getWidth() >= key.getWidth()
+          && candidate.getHeight() >= key.getHeight()) {
+        result.add(candidate);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns {@code true} if the given resource is a bitmap that {@link #scale} would scale down
+   * for the given key. Cheap enough to call on the thread starting the load.
+   */
+  static boolean canScale(Resource<?> source, EngineKey key) {
+    Bitmap bitmap = getBitmap(source);
+    if (bitmap == null) {
+      return false;
+    }
+    float scaleFactor = getScaleFactor(bitmap, key);
+    return scaleFactor < 1
+        && Math.round(scaleFactor * bitmap.getWidth()) > 0
+        && Math.round(scaleFactor * bitmap.getHeight()) > 0;
+  }
+
+  /**
+   * Returns the given resource scaled down for the given key, or {@code null} if it isn't a bitmap
+   * or wouldn't be scaled down.
+   *
+   * <p>The resource is acquired, but its bitmap may still have been recycled by whoever else holds
+   * it since {@link #canScale} was checked, in which case this returns {@code null} as well.
+   */
+  @Nullable
+  static Resource<?> scale(
+      Resources resources, BitmapPool bitmapPool, Resource<?> source, EngineKey key) {
+    Bitmap bitmap = getBitmap(source);
+    if (bitmap == null) {
+      return null;
+    }
+    float scaleFactor = getScaleFactor(bitmap, key);
+    int targetWidth = Math.round(scaleFactor * bitmap.getWidth());
+    int targetHeight = Math.round(scaleFactor * bitmap.getHeight());
+    if (scaleFactor >= 1 || targetWidth <= 0 || targetHeight <= 0) {
+      return null;
+    }
+    Bitmap scaled = TransformationUtils.fitCenter(bitmapPool, bitmap, targetWidth, targetHeight);
+    // The source's bitmap can't be shared with a second resource.
+    if (scaled == bitmap) {
+      return null;
+    }
+    Resource<Bitmap> result = BitmapResource.obtain(scaled, bitmapPool);
+    return source.get() instanceof Bitmap
+        ? result
+        : LazyBitmapDrawableResource.obtain(resources, result);
+  }
+
+  // Returns null for recycled bitmaps, scaling one would throw.
+  @Nullable
+  private static Bitmap getBitmap(Resource<?> source) {
+    Object drawable = source.get();
+    Bitmap bitmap = null;
+    if (drawable instanceof Bitmap) {
+      bitmap = (Bitmap) drawable;
+    } else if (drawable instanceof BitmapDrawable) {
+      bitmap = ((BitmapDrawable) drawable).getBitmap();
+    }
+    return bitmap != null && !bitmap.isRecycled() ? bitmap : null;
+  }
+
+  private static float getScaleFactor(Bitmap bitmap, EngineKey key) {
+    DownsampleStrategy strategy = key.getOptions().get(DownsampleStrategy.OPTION);
+    return strategy.getScaleFactor(
+        bitmap.getWidth(), bitmap.getHeight(), key.getWidth(), key.getHeight());
+  }
+
+  @Synthetic
+  static long area(EngineKey key) {
+    return (long) key.getWidth() * key.getHeight();
+  }
+}
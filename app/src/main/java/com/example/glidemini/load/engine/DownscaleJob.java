@@ -0,0 +1,126 @@
+package com.example.glidemini.load.engine;
+
+import android.content.res.Resources;
+import android.util.Log;
+import androidx.annotation.GuardedBy;
+import com.example.glidemini.bitmapRecycle.BitmapPool;
+import com.example.glidemini.load.DataSource;
+import java.util.concurrent.Executor;
+
+/**
+ * Scales a larger resource of the same load that's in memory down for a single {@link EngineJob},
+ * see {@link DownscaleFromMemory}.
+ *
+ * <p>The larger resource is acquired by {@link Engine} before the job starts and released once it
+ * was scaled. Scaling runs on the disk cache executor, so the thread starting the load never
+ * resamples a bitmap. If the resource can't be scaled after all, the job falls back to the {@link
+ * DecodeJob} the load would have run otherwise.
+ */
+final class DownscaleJob<R> implements Runnable {
+  private static final String TAG = "DownscaleJob";
+
+  private final DecodeJob.Callback<R> target;
+  private final DecodeJob<R> fallbackJob;
+  private final EngineKey key;
+  private final Resources resources;
+  private final BitmapPool bitmapPool;
+  private EngineResource<?> source;
+  private Executor diskCacheExecutor;
+  private Executor sourceExecutor;
+
+  @GuardedBy("this")
+  private boolean isCancelled;
+
+  @GuardedBy("this")
+  private boolean isFallbackStarted;
+
+  DownscaleJob(
+      DecodeJob.Callback<R> target,
+      DecodeJob<R> fallbackJob,
+      EngineResource<?> source,
+      EngineKey key,
+      Resources resources,
+      BitmapPool bitmapPool) {
+    this.target = target;
+    this.fallbackJob = fallbackJob;
+    this.source = source;
+    this.key = key;
+    this.resources = resources;
+    this.bitmapPool = bitmapPool;
+  }
+
+  /** The job that loads the resource if scaling fails, never run if scaling succeeds. */
+  DecodeJob<R> getFallbackJob() {
+    return fallbackJob;
+  }
+
+  void start(Executor diskCacheExecutor, Executor sourceExecutor) {
+    this.diskCacheExecutor = diskCacheExecutor;
+    this.sourceExecutor = sourceExecutor;
+    diskCacheExecutor.execute(this);
+  }
+
+  @Override
+  public void run() {
+    boolean isCancelled;
+    synchronized (this) {
+      isCancelled = this.isCancelled;
+    }
+    Resource<?> scaled = null;
+    try {
+      if (!isCancelled) {
+        scaled = DownscaleFromMemory.scale(resources, bitmapPool, source, key);
+      }
+    } catch (RuntimeException e) {
+      if (Log.isLoggable(TAG, Log.DEBUG)) {
+        Log.d(TAG, "Failed to scale down resource for: " + key, e);
+      }
+    } finally {
+      source.release();
+      source = null;
+    }
+
+    if (scaled != null) {
+      @SuppressWarnings("unchecked")
+      Resource<R> result = (Resource<R>) scaled;
+      target.onResourceReady(
+          result, DataSource.MEMORY_CACHE, /*isLoadedFromAlternateCacheKey=*/ false);
+      return;
+    }
+    synchronized (this) {
+      if (this.isCancelled) {
+        isCancelled = true;
+      } else {
+        isFallbackStarted = true;
+      }
+    }
+    if (isCancelled) {
+      // Lets the engine job release itself, it was cancelled before anything was produced.
+      target.onLoadFailed(new GlideException("Cancelled before scaling down"));
+    } else {
+      Executor executor = fallbackJob.willDecodeFromCache() ? diskCacheExecutor : sourceExecutor;
+      executor.execute(fallbackJob);
+    }
+  }
+
+  void cancel() {
+    boolean isFallbackStarted;
+    synchronized (this) {
+      isCancelled = true;
+      isFallbackStarted = this.isFallbackStarted;
+    }
+    if (isFallbackStarted) {
+      fallbackJob.cancel();
+    }
+  }
+
+  /** Called by the engine job once it's done with the load, see {@link DecodeJob#release}. */
+  void release() {
+    boolean isFallbackStarted;
+    synchronized (this) {
+      isFallbackStarted = this.isFallbackStarted;
+    }
+    // A job that was never executed can go straight back to the pool.
+    fallbackJob.release(/*isRemovedFromQueue=*/ !isFallbackStarted);
+  }
+}
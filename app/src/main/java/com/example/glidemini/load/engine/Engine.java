@@ -6,16 +6,17 @@ import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import androidx.core.util.Pools;
 import com.bumptech.glide.GlideContext;
-import com.bumptech.glide.Priority;
+import com.example.glidemini.loader.model.Priority;
+import com.example.glidemini.bitmapRecycle.BitmapPool;
+import com.example.glidemini.cache.DiskCache;
+import com.example.glidemini.cache.DiskCacheAdapter;
+import com.example.glidemini.cache.memoryCache.MemoryCache;
 import com.example.glidemini.load.DataSource;
 import com.example.glidemini.cache.key.Key;
 import com.example.glidemini.load.Options;
 import com.example.glidemini.load.Transformation;
 import com.example.glidemini.load.engine.EngineResource.ResourceListener;
-import com.bumptech.glide.load.engine.cache.DiskCache;
-import com.bumptech.glide.load.engine.cache.DiskCacheAdapter;
-import com.bumptech.glide.load.engine.cache.MemoryCache;
-import com.bumptech.glide.load.engine.executor.GlideExecutor;
+import com.example.glidemini.load.engine.executor.GlideExecutor;
 import com.bumptech.glide.request.ResourceCallback;
 import com.bumptech.glide.util.Executors;
 import com.bumptech.glide.util.LogTime;
@@ -24,6 +25,7 @@ import com.bumptech.glide.util.Synthetic;
 import com.bumptech.glide.util.pool.FactoryPools;
 import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** Responsible for starting loads and managing active and cached resources. */
 public class Engine
@@ -32,6 +34,8 @@ public class Engine
         EngineResource.ResourceListener {
   private static final String TAG = "Engine";
   private static final int JOB_POOL_SIZE = 150;
+  // Must be a power of two.
+  private static final int KEY_LOCK_STRIPES = 64;
   private static final boolean VERBOSE_IS_LOGGABLE = Log.isLoggable(TAG, Log.VERBOSE);
   private final Jobs jobs;
   private final EngineKeyFactory keyFactory;
@@ -41,9 +45,16 @@ public class Engine
   private final LazyDiskCacheProvider diskCacheProvider;
   private final DecodeJobFactory decodeJobFactory;
   private final ActiveResources activeResources;
+  private final KeyLocks keyLocks;
+  private final LoadHedging loadHedging = new LoadHedging();
+  private final DownscaleFromMemory downscaleFromMemory = new DownscaleFromMemory();
+  private final BitmapPool bitmapPool;
+  private final GlideExecutor diskCacheWriteExecutor;
+  private final ResourceEncodeQueue encodeQueue;
 
   public Engine(
       MemoryCache memoryCache,
+      BitmapPool bitmapPool,
       DiskCache.Factory diskCacheFactory,
       GlideExecutor diskCacheExecutor,
       GlideExecutor sourceExecutor,
@@ -52,6 +63,7 @@ public class Engine
       boolean isActiveResourceRetentionAllowed) {
     this(
         memoryCache,
+        bitmapPool,
         diskCacheFactory,
         diskCacheExecutor,
         sourceExecutor,
@@ -63,12 +75,14 @@ public class Engine
         /*engineJobFactory=*/ null,
         /*decodeJobFactory=*/ null,
         /*resourceRecycler=*/ null,
+        /*keyLocks=*/ null,
         isActiveResourceRetentionAllowed);
   }
 
   @VisibleForTesting
   Engine(
       MemoryCache cache,
+      BitmapPool bitmapPool,
       DiskCache.Factory diskCacheFactory,
       GlideExecutor diskCacheExecutor,
       GlideExecutor sourceExecutor,
@@ -80,9 +94,17 @@ public class Engine
       EngineJobFactory engineJobFactory,
       DecodeJobFactory decodeJobFactory,
       ResourceRecycler resourceRecycler,
+      KeyLocks keyLocks,
       boolean isActiveResourceRetentionAllowed) {
     this.cache = cache;
+    this.bitmapPool = bitmapPool;
     this.diskCacheProvider = new LazyDiskCacheProvider(diskCacheFactory);
+    this.diskCacheWriteExecutor = GlideExecutor.newDiskCacheWriteExecutor();
+    this.encodeQueue =
+        new ResourceEncodeQueue(
+            diskCacheProvider,
+            diskCacheWriteExecutor,
+            ResourceEncodeQueue.DEFAULT_MAX_PENDING_BYTES);
 
     if (activeResources == null) {
       activeResources = new ActiveResources(isActiveResourceRetentionAllowed);
@@ -113,7 +135,13 @@ public class Engine
     this.engineJobFactory = engineJobFactory;
 
     if (decodeJobFactory == null) {
-      decodeJobFactory = new DecodeJobFactory(diskCacheProvider);
+      decodeJobFactory =
+          new DecodeJobFactory(
+              diskCacheProvider,
+              encodeQueue,
+              // Background revalidations are network requests, like any other source load.
+              new SourceRevalidator(diskCacheProvider, sourceExecutor),
+              new SourceFetchCoalescer());
     }
     this.decodeJobFactory = decodeJobFactory;
 
@@ -122,6 +150,11 @@ public class Engine
     }
     this.resourceRecycler = resourceRecycler;
 
+    if (keyLocks == null) {
+      keyLocks = new KeyLocks(KEY_LOCK_STRIPES);
+    }
+    this.keyLocks = keyLocks;
+
     cache.setResourceRemovedListener(this);
   }
 
@@ -130,6 +163,10 @@ public class Engine
    *
    * <p>Must be called on the main thread.
    *
+   * <p>Loads for different keys don't contend with each other. The memory lookup and the job
+   * lookup/start for a given key happen under that key's striped lock, so two identical keys never
+   * start two {@link EngineJob}s.
+   *
    * <p>The flow for any request is as follows:
    *
    * <ul>
@@ -138,6 +175,8 @@ public class Engine
    *   <li>Check the memory cache and provide the cached resource if present.
    *   <li>Check the current set of in progress loads and add the cb to the in progress load if one
    *       is present.
+   *   <li>If {@link DownscaleFromMemory#ENABLED}, start a job that scales down a larger resource of
+   *       the same load that's active or in the memory cache.
    *   <li>Start a new load.
    * </ul>
    *
@@ -174,6 +213,10 @@ public class Engine
       Executor callbackExecutor) {
     long startTime = VERBOSE_IS_LOGGABLE ? LogTime.getLogTime() : 0;
 
+    // Hand resources whose requests were garbage collected without being cleared back to the
+    // memory cache. There is no dedicated thread watching for them.
+    activeResources.drainReferenceQueue();
+
     EngineKey key =
         keyFactory.buildKey(
             model,
@@ -185,11 +228,13 @@ public class Engine
             transcodeClass,
             options);
 
+    boolean canDownscale =
+        isMemoryCacheable && isScaleOnlyOrNoTransform && DownscaleFromMemory.isEnabled(key);
     EngineResource<?> memoryResource;
-    synchronized (this) {
+    synchronized (lockFor(key)) {
       memoryResource = loadFromMemory(key, isMemoryCacheable, startTime);
-
-      if (memoryResource == null) {
+      if (memoryResource == null
+          && (!canDownscale || jobs.get(key, onlyRetrieveFromCache) != null)) {
         return waitForExistingOrStartNewJob(
             glideContext,
             model,
@@ -211,10 +256,57 @@ public class Engine
             cb,
             callbackExecutor,
             key,
+            /*downscaleSource=*/ null,
             startTime);
       }
     }
 
+    if (memoryResource == null) {
+      // Looked up without holding this key's lock, which also keeps the two key locks from ever
+      // being held at once. The memory and job lookups are repeated below since another load of
+      // the same key may have finished or started in between.
+      EngineResource<?> larger = acquireLargerResource(key);
+      try {
+        synchronized (lockFor(key)) {
+          memoryResource = loadFromMemory(key, isMemoryCacheable, startTime);
+          if (memoryResource == null) {
+            EngineResource<?> downscaleSource = null;
+            if (jobs.get(key, onlyRetrieveFromCache) == null) {
+              downscaleSource = larger;
+              larger = null;
+            }
+            return waitForExistingOrStartNewJob(
+                glideContext,
+                model,
+                signature,
+                width,
+                height,
+                resourceClass,
+                transcodeClass,
+                priority,
+                diskCacheStrategy,
+                transformations,
+                isTransformationRequired,
+                isScaleOnlyOrNoTransform,
+                options,
+                isMemoryCacheable,
+                useUnlimitedSourceExecutorPool,
+                useAnimationPool,
+                onlyRetrieveFromCache,
+                cb,
+                callbackExecutor,
+                key,
+                downscaleSource,
+                startTime);
+          }
+        }
+      } finally {
+        if (larger != null) {
+          larger.release();
+        }
+      }
+    }
+
     // Avoid calling back while holding the engine lock, doing so makes it easier for callers to
     // deadlock.
     cb.onResourceReady(
@@ -243,15 +335,17 @@ public class Engine
       ResourceCallback cb,
       Executor callbackExecutor,
       EngineKey key,
+      @Nullable EngineResource<?> downscaleSource,
       long startTime) {
 
     EngineJob<?> current = jobs.get(key, onlyRetrieveFromCache);
     if (current != null) {
       current.addCallback(cb, callbackExecutor);
+      current.raisePriority(priority);
       if (VERBOSE_IS_LOGGABLE) {
         logWithTimeAndKey("Added to existing load", startTime, key);
       }
-      return new LoadStatus(cb, current);
+      return new LoadStatus(cb, current, key);
     }
 
     EngineJob<R> engineJob =
@@ -262,6 +356,63 @@ public class Engine
             useAnimationPool,
             onlyRetrieveFromCache);
 
+    long hedgeDeadlineMillis = loadHedging.getDeadlineMillis();
+    if (downscaleSource == null
+        && hedgeDeadlineMillis > 0
+        && !onlyRetrieveFromCache
+        && (diskCacheStrategy.decodeCachedResource() || diskCacheStrategy.decodeCachedData())) {
+      HedgedDecode<R> hedgedDecode =
+          new HedgedDecode<>(engineJob, loadHedging, key, hedgeDeadlineMillis);
+      DecodeJob<R> cacheJob =
+          decodeJobFactory.build(
+              glideContext,
+              model,
+              key,
+              signature,
+              width,
+              height,
+              resourceClass,
+              transcodeClass,
+              priority,
+              diskCacheStrategy,
+              transformations,
+              isTransformationRequired,
+              isScaleOnlyOrNoTransform,
+              /*onlyRetrieveFromCache=*/ true,
+              options,
+              hedgedDecode.getCacheCallback());
+      DecodeJob<R> sourceJob =
+          decodeJobFactory
+              .build(
+                  glideContext,
+                  model,
+                  key,
+                  signature,
+                  width,
+                  height,
+                  resourceClass,
+                  transcodeClass,
+                  priority,
+                  diskCacheStrategy,
+                  transformations,
+                  isTransformationRequired,
+                  isScaleOnlyOrNoTransform,
+                  /*onlyRetrieveFromCache=*/ false,
+                  options,
+                  hedgedDecode.getSourceCallback())
+              .skipDiskCache();
+
+      jobs.put(key, engineJob);
+
+      engineJob.addCallback(cb, callbackExecutor);
+      engineJob.start(hedgedDecode.init(cacheJob, sourceJob));
+
+      if (VERBOSE_IS_LOGGABLE) {
+        logWithTimeAndKey("Started new hedged load", startTime, key);
+      }
+      return new LoadStatus(cb, engineJob, key);
+    }
+
     DecodeJob<R> decodeJob =
         decodeJobFactory.build(
             glideContext,
@@ -284,12 +435,26 @@ public class Engine
     jobs.put(key, engineJob);
 
     engineJob.addCallback(cb, callbackExecutor);
-    engineJob.start(decodeJob);
+    if (downscaleSource != null) {
+      engineJob.start(
+          new DownscaleJob<>(
+              engineJob,
+              decodeJob,
+              downscaleSource,
+              key,
+              glideContext.getResources(),
+              bitmapPool));
+    } else {
+      engineJob.start(decodeJob);
+    }
 
     if (VERBOSE_IS_LOGGABLE) {
-      logWithTimeAndKey("Started new load", startTime, key);
+      logWithTimeAndKey(
+          downscaleSource != null ? "Started scaling down larger resource" : "Started new load",
+          startTime,
+          key);
     }
-    return new LoadStatus(cb, engineJob);
+    return new LoadStatus(cb, engineJob, key);
   }
 
   @Nullable
@@ -318,26 +483,66 @@ public class Engine
     return null;
   }
 
+  /**
+   * Returns the largest resource of the same load at another size that's still in memory and can
+   * be scaled down for the given key, acquired, or {@code null}. See {@link DownscaleFromMemory}.
+   *
+   * <p>Must be called without holding the given key's lock. Each larger key's lock is only held
+   * while looking up its resource, so no thread ever holds two key locks at once.
+   */
+  @Nullable
+  private EngineResource<?> acquireLargerResource(EngineKey key) {
+    for (EngineKey largerKey : downscaleFromMemory.getLarger(key)) {
+      EngineResource<?> larger;
+      synchronized (lockFor(largerKey)) {
+        larger = loadFromActiveResources(largerKey);
+        if (larger == null) {
+          larger = loadFromCache(largerKey);
+        }
+      }
+      if (larger == null) {
+        downscaleFromMemory.remove(largerKey);
+        continue;
+      }
+      if (!DownscaleFromMemory.canScale(larger, key)) {
+        larger.release();
+        downscaleFromMemory.remove(largerKey);
+        continue;
+      }
+      return larger;
+    }
+    return null;
+  }
+
+  /** Returns the lock guarding the memory lookup and job bookkeeping for the given key. */
+  @Synthetic
+  Object lockFor(Key key) {
+    return keyLocks.get(key);
+  }
+
   private static void logWithTimeAndKey(String log, long startTime, Key key) {
     Log.v(TAG, log + " in " + LogTime.getElapsedMillis(startTime) + "ms, key: " + key);
   }
 
+  // Resources are released and recycled without holding their key's lock, so a resource that's
+  // found here may be recycled before it's acquired. It's then treated as a miss.
   @Nullable
   private EngineResource<?> loadFromActiveResources(Key key) {
     EngineResource<?> active = activeResources.get(key);
-    if (active != null) {
-      active.acquire();
+    if (active != null && !active.tryAcquire()) {
+      return null;
     }
 
     return active;
   }
 
+  @Nullable
   private EngineResource<?> loadFromCache(Key key) {
     EngineResource<?> cached = getEngineResourceFromCache(key);
-    if (cached != null) {
-      cached.acquire();
-      activeResources.activate(key, cached);
+    if (cached == null || !cached.tryAcquire()) {
+      return null;
     }
+    activeResources.activate(key, cached);
     return cached;
   }
 
@@ -368,19 +573,25 @@ public class Engine
 
   @SuppressWarnings("unchecked")
   @Override
-  public synchronized void onEngineJobComplete(
-      EngineJob<?> engineJob, Key key, EngineResource<?> resource) {
-    // A null resource indicates that the load failed, usually due to an exception.
-    if (resource != null && resource.isMemoryCacheable()) {
-      activeResources.activate(key, resource);
-    }
+  public void onEngineJobComplete(EngineJob<?> engineJob, Key key, EngineResource<?> resource) {
+    synchronized (lockFor(key)) {
+      // A null resource indicates that the load failed, usually due to an exception.
+      if (resource != null && resource.isMemoryCacheable()) {
+        activeResources.activate(key, resource);
+        if (key instanceof EngineKey && DownscaleFromMemory.isEnabled((EngineKey) key)) {
+          downscaleFromMemory.put((EngineKey) key);
+        }
+      }
 
-    jobs.removeIfCurrent(key, engineJob);
+      jobs.removeIfCurrent(key, engineJob);
+    }
   }
 
   @Override
-  public synchronized void onEngineJobCancelled(EngineJob<?> engineJob, Key key) {
-    jobs.removeIfCurrent(key, engineJob);
+  public void onEngineJobCancelled(EngineJob<?> engineJob, Key key) {
+    synchronized (lockFor(key)) {
+      jobs.removeIfCurrent(key, engineJob);
+    }
   }
 
   @Override
@@ -400,6 +611,23 @@ public class Engine
     }
   }
 
+  /**
+   * Returns the hedging settings of this engine and the outcomes of loads that raced the disk cache
+   * against the source.
+   */
+  @NonNull
+  public LoadHedging getLoadHedging() {
+    return loadHedging;
+  }
+
+  /**
+   * Drops resources still waiting to be written to the disk cache when memory is low, see {@link
+   * android.content.ComponentCallbacks2#onTrimMemory(int)}.
+   */
+  public void trimMemory(int level) {
+    encodeQueue.trimMemory(level);
+  }
+
   public void clearDiskCache() {
     diskCacheProvider.getDiskCache().clear();
   }
@@ -407,6 +635,9 @@ public class Engine
   @VisibleForTesting
   public void shutdown() {
     engineJobFactory.shutdown();
+    // Releases the resources of writes that haven't started instead of writing them all first.
+    encodeQueue.dropAll();
+    Executors.shutdownAndAwaitTermination(diskCacheWriteExecutor);
     diskCacheProvider.clearDiskCacheIfCreated();
     activeResources.shutdown();
   }
@@ -419,18 +650,20 @@ public class Engine
   public class LoadStatus {
     private final EngineJob<?> engineJob;
     private final ResourceCallback cb;
+    private final Key key;
 
-    LoadStatus(ResourceCallback cb, EngineJob<?> engineJob) {
+    LoadStatus(ResourceCallback cb, EngineJob<?> engineJob, Key key) {
       this.cb = cb;
       this.engineJob = engineJob;
+      this.key = key;
     }
 
     public void cancel() {
-      // Acquire the Engine lock so that a new request can't get access to a particular EngineJob
+      // Acquire the key's lock so that a new request can't get access to a particular EngineJob
       // just after the EngineJob has been cancelled. Without this lock, we'd allow new requests
       // to find the cancelling EngineJob in our Jobs data structure. With this lock, the EngineJob
       // is both cancelled and removed from Jobs atomically.
-      synchronized (Engine.this) {
+      synchronized (lockFor(key)) {
         engineJob.removeCallback(cb);
       }
     }
@@ -472,6 +705,9 @@ public class Engine
   @VisibleForTesting
   static class DecodeJobFactory {
     @Synthetic final DecodeJob.DiskCacheProvider diskCacheProvider;
+    @Synthetic final ResourceEncodeQueue encodeQueue;
+    @Synthetic final SourceRevalidator sourceRevalidator;
+    @Synthetic final SourceFetchCoalescer sourceFetchCoalescer;
 
     @Synthetic
     final Pools.Pool<DecodeJob<?>> pool =
@@ -480,14 +716,23 @@ public class Engine
             new FactoryPools.Factory<DecodeJob<?>>() {
               @Override
               public DecodeJob<?> create() {
-                return new DecodeJob<>(diskCacheProvider, pool);
+                return new DecodeJob<>(
+                    diskCacheProvider, encodeQueue, sourceRevalidator, sourceFetchCoalescer, pool);
               }
             });
 
-    private int creationOrder;
+    // Loads for different keys build jobs concurrently.
+    private final AtomicInteger creationOrder = new AtomicInteger();
 
-    DecodeJobFactory(DecodeJob.DiskCacheProvider diskCacheProvider) {
+    DecodeJobFactory(
+        DecodeJob.DiskCacheProvider diskCacheProvider,
+        ResourceEncodeQueue encodeQueue,
+        SourceRevalidator sourceRevalidator,
+        SourceFetchCoalescer sourceFetchCoalescer) {
       this.diskCacheProvider = diskCacheProvider;
+      this.encodeQueue = encodeQueue;
+      this.sourceRevalidator = sourceRevalidator;
+      this.sourceFetchCoalescer = sourceFetchCoalescer;
     }
 
     @SuppressWarnings("unchecked")
@@ -526,7 +771,7 @@ public class Engine
           onlyRetrieveFromCache,
           options,
           callback,
-          creationOrder++);
+          creationOrder.getAndIncrement());
     }
   }
 
@@ -2,12 +2,14 @@ package com.example.glidemini.load.engine;
 
 import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import androidx.core.util.Pools;
 import com.example.glidemini.load.DataSource;
 import com.example.glidemini.cache.key.Key;
 import com.example.glidemini.load.engine.EngineResource.ResourceListener;
-import com.bumptech.glide.load.engine.executor.GlideExecutor;
+import com.example.glidemini.loader.model.Priority;
+import com.example.glidemini.load.engine.executor.GlideExecutor;
 import com.bumptech.glide.request.ResourceCallback;
 import com.bumptech.glide.util.Executors;
 import com.bumptech.glide.util.Preconditions;
@@ -66,6 +68,10 @@ class EngineJob<R> implements DecodeJob.Callback<R>, Poolable {
   EngineResource<?> engineResource;
 
   private DecodeJob<R> decodeJob;
+  // Set instead of only decodeJob for hedged loads, see LoadHedging.
+  @Nullable private HedgedDecode<R> hedgedDecode;
+  // Set instead of only decodeJob for loads scaled down from memory, see DownscaleFromMemory.
+  @Nullable private DownscaleJob<R> downscaleJob;
 
   // Checked primarily on the main thread, but also on other threads in reschedule.
   private volatile boolean isCancelled;
@@ -132,6 +138,49 @@ class EngineJob<R> implements DecodeJob.Callback<R>, Poolable {
     executor.execute(decodeJob);
   }
 
+  /** Starts a load that races the disk cache against the source, see {@link LoadHedging}. */
+  synchronized void start(HedgedDecode<R> hedgedDecode) {
+    this.hedgedDecode = hedgedDecode;
+    this.decodeJob = hedgedDecode.getCacheJob();
+    hedgedDecode.start(diskCacheExecutor, getActiveSourceExecutor());
+  }
+
+  /** Starts a load that scales down a larger resource in memory, see {@link DownscaleFromMemory}. */
+  synchronized void start(DownscaleJob<R> downscaleJob) {
+    this.downscaleJob = downscaleJob;
+    this.decodeJob = downscaleJob.getFallbackJob();
+    downscaleJob.start(diskCacheExecutor, getActiveSourceExecutor());
+  }
+
+  /**
+   * Raises the priority of a job that hasn't started running yet, when a request with a higher
+   * priority joins it.
+   */
+  synchronized void raisePriority(Priority priority) {
+    if (decodeJob == null) {
+      return;
+    }
+    raisePriority(decodeJob, priority);
+    if (hedgedDecode != null) {
+      raisePriority(hedgedDecode.getSourceJob(), priority);
+    }
+  }
+
+  @GuardedBy("this")
+  private void raisePriority(DecodeJob<R> job, Priority priority) {
+    if (!job.raisePriority(priority)) {
+      return;
+    }
+    // The job is queued on at most one of these, depending on how far it got.
+    GlideExecutor sourceExecutor = getActiveSourceExecutor();
+    GlideExecutor decodeStage = sourceExecutor.getDecodeStage();
+    if (!diskCacheExecutor.reprioritize(job)
+        && !sourceExecutor.reprioritize(job)
+        && decodeStage != null) {
+      decodeStage.reprioritize(job);
+    }
+  }
+
   synchronized void addCallback(final ResourceCallback cb, Executor callbackExecutor) {
     stateVerifier.throwIfRecycled();
     cbs.add(cb, callbackExecutor);
@@ -205,7 +254,13 @@ class EngineJob<R> implements DecodeJob.Callback<R>, Poolable {
     }
 
     isCancelled = true;
-    decodeJob.cancel();
+    if (hedgedDecode != null) {
+      hedgedDecode.cancel();
+    } else if (downscaleJob != null) {
+      downscaleJob.cancel();
+    } else {
+      decodeJob.cancel();
+    }
     engineJobListener.onEngineJobCancelled(this, key);
   }
 
@@ -218,6 +273,17 @@ class EngineJob<R> implements DecodeJob.Callback<R>, Poolable {
     return hasLoadFailed || hasResource || isCancelled;
   }
 
+  @Override
+  public boolean isDecodeStaged() {
+    return getActiveSourceExecutor().getDecodeStage() != null;
+  }
+
+  @Override
+  public boolean rescheduleDecode(DecodeJob<?> job) {
+    GlideExecutor decodeStage = getActiveSourceExecutor().getDecodeStage();
+    return decodeStage != null && decodeStage.tryExecute(job);
+  }
+
   // We have to post Runnables in a loop. Typically there will be very few callbacks. AccessorMethod
   // seems to be a false positive
   @SuppressWarnings({
@@ -306,7 +372,15 @@ class EngineJob<R> implements DecodeJob.Callback<R>, Poolable {
     isCancelled = false;
     hasResource = false;
     isLoadedFromAlternateCacheKey = false;
-    decodeJob.release(/*isRemovedFromQueue=*/ false);
+    if (hedgedDecode != null) {
+      hedgedDecode.release();
+      hedgedDecode = null;
+    } else if (downscaleJob != null) {
+      downscaleJob.release();
+      downscaleJob = null;
+    } else {
+      decodeJob.release(/*isRemovedFromQueue=*/ false);
+    }
     decodeJob = null;
     exception = null;
     dataSource = null;
@@ -44,6 +44,33 @@ class EngineKey implements Key {
         this.options = Preconditions.checkNotNull(options);
     }
 
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    Options getOptions() {
+        return options;
+    }
+
+    /**
+     * Returns a key for the same load at another size.
+     */
+    EngineKey withSize(int width, int height) {
+        return new EngineKey(
+                model,
+                signature,
+                width,
+                height,
+                transformations,
+                resourceClass,
+                transcodeClass,
+                options);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o instanceof EngineKey) {
@@ -3,11 +3,16 @@ package com.example.glidemini.load.engine;
 import androidx.annotation.NonNull;
 import com.example.glidemini.cache.key.Key;
 import com.bumptech.glide.util.Preconditions;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A wrapper resource that allows reference counting a wrapped {@link
  * com.bumptech.glide.load.engine.Resource} interface.
  *
+ * <p>The reference count is atomic so that binding and unbinding requests never takes a lock.
+ * Recycling moves the count to a terminal value with the same compare-and-set, so a resource is
+ * either acquired or recycled, never both.
+ *
  * @param <Z> The type of data returned by the wrapped {@link Resource}.
  */
 class EngineResource<Z> implements Resource<Z> {
@@ -17,8 +22,9 @@ class EngineResource<Z> implements Resource<Z> {
   private final ResourceListener listener;
   private final Key key;
 
-  private int acquired;
-  private boolean isRecycled;
+  // The number of consumers, or RECYCLED once the resource is recycled.
+  private static final int RECYCLED = -1;
+  private final AtomicInteger acquired = new AtomicInteger();
 
   interface ResourceListener {
     void onResourceReleased(Key key, EngineResource<?> resource);
@@ -63,62 +69,69 @@ class EngineResource<Z> implements Resource<Z> {
   }
 
   @Override
-  public synchronized void recycle() {
-    if (acquired > 0) {
+  public void recycle() {
+    if (!acquired.compareAndSet(0, RECYCLED)) {
+      if (acquired.get() == RECYCLED) {
+        throw new IllegalStateException("Cannot recycle a resource that has already been recycled");
+      }
       throw new IllegalStateException("Cannot recycle a resource while it is still acquired");
     }
-    if (isRecycled) {
-      throw new IllegalStateException("Cannot recycle a resource that has already been recycled");
-    }
-    isRecycled = true;
     if (isRecyclable) {
       resource.recycle();
     }
   }
 
   /**
-   * Increments the number of consumers using the wrapped resource. Must be called on the main
-   * thread.
+   * Increments the number of consumers using the wrapped resource. May be called on any thread.
    *
    * <p>This must be called with a number corresponding to the number of new consumers each time new
    * consumers begin using the wrapped resource. It is always safer to call acquire more often than
    * necessary. Generally external users should never call this method, the framework will take care
    * of this for you.
    */
-  synchronized void acquire() {
-    if (isRecycled) {
+  void acquire() {
+    if (!tryAcquire()) {
       throw new IllegalStateException("Cannot acquire a recycled resource");
     }
-    ++acquired;
   }
 
   /**
-   * Decrements the number of consumers using the wrapped resource. Must be called on the main
-   * thread.
+   * Like {@link #acquire()}, but returns {@code false} instead of throwing if the resource was
+   * recycled, for lookups that may race with the resource's eviction.
+   */
+  boolean tryAcquire() {
+    int current;
+    do {
+      current = acquired.get();
+      if (current == RECYCLED) {
+        return false;
+      }
+    } while (!acquired.compareAndSet(current, current + 1));
+    return true;
+  }
+
+  /**
+   * Decrements the number of consumers using the wrapped resource. May be called on any thread.
    *
    * <p>This must only be called when a consumer that called the {@link #acquire()} method is now
    * done with the resource. Generally external users should never call this method, the framework
    * will take care of this for you.
    */
-  // listener is effectively final.
-  @SuppressWarnings("SynchronizeOnNonFinalField")
   void release() {
-    boolean release = false;
-    synchronized (this) {
-      if (acquired <= 0) {
+    int current;
+    do {
+      current = acquired.get();
+      if (current <= 0) {
         throw new IllegalStateException("Cannot release a recycled or not yet acquired resource");
       }
-      if (--acquired == 0) {
-        release = true;
-      }
-    }
-    if (release) {
+    } while (!acquired.compareAndSet(current, current - 1));
+    if (current == 1) {
       listener.onResourceReleased(key, this);
     }
   }
 
   @Override
-  public synchronized String toString() {
+  public String toString() {
     return "EngineResource{"
         + "isMemoryCacheable="
         + isMemoryCacheable
@@ -127,9 +140,9 @@ class EngineResource<Z> implements Resource<Z> {
         + ", key="
         + key
         + ", acquired="
-        + acquired
+        + Math.max(acquired.get(), 0)
         + ", isRecycled="
-        + isRecycled
+        + (acquired.get() == RECYCLED)
         + ", resource="
         + resource
         + '}';
@@ -0,0 +1,268 @@
+package com.example.glidemini.load.engine;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import androidx.annotation.GuardedBy;
+import com.example.glidemini.cache.key.Key;
+import com.example.glidemini.load.DataSource;
+import com.example.glidemini.util.LogTime;
+import com.example.glidemini.util.Synthetic;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * Races a {@link DecodeJob} that only looks in the disk cache against one that only loads from
+ * source, on behalf of a single {@link EngineJob}. See {@link LoadHedging}.
+ *
+ * <p>The cache job runs first. The source job starts when the cache job fails, or when the cache
+ * job hasn't retrieved any data by the deadline. The first job to produce a resource wins and the
+ * other is cancelled. Anything the loser produces anyway is recycled. The engine job only hears
+ * about a failure once every started job failed.
+ *
+ * <p>Unlike {@link EngineJob}s, instances aren't pooled, so callbacks from a losing job that
+ * arrive after the engine job was released and reused never reach the wrong load.
+ */
+final class HedgedDecode<R> {
+  private static final String TAG = "HedgedDecode";
+  private static final Handler MAIN_THREAD_HANDLER = new Handler(Looper.getMainLooper());
+
+  private final DecodeJob.Callback<R> target;
+  private final LoadHedging loadHedging;
+  private final Key key;
+  private final long deadlineMillis;
+  private final Leg cacheCallback = new Leg(/*isSource=*/ false);
+  private final Leg sourceCallback = new Leg(/*isSource=*/ true);
+  private final Runnable onDeadline =
+      new Runnable() {
+        @Override
+        public void run() {
+          onDeadline();
+        }
+      };
+
+  private DecodeJob<R> cacheJob;
+  private DecodeJob<R> sourceJob;
+  private Executor sourceExecutor;
+  private long startTime;
+
+  @GuardedBy("this")
+  private boolean isSourceStarted;
+
+  @GuardedBy("this")
+  private boolean isRaced;
+
+  @GuardedBy("this")
+  private boolean isDone;
+
+  @GuardedBy("this")
+  private boolean isCancelled;
+
+  @GuardedBy("this")
+  private boolean isReleased;
+
+  @GuardedBy("this")
+  private GlideException cacheFailure;
+
+  @GuardedBy("this")
+  private GlideException sourceFailure;
+
+  HedgedDecode(
+      DecodeJob.Callback<R> target, LoadHedging loadHedging, Key key, long deadlineMillis) {
+    this.target = target;
+    this.loadHedging = loadHedging;
+    this.key = key;
+    this.deadlineMillis = deadlineMillis;
+  }
+
+  /** The callback to build the cache only job with. */
+  DecodeJob.Callback<R> getCacheCallback() {
+    return cacheCallback;
+  }
+
+  /** The callback to build the source only job with. */
+  DecodeJob.Callback<R> getSourceCallback() {
+    return sourceCallback;
+  }
+
+  DecodeJob<R> getCacheJob() {
+    return cacheJob;
+  }
+
+  DecodeJob<R> getSourceJob() {
+    return sourceJob;
+  }
+
+  HedgedDecode<R> init(DecodeJob<R> cacheJob, DecodeJob<R> sourceJob) {
+    this.cacheJob = cacheJob;
+    this.sourceJob = sourceJob;
+    return this;
+  }
+
+  void start(Executor diskCacheExecutor, Executor sourceExecutor) {
+    this.sourceExecutor = sourceExecutor;
+    startTime = LogTime.getLogTime();
+    diskCacheExecutor.execute(cacheJob);
+    MAIN_THREAD_HANDLER.postDelayed(onDeadline, deadlineMillis);
+  }
+
+  void cancel() {
+    boolean isSourceStarted;
+    synchronized (this) {
+      isCancelled = true;
+      isSourceStarted = this.isSourceStarted;
+    }
+    MAIN_THREAD_HANDLER.removeCallbacks(onDeadline);
+    cacheJob.cancel();
+    if (isSourceStarted) {
+      sourceJob.cancel();
+    }
+  }
+
+  /** Called by the engine job once it's done with the load, see {@link DecodeJob#release}. */
+  void release() {
+    boolean isSourceStarted;
+    synchronized (this) {
+      isReleased = true;
+      isSourceStarted = this.isSourceStarted;
+    }
+    MAIN_THREAD_HANDLER.removeCallbacks(onDeadline);
+    cacheJob.release(/*isRemovedFromQueue=*/ false);
+    // A job that was never executed can go straight back to the pool.
+    sourceJob.release(/*isRemovedFromQueue=*/ !isSourceStarted);
+  }
+
+  @Synthetic
+  void onDeadline() {
+    synchronized (this) {
+      if (isDone || isSourceStarted || isCancelled || isReleased || cacheJob.hasRetrievedData()) {
+        return;
+      }
+      isSourceStarted = true;
+      isRaced = true;
+    }
+    if (Log.isLoggable(TAG, Log.VERBOSE)) {
+      Log.v(TAG, "Disk cache missed the " + deadlineMillis + "ms deadline, racing source: " + key);
+    }
+    sourceExecutor.execute(sourceJob);
+  }
+
+  @Synthetic
+  void onResourceReady(
+      boolean isSource,
+      Resource<R> resource,
+      DataSource dataSource,
+      boolean isLoadedFromAlternateCacheKey) {
+    DecodeJob<R> loser = null;
+    LoadHedging.Outcome outcome;
+    synchronized (this) {
+      if (isDone || isReleased) {
+        // We lost, or the engine job let go of the load and may already be handling another.
+        outcome = null;
+      } else {
+        isDone = true;
+        if (isSource) {
+          outcome =
+              isRaced
+                  ? LoadHedging.Outcome.SOURCE_WON_RACE
+                  : LoadHedging.Outcome.SOURCE_AFTER_CACHE_MISS;
+          loser = cacheJob;
+        } else {
+          outcome =
+              isSourceStarted
+                  ? LoadHedging.Outcome.CACHE_WON_RACE
+                  : LoadHedging.Outcome.CACHE_BEFORE_DEADLINE;
+          loser = isSourceStarted ? sourceJob : null;
+        }
+      }
+    }
+    if (outcome == null) {
+      resource.recycle();
+      return;
+    }
+    MAIN_THREAD_HANDLER.removeCallbacks(onDeadline);
+    if (loser != null) {
+      loser.cancel();
+    }
+    loadHedging.record(key, outcome, (long) LogTime.getElapsedMillis(startTime));
+    target.onResourceReady(resource, dataSource, isLoadedFromAlternateCacheKey);
+  }
+
+  @Synthetic
+  void onLoadFailed(boolean isSource, GlideException e) {
+    boolean startSource = false;
+    GlideException failure = null;
+    boolean isCancelled;
+    synchronized (this) {
+      if (isDone || isReleased) {
+        return;
+      }
+      isCancelled = this.isCancelled;
+      if (isSource) {
+        sourceFailure = e;
+      } else {
+        cacheFailure = e;
+      }
+      if (!isSource && !isSourceStarted && !isCancelled && !isReleased) {
+        isSourceStarted = true;
+        startSource = true;
+      } else if (cacheFailure != null && (sourceFailure != null || !isSourceStarted)) {
+        isDone = true;
+        failure =
+            sourceFailure == null
+                ? cacheFailure
+                : new GlideException(
+                    "Failed to load resource from the disk cache or source",
+                    Arrays.<Throwable>asList(cacheFailure, sourceFailure));
+      }
+    }
+    if (startSource) {
+      MAIN_THREAD_HANDLER.removeCallbacks(onDeadline);
+      sourceExecutor.execute(sourceJob);
+    } else if (failure != null) {
+      MAIN_THREAD_HANDLER.removeCallbacks(onDeadline);
+      if (!isCancelled) {
+        loadHedging.record(
+            key, LoadHedging.Outcome.FAILED, (long) LogTime.getElapsedMillis(startTime));
+      }
+      target.onLoadFailed(failure);
+    }
+  }
+
+  /** Tells the races apart for one of the two jobs, and forwards everything else as is. */
+  private final class Leg implements DecodeJob.Callback<R> {
+    private final boolean isSource;
+
+    @Synthetic
+    Leg(boolean isSource) {
+      this.isSource = isSource;
+    }
+
+    @Override
+    public void onResourceReady(
+        Resource<R> resource, DataSource dataSource, boolean isLoadedFromAlternateCacheKey) {
+      HedgedDecode.this.onResourceReady(
+          isSource, resource, dataSource, isLoadedFromAlternateCacheKey);
+    }
+
+    @Override
+    public void onLoadFailed(GlideException e) {
+      HedgedDecode.this.onLoadFailed(isSource, e);
+    }
+
+    @Override
+    public void reschedule(DecodeJob<?> job) {
+      target.reschedule(job);
+    }
+
+    @Override
+    public boolean isDecodeStaged() {
+      return target.isDecodeStaged();
+    }
+
+    @Override
+    public boolean rescheduleDecode(DecodeJob<?> job) {
+      return target.rescheduleDecode(job);
+    }
+  }
+}
@@ -3,12 +3,19 @@ package com.example.glidemini.load.engine;
 import androidx.annotation.VisibleForTesting;
 import com.example.glidemini.cache.key.Key;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * In progress {@link EngineJob}s by key.
+ *
+ * <p>Safe for concurrent use. Callers that need a get followed by a put to be atomic for a given
+ * key (so that two identical keys never start two jobs) must hold that key's lock in {@link
+ * Engine}.
+ */
 final class Jobs {
-  private final Map<Key, EngineJob<?>> jobs = new HashMap<>();
-  private final Map<Key, EngineJob<?>> onlyCacheJobs = new HashMap<>();
+  private final Map<Key, EngineJob<?>> jobs = new ConcurrentHashMap<>();
+  private final Map<Key, EngineJob<?>> onlyCacheJobs = new ConcurrentHashMap<>();
 
   @VisibleForTesting
   Map<Key, EngineJob<?>> getAll() {
@@ -24,10 +31,7 @@ final class Jobs {
   }
 
   void removeIfCurrent(Key key, EngineJob<?> expected) {
-    Map<Key, EngineJob<?>> jobMap = getJobMap(expected.onlyRetrieveFromCache());
-    if (expected.equals(jobMap.get(key))) {
-      jobMap.remove(key);
-    }
+    getJobMap(expected.onlyRetrieveFromCache()).remove(key, expected);
   }
 
   private Map<Key, EngineJob<?>> getJobMap(boolean onlyRetrieveFromCache) {
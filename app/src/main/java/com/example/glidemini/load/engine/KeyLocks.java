@@ -0,0 +1,31 @@
+package com.example.glidemini.load.engine;
+
+import com.example.glidemini.cache.key.Key;
+
+/**
+ * A fixed set of monitors picked by {@link Key} hash, so that work on unrelated keys doesn't
+ * serialize on a single lock while work on equal keys always shares one.
+ */
+final class KeyLocks {
+  private final Object[] locks;
+  private final int shift;
+
+  /** {@code stripes} must be a power of two. */
+  KeyLocks(int stripes) {
+    if (stripes <= 0 || (stripes & (stripes - 1)) != 0) {
+      throw new IllegalArgumentException("Stripes must be a power of two, but was: " + stripes);
+    }
+    shift = 32 - Integer.numberOfTrailingZeros(stripes);
+    locks = new Object[stripes];
+    for (int i = 0; i < stripes; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  Object get(Key key) {
+    // Fibonacci hashing: the high bits of the product depend on every bit of the hash code, so
+    // keys whose hash codes only differ in a few bits still spread over all stripes.
+    long h = (key.hashCode() * 0x9e3779b9) & 0xffffffffL;
+    return locks[(int) (h >>> shift)];
+  }
+}
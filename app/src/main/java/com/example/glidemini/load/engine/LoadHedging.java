@@ -0,0 +1,96 @@
+package com.example.glidemini.load.engine;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.example.glidemini.cache.key.Key;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hedged loads race the disk cache against the source when the disk is slow, and record which one
+ * won.
+ *
+ * <p>Hedging is enabled for the whole engine with {@link #setDeadlineMillis(long)}. A hedged load
+ * first looks in the disk cache only. If that misses, the source is loaded right away, as usual. If
+ * the disk cache hasn't retrieved any data within the deadline, the source is loaded in parallel
+ * and the first of the two to produce a resource wins, the other is cancelled. This helps on
+ * devices with contended flash, where a disk cache hit can be slower than a fetch from a warm CDN.
+ *
+ * <p>The deadline isn't a request option, so it never splits the {@link EngineKey} of otherwise
+ * identical requests. Hedging only applies to loads whose {@link DiskCacheStrategy} decodes cached
+ * data and that may load from source at all.
+ */
+public final class LoadHedging {
+  /** How a hedged load finished. */
+  public enum Outcome {
+    /** The disk cache produced a resource before the deadline, the source was never loaded. */
+    CACHE_BEFORE_DEADLINE,
+    /** The source was loaded after the deadline, but the disk cache still finished first. */
+    CACHE_WON_RACE,
+    /** The source was loaded after the deadline and finished before the disk cache. */
+    SOURCE_WON_RACE,
+    /** The disk cache missed before the deadline and the source was loaded instead. */
+    SOURCE_AFTER_CACHE_MISS,
+    /** Neither the disk cache nor the source produced a resource. */
+    FAILED,
+  }
+
+  /** Receives the outcome of every hedged load. */
+  public interface Listener {
+    /**
+     * Called on whichever thread finished the load, so implementations should be fast. Cancelled
+     * loads aren't reported.
+     *
+     * @param elapsedMillis The time from the start of the load until it finished.
+     */
+    void onHedgedLoadFinished(@NonNull Key key, @NonNull Outcome outcome, long elapsedMillis);
+  }
+
+  private final AtomicLongArray outcomeCounts = new AtomicLongArray(Outcome.values().length);
+  @Nullable private volatile Listener listener;
+  private volatile long deadlineMillis;
+
+  LoadHedging() {}
+
+  /**
+   * Sets how long a load waits for the disk cache before it starts loading the source in parallel.
+   * Defaults to 0, which disables hedging. Only applies to loads started afterwards.
+   */
+  public void setDeadlineMillis(long deadlineMillis) {
+    this.deadlineMillis = deadlineMillis;
+  }
+
+  /** Returns the deadline of hedged loads, or 0 if hedging is disabled. */
+  public long getDeadlineMillis() {
+    return deadlineMillis;
+  }
+
+  /** Sets a listener for the outcome of individual hedged loads, or {@code null} to remove it. */
+  public void setListener(@Nullable Listener listener) {
+    this.listener = listener;
+  }
+
+  /** Returns the number of hedged loads that finished with the given outcome. */
+  public long getCount(@NonNull Outcome outcome) {
+    return outcomeCounts.get(outcome.ordinal());
+  }
+
+  void record(@NonNull Key key, @NonNull Outcome outcome, long elapsedMillis) {
+    outcomeCounts.incrementAndGet(outcome.ordinal());
+    Listener local = listener;
+    if (local != null) {
+      local.onHedgedLoadFinished(key, outcome, elapsedMillis);
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder("LoadHedging{");
+    for (Outcome outcome : Outcome.values()) {
+      if (outcome.ordinal() > 0) {
+        result.append(", ");
+      }
+      result.append(outcome).append('=').append(getCount(outcome));
+    }
+    return result.append('}').toString();
+  }
+}
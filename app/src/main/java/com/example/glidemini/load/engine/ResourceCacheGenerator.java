@@ -1,19 +1,22 @@
 package com.example.glidemini.load.engine;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.example.glidemini.load.CacheValidators;
 import com.example.glidemini.load.DataSource;
 import com.example.glidemini.cache.key.Key;
 import com.example.glidemini.load.Transformation;
-import com.bumptech.glide.load.data.DataFetcher;
-import com.bumptech.glide.load.model.ModelLoader;
-import com.bumptech.glide.load.model.ModelLoader.LoadData;
+import com.example.glidemini.loader.model.DataFetcher;
+import com.example.glidemini.loader.model.LoadData;
+import com.example.glidemini.loader.model.ModelLoader;
 import com.bumptech.glide.util.pool.GlideTrace;
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
- * Generates {@link com.bumptech.glide.load.data.DataFetcher DataFetchers} from cache files
- * containing downsampled/transformed resource data.
+ * Generates {@link DataFetcher DataFetchers} from cache files containing downsampled/transformed
+ * resource data.
  */
 class ResourceCacheGenerator implements DataFetcherGenerator, DataFetcher.DataCallback<Object> {
 
@@ -23,13 +26,13 @@ class ResourceCacheGenerator implements DataFetcherGenerator, DataFetcher.DataCa
   private int sourceIdIndex;
   private int resourceClassIndex = -1;
   private Key sourceKey;
-  private List<ModelLoader<File, ?>> modelLoaders;
+  private List<ModelLoader<Object, ?>> modelLoaders;
   private int modelLoaderIndex;
   private volatile LoadData<?> loadData;
-  // PMD is wrong here, this File must be an instance variable because it may be used across
-  // multiple calls to startNext.
+  // PMD is wrong here, this must be an instance variable because it may be used across multiple
+  // calls to startNext. Either a read-only ByteBuffer mapping of the cache entry or the cache File.
   @SuppressWarnings("PMD.SingularField")
-  private File cacheFile;
+  private Object cacheData;
 
   private ResourceCacheKey currentKey;
 
@@ -70,6 +73,15 @@ class ResourceCacheGenerator implements DataFetcherGenerator, DataFetcher.DataCa
         }
 
         Key sourceId = sourceIds.get(sourceIdIndex);
+        String sourceVersion = null;
+        if (helper.isRevalidationEnabled()) {
+          sourceVersion = getSourceVersion(sourceId);
+          if (sourceVersion == null) {
+            // Skip to the next source id, the cached source data has to be revalidated first.
+            resourceClassIndex = resourceClasses.size() - 1;
+            continue;
+          }
+        }
         Class<?> resourceClass = resourceClasses.get(resourceClassIndex);
         Transformation<?> transformation = helper.getTransformation(resourceClass);
         // PMD.AvoidInstantiatingObjectsInLoops Each iteration is comparatively expensive anyway,
@@ -84,11 +96,12 @@ class ResourceCacheGenerator implements DataFetcherGenerator, DataFetcher.DataCa
                 helper.getHeight(),
                 transformation,
                 resourceClass,
-                helper.getOptions());
-        cacheFile = helper.getDiskCache().get(currentKey);
-        if (cacheFile != null) {
+                helper.getOptions(),
+                sourceVersion);
+        cacheData = getCacheData(currentKey);
+        if (cacheData != null) {
           sourceKey = sourceId;
-          modelLoaders = helper.getModelLoaders(cacheFile);
+          modelLoaders = helper.getModelLoaders(cacheData);
           modelLoaderIndex = 0;
         }
       }
@@ -96,13 +109,13 @@ class ResourceCacheGenerator implements DataFetcherGenerator, DataFetcher.DataCa
       loadData = null;
       boolean started = false;
       while (!started && hasNextModelLoader()) {
-        ModelLoader<File, ?> modelLoader = modelLoaders.get(modelLoaderIndex++);
+        ModelLoader<Object, ?> modelLoader = modelLoaders.get(modelLoaderIndex++);
         loadData =
             modelLoader.buildLoadData(
-                cacheFile, helper.getWidth(), helper.getHeight(), helper.getOptions());
-        if (loadData != null && helper.hasLoadPath(loadData.fetcher.getDataClass())) {
+                cacheData, helper.getWidth(), helper.getHeight(), helper.getOptions());
+        if (loadData != null && helper.hasLoadPath(loadData.getFetcher().getDataClass())) {
           started = true;
-          loadData.fetcher.loadData(helper.getPriority(), this);
+          loadData.getFetcher().loadData(helper.getPriority(), this);
         }
       }
 
@@ -112,6 +125,33 @@ class ResourceCacheGenerator implements DataFetcherGenerator, DataFetcher.DataCa
     }
   }
 
+  @Nullable
+  private Object getCacheData(Key key) {
+    return DataCacheGenerator.getCacheData(
+        helper.getDiskCache(), key, helper.hasLoadPath(ByteBuffer.class));
+  }
+
+  /**
+   * Returns the version of the cached source data that resources are cached for, or {@code null}
+   * if the source data is missing or expired, in which case it's revalidated by the data cache and
+   * source generators and the resource has to be decoded again.
+   */
+  @Nullable
+  private String getSourceVersion(Key sourceId) {
+    DataCacheKey key = new DataCacheKey(sourceId, helper.getSignature());
+    CacheValidators validators = helper.getSourceValidators(key);
+    if (validators == null) {
+      return null;
+    }
+    if (helper.isExpired(validators)) {
+      if (!helper.isStaleWhileRevalidate()) {
+        return null;
+      }
+      helper.revalidateInBackground(key, validators);
+    }
+    return validators.getVersion();
+  }
+
   private boolean hasNextModelLoader() {
     return modelLoaderIndex < modelLoaders.size();
   }
@@ -120,18 +160,18 @@ class ResourceCacheGenerator implements DataFetcherGenerator, DataFetcher.DataCa
   public void cancel() {
     LoadData<?> local = loadData;
     if (local != null) {
-      local.fetcher.cancel();
+      local.getFetcher().cancel();
     }
   }
 
   @Override
   public void onDataReady(Object data) {
     cb.onDataFetcherReady(
-        sourceKey, data, loadData.fetcher, DataSource.RESOURCE_DISK_CACHE, currentKey);
+        sourceKey, data, loadData.getFetcher(), DataSource.RESOURCE_DISK_CACHE, currentKey);
   }
 
   @Override
   public void onLoadFailed(@NonNull Exception e) {
-    cb.onDataFetcherFailed(currentKey, e, loadData.fetcher, DataSource.RESOURCE_DISK_CACHE);
+    cb.onDataFetcherFailed(currentKey, e, loadData.getFetcher(), DataSource.RESOURCE_DISK_CACHE);
   }
 }
@@ -1,10 +1,11 @@
 package com.example.glidemini.load.engine;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.example.glidemini.bitmapRecycle.ArrayPool;
 import com.example.glidemini.cache.key.Key;
 import com.example.glidemini.load.Options;
 import com.example.glidemini.load.Transformation;
-import com.bumptech.glide.load.engine.bitmap_recycle.ArrayPool;
 import com.bumptech.glide.util.LruCache;
 import com.bumptech.glide.util.Util;
 import java.nio.ByteBuffer;
@@ -21,6 +22,9 @@ final class ResourceCacheKey implements Key {
   private final Class<?> decodedResourceClass;
   private final Options options;
   private final Transformation<?> transformation;
+  // The version of the cached source data the resource was derived from, null unless the source
+  // data is revalidated. See com.example.glidemini.load.CacheValidators.
+  @Nullable private final String sourceVersion;
 
   ResourceCacheKey(
       ArrayPool arrayPool,
@@ -31,6 +35,28 @@ final class ResourceCacheKey implements Key {
       Transformation<?> appliedTransformation,
       Class<?> decodedResourceClass,
       Options options) {
+    this(
+        arrayPool,
+        sourceKey,
+        signature,
+        width,
+        height,
+        appliedTransformation,
+        decodedResourceClass,
+        options,
+        /*sourceVersion=*/ null);
+  }
+
+  ResourceCacheKey(
+      ArrayPool arrayPool,
+      Key sourceKey,
+      Key signature,
+      int width,
+      int height,
+      Transformation<?> appliedTransformation,
+      Class<?> decodedResourceClass,
+      Options options,
+      @Nullable String sourceVersion) {
     this.arrayPool = arrayPool;
     this.sourceKey = sourceKey;
     this.signature = signature;
@@ -39,6 +65,7 @@ final class ResourceCacheKey implements Key {
     this.transformation = appliedTransformation;
     this.decodedResourceClass = decodedResourceClass;
     this.options = options;
+    this.sourceVersion = sourceVersion;
   }
 
   @Override
@@ -51,7 +78,8 @@ final class ResourceCacheKey implements Key {
           && decodedResourceClass.equals(other.decodedResourceClass)
           && sourceKey.equals(other.sourceKey)
           && signature.equals(other.signature)
-          && options.equals(other.options);
+          && options.equals(other.options)
+          && Util.bothNullOrEqual(sourceVersion, other.sourceVersion);
     }
     return false;
   }
@@ -67,6 +95,9 @@ final class ResourceCacheKey implements Key {
     }
     result = 31 * result + decodedResourceClass.hashCode();
     result = 31 * result + options.hashCode();
+    if (sourceVersion != null) {
+      result = 31 * result + sourceVersion.hashCode();
+    }
     return result;
   }
 
@@ -83,6 +114,9 @@ final class ResourceCacheKey implements Key {
     }
     options.updateDiskCacheKey(messageDigest);
     messageDigest.update(getResourceClassBytes());
+    if (sourceVersion != null) {
+      messageDigest.update(sourceVersion.getBytes(CHARSET));
+    }
     arrayPool.put(dimensions);
   }
 
@@ -113,6 +147,8 @@ final class ResourceCacheKey implements Key {
         + '\''
         + ", options="
         + options
+        + ", sourceVersion="
+        + sourceVersion
         + '}';
   }
 }
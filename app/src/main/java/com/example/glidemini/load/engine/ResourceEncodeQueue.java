@@ -0,0 +1,169 @@
+package com.example.glidemini.load.engine;
+
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+import androidx.annotation.GuardedBy;
+import com.example.glidemini.cache.DiskCache;
+import com.example.glidemini.cache.key.Key;
+import com.example.glidemini.util.Synthetic;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Writes resources to the disk cache behind loads, so that {@link DecodeJob}s hand their
+ * transformed resources off and move on to the next decode instead of compressing them first.
+ *
+ * <p>Writes are run one at a time, oldest first, on a dedicated executor. A write for a key that's
+ * already waiting is dropped, since it would produce the same entry. Waiting writes keep their
+ * resources locked, so the queue holds at most {@code maxPendingBytes} of them, plus one larger
+ * write when it's otherwise empty. Writes that don't fit are dropped, and all waiting writes are
+ * dropped when the app is asked to trim its memory. A dropped write only costs a future load the
+ * resource cache hit.
+ */
+final class ResourceEncodeQueue {
+  private static final String TAG = "ResourceEncodeQueue";
+  static final long DEFAULT_MAX_PENDING_BYTES = 8 * 1024 * 1024;
+
+  private final DecodeJob.DiskCacheProvider diskCacheProvider;
+  private final Executor executor;
+  private final long maxPendingBytes;
+  private final Runnable drain =
+      new Runnable() {
+        @Override
+        public void run() {
+          drain();
+        }
+      };
+
+  @GuardedBy("this")
+  private final LinkedHashMap<Key, PendingWrite> pending = new LinkedHashMap<>();
+
+  @GuardedBy("this")
+  private long pendingBytes;
+
+  @GuardedBy("this")
+  private boolean isDraining;
+
+  ResourceEncodeQueue(
+      DecodeJob.DiskCacheProvider diskCacheProvider, Executor executor, long maxPendingBytes) {
+    this.diskCacheProvider = diskCacheProvider;
+    this.executor = executor;
+    this.maxPendingBytes = maxPendingBytes;
+  }
+
+  /**
+   * Queues the given write.
+   *
+   * @param onFinished Run exactly once, after the write or when it's dropped, to release the
+   *     resource the writer encodes.
+   */
+  void enqueue(Key key, DiskCache.Writer writer, int sizeBytes, Runnable onFinished) {
+    String dropReason = null;
+    boolean isDrainNeeded = false;
+    synchronized (this) {
+      if (pending.containsKey(key)) {
+        dropReason = "already queued";
+      } else if (!pending.isEmpty() && pendingBytes + sizeBytes > maxPendingBytes) {
+        dropReason = "queue full";
+      } else {
+        pending.put(key, new PendingWrite(key, writer, sizeBytes, onFinished));
+        pendingBytes += sizeBytes;
+        if (!isDraining) {
+          isDraining = true;
+          isDrainNeeded = true;
+        }
+      }
+    }
+    if (dropReason != null) {
+      if (Log.isLoggable(TAG, Log.VERBOSE)) {
+        Log.v(TAG, "Dropped write (" + dropReason + "), key: " + key);
+      }
+      onFinished.run();
+    } else if (isDrainNeeded) {
+      try {
+        executor.execute(drain);
+      } catch (RejectedExecutionException e) {
+        // The engine is shutting down, nothing will ever write these.
+        synchronized (this) {
+          isDraining = false;
+        }
+        dropAll();
+      }
+    }
+  }
+
+  /** Drops waiting writes when memory is low, see {@link ComponentCallbacks2#onTrimMemory(int)}. */
+  void trimMemory(int level) {
+    if (level < ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+        && level != ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+      return;
+    }
+    int count = dropAll();
+    if (count > 0 && Log.isLoggable(TAG, Log.DEBUG)) {
+      Log.d(TAG, "Dropped " + count + " writes, trim level: " + level);
+    }
+  }
+
+  /**
+   * Drops all waiting writes, for example when the engine shuts down.
+   *
+   * @return The number of writes dropped.
+   */
+  int dropAll() {
+    List<PendingWrite> dropped;
+    synchronized (this) {
+      dropped = new ArrayList<>(pending.values());
+      pending.clear();
+      pendingBytes = 0;
+    }
+    for (PendingWrite write : dropped) {
+      write.onFinished.run();
+    }
+    return dropped.size();
+  }
+
+  @Synthetic
+  void drain() {
+    while (true) {
+      PendingWrite next;
+      synchronized (this) {
+        Iterator<PendingWrite> iterator = pending.values().iterator();
+        if (!iterator.hasNext()) {
+          isDraining = false;
+          return;
+        }
+        next = iterator.next();
+        iterator.remove();
+        pendingBytes -= next.sizeBytes;
+      }
+      try {
+        diskCacheProvider.getDiskCache().put(next.key, next.writer);
+      } catch (RuntimeException e) {
+        // Keep draining, one broken encoder shouldn't block every other write.
+        if (Log.isLoggable(TAG, Log.WARN)) {
+          Log.w(TAG, "Failed to write resource to the disk cache, key: " + next.key, e);
+        }
+      } finally {
+        next.onFinished.run();
+      }
+    }
+  }
+
+  private static final class PendingWrite {
+    @Synthetic final Key key;
+    @Synthetic final DiskCache.Writer writer;
+    @Synthetic final int sizeBytes;
+    @Synthetic final Runnable onFinished;
+
+    PendingWrite(Key key, DiskCache.Writer writer, int sizeBytes, Runnable onFinished) {
+      this.key = key;
+      this.writer = writer;
+      this.sizeBytes = sizeBytes;
+      this.onFinished = onFinished;
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package com.example.glidemini.load.engine;
+
+import androidx.annotation.GuardedBy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares one in-flight source fetch among all loads of the same source data.
+ *
+ * <p>{@link Jobs} only merges loads with equal {@link EngineKey}s, so loading the same url at two
+ * sizes, or with and without a transformation, starts two jobs. Without coalescing both would
+ * fetch the source if they start before its data is in the disk cache.
+ *
+ * <p>The first {@link SourceGenerator} to fetch a {@link DataCacheKey} leads, later ones wait
+ * without holding a thread. Once the leader has written the data to the disk cache, the waiters
+ * decode it from there. If the leader fails or is cancelled, the waiters are rescheduled and
+ * fetch the data themselves, again through the coalescer.
+ *
+ * <p>Only fetches whose data is written to the disk cache can be shared this way, see {@link
+ * SourceGenerator}.
+ */
+final class SourceFetchCoalescer {
+
+  /** Notified on the leader's thread when a fetch it waited for finished. */
+  interface Waiter {
+    /**
+     * @param isCached {@code true} if the data is now in the disk cache, {@code false} if the
+     *     waiter has to fetch it itself.
+     */
+    void onSharedFetchFinished(boolean isCached);
+  }
+
+  // Keys of fetches in progress, mapped to the loads waiting for them.
+  @GuardedBy("this")
+  private final Map<DataCacheKey, List<Waiter>> inProgress = new HashMap<>();
+
+  /**
+   * Returns {@code true} if the caller should fetch the data for the given key itself, in which
+   * case it must call {@link #finish(DataCacheKey, boolean)} once it's done. Otherwise the waiter
+   * is notified once the fetch in progress finishes.
+   */
+  synchronized boolean startOrWait(DataCacheKey key, Waiter waiter) {
+    List<Waiter> waiters = inProgress.get(key);
+    if (waiters == null) {
+      inProgress.put(key, new ArrayList<Waiter>());
+      return true;
+    }
+    waiters.add(waiter);
+    return false;
+  }
+
+  /** Ends the fetch for the given key and notifies the loads waiting for it. */
+  void finish(DataCacheKey key, boolean isCached) {
+    List<Waiter> waiters;
+    synchronized (this) {
+      waiters = inProgress.remove(key);
+    }
+    if (waiters == null) {
+      return;
+    }
+    //noinspection ForLoopReplaceableByForEach to improve perf
+    for (int i = 0, size = waiters.size(); i < size; i++) {
+      waiters.get(i).onSharedFetchFinished(isCached);
+    }
+  }
+
+  /**
+   * Stops waiting for the fetch for the given key, for example because the load was cancelled.
+   *
+   * @return {@code true} if the waiter was removed, {@code false} if it wasn't waiting for the key
+   *     or the fetch already finished, in which case the waiter is or was notified.
+   */
+  synchronized boolean stopWaiting(DataCacheKey key, Waiter waiter) {
+    List<Waiter> waiters = inProgress.get(key);
+    return waiters != null && waiters.remove(waiter);
+  }
+}
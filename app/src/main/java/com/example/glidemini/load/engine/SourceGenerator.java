@@ -3,55 +3,117 @@ package com.example.glidemini.load.engine;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import com.example.glidemini.load.CacheValidators;
 import com.example.glidemini.load.DataSource;
 import com.example.glidemini.load.Encoder;
 import com.example.glidemini.cache.key.Key;
-import com.bumptech.glide.load.data.DataFetcher;
-import com.bumptech.glide.load.data.DataFetcher.DataCallback;
+import com.example.glidemini.loader.model.DataFetcher;
+import com.example.glidemini.loader.model.DataFetcher.DataCallback;
 import com.bumptech.glide.load.data.DataRewinder;
-import com.bumptech.glide.load.engine.cache.DiskCache;
-import com.bumptech.glide.load.model.ModelLoader;
-import com.bumptech.glide.load.model.ModelLoader.LoadData;
+import com.example.glidemini.cache.DiskCache;
+import com.example.glidemini.loader.model.LoadData;
 import com.bumptech.glide.util.LogTime;
 import com.bumptech.glide.util.Synthetic;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collections;
 
 /**
- * Generates {@link com.bumptech.glide.load.data.DataFetcher DataFetchers} from original source data
- * using registered {@link com.bumptech.glide.load.model.ModelLoader ModelLoaders} and the model
- * provided for the load.
+ * Generates {@link DataFetcher DataFetchers} from original source data using registered {@link
+ * com.example.glidemini.loader.model.ModelLoader ModelLoaders} and the model provided for the load.
  *
  * <p>Depending on the disk cache strategy, source data may first be written to disk and then loaded
- * from the cache file rather than returned directly.
+ * from the cache file rather than returned directly. Source {@link InputStream}s are instead
+ * decoded and written to the disk cache in a single pass when the disk cache supports {@link
+ * DiskCache#edit}, so the first decode doesn't wait for a disk round trip.
+ *
+ * <p>Expired source data in the disk cache is revalidated with a conditional request, see {@link
+ * CacheValidators}. If the source wasn't modified, the cached data is decoded instead.
+ *
+ * <p>Concurrent fetches of source data that's written to the disk cache are shared through {@link
+ * SourceFetchCoalescer}: while another load fetches the same data, this one waits and then decodes
+ * the data that load cached.
  *
  * <p>This object may be used by multiple threads, but only one at a time. It is not safe to access
  * this object on multiple threads concurrently.
  */
-class SourceGenerator implements DataFetcherGenerator, DataFetcherGenerator.FetcherReadyCallback {
+class SourceGenerator
+    implements DataFetcherGenerator,
+        DataFetcherGenerator.FetcherReadyCallback,
+        SourceFetchCoalescer.Waiter {
   private static final String TAG = "SourceGenerator";
 
   private final DecodeHelper<?> helper;
   private final FetcherReadyCallback cb;
+  private final boolean isDecodeWhileCachingAllowed;
 
   private volatile int loadDataListIndex;
   private volatile DataCacheGenerator sourceCacheGenerator;
   private volatile Object dataToCache;
-  private volatile ModelLoader.LoadData<?> loadData;
+  private volatile LoadData<?> loadData;
   private volatile DataCacheKey originalKey;
+  // Set while a decode reads from teeFetcher, which writes to teeEditor as it goes.
+  private volatile DiskCache.Editor teeEditor;
+  private volatile TeeDataFetcher teeFetcher;
+  // Set when a conditional request found the cached entry unchanged.
+  private volatile DataCacheKey notModifiedKey;
+  // The fetch this generator leads, other loads of the same data wait for it to finish.
+  private volatile DataCacheKey sharedFetchKey;
+  // The fetch of another load this generator waits for.
+  private volatile DataCacheKey waitingKey;
+  // Set when the fetch we waited for finished, to the key of the data it cached, if any.
+  private volatile DataCacheKey sharedDataKey;
+  private volatile boolean isSharedFetchFailed;
 
-  SourceGenerator(DecodeHelper<?> helper, FetcherReadyCallback cb) {
+  // isDecodeWhileCachingAllowed: false to always cache source data before decoding it.
+  SourceGenerator(
+      DecodeHelper<?> helper, FetcherReadyCallback cb, boolean isDecodeWhileCachingAllowed) {
     this.helper = helper;
     this.cb = cb;
+    this.isDecodeWhileCachingAllowed = isDecodeWhileCachingAllowed;
   }
 
   // Concurrent access isn't supported.
   @SuppressWarnings({"NonAtomicOperationOnVolatileField", "NonAtomicVolatileUpdate"})
   @Override
   public boolean startNext() {
+    if (notModifiedKey != null) {
+      DataCacheKey key = notModifiedKey;
+      notModifiedKey = null;
+      onNotModified(key);
+    }
+    if (sharedDataKey != null) {
+      DataCacheKey key = sharedDataKey;
+      sharedDataKey = null;
+      originalKey = key;
+      sourceCacheGenerator =
+          new DataCacheGenerator(Collections.singletonList(key.getSourceKey()), helper, this);
+      if (sourceCacheGenerator.startNext()) {
+        return true;
+      }
+      // Evicted already, fetch it ourselves.
+      sourceCacheGenerator = null;
+      startOrWait(loadData);
+      return true;
+    }
+    if (isSharedFetchFailed) {
+      isSharedFetchFailed = false;
+      startOrWait(loadData);
+      return true;
+    }
+    if (teeEditor != null) {
+      // DecodeJob only calls back into startNext during a tee decode if the decode failed, so the
+      // cache file must not be committed.
+      finishTee(/*isDecoded=*/ false);
+    }
     if (dataToCache != null) {
       Object data = dataToCache;
       dataToCache = null;
+      if (isDecodeWhileCachingAllowed
+          && data instanceof InputStream
+          && decodeWhileCaching((InputStream) data)) {
+        return true;
+      }
       try {
         boolean isDataInCache = cacheData(data);
         // If we failed to write the data to cache, the cacheData method will try to decode the
@@ -69,6 +131,7 @@ class SourceGenerator implements DataFetcherGenerator, DataFetcherGenerator.Fetc
         if (Log.isLoggable(TAG, Log.DEBUG)) {
           Log.d(TAG, "Failed to properly rewind or write data to cache", e);
         }
+        finishSharedFetch(/*isCached=*/ false);
       }
     }
 
@@ -82,17 +145,46 @@ class SourceGenerator implements DataFetcherGenerator, DataFetcherGenerator.Fetc
     while (!started && hasNextModelLoader()) {
       loadData = helper.getLoadData().get(loadDataListIndex++);
       if (loadData != null
-          && (helper.getDiskCacheStrategy().isDataCacheable(loadData.fetcher.getDataSource())
-              || helper.hasLoadPath(loadData.fetcher.getDataClass()))) {
+          && (helper.getDiskCacheStrategy().isDataCacheable(loadData.getFetcher().getDataSource())
+              || helper.hasLoadPath(loadData.getFetcher().getDataClass()))) {
         started = true;
-        startNextLoad(loadData);
+        startOrWait(loadData);
       }
     }
     return started;
   }
 
+  // Starts the given load, unless another load is already fetching the same data for the disk
+  // cache, in which case we wait for it instead.
+  private void startOrWait(LoadData<?> toStart) {
+    DiskCacheStrategy diskCacheStrategy = helper.getDiskCacheStrategy();
+    if (diskCacheStrategy.isDataCacheable(toStart.getFetcher().getDataSource())
+        && diskCacheStrategy.decodeCachedData()) {
+      DataCacheKey key = new DataCacheKey(toStart.getSourceKey(), helper.getSignature());
+      // Set before joining, the fetch we join may finish right away on another thread.
+      waitingKey = key;
+      if (!helper.getSourceFetchCoalescer().startOrWait(key, this)) {
+        if (Log.isLoggable(TAG, Log.VERBOSE)) {
+          Log.v(TAG, "Waiting for another load to fetch: " + key);
+        }
+        return;
+      }
+      waitingKey = null;
+      sharedFetchKey = key;
+    }
+    startNextLoad(toStart);
+  }
+
   private void startNextLoad(final LoadData<?> toStart) {
-    loadData.fetcher.loadData(
+    CacheValidators staleValidators =
+        helper.getStaleValidators(new DataCacheKey(toStart.getSourceKey(), helper.getSignature()));
+    if (staleValidators != null
+        && staleValidators.hasValidators()
+        && toStart.getFetcher() instanceof CacheValidators.ConditionalFetcher) {
+      ((CacheValidators.ConditionalFetcher) toStart.getFetcher())
+          .setConditionalValidators(staleValidators);
+    }
+    loadData.getFetcher().loadData(
         helper.getPriority(),
         new DataCallback<Object>() {
           @Override
@@ -136,8 +228,10 @@ class SourceGenerator implements DataFetcherGenerator, DataFetcherGenerator.Fetc
       Object data = rewinder.rewindAndGet();
       Encoder<Object> encoder = helper.getSourceEncoder(data);
       DataCacheWriter<Object> writer = new DataCacheWriter<>(encoder, data, helper.getOptions());
-      DataCacheKey newOriginalKey = new DataCacheKey(loadData.sourceKey, helper.getSignature());
+      DataCacheKey newOriginalKey =
+          new DataCacheKey(loadData.getSourceKey(), helper.getSignature());
       DiskCache diskCache = helper.getDiskCache();
+      deleteStaleEntry(newOriginalKey);
       diskCache.put(newOriginalKey, writer);
       if (Log.isLoggable(TAG, Log.VERBOSE)) {
         Log.v(
@@ -153,10 +247,13 @@ class SourceGenerator implements DataFetcherGenerator, DataFetcherGenerator.Fetc
                 + LogTime.getElapsedMillis(startTime));
       }
 
-      if (diskCache.get(newOriginalKey) != null) {
+      if (diskCache.contains(newOriginalKey)) {
+        storeResponseValidators(newOriginalKey);
+        finishSharedFetch(/*isCached=*/ true);
         originalKey = newOriginalKey;
         sourceCacheGenerator =
-            new DataCacheGenerator(Collections.singletonList(loadData.sourceKey), helper, this);
+            new DataCacheGenerator(
+                Collections.singletonList(loadData.getSourceKey()), helper, this);
         // We were able to write the data to cache.
         return true;
       } else {
@@ -172,28 +269,209 @@ class SourceGenerator implements DataFetcherGenerator, DataFetcherGenerator.Fetc
                   + " Trying to decode the data directly...");
         }
 
+        finishSharedFetch(/*isCached=*/ false);
         isLoadingFromSourceData = true;
         cb.onDataFetcherReady(
-            loadData.sourceKey,
+            loadData.getSourceKey(),
             rewinder.rewindAndGet(),
-            loadData.fetcher,
-            loadData.fetcher.getDataSource(),
-            loadData.sourceKey);
+            loadData.getFetcher(),
+            loadData.getFetcher().getDataSource(),
+            loadData.getSourceKey());
       }
       // We failed to write the data to cache.
       return false;
     } finally {
       if (!isLoadingFromSourceData) {
-        loadData.fetcher.cleanup();
+        loadData.getFetcher().cleanup();
       }
     }
   }
 
+  /**
+   * Decodes the given source stream and writes it to the disk cache in the same pass, rather than
+   * writing it to the cache first and decoding the cache file afterwards.
+   *
+   * <p>Returns {@code false} without reading the stream if it can't be decoded directly or the disk
+   * cache doesn't support streaming edits, in which case the stream should be cached by {@link
+   * #cacheData(Object)} instead.
+   */
+  private boolean decodeWhileCaching(InputStream data) {
+    if (!helper.hasLoadPath(InputStream.class)) {
+      return false;
+    }
+    DataCacheKey newOriginalKey = new DataCacheKey(loadData.getSourceKey(), helper.getSignature());
+    deleteStaleEntry(newOriginalKey);
+    DiskCache.Editor editor = helper.getDiskCache().edit(newOriginalKey);
+    if (editor == null) {
+      return false;
+    }
+    TeeDataFetcher fetcher;
+    try {
+      fetcher =
+          new TeeDataFetcher(loadData.getFetcher(), data, editor.getFile(), helper.getArrayPool());
+    } catch (IOException e) {
+      if (Log.isLoggable(TAG, Log.DEBUG)) {
+        Log.d(TAG, "Failed to open the disk cache file, caching before decoding instead", e);
+      }
+      editor.abortUnlessCommitted();
+      return false;
+    }
+    originalKey = newOriginalKey;
+    teeEditor = editor;
+    teeFetcher = fetcher;
+    if (helper.isRevalidationEnabled()) {
+      // The resource is cached for the version of the data we're writing, see DecodeJob.
+      helper.setSourceValidators(
+          newOriginalKey, SourceRevalidator.getResponseValidators(loadData.getFetcher()));
+    }
+    // DecodeJob decodes synchronously because we're on its thread. If the decode produces a
+    // resource, it calls onSourceDecoded before the job can be released. If the decode fails it
+    // calls startNext again, which aborts the edit before moving on to the next loader.
+    try {
+      cb.onDataFetcherReady(
+          loadData.getSourceKey(),
+          fetcher.getStream(),
+          fetcher,
+          loadData.getFetcher().getDataSource(),
+          loadData.getSourceKey());
+    } finally {
+      // Still ours if the decode threw, or failed after the job was cancelled.
+      if (teeEditor == editor) {
+        finishTee(/*isDecoded=*/ false);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Called by {@link DecodeJob} once the data passed to it was decoded into a resource, before the
+   * job can be released. Finishes writing a stream decoded while it was cached.
+   *
+   * @param isCancelled {@code true} if the job was cancelled, in which case the partially written
+   *     cache file is dropped rather than completed.
+   */
+  void onSourceDecoded(boolean isCancelled) {
+    if (teeEditor != null) {
+      finishTee(/*isDecoded=*/ !isCancelled);
+    }
+  }
+
+  // Commits the cache file if the decode succeeded and the rest of the source could be copied.
+  private void finishTee(boolean isDecoded) {
+    DiskCache.Editor editor = teeEditor;
+    TeeDataFetcher fetcher = teeFetcher;
+    teeEditor = null;
+    teeFetcher = null;
+    boolean isCommitted = false;
+    try {
+      if (isDecoded && fetcher.copyRemaining()) {
+        editor.commit();
+        isCommitted = true;
+        if (helper.isRevalidationEnabled()) {
+          writeValidators(originalKey, helper.getSourceValidators(originalKey));
+        }
+      }
+    } finally {
+      editor.abortUnlessCommitted();
+      fetcher.release();
+      finishSharedFetch(isCommitted);
+    }
+  }
+
+  // Puts and edits don't overwrite existing entries, so an expired entry that's being replaced has
+  // to be deleted first.
+  private void deleteStaleEntry(DataCacheKey key) {
+    if (helper.getStaleValidators(key) != null) {
+      helper.getDiskCache().delete(key);
+    }
+  }
+
+  // Always stores validators, an entry without them is treated as expired.
+  private void storeResponseValidators(DataCacheKey key) {
+    if (helper.isRevalidationEnabled()) {
+      writeValidators(key, SourceRevalidator.getResponseValidators(loadData.getFetcher()));
+    }
+  }
+
+  private void writeValidators(DataCacheKey key, @Nullable CacheValidators validators) {
+    SourceRevalidator.write(helper.getDiskCache(), key, validators);
+    helper.setSourceValidators(key, validators);
+  }
+
+  // Marks the cached entry fresh again and decodes it instead of the source.
+  private void onNotModified(DataCacheKey key) {
+    CacheValidators staleValidators = helper.getStaleValidators(key);
+    CacheValidators response =
+        ((CacheValidators.ConditionalFetcher) loadData.getFetcher()).getResponseValidators();
+    loadData.getFetcher().cleanup();
+    writeValidators(key, staleValidators.refresh(response, System.currentTimeMillis()));
+    if (Log.isLoggable(TAG, Log.VERBOSE)) {
+      Log.v(TAG, "Source wasn't modified, decoding cached data for: " + key);
+    }
+    finishSharedFetch(/*isCached=*/ true);
+    originalKey = key;
+    sourceCacheGenerator =
+        new DataCacheGenerator(Collections.singletonList(key.getSourceKey()), helper, this);
+  }
+
+  // Lets loads waiting for our fetch go on, either from the disk cache or with their own fetch.
+  private void finishSharedFetch(boolean isCached) {
+    DataCacheKey key = sharedFetchKey;
+    if (key != null) {
+      sharedFetchKey = null;
+      helper.getSourceFetchCoalescer().finish(key, isCached);
+    }
+  }
+
+  /**
+   * Stops leading or waiting for a shared fetch, called when the load ends or is cancelled before
+   * the fetch finished.
+   */
+  void releaseSharedFetch() {
+    finishSharedFetch(/*isCached=*/ false);
+    stopWaiting();
+  }
+
+  // Returns true if we were waiting for another load's fetch and stopped before it finished. If it
+  // already finished, onSharedFetchFinished is or was called instead.
+  private boolean stopWaiting() {
+    DataCacheKey key = waitingKey;
+    if (key == null || !helper.getSourceFetchCoalescer().stopWaiting(key, this)) {
+      return false;
+    }
+    waitingKey = null;
+    return true;
+  }
+
+  // Called on the leader's thread.
+  @Override
+  public void onSharedFetchFinished(boolean isCached) {
+    DataCacheKey key = waitingKey;
+    if (key == null) {
+      return;
+    }
+    waitingKey = null;
+    if (isCached) {
+      sharedDataKey = key;
+    } else {
+      isSharedFetchFailed = true;
+    }
+    // Get back onto Glide's thread before touching the disk cache or starting a fetch.
+    cb.reschedule();
+  }
+
   @Override
   public void cancel() {
+    finishSharedFetch(/*isCached=*/ false);
+    if (stopWaiting()) {
+      // Nothing is in flight that would call the job back, so run it again to notice the cancel
+      // and notify its callback.
+      cb.reschedule();
+      return;
+    }
     LoadData<?> local = loadData;
     if (local != null) {
-      local.fetcher.cancel();
+      local.getFetcher().cancel();
     }
   }
 
@@ -201,17 +479,18 @@ class SourceGenerator implements DataFetcherGenerator, DataFetcherGenerator.Fetc
   @Synthetic
   void onDataReadyInternal(LoadData<?> loadData, Object data) {
     DiskCacheStrategy diskCacheStrategy = helper.getDiskCacheStrategy();
-    if (data != null && diskCacheStrategy.isDataCacheable(loadData.fetcher.getDataSource())) {
+    if (data != null && diskCacheStrategy.isDataCacheable(loadData.getFetcher().getDataSource())) {
       dataToCache = data;
       // We might be being called back on someone else's thread. Before doing anything, we should
       // reschedule to get back onto Glide's thread.
       cb.reschedule();
     } else {
+      finishSharedFetch(/*isCached=*/ false);
       cb.onDataFetcherReady(
-          loadData.sourceKey,
+          loadData.getSourceKey(),
           data,
-          loadData.fetcher,
-          loadData.fetcher.getDataSource(),
+          loadData.getFetcher(),
+          loadData.getFetcher().getDataSource(),
           originalKey);
     }
   }
@@ -219,7 +498,16 @@ class SourceGenerator implements DataFetcherGenerator, DataFetcherGenerator.Fetc
   @SuppressWarnings("WeakerAccess")
   @Synthetic
   void onLoadFailedInternal(LoadData<?> loadData, @NonNull Exception e) {
-    cb.onDataFetcherFailed(originalKey, e, loadData.fetcher, loadData.fetcher.getDataSource());
+    DataCacheKey key = new DataCacheKey(loadData.getSourceKey(), helper.getSignature());
+    if (SourceRevalidator.isNotModified(e) && helper.getStaleValidators(key) != null) {
+      notModifiedKey = key;
+      // As with data to cache, get back onto Glide's thread before touching the disk cache.
+      cb.reschedule();
+      return;
+    }
+    finishSharedFetch(/*isCached=*/ false);
+    DataFetcher<?> fetcher = loadData.getFetcher();
+    cb.onDataFetcherFailed(originalKey, e, fetcher, fetcher.getDataSource());
   }
 
   @Override
@@ -235,12 +523,13 @@ class SourceGenerator implements DataFetcherGenerator, DataFetcherGenerator.Fetc
       Key sourceKey, Object data, DataFetcher<?> fetcher, DataSource dataSource, Key attemptedKey) {
     // This data fetcher will be loading from a File and provide the wrong data source, so override
     // with the data source of the original fetcher
-    cb.onDataFetcherReady(sourceKey, data, fetcher, loadData.fetcher.getDataSource(), sourceKey);
+    cb.onDataFetcherReady(
+        sourceKey, data, fetcher, loadData.getFetcher().getDataSource(), sourceKey);
   }
 
   @Override
   public void onDataFetcherFailed(
       Key sourceKey, Exception e, DataFetcher<?> fetcher, DataSource dataSource) {
-    cb.onDataFetcherFailed(sourceKey, e, fetcher, loadData.fetcher.getDataSource());
+    cb.onDataFetcherFailed(sourceKey, e, fetcher, loadData.getFetcher().getDataSource());
   }
 }
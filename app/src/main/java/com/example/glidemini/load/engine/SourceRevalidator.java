@@ -0,0 +1,272 @@
+package com.example.glidemini.load.engine;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.example.glidemini.cache.DiskCache;
+import com.example.glidemini.load.CacheValidators;
+import com.example.glidemini.load.Encoder;
+import com.example.glidemini.load.HttpException;
+import com.example.glidemini.load.Options;
+import com.example.glidemini.loader.model.DataFetcher;
+import com.example.glidemini.loader.model.LoadData;
+import com.example.glidemini.loader.model.ModelLoader;
+import com.example.glidemini.loader.model.Priority;
+import com.example.glidemini.util.Synthetic;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Stores the {@link CacheValidators} of cached source data next to it in the disk cache, and
+ * revalidates expired entries in the background for loads that decode them anyway.
+ *
+ * <p>Loads that wait for revalidation make their conditional request in {@link SourceGenerator}
+ * instead.
+ */
+final class SourceRevalidator {
+  private static final String TAG = "SourceRevalidator";
+
+  private final DecodeJob.DiskCacheProvider diskCacheProvider;
+  private final Executor executor;
+  private final Set<DataCacheKey> inProgress =
+      Collections.newSetFromMap(new ConcurrentHashMap<DataCacheKey, Boolean>());
+
+  SourceRevalidator(DecodeJob.DiskCacheProvider diskCacheProvider, Executor executor) {
+    this.diskCacheProvider = diskCacheProvider;
+    this.executor = executor;
+  }
+
+  /** Returns the validators cached for the given entry, or {@code null} if there are none. */
+  @Nullable
+  static CacheValidators read(DiskCache diskCache, DataCacheKey key) {
+    Object data =
+        DataCacheGenerator.getCacheData(
+            diskCache, new CacheValidatorsKey(key), /*isBufferPreferred=*/ true);
+    if (!(data instanceof ByteBuffer)) {
+      if (data != null && Log.isLoggable(TAG, Log.DEBUG)) {
+        Log.d(TAG, "Failed to read cache validators for: " + key);
+      }
+      return null;
+    }
+    return CacheValidators.fromBytes((ByteBuffer) data);
+  }
+
+  /**
+   * Replaces the validators cached for the given entry, or removes them if {@code validators} is
+   * {@code null}.
+   */
+  static void write(DiskCache diskCache, DataCacheKey key, @Nullable CacheValidators validators) {
+    CacheValidatorsKey validatorsKey = new CacheValidatorsKey(key);
+    // Puts don't overwrite existing entries.
+    diskCache.delete(validatorsKey);
+    if (validators == null) {
+      return;
+    }
+    final byte[] bytes = validators.toBytes();
+    diskCache.put(
+        validatorsKey,
+        new DiskCache.Writer() {
+          @Override
+          public boolean write(@NonNull File file) {
+            OutputStream os = null;
+            try {
+              os = new FileOutputStream(file);
+              os.write(bytes);
+              return true;
+            } catch (IOException e) {
+              if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Failed to write cache validators", e);
+              }
+              return false;
+            } finally {
+              if (os != null) {
+                try {
+                  os.close();
+                } catch (IOException e) {
+                  // Ignored.
+                }
+              }
+            }
+          }
+        });
+  }
+
+  /**
+   * Returns the validators of the response the given fetcher just loaded, or a record of its age
+   * if the response had none or the fetcher can't make conditional requests.
+   */
+  @NonNull
+  static CacheValidators getResponseValidators(DataFetcher<?> fetcher) {
+    CacheValidators result = null;
+    if (fetcher instanceof CacheValidators.ConditionalFetcher) {
+      result = ((CacheValidators.ConditionalFetcher) fetcher).getResponseValidators();
+    }
+    return result != null ? result : CacheValidators.withoutValidators(System.currentTimeMillis());
+  }
+
+  /**
+   * Revalidates the given expired entry in the background, unless it's already being revalidated.
+   * The source is loaded with the first model loader that produces the entry's source key,
+   * preferring one whose fetcher supports conditional requests. Without validators, or without
+   * such a fetcher, the source is downloaded again in full.
+   */
+  void revalidate(
+      Components components,
+      Object model,
+      int width,
+      int height,
+      Options options,
+      DataCacheKey key,
+      CacheValidators validators) {
+    if (!inProgress.add(key)) {
+      return;
+    }
+    try {
+      executor.execute(
+          new Revalidation(components, model, width, height, options, key, validators));
+    } catch (RejectedExecutionException e) {
+      // The engine is shutting down, the next load will try again.
+      inProgress.remove(key);
+    }
+  }
+
+  @Synthetic
+  void finish(DataCacheKey key) {
+    inProgress.remove(key);
+  }
+
+  private final class Revalidation implements Runnable, DataFetcher.DataCallback<Object> {
+    private final Components components;
+    private final Object model;
+    private final int width;
+    private final int height;
+    private final Options options;
+    private final DataCacheKey key;
+    private final CacheValidators validators;
+    private LoadData<?> loadData;
+
+    @Synthetic
+    Revalidation(
+        Components components,
+        Object model,
+        int width,
+        int height,
+        Options options,
+        DataCacheKey key,
+        CacheValidators validators) {
+      this.components = components;
+      this.model = model;
+      this.width = width;
+      this.height = height;
+      this.options = options;
+      this.key = key;
+      this.validators = validators;
+    }
+
+    @Override
+    public void run() {
+      try {
+        List<ModelLoader<Object, ?>> modelLoaders = components.getModelLoaders(model);
+        //noinspection ForLoopReplaceableByForEach to improve perf
+        for (int i = 0, size = modelLoaders.size(); i < size; i++) {
+          LoadData<?> current = modelLoaders.get(i).buildLoadData(model, width, height, options);
+          if (current == null || !current.getSourceKey().equals(key.getSourceKey())) {
+            continue;
+          }
+          if (current.getFetcher() instanceof CacheValidators.ConditionalFetcher) {
+            loadData = current;
+            break;
+          } else if (loadData == null) {
+            loadData = current;
+          }
+        }
+      } catch (RuntimeException e) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+          Log.d(TAG, "Failed to build a load to revalidate: " + key, e);
+        }
+      }
+      if (loadData == null) {
+        finish(key);
+        return;
+      }
+      if (validators.hasValidators()
+          && loadData.getFetcher() instanceof CacheValidators.ConditionalFetcher) {
+        ((CacheValidators.ConditionalFetcher) loadData.getFetcher())
+            .setConditionalValidators(validators);
+      }
+      loadData.getFetcher().loadData(Priority.LOW, this);
+    }
+
+    @Override
+    public void onDataReady(@Nullable Object data) {
+      try {
+        if (data == null) {
+          return;
+        }
+        DiskCache diskCache = diskCacheProvider.getDiskCache();
+        Encoder<Object> encoder = components.getSourceEncoder(data);
+        // Puts don't overwrite existing entries, so the stale one has to go first.
+        diskCache.delete(key);
+        diskCache.put(key, new DataCacheWriter<>(encoder, data, options));
+        write(diskCache, key, getResponseValidators(loadData.getFetcher()));
+        if (Log.isLoggable(TAG, Log.VERBOSE)) {
+          Log.v(TAG, "Replaced modified source data in the background: " + key);
+        }
+      } catch (RuntimeException e) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+          Log.d(TAG, "Failed to cache revalidated source data: " + key, e);
+        }
+      } finally {
+        loadData.getFetcher().cleanup();
+        finish(key);
+      }
+    }
+
+    @Override
+    public void onLoadFailed(@NonNull Exception e) {
+      try {
+        if (isNotModified(e) && validators.hasValidators()) {
+          CacheValidators response = getResponseValidators(loadData.getFetcher());
+          write(
+              diskCacheProvider.getDiskCache(),
+              key,
+              validators.refresh(response, System.currentTimeMillis()));
+          if (Log.isLoggable(TAG, Log.VERBOSE)) {
+            Log.v(TAG, "Revalidated source data in the background: " + key);
+          }
+        } else if (Log.isLoggable(TAG, Log.DEBUG)) {
+          // Keep the stale entry, the next load tries again.
+          Log.d(TAG, "Failed to revalidate source data: " + key, e);
+        }
+      } finally {
+        loadData.getFetcher().cleanup();
+        finish(key);
+      }
+    }
+  }
+
+  /**
+   * Looks up the model loaders and source encoders a revalidation needs. Revalidations outlive the
+   * load that started them, so they can't use its {@link DecodeHelper}.
+   */
+  interface Components {
+    List<ModelLoader<Object, ?>> getModelLoaders(@NonNull Object model);
+
+    <X> Encoder<X> getSourceEncoder(@NonNull X data);
+  }
+
+  /** Returns {@code true} if the given load failure means the cached entry is still valid. */
+  static boolean isNotModified(Exception e) {
+    return e instanceof HttpException
+        && ((HttpException) e).getStatusCode() == CacheValidators.HTTP_NOT_MODIFIED;
+  }
+}
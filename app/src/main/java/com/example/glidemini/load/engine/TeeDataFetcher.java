@@ -0,0 +1,232 @@
+package com.example.glidemini.load.engine;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import com.example.glidemini.bitmapRecycle.ArrayPool;
+import com.example.glidemini.load.DataSource;
+import com.example.glidemini.load.data.BufferedOutputStream;
+import com.example.glidemini.loader.model.DataFetcher;
+import com.example.glidemini.loader.model.Priority;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Wraps the {@link InputStream} returned by a source {@link DataFetcher} so that every byte the
+ * decoder reads is also written to a disk cache file.
+ *
+ * <p>Decoders rarely read a stream to the end and the original fetcher closes the stream when it's
+ * cleaned up, so {@link #cleanup()} does nothing until the source was read to the end. Instead the
+ * owner calls {@link #copyRemaining()} once the decode has succeeded, to copy whatever the decoder
+ * didn't read, and then {@link #release()}. Failing to write the cache file never fails the decode, it only means the file is
+ * incomplete and must not be committed.
+ */
+final class TeeDataFetcher implements DataFetcher<InputStream> {
+  private static final String TAG = "TeeDataFetcher";
+
+  private final DataFetcher<?> wrapped;
+  private final TeeInputStream stream;
+
+  TeeDataFetcher(
+      @NonNull DataFetcher<?> wrapped,
+      @NonNull InputStream source,
+      @NonNull File file,
+      @NonNull ArrayPool arrayPool)
+      throws IOException {
+    this.wrapped = wrapped;
+    this.stream =
+        new TeeInputStream(source, new BufferedOutputStream(new FileOutputStream(file), arrayPool));
+  }
+
+  @NonNull
+  InputStream getStream() {
+    return stream;
+  }
+
+  /**
+   * Copies the rest of the source to the cache file and closes it. Returns {@code true} if the
+   * file now holds the complete source data.
+   */
+  boolean copyRemaining() {
+    return stream.copyRemaining();
+  }
+
+  /** Closes the cache file if it's still open and cleans up the wrapped fetcher. */
+  void release() {
+    stream.closeSink();
+    wrapped.cleanup();
+  }
+
+  @Override
+  public void loadData(
+      @NonNull Priority priority, @NonNull DataCallback<? super InputStream> callback) {
+    callback.onDataReady(stream);
+  }
+
+  @Override
+  public void cleanup() {
+    // The source is still needed to finish the cache file, see release(), unless it was read to
+    // the end already, in which case its connection doesn't have to wait for the decode.
+    if (stream.isSourceExhausted()) {
+      wrapped.cleanup();
+    }
+  }
+
+  @Override
+  public void cancel() {
+    wrapped.cancel();
+  }
+
+  @NonNull
+  @Override
+  public Class<InputStream> getDataClass() {
+    return InputStream.class;
+  }
+
+  @NonNull
+  @Override
+  public DataSource getDataSource() {
+    return wrapped.getDataSource();
+  }
+
+  /**
+   * Copies every byte read from the source to the sink. Doesn't support mark and reset, rewinding
+   * is left to the {@link com.example.glidemini.load.data.InputStreamRewinder} that wraps this
+   * stream, so each byte of the source is read, and written, exactly once and in order.
+   */
+  private static final class TeeInputStream extends FilterInputStream {
+    private final OutputStream sink;
+    private final byte[] skipBuffer = new byte[8 * 1024];
+    private boolean isSinkClosed;
+    private boolean isSinkFailed;
+    private boolean isSourceExhausted;
+
+    TeeInputStream(InputStream source, OutputStream sink) {
+      super(source);
+      this.sink = sink;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int result = super.read();
+      if (result == -1) {
+        isSourceExhausted = true;
+      } else {
+        writeToSink(result);
+      }
+      return result;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+      int read = super.read(buffer, offset, length);
+      if (read == -1) {
+        isSourceExhausted = true;
+      } else if (read > 0) {
+        writeToSink(buffer, offset, read);
+      }
+      return read;
+    }
+
+    // Skipped bytes must still end up in the cache file.
+    @Override
+    public long skip(long byteCount) throws IOException {
+      long skipped = 0;
+      while (skipped < byteCount) {
+        int read = read(skipBuffer, 0, (int) Math.min(skipBuffer.length, byteCount - skipped));
+        if (read == -1) {
+          break;
+        }
+        skipped += read;
+      }
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+      // Not supported.
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+      throw new IOException("Mark and reset are not supported");
+    }
+
+    // The source belongs to the wrapped fetcher, which closes it when it's cleaned up.
+    @Override
+    public void close() {
+      // Do nothing.
+    }
+
+    boolean copyRemaining() {
+      try {
+        while (!isSinkFailed
+            && !isSourceExhausted
+            && read(skipBuffer, 0, skipBuffer.length) != -1) {
+          // Keep copying.
+        }
+      } catch (IOException e) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+          Log.d(TAG, "Failed to read the rest of the source", e);
+        }
+      }
+      closeSink();
+      return isSourceExhausted && !isSinkFailed;
+    }
+
+    boolean isSourceExhausted() {
+      return isSourceExhausted;
+    }
+
+    void closeSink() {
+      if (isSinkClosed) {
+        return;
+      }
+      isSinkClosed = true;
+      try {
+        sink.close();
+      } catch (IOException e) {
+        onSinkFailed(e);
+      }
+    }
+
+    private void writeToSink(int b) {
+      if (isSinkFailed || isSinkClosed) {
+        return;
+      }
+      try {
+        sink.write(b);
+      } catch (IOException e) {
+        onSinkFailed(e);
+        closeSink();
+      }
+    }
+
+    private void writeToSink(byte[] buffer, int offset, int length) {
+      if (isSinkFailed || isSinkClosed) {
+        return;
+      }
+      try {
+        sink.write(buffer, offset, length);
+      } catch (IOException e) {
+        onSinkFailed(e);
+        closeSink();
+      }
+    }
+
+    private void onSinkFailed(IOException e) {
+      isSinkFailed = true;
+      if (Log.isLoggable(TAG, Log.DEBUG)) {
+        Log.d(TAG, "Failed to write source data to the disk cache", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,281 @@
+package com.example.glidemini.load.engine.executor;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Grows and shrinks the thread pool of a {@link GlideExecutor} between configurable bounds,
+ * AIMD-style, based on its throughput, queue depth and the fraction of time its threads spend
+ * blocked rather than running on a CPU.
+ *
+ * <p>The executor reports how long each task ran, on the wall clock and on a CPU. Once per {@link
+ * #SAMPLE_INTERVAL_MS}, on the pool thread that finishes a task after the interval elapsed, the
+ * controller takes a sample and decides:
+ *
+ * <ul>
+ *   <li>If the last decision added a thread and throughput dropped since while tasks are still
+ *       queued, the extra thread hurt: the pool size is halved. Without a backlog, lower throughput
+ *       only means fewer tasks were submitted.
+ *   <li>If threads are mostly running on a CPU and there are more of them than cores, the pool is
+ *       decode bound: the pool size is halved, but not below the number of cores.
+ *   <li>If tasks are queued and threads are mostly blocked, for example on slow sockets: one thread
+ *       is added.
+ *   <li>Otherwise the pool size is kept.
+ * </ul>
+ *
+ * <p>No samples are taken while the pool is idle. Every decision, including decisions to keep the
+ * current size, is reported to the {@link Listener} along with the sample it was based on.
+ */
+public final class AdaptiveConcurrencyController {
+  /** How often the controller samples the pool and makes a decision. */
+  public static final long SAMPLE_INTERVAL_MS = 1000L;
+
+  // Threads blocked for at least this fraction of their busy time are considered I/O bound.
+  private static final float IO_BOUND_BLOCKED_FRACTION = 0.5f;
+  // Threads blocked for less than this fraction of their busy time are considered CPU bound.
+  private static final float CPU_BOUND_BLOCKED_FRACTION = 0.2f;
+  // Throughput has to drop by more than this fraction to count as a drop, to ignore noise.
+  private static final float THROUGHPUT_DROP_TOLERANCE = 0.1f;
+  private static final Clock DEFAULT_CLOCK = new Clock();
+
+  private final int minThreadCount;
+  private final int maxThreadCount;
+  @Nullable private final Listener listener;
+  private final Clock clock;
+  private final AtomicLong completedTasks = new AtomicLong();
+  private final AtomicLong busyNanos = new AtomicLong();
+  private final AtomicLong blockedNanos = new AtomicLong();
+  private final AtomicLong lastSampleNanos;
+  private volatile ThreadPoolExecutor executor;
+
+  // Only written by the thread that wins the sample in maybeSample, but that's a different thread
+  // each time.
+  private volatile float previousThroughput;
+  private volatile boolean wasLastDecisionIncrease;
+
+  AdaptiveConcurrencyController(
+      int minThreadCount, int maxThreadCount, @Nullable Listener listener) {
+    this(minThreadCount, maxThreadCount, listener, DEFAULT_CLOCK);
+  }
+
+  @VisibleForTesting
+  AdaptiveConcurrencyController(
+      int minThreadCount, int maxThreadCount, @Nullable Listener listener, Clock clock) {
+    if (minThreadCount <= 0 || maxThreadCount < minThreadCount) {
+      throw new IllegalArgumentException(
+          "Expected 0 < minThreadCount <= maxThreadCount, but given: "
+              + minThreadCount
+              + ", "
+              + maxThreadCount);
+    }
+    this.minThreadCount = minThreadCount;
+    this.maxThreadCount = maxThreadCount;
+    this.listener = listener;
+    this.clock = clock;
+    this.lastSampleNanos = new AtomicLong(clock.nanoTime());
+  }
+
+  int clamp(int threadCount) {
+    return Math.max(minThreadCount, Math.min(maxThreadCount, threadCount));
+  }
+
+  void attach(@NonNull ThreadPoolExecutor executor) {
+    this.executor = executor;
+  }
+
+  /** The CPU time of the current thread, read before and after each task. */
+  long threadCpuTimeNanos() {
+    return clock.threadCpuTimeNanos();
+  }
+
+  /**
+   * Records a task that finished on the current thread after running for the given wall clock
+   * time, of which it spent the given time on a CPU, and takes a sample if one is due.
+   */
+  void onTaskCompleted(long wallNanos, long cpuNanos) {
+    completedTasks.incrementAndGet();
+    busyNanos.addAndGet(wallNanos);
+    blockedNanos.addAndGet(Math.max(0, wallNanos - cpuNanos));
+    maybeSample(clock.nanoTime());
+  }
+
+  private void maybeSample(long now) {
+    long lastSample = lastSampleNanos.get();
+    long elapsedNanos = now - lastSample;
+    if (elapsedNanos < TimeUnit.MILLISECONDS.toNanos(SAMPLE_INTERVAL_MS)
+        || !lastSampleNanos.compareAndSet(lastSample, now)) {
+      return;
+    }
+    ThreadPoolExecutor executor = this.executor;
+    if (executor == null) {
+      return;
+    }
+
+    float throughput =
+        completedTasks.getAndSet(0) * (float) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    long busy = busyNanos.getAndSet(0);
+    long blocked = blockedNanos.getAndSet(0);
+    float blockedFraction = busy == 0 ? 0 : (float) blocked / busy;
+    int queueDepth = executor.getQueue().size();
+    int current = executor.getCorePoolSize();
+
+    // Throughput is only comparable to the previous sample if the pool didn't go idle in between.
+    boolean isContinuous = elapsedNanos < 2 * TimeUnit.MILLISECONDS.toNanos(SAMPLE_INTERVAL_MS);
+    int target = current;
+    Reason reason;
+    if (isContinuous
+        && wasLastDecisionIncrease
+        && queueDepth > 0
+        && throughput < previousThroughput * (1 - THROUGHPUT_DROP_TOLERANCE)) {
+      target = clamp(current / 2);
+      reason = target == current ? Reason.AT_MIN_THREAD_COUNT : Reason.THROUGHPUT_DROPPED;
+    } else if (blockedFraction < CPU_BOUND_BLOCKED_FRACTION
+        && current > RuntimeCompat.availableProcessors()) {
+      target = clamp(Math.max(RuntimeCompat.availableProcessors(), current / 2));
+      reason = target == current ? Reason.AT_MIN_THREAD_COUNT : Reason.CPU_BOUND;
+    } else if (queueDepth > 0 && blockedFraction >= IO_BOUND_BLOCKED_FRACTION) {
+      target = clamp(current + 1);
+      reason = target == current ? Reason.AT_MAX_THREAD_COUNT : Reason.IO_BOUND_BACKLOG;
+    } else {
+      reason = queueDepth == 0 ? Reason.NO_BACKLOG : Reason.BALANCED;
+    }
+
+    if (target != current) {
+      setThreadCount(executor, target);
+    }
+    wasLastDecisionIncrease = target > current;
+    previousThroughput = throughput;
+
+    if (listener != null) {
+      listener.onDecision(
+          new Decision(current, target, reason, throughput, queueDepth, blockedFraction));
+    }
+  }
+
+  private static void setThreadCount(ThreadPoolExecutor executor, int threadCount) {
+    // The core size may never exceed the maximum size, so the order depends on the direction.
+    if (threadCount > executor.getMaximumPoolSize()) {
+      executor.setMaximumPoolSize(threadCount);
+      executor.setCorePoolSize(threadCount);
+    } else {
+      executor.setCorePoolSize(threadCount);
+      executor.setMaximumPoolSize(threadCount);
+    }
+  }
+
+  @VisibleForTesting
+  static class Clock {
+    long nanoTime() {
+      return System.nanoTime();
+    }
+
+    // Tasks often run for less than a millisecond, which SystemClock.currentThreadTimeMillis()
+    // can't resolve. It's only used where the VM doesn't support per thread CPU time in nanos.
+    long threadCpuTimeNanos() {
+      long nanos = Debug.threadCpuTimeNanos();
+      return nanos >= 0
+          ? nanos
+          : TimeUnit.MILLISECONDS.toNanos(SystemClock.currentThreadTimeMillis());
+    }
+  }
+
+  /** Why the controller made a {@link Decision}. */
+  public enum Reason {
+    /** Tasks were queued while threads were mostly blocked, a thread was added. */
+    IO_BOUND_BACKLOG,
+    /** Throughput dropped after the last increase despite a backlog, the pool was halved. */
+    THROUGHPUT_DROPPED,
+    /** Threads were mostly running while outnumbering cores, the pool was halved. */
+    CPU_BOUND,
+    /** A thread would have been added, but the pool is already at its maximum size. */
+    AT_MAX_THREAD_COUNT,
+    /** The pool would have been shrunk, but it's already at its minimum size. */
+    AT_MIN_THREAD_COUNT,
+    /** Nothing was queued, the pool size was kept. */
+    NO_BACKLOG,
+    /** Tasks were queued, but neither I/O nor CPU bound enough to act, the pool size was kept. */
+    BALANCED,
+  }
+
+  /** Receives every decision made by an {@link AdaptiveConcurrencyController}. */
+  public interface Listener {
+    /** Called on a pool thread, so implementations should be fast. */
+    void onDecision(@NonNull Decision decision);
+  }
+
+  /** A decision and the sample it was based on. */
+  public static final class Decision {
+    private final int previousThreadCount;
+    private final int threadCount;
+    private final Reason reason;
+    private final float throughput;
+    private final int queueDepth;
+    private final float blockedFraction;
+
+    Decision(
+        int previousThreadCount,
+        int threadCount,
+        Reason reason,
+        float throughput,
+        int queueDepth,
+        float blockedFraction) {
+      this.previousThreadCount = previousThreadCount;
+      this.threadCount = threadCount;
+      this.reason = reason;
+      this.throughput = throughput;
+      this.queueDepth = queueDepth;
+      this.blockedFraction = blockedFraction;
+    }
+
+    public int getPreviousThreadCount() {
+      return previousThreadCount;
+    }
+
+    public int getThreadCount() {
+      return threadCount;
+    }
+
+    @NonNull
+    public Reason getReason() {
+      return reason;
+    }
+
+    /** Completed tasks per second during the sample. */
+    public float getThroughput() {
+      return throughput;
+    }
+
+    /** The number of queued tasks at the end of the sample. */
+    public int getQueueDepth() {
+      return queueDepth;
+    }
+
+    /** The fraction of the time threads spent running tasks that they weren't on a CPU. */
+    public float getBlockedFraction() {
+      return blockedFraction;
+    }
+
+    @Override
+    public String toString() {
+      return "Decision{"
+          + previousThreadCount
+          + " -> "
+          + threadCount
+          + ", reason="
+          + reason
+          + ", throughput="
+          + throughput
+          + ", queueDepth="
+          + queueDepth
+          + ", blockedFraction="
+          + blockedFraction
+          + '}';
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package com.example.glidemini.load.engine.executor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records what a {@link GlideExecutor} runs, for {@link ExecutorStats}.
+ *
+ * <p>Recording is a handful of atomic increments per task and never blocks, so it's always on.
+ * Snapshots are taken on demand, or pushed to an optional listener by the pool thread that
+ * finishes the first task after each push interval.
+ *
+ * <p>Snapshots are consistent even while tasks complete concurrently: each histogram's count,
+ * total and max cover the same tasks, the completed count is the run time histogram's count and
+ * never exceeds the submitted count.
+ */
+final class ExecutorMetrics {
+  // Covers up to 2^15ms, ~33s, with everything longer in the last bucket.
+  private static final int BUCKET_COUNT = 17;
+
+  private final String name;
+  private final AtomicLong submittedCount = new AtomicLong();
+  private final AtomicLong rejectedCount = new AtomicLong();
+  private final HistogramRecorder waitTime = new HistogramRecorder();
+  private final HistogramRecorder runTime = new HistogramRecorder();
+  @Nullable private final ExecutorStats.Listener listener;
+  private final long pushIntervalNanos;
+  private final AtomicLong lastPushNanos = new AtomicLong(System.nanoTime());
+
+  ExecutorMetrics(
+      String name, @Nullable ExecutorStats.Listener listener, long pushIntervalMillis) {
+    this.name = name;
+    this.listener = listener;
+    this.pushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(pushIntervalMillis);
+  }
+
+  void onSubmitted() {
+    submittedCount.incrementAndGet();
+  }
+
+  void onRejected() {
+    rejectedCount.incrementAndGet();
+  }
+
+  void recordWait(long waitNanos) {
+    waitTime.record(waitNanos);
+  }
+
+  /**
+   * Records a finished task and pushes a snapshot to the listener if it's due.
+   *
+   * @param queueDepth Only read if a snapshot is pushed.
+   */
+  void onCompleted(long runNanos, QueueDepthProvider queueDepth) {
+    runTime.record(runNanos);
+    if (listener == null) {
+      return;
+    }
+    long now = System.nanoTime();
+    long lastPush = lastPushNanos.get();
+    if (now - lastPush >= pushIntervalNanos && lastPushNanos.compareAndSet(lastPush, now)) {
+      listener.onStats(snapshot(queueDepth.getQueueDepth()));
+    }
+  }
+
+  @NonNull
+  ExecutorStats snapshot(int queueDepth) {
+    ExecutorStats.Histogram runTimeSnapshot = runTime.snapshot();
+    // Read after the completions, since a task is submitted before it completes.
+    long submitted = submittedCount.get();
+    return new ExecutorStats(
+        name,
+        submitted,
+        runTimeSnapshot.getCount(),
+        rejectedCount.get(),
+        queueDepth,
+        waitTime.snapshot(),
+        runTimeSnapshot);
+  }
+
+  interface QueueDepthProvider {
+    int getQueueDepth();
+  }
+
+  /**
+   * Records durations without locks. Each record is bracketed by a started and a finished count, so
+   * a snapshot can tell whether a record raced with it and read again.
+   */
+  private static final class HistogramRecorder {
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLong startedRecords = new AtomicLong();
+    private final AtomicLong finishedRecords = new AtomicLong();
+
+    void record(long nanos) {
+      startedRecords.incrementAndGet();
+      long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+      // 0 for < 1ms, otherwise 1 + floor(log2(millis)).
+      int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(millis));
+      counts.incrementAndGet(bucket);
+      totalNanos.addAndGet(nanos);
+      long max;
+      do {
+        max = maxNanos.get();
+      } while (nanos > max && !maxNanos.compareAndSet(max, nanos));
+      finishedRecords.incrementAndGet();
+    }
+
+    ExecutorStats.Histogram snapshot() {
+      long[] result = new long[BUCKET_COUNT];
+      long total;
+      long max;
+      while (true) {
+        long finished = finishedRecords.get();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+          result[i] = counts.get(i);
+        }
+        total = totalNanos.get();
+        max = maxNanos.get();
+        // Equal only if no record was in progress at any point while the values were read.
+        if (startedRecords.get() == finished) {
+          break;
+        }
+        // A record is a few atomic operations, let the racing thread finish it.
+        Thread.yield();
+      }
+      return new ExecutorStats.Histogram(
+          result, TimeUnit.NANOSECONDS.toMillis(total), TimeUnit.NANOSECONDS.toMillis(max));
+    }
+  }
+}
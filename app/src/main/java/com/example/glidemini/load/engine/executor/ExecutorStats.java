@@ -0,0 +1,189 @@
+package com.example.glidemini.load.engine.executor;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A snapshot of what a {@link GlideExecutor} has run since it was created, see {@link
+ * GlideExecutor#getStats()} and {@link GlideExecutor.Builder#setStatsListener}.
+ */
+public final class ExecutorStats {
+  private final String name;
+  private final long submittedCount;
+  private final long completedCount;
+  private final long rejectedCount;
+  private final int queueDepth;
+  private final Histogram waitTime;
+  private final Histogram runTime;
+
+  ExecutorStats(
+      String name,
+      long submittedCount,
+      long completedCount,
+      long rejectedCount,
+      int queueDepth,
+      Histogram waitTime,
+      Histogram runTime) {
+    this.name = name;
+    this.submittedCount = submittedCount;
+    this.completedCount = completedCount;
+    this.rejectedCount = rejectedCount;
+    this.queueDepth = queueDepth;
+    this.waitTime = waitTime;
+    this.runTime = runTime;
+  }
+
+  /** The thread name prefix of the executor. */
+  @NonNull
+  public String getName() {
+    return name;
+  }
+
+  /** Tasks handed to the executor, including rejected ones. */
+  public long getSubmittedCount() {
+    return submittedCount;
+  }
+
+  /** Tasks that finished running, whether or not they threw. */
+  public long getCompletedCount() {
+    return completedCount;
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount;
+  }
+
+  /** The number of tasks queued when the snapshot was taken. */
+  public int getQueueDepth() {
+    return queueDepth;
+  }
+
+  /**
+   * How long tasks waited in the queue before a thread picked them up. Always empty for executors
+   * that hand tasks directly to threads, like the unlimited source executor.
+   */
+  @NonNull
+  public Histogram getWaitTime() {
+    return waitTime;
+  }
+
+  /** How long tasks ran. */
+  @NonNull
+  public Histogram getRunTime() {
+    return runTime;
+  }
+
+  @Override
+  public String toString() {
+    return "ExecutorStats{"
+        + "name="
+        + name
+        + ", submitted="
+        + submittedCount
+        + ", completed="
+        + completedCount
+        + ", rejected="
+        + rejectedCount
+        + ", queueDepth="
+        + queueDepth
+        + ", waitTime="
+        + waitTime
+        + ", runTime="
+        + runTime
+        + '}';
+  }
+
+  /** Receives {@link ExecutorStats} pushed by a {@link GlideExecutor}. */
+  public interface Listener {
+    /** Called on a thread of the executor, so implementations should be fast. */
+    void onStats(@NonNull ExecutorStats stats);
+  }
+
+  /**
+   * A histogram of durations with power of two millisecond buckets. Bucket 0 counts durations under
+   * 1ms, bucket {@code i} counts durations in {@code [2^(i - 1), 2^i)}ms and the last bucket
+   * everything longer.
+   */
+  public static final class Histogram {
+    private final long[] counts;
+    private final long count;
+    private final long totalMillis;
+    private final long maxMillis;
+
+    Histogram(long[] counts, long totalMillis, long maxMillis) {
+      this.counts = counts;
+      long count = 0;
+      for (long bucketCount : counts) {
+        count += bucketCount;
+      }
+      this.count = count;
+      this.totalMillis = totalMillis;
+      this.maxMillis = maxMillis;
+    }
+
+    public int getBucketCount() {
+      return counts.length;
+    }
+
+    public long getCount(int bucket) {
+      return counts[bucket];
+    }
+
+    /** The exclusive upper bound of the given bucket, or {@link Long#MAX_VALUE} for the last one. */
+    public long getBucketUpperBoundMillis(int bucket) {
+      return bucket == counts.length - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getTotalMillis() {
+      return totalMillis;
+    }
+
+    public long getMaxMillis() {
+      return maxMillis;
+    }
+
+    public long getAverageMillis() {
+      return count == 0 ? 0 : totalMillis / count;
+    }
+
+    /**
+     * Returns an upper bound of the given percentile, between 0 and 100, at the resolution of the
+     * buckets.
+     */
+    public long getPercentileMillis(double percentile) {
+      if (count == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(count * percentile / 100d);
+      long seen = 0;
+      for (int i = 0; i < counts.length - 1; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(maxMillis, getBucketUpperBoundMillis(i));
+        }
+      }
+      return maxMillis;
+    }
+
+    @Override
+    public String toString() {
+      return "Histogram{"
+          + "count="
+          + count
+          + ", avg="
+          + getAverageMillis()
+          + "ms, p50="
+          + getPercentileMillis(50)
+          + "ms, p90="
+          + getPercentileMillis(90)
+          + "ms, p99="
+          + getPercentileMillis(99)
+          + "ms, max="
+          + maxMillis
+          + "ms}";
+    }
+  }
+}
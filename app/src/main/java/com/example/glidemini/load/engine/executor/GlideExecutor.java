@@ -6,15 +6,19 @@ import android.text.TextUtils;
 import android.util.Log;
 import androidx.annotation.IntRange;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import com.bumptech.glide.util.Synthetic;
+import com.example.glidemini.loader.model.Priority;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -22,7 +26,19 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 
-/** A prioritized {@link ThreadPoolExecutor} for running jobs in Glide. */
+/**
+ * A prioritized {@link ThreadPoolExecutor} for running jobs in Glide.
+ *
+ * <p>Executors created by a {@link Builder} order their queue by {@link PrioritizedTask} priority,
+ * with aging so that low priority jobs aren't starved. See {@link
+ * Builder#setPriorityAgingMillis(long)} and {@link Builder#setLifoWithinPriority(boolean)}.
+ *
+ * <p>A source executor may also be split into an I/O stage and a decode stage, see {@link
+ * #newStagedSourceBuilder()}.
+ *
+ * <p>Every executor records how many tasks it was given, how long they waited and how long they
+ * ran, see {@link #getStats()} and {@link Builder#setStatsListener(ExecutorStats.Listener, long)}.
+ */
 public final class GlideExecutor implements ExecutorService {
   /**
    * The default thread name prefix for executors used to load/decode/transform data not found in
@@ -42,6 +58,9 @@ public final class GlideExecutor implements ExecutorService {
    */
   private static final int DEFAULT_DISK_CACHE_EXECUTOR_THREADS = 1;
 
+  /** The default thread name prefix for the executor that writes resources to Glide's cache. */
+  private static final String DEFAULT_DISK_CACHE_WRITE_EXECUTOR_NAME = "disk-cache-write";
+
   private static final String TAG = "GlideExecutor";
 
   /**
@@ -58,11 +77,25 @@ public final class GlideExecutor implements ExecutorService {
   // Don't use more than four threads when automatically determining thread count..
   private static final int MAXIMUM_AUTOMATIC_THREAD_COUNT = 4;
 
+  /**
+   * The default thread count of the I/O stage of staged source executors. I/O stage threads spend
+   * most of their time blocked on sockets, so there can be more of them than there are cores.
+   */
+  private static final int DEFAULT_STAGED_SOURCE_IO_THREADS = 2 * MAXIMUM_AUTOMATIC_THREAD_COUNT;
+
+  // The number of jobs per decode thread that may wait for the decode stage of a staged executor.
+  private static final int DEFAULT_DECODE_HANDOFF_PER_THREAD = 2;
+
   // May be accessed on other threads, but this is an optimization only so it's ok if we set its
   // value more than once.
   private static volatile int bestThreadCount;
 
   private final ExecutorService delegate;
+  private final ExecutorMetrics metrics;
+  // Null for executors that don't queue, like the unlimited source executor.
+  @Nullable private final PriorityTaskQueue queue;
+  // Null unless this is the I/O stage of a staged executor.
+  @Nullable private final GlideExecutor decodeStage;
 
   /**
    * Returns a new {@link Builder} with the {@link #DEFAULT_DISK_CACHE_EXECUTOR_THREADS} threads,
@@ -107,6 +140,24 @@ public final class GlideExecutor implements ExecutorService {
         .build();
   }
 
+  /**
+   * Returns a new single threaded executor with the {@link
+   * #DEFAULT_DISK_CACHE_WRITE_EXECUTOR_NAME} name for writing decoded resources to the disk cache
+   * behind loads. Its thread runs at {@link android.os.Process#THREAD_PRIORITY_BACKGROUND}, below
+   * the threads that load, and times out after {@link #KEEP_ALIVE_TIME_MS} without writes.
+   *
+   * <p>Disk cache write executors do not allow network operations on their threads.
+   */
+  public static GlideExecutor newDiskCacheWriteExecutor() {
+    GlideExecutor.Builder builder =
+        new GlideExecutor.Builder(/*preventNetworkOperations=*/ true)
+            .setThreadCount(1)
+            .setName(DEFAULT_DISK_CACHE_WRITE_EXECUTOR_NAME)
+            .setThreadTimeoutMillis(KEEP_ALIVE_TIME_MS);
+    builder.threadPriority = android.os.Process.THREAD_PRIORITY_BACKGROUND;
+    return builder.build();
+  }
+
   /**
    * Returns a new {@link Builder} with the default thread count returned from {@link
    * #calculateBestThreadCount()}, the {@link #DEFAULT_SOURCE_EXECUTOR_NAME} thread name prefix, and
@@ -149,13 +200,34 @@ public final class GlideExecutor implements ExecutorService {
         .build();
   }
 
+  /**
+   * Returns a new {@link Builder} for a source executor split into two stages: an I/O stage of
+   * {@link #DEFAULT_STAGED_SOURCE_IO_THREADS} threads that fetch data, and a decode stage with as
+   * many threads as {@link #calculateBestThreadCount()} that decode, transform and transcode it.
+   * Slow connections then don't hold decode threads, and heavy decodes don't hold network slots.
+   *
+   * <p>See {@link Builder#setDecodeStage(int, int)}.
+   */
+  public static GlideExecutor.Builder newStagedSourceBuilder() {
+    int decodeThreadCount = calculateBestThreadCount();
+    return new GlideExecutor.Builder(/*preventNetworkOperations=*/ false)
+        .setThreadCount(DEFAULT_STAGED_SOURCE_IO_THREADS)
+        .setName(DEFAULT_SOURCE_EXECUTOR_NAME)
+        .setDecodeStage(decodeThreadCount, DEFAULT_DECODE_HANDOFF_PER_THREAD * decodeThreadCount);
+  }
+
+  /** Shortcut for calling {@link Builder#build()} on {@link #newStagedSourceBuilder()}. */
+  public static GlideExecutor newStagedSourceExecutor() {
+    return newStagedSourceBuilder().build();
+  }
+
   /**
    * Returns a new unlimited thread pool with zero core thread count to make sure no threads are
    * created by default, {@link #KEEP_ALIVE_TIME_MS} keep alive time, the {@link
    * #SOURCE_UNLIMITED_EXECUTOR_NAME} thread name prefix, the {@link
    * com.bumptech.glide.load.engine.executor.GlideExecutor.UncaughtThrowableStrategy#DEFAULT}
    * uncaught throwable strategy, and the {@link SynchronousQueue} since using default unbounded
-   * blocking queue, for example, {@link PriorityBlockingQueue} effectively won't create more than
+   * blocking queue, for example, {@link PriorityTaskQueue} effectively won't create more than
    * {@code corePoolSize} threads. See <a href=
    * "http://developer.android.com/reference/java/util/concurrent/ThreadPoolExecutor.html">
    * ThreadPoolExecutor documentation</a>.
@@ -163,18 +235,25 @@ public final class GlideExecutor implements ExecutorService {
    * <p>Source executors allow network operations on their threads.
    */
   public static GlideExecutor newUnlimitedSourceExecutor() {
+    ExecutorMetrics metrics =
+        new ExecutorMetrics(
+            DEFAULT_SOURCE_UNLIMITED_EXECUTOR_NAME, /*listener=*/ null, /*pushIntervalMillis=*/ 0);
     return new GlideExecutor(
-        new ThreadPoolExecutor(
+        new ObservedThreadPoolExecutor(
             0,
             Integer.MAX_VALUE,
             KEEP_ALIVE_TIME_MS,
-            TimeUnit.MILLISECONDS,
             new SynchronousQueue<Runnable>(),
             new DefaultThreadFactory(
                 new DefaultPriorityThreadFactory(),
                 DEFAULT_SOURCE_UNLIMITED_EXECUTOR_NAME,
                 UncaughtThrowableStrategy.DEFAULT,
-                false)));
+                false),
+            metrics,
+            /*concurrencyController=*/ null),
+        metrics,
+        /*queue=*/ null,
+        /*decodeStage=*/ null);
   }
 
   /**
@@ -216,7 +295,79 @@ public final class GlideExecutor implements ExecutorService {
 
   @VisibleForTesting
   GlideExecutor(ExecutorService delegate) {
+    this(
+        delegate,
+        new ExecutorMetrics(TAG, /*listener=*/ null, /*pushIntervalMillis=*/ 0),
+        /*queue=*/ null,
+        /*decodeStage=*/ null);
+  }
+
+  private GlideExecutor(
+      ExecutorService delegate,
+      ExecutorMetrics metrics,
+      @Nullable PriorityTaskQueue queue,
+      @Nullable GlideExecutor decodeStage) {
     this.delegate = delegate;
+    this.metrics = metrics;
+    this.queue = queue;
+    this.decodeStage = decodeStage;
+  }
+
+  /**
+   * Returns the executor that decodes data fetched by this executor's threads, or {@code null} if
+   * this executor both fetches and decodes.
+   */
+  @Nullable
+  public GlideExecutor getDecodeStage() {
+    return decodeStage;
+  }
+
+  /**
+   * Executes the given task unless this executor's queue is full.
+   *
+   * @return {@code false} if the task was rejected, in which case the caller should run it itself.
+   */
+  public boolean tryExecute(@NonNull Runnable task) {
+    try {
+      delegate.execute(task);
+      return true;
+    } catch (RejectedExecutionException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Re-sorts a task that was already submitted but hasn't started yet, after its {@link
+   * PrioritizedTask#getPriority()} changed.
+   *
+   * @return {@code true} if the task was still queued.
+   */
+  public boolean reprioritize(@NonNull Runnable task) {
+    return queue != null && queue.reprioritize(task);
+  }
+
+  /**
+   * Returns how long tasks of the given priority waited in the queue before they started, or empty
+   * stats if this executor doesn't queue tasks.
+   */
+  @NonNull
+  public QueueWaitStats getQueueWaitStats(@NonNull Priority priority) {
+    return queue != null
+        ? queue.getWaitStats(priority.ordinal())
+        : new QueueWaitStats(/*count=*/ 0, /*totalMillis=*/ 0, /*maxMillis=*/ 0);
+  }
+
+  /**
+   * Returns a snapshot of the tasks this executor was given and how long they waited and ran. The
+   * decode stage of a staged executor keeps its own stats, see {@link #getDecodeStage()}.
+   */
+  @NonNull
+  public ExecutorStats getStats() {
+    int queueDepth =
+        delegate instanceof ThreadPoolExecutor
+            ? ((ThreadPoolExecutor) delegate).getQueue().size()
+            : 0;
+    return metrics.snapshot(queueDepth);
   }
 
   @Override
@@ -273,12 +424,20 @@ public final class GlideExecutor implements ExecutorService {
   @Override
   public void shutdown() {
     delegate.shutdown();
+    if (decodeStage != null) {
+      decodeStage.shutdown();
+    }
   }
 
   @NonNull
   @Override
   public List<Runnable> shutdownNow() {
-    return delegate.shutdownNow();
+    List<Runnable> result = delegate.shutdownNow();
+    if (decodeStage != null) {
+      result = new ArrayList<>(result);
+      result.addAll(decodeStage.shutdownNow());
+    }
+    return result;
   }
 
   @Override
@@ -288,13 +447,18 @@ public final class GlideExecutor implements ExecutorService {
 
   @Override
   public boolean isTerminated() {
-    return delegate.isTerminated();
+    return delegate.isTerminated() && (decodeStage == null || decodeStage.isTerminated());
   }
 
   @Override
   public boolean awaitTermination(long timeout, @NonNull TimeUnit unit)
       throws InterruptedException {
-    return delegate.awaitTermination(timeout, unit);
+    long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+    if (!delegate.awaitTermination(timeout, unit)) {
+      return false;
+    }
+    return decodeStage == null
+        || decodeStage.awaitTermination(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
   }
 
   @Override
@@ -357,18 +521,71 @@ public final class GlideExecutor implements ExecutorService {
     void handle(Throwable t);
   }
 
+  /** A snapshot of the time tasks of a single priority spent waiting in a {@link GlideExecutor}. */
+  public static final class QueueWaitStats {
+    private final long count;
+    private final long totalMillis;
+    private final long maxMillis;
+
+    QueueWaitStats(long count, long totalMillis, long maxMillis) {
+      this.count = count;
+      this.totalMillis = totalMillis;
+      this.maxMillis = maxMillis;
+    }
+
+    /** The number of tasks that left the queue. */
+    public long getCount() {
+      return count;
+    }
+
+    public long getTotalMillis() {
+      return totalMillis;
+    }
+
+    public long getMaxMillis() {
+      return maxMillis;
+    }
+
+    public long getAverageMillis() {
+      return count == 0 ? 0 : totalMillis / count;
+    }
+
+    @Override
+    public String toString() {
+      return "QueueWaitStats{"
+          + "count="
+          + count
+          + ", totalMillis="
+          + totalMillis
+          + ", maxMillis="
+          + maxMillis
+          + '}';
+    }
+  }
+
   private static final class DefaultPriorityThreadFactory implements ThreadFactory {
-    private static final int DEFAULT_PRIORITY =
+    @Synthetic
+    static final int DEFAULT_PRIORITY =
         android.os.Process.THREAD_PRIORITY_BACKGROUND
             + android.os.Process.THREAD_PRIORITY_MORE_FAVORABLE;
 
+    @Synthetic final int threadPriority;
+
+    DefaultPriorityThreadFactory() {
+      this(DEFAULT_PRIORITY);
+    }
+
+    DefaultPriorityThreadFactory(int threadPriority) {
+      this.threadPriority = threadPriority;
+    }
+
     @Override
     public Thread newThread(@NonNull Runnable runnable) {
       return new Thread(runnable) {
         @Override
         public void run() {
           // why PMD suppression is needed: https://github.com/pmd/pmd/issues/808
-          android.os.Process.setThreadPriority(DEFAULT_PRIORITY); // NOPMD AccessorMethodGeneration
+          android.os.Process.setThreadPriority(threadPriority); // NOPMD AccessorMethodGeneration
           super.run();
         }
       };
@@ -421,6 +638,83 @@ public final class GlideExecutor implements ExecutorService {
     }
   }
 
+  /**
+   * A {@link ThreadPoolExecutor} that records the tasks it's given and runs in {@link
+   * ExecutorMetrics}, and reports them to an optional {@link AdaptiveConcurrencyController}.
+   */
+  private static final class ObservedThreadPoolExecutor extends ThreadPoolExecutor
+      implements ExecutorMetrics.QueueDepthProvider {
+    private final ExecutorMetrics metrics;
+    @Nullable private final AdaptiveConcurrencyController concurrencyController;
+    // The wall clock and thread CPU time the current task of each thread started at. The CPU time
+    // is only read for the concurrency controller.
+    private final ThreadLocal<long[]> taskStartNanos =
+        new ThreadLocal<long[]>() {
+          @Override
+          protected long[] initialValue() {
+            return new long[2];
+          }
+        };
+
+    ObservedThreadPoolExecutor(
+        int corePoolSize,
+        int maximumPoolSize,
+        long keepAliveTimeMillis,
+        BlockingQueue<Runnable> queue,
+        ThreadFactory threadFactory,
+        ExecutorMetrics metrics,
+        @Nullable AdaptiveConcurrencyController concurrencyController) {
+      super(
+          corePoolSize,
+          maximumPoolSize,
+          keepAliveTimeMillis,
+          TimeUnit.MILLISECONDS,
+          queue,
+          threadFactory);
+      this.metrics = metrics;
+      this.concurrencyController = concurrencyController;
+    }
+
+    // submit() and friends go through execute() too.
+    @Override
+    public void execute(Runnable command) {
+      metrics.onSubmitted();
+      try {
+        super.execute(command);
+      } catch (RejectedExecutionException e) {
+        metrics.onRejected();
+        throw e;
+      }
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+      super.beforeExecute(t, r);
+      long[] startNanos = taskStartNanos.get();
+      startNanos[0] = System.nanoTime();
+      if (concurrencyController != null) {
+        startNanos[1] = concurrencyController.threadCpuTimeNanos();
+      }
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+      super.afterExecute(r, t);
+      long[] startNanos = taskStartNanos.get();
+      long runNanos = System.nanoTime() - startNanos[0];
+      metrics.onCompleted(runNanos, /*queueDepth=*/ this);
+      if (concurrencyController != null) {
+        concurrencyController.onTaskCompleted(
+            runNanos, concurrencyController.threadCpuTimeNanos() - startNanos[1]);
+      }
+    }
+
+    @Override
+    public int getQueueDepth() {
+      return getQueue().size();
+    }
+  }
+
   /** A builder for {@link GlideExecutor}s. */
   public static final class Builder {
     /**
@@ -429,18 +723,32 @@ public final class GlideExecutor implements ExecutorService {
      */
     public static final long NO_THREAD_TIMEOUT = 0L;
 
+    /** Disables priority aging if provided to {@link #setPriorityAgingMillis(long)}. */
+    public static final long NO_PRIORITY_AGING = 0L;
+
+    /** By default a task is treated as one priority higher for every second it waits. */
+    public static final long DEFAULT_PRIORITY_AGING_MILLIS = 1000L;
+
     private final boolean preventNetworkOperations;
 
     private int corePoolSize;
     private int maximumPoolSize;
 
-    @NonNull private final ThreadFactory threadFactory = new DefaultPriorityThreadFactory();
+    private int threadPriority = DefaultPriorityThreadFactory.DEFAULT_PRIORITY;
 
     @NonNull
     private UncaughtThrowableStrategy uncaughtThrowableStrategy = UncaughtThrowableStrategy.DEFAULT;
 
     private String name;
     private long threadTimeoutMillis;
+    private long priorityAgingMillis = DEFAULT_PRIORITY_AGING_MILLIS;
+    private boolean isLifoWithinPriority;
+    private int queueCapacity = Integer.MAX_VALUE;
+    private int decodeThreadCount;
+    private int decodeHandoffCapacity;
+    @Nullable private AdaptiveConcurrencyController concurrencyController;
+    @Nullable private ExecutorStats.Listener statsListener;
+    private long statsIntervalMillis;
 
     @Synthetic
     Builder(boolean preventNetworkOperations) {
@@ -458,6 +766,74 @@ public final class GlideExecutor implements ExecutorService {
       return this;
     }
 
+    /**
+     * Sets how long a queued task waits before it's treated as one priority higher, so that low
+     * priority tasks, like prefetches, eventually run even while higher priority tasks keep
+     * arriving.
+     *
+     * <p>Use {@link #NO_PRIORITY_AGING} for strict priority ordering.
+     */
+    public Builder setPriorityAgingMillis(long priorityAgingMillis) {
+      this.priorityAgingMillis = priorityAgingMillis;
+      return this;
+    }
+
+    /**
+     * Runs the most recently submitted task first among tasks of the same priority, rather than
+     * the oldest. Useful when scrolling quickly through lists, where the newest requests are the
+     * ones on screen. Tasks that have aged still run oldest first.
+     */
+    public Builder setLifoWithinPriority(boolean isLifoWithinPriority) {
+      this.isLifoWithinPriority = isLifoWithinPriority;
+      return this;
+    }
+
+    /**
+     * Splits jobs run by the executor into an I/O stage, this executor's own threads, and a decode
+     * stage with the given number of threads.
+     *
+     * <p>I/O stage threads fetch source data and read it completely, into the disk cache or into
+     * memory, before handing the job to the decode stage, which doesn't allow network operations.
+     * At most {@code handoffCapacity} jobs wait for a decode thread. When that many are already
+     * waiting, the I/O thread decodes the job itself, which keeps fetched but not yet decoded data
+     * bounded.
+     */
+    public Builder setDecodeStage(
+        @IntRange(from = 1) int threadCount, @IntRange(from = 1) int handoffCapacity) {
+      this.decodeThreadCount = threadCount;
+      this.decodeHandoffCapacity = handoffCapacity;
+      return this;
+    }
+
+    /**
+     * Lets an {@link AdaptiveConcurrencyController} grow and shrink the number of threads between
+     * the given bounds, starting from the thread count set by {@link #setThreadCount(int)}.
+     *
+     * @param listener Optional, receives every decision made by the controller and its reason.
+     */
+    public Builder setAdaptiveThreadCount(
+        @IntRange(from = 1) int minThreadCount,
+        @IntRange(from = 1) int maxThreadCount,
+        @Nullable AdaptiveConcurrencyController.Listener listener) {
+      this.concurrencyController =
+          new AdaptiveConcurrencyController(minThreadCount, maxThreadCount, listener);
+      return this;
+    }
+
+    /**
+     * Pushes {@link ExecutorStats} of the executor, and of its decode stage if any, to the given
+     * listener at most once per the given interval. Stats are pushed by the thread that finishes a
+     * task after the interval elapsed, so none are pushed while the executor is idle.
+     *
+     * <p>Stats can always be polled with {@link GlideExecutor#getStats()}.
+     */
+    public Builder setStatsListener(
+        @Nullable ExecutorStats.Listener listener, @IntRange(from = 0) long intervalMillis) {
+      this.statsListener = listener;
+      this.statsIntervalMillis = intervalMillis;
+      return this;
+    }
+
     /** Sets the maximum number of threads to use. */
     public Builder setThreadCount(@IntRange(from = 1) int threadCount) {
       corePoolSize = threadCount;
@@ -489,21 +865,50 @@ public final class GlideExecutor implements ExecutorService {
         throw new IllegalArgumentException(
             "Name must be non-null and non-empty, but given: " + name);
       }
+      ExecutorMetrics metrics = new ExecutorMetrics(name, statsListener, statsIntervalMillis);
+      PriorityTaskQueue queue =
+          new PriorityTaskQueue(priorityAgingMillis, isLifoWithinPriority, queueCapacity, metrics);
+      int threadCount = corePoolSize;
+      if (concurrencyController != null) {
+        threadCount = concurrencyController.clamp(threadCount);
+      }
       ThreadPoolExecutor executor =
-          new ThreadPoolExecutor(
-              corePoolSize,
-              maximumPoolSize,
-              /*keepAliveTime=*/ threadTimeoutMillis,
-              TimeUnit.MILLISECONDS,
-              new PriorityBlockingQueue<Runnable>(),
+          new ObservedThreadPoolExecutor(
+              threadCount,
+              threadCount,
+              /*keepAliveTimeMillis=*/ threadTimeoutMillis,
+              queue,
               new DefaultThreadFactory(
-                  threadFactory, name, uncaughtThrowableStrategy, preventNetworkOperations));
+                  new DefaultPriorityThreadFactory(threadPriority),
+                  name,
+                  uncaughtThrowableStrategy,
+                  preventNetworkOperations),
+              metrics,
+              concurrencyController);
+      if (concurrencyController != null) {
+        concurrencyController.attach(executor);
+      }
 
       if (threadTimeoutMillis != NO_THREAD_TIMEOUT) {
         executor.allowCoreThreadTimeOut(true);
       }
 
-      return new GlideExecutor(executor);
+      GlideExecutor decodeStage = null;
+      if (decodeThreadCount > 0) {
+        Builder decodeBuilder =
+            new Builder(/*preventNetworkOperations=*/ true)
+                .setThreadCount(decodeThreadCount)
+                .setName(name + "-decode")
+                .setUncaughtThrowableStrategy(uncaughtThrowableStrategy)
+                .setThreadTimeoutMillis(threadTimeoutMillis)
+                .setPriorityAgingMillis(priorityAgingMillis)
+                .setLifoWithinPriority(isLifoWithinPriority)
+                .setStatsListener(statsListener, statsIntervalMillis);
+        decodeBuilder.queueCapacity = decodeHandoffCapacity;
+        decodeStage = decodeBuilder.build();
+      }
+
+      return new GlideExecutor(executor, metrics, queue, decodeStage);
     }
   }
 }
@@ -0,0 +1,18 @@
+package com.example.glidemini.load.engine.executor;
+
+/**
+ * A {@link Runnable} that {@link GlideExecutor}s built by {@link GlideExecutor.Builder} schedule by
+ * priority. Runnables that don't implement this interface are scheduled as {@link
+ * com.example.glidemini.loader.model.Priority#NORMAL}.
+ */
+public interface PrioritizedTask extends Runnable {
+
+  /**
+   * Returns the {@link com.example.glidemini.loader.model.Priority#ordinal()} of the task, lower
+   * values run first.
+   *
+   * <p>The value is read when the task is queued. If it changes afterwards, call {@link
+   * GlideExecutor#reprioritize(Runnable)} for the new value to take effect.
+   */
+  int getPriority();
+}
@@ -0,0 +1,407 @@
+package com.example.glidemini.load.engine.executor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.example.glidemini.loader.model.Priority;
+import com.example.glidemini.util.Synthetic;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The work queue of the {@link java.util.concurrent.ThreadPoolExecutor}s behind {@link
+ * GlideExecutor}s, ordered by {@link PrioritizedTask#getPriority()} without starving low priority
+ * tasks.
+ *
+ * <p>Tasks are kept in one deque per priority. Every {@code agingNanos} a task waits, it is treated
+ * as if its priority was one step higher, so a prefetch queued behind a steady stream of visible
+ * requests eventually runs. Within a priority, tasks run in the order they were queued, or, in LIFO
+ * mode, the most recently queued task runs first, which suits scrolling lists where the newest
+ * requests are the ones on screen. Aged tasks always run oldest first.
+ *
+ * <p>The queue may be bounded, in which case {@link #offer(Runnable)} fails while it's full and the
+ * executor rejects the task. The decode stage of a staged {@link GlideExecutor} relies on this to
+ * push back on its I/O stage.
+ *
+ * <p>The queue also records how long tasks wait, per priority, see {@link #getWaitStats(int)}, and
+ * overall, in the executor's {@link ExecutorMetrics}.
+ */
+final class PriorityTaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+  private static final int PRIORITY_COUNT = Priority.values().length;
+  private static final int DEFAULT_PRIORITY = Priority.NORMAL.ordinal();
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private final long agingNanos;
+  private final boolean isLifo;
+  private final int capacity;
+  private final ExecutorMetrics metrics;
+  // The fields below are guarded by lock.
+  // Each deque is ordered by queue time, oldest first, which aging and LIFO mode rely on.
+  private final ArrayDeque<Node>[] queues;
+  private final ArrayDeque<Node> newerNodes = new ArrayDeque<>();
+  private final long[] dequeuedCounts = new long[PRIORITY_COUNT];
+  private final long[] totalWaitNanos = new long[PRIORITY_COUNT];
+  private final long[] maxWaitNanos = new long[PRIORITY_COUNT];
+  private int size;
+
+  // agingMillis: 0 disables aging. capacity: Integer.MAX_VALUE for an unbounded queue.
+  @SuppressWarnings("unchecked")
+  PriorityTaskQueue(
+      long agingMillis, boolean isLifo, int capacity, @NonNull ExecutorMetrics metrics) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be > 0");
+    }
+    this.agingNanos = TimeUnit.MILLISECONDS.toNanos(agingMillis);
+    this.isLifo = isLifo;
+    this.capacity = capacity;
+    this.metrics = metrics;
+    queues = new ArrayDeque[PRIORITY_COUNT];
+    for (int i = 0; i < PRIORITY_COUNT; i++) {
+      queues[i] = new ArrayDeque<>();
+    }
+  }
+
+  /**
+   * Moves an already queued task to the deque matching its current {@link
+   * PrioritizedTask#getPriority()}. The task keeps its original queue time for aging and wait
+   * statistics, and is inserted among the tasks of its new priority by that time.
+   *
+   * @return {@code true} if the task was queued.
+   */
+  boolean reprioritize(@NonNull Runnable task) {
+    lock.lock();
+    try {
+      Node node = removeNode(task);
+      if (node == null) {
+        return false;
+      }
+      node.priority = priorityOf(task);
+      insertByQueueTime(queues[node.priority], node);
+      size++;
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @NonNull
+  GlideExecutor.QueueWaitStats getWaitStats(int priority) {
+    lock.lock();
+    try {
+      return new GlideExecutor.QueueWaitStats(
+          dequeuedCounts[priority],
+          TimeUnit.NANOSECONDS.toMillis(totalWaitNanos[priority]),
+          TimeUnit.NANOSECONDS.toMillis(maxWaitNanos[priority]));
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean offer(@NonNull Runnable task) {
+    lock.lock();
+    try {
+      if (size >= capacity) {
+        return false;
+      }
+      enqueue(task);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void put(@NonNull Runnable task) throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (size >= capacity) {
+        notFull.await();
+      }
+      enqueue(task);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean offer(@NonNull Runnable task, long timeout, @NonNull TimeUnit unit)
+      throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      while (size >= capacity) {
+        if (nanos <= 0) {
+          return false;
+        }
+        nanos = notFull.awaitNanos(nanos);
+      }
+      enqueue(task);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @NonNull
+  @Override
+  public Runnable take() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (size == 0) {
+        notEmpty.await();
+      }
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Nullable
+  @Override
+  public Runnable poll(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      while (size == 0) {
+        if (nanos <= 0) {
+          return null;
+        }
+        nanos = notEmpty.awaitNanos(nanos);
+      }
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Nullable
+  @Override
+  public Runnable poll() {
+    lock.lock();
+    try {
+      return size == 0 ? null : dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Nullable
+  @Override
+  public Runnable peek() {
+    lock.lock();
+    try {
+      if (size == 0) {
+        return null;
+      }
+      long now = System.nanoTime();
+      int priority = selectPriority(now);
+      ArrayDeque<Node> queue = queues[priority];
+      return (isNewestFirst(priority, now) ? queue.peekLast() : queue.peekFirst()).task;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean remove(@Nullable Object task) {
+    lock.lock();
+    try {
+      return removeNode(task) != null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    lock.lock();
+    try {
+      return size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int remainingCapacity() {
+    lock.lock();
+    try {
+      return capacity - size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int drainTo(@NonNull Collection<? super Runnable> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(@NonNull Collection<? super Runnable> c, int maxElements) {
+    lock.lock();
+    try {
+      int drained = 0;
+      while (drained < maxElements && size > 0) {
+        c.add(dequeue());
+        drained++;
+      }
+      return drained;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Iterates over a snapshot, in no particular order.
+  @NonNull
+  @Override
+  public Iterator<Runnable> iterator() {
+    final List<Runnable> snapshot = new ArrayList<>();
+    lock.lock();
+    try {
+      for (ArrayDeque<Node> queue : queues) {
+        for (Node node : queue) {
+          snapshot.add(node.task);
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+    final Iterator<Runnable> iterator = snapshot.iterator();
+    return new Iterator<Runnable>() {
+      private Runnable current;
+
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public Runnable next() {
+        current = iterator.next();
+        return current;
+      }
+
+      @Override
+      public void remove() {
+        if (current == null) {
+          throw new IllegalStateException();
+        }
+        PriorityTaskQueue.this.remove(current);
+        current = null;
+      }
+    };
+  }
+
+  private void enqueue(Runnable task) {
+    Node node = new Node(task, priorityOf(task), System.nanoTime());
+    queues[node.priority].offerLast(node);
+    size++;
+    notEmpty.signal();
+  }
+
+  // Reprioritized tasks are usually recent, so only a few newer nodes have to be moved aside.
+  private void insertByQueueTime(ArrayDeque<Node> queue, Node node) {
+    while (!queue.isEmpty() && queue.peekLast().queuedNanos - node.queuedNanos > 0) {
+      newerNodes.push(queue.pollLast());
+    }
+    queue.offerLast(node);
+    while (!newerNodes.isEmpty()) {
+      queue.offerLast(newerNodes.pop());
+    }
+  }
+
+  private Runnable dequeue() {
+    long now = System.nanoTime();
+    int priority = selectPriority(now);
+    ArrayDeque<Node> queue = queues[priority];
+    Node node = isNewestFirst(priority, now) ? queue.pollLast() : queue.pollFirst();
+    size--;
+    notFull.signal();
+
+    long waitNanos = now - node.queuedNanos;
+    dequeuedCounts[priority]++;
+    totalWaitNanos[priority] += waitNanos;
+    maxWaitNanos[priority] = Math.max(maxWaitNanos[priority], waitNanos);
+    metrics.recordWait(waitNanos);
+    return node.task;
+  }
+
+  // Picks the priority whose oldest task has the best priority after aging, ties go to the higher
+  // base priority.
+  private int selectPriority(long now) {
+    int result = -1;
+    long bestEffectivePriority = Long.MAX_VALUE;
+    for (int i = 0; i < PRIORITY_COUNT; i++) {
+      Node oldest = queues[i].peekFirst();
+      if (oldest == null) {
+        continue;
+      }
+      long effectivePriority = i - getAgingSteps(oldest, now);
+      if (effectivePriority < bestEffectivePriority) {
+        bestEffectivePriority = effectivePriority;
+        result = i;
+      }
+    }
+    return result;
+  }
+
+  // In LIFO mode the newest task runs first, unless the oldest one has aged.
+  private boolean isNewestFirst(int priority, long now) {
+    return isLifo && getAgingSteps(queues[priority].peekFirst(), now) == 0;
+  }
+
+  private long getAgingSteps(Node node, long now) {
+    return agingNanos > 0 ? (now - node.queuedNanos) / agingNanos : 0;
+  }
+
+  @Nullable
+  private Node removeNode(@Nullable Object task) {
+    if (task == null) {
+      return null;
+    }
+    for (ArrayDeque<Node> queue : queues) {
+      Iterator<Node> iterator = queue.iterator();
+      while (iterator.hasNext()) {
+        Node node = iterator.next();
+        if (node.task.equals(task)) {
+          iterator.remove();
+          size--;
+          notFull.signal();
+          return node;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static int priorityOf(Runnable task) {
+    int priority =
+        task instanceof PrioritizedTask
+            ? ((PrioritizedTask) task).getPriority()
+            : DEFAULT_PRIORITY;
+    return Math.max(0, Math.min(PRIORITY_COUNT - 1, priority));
+  }
+
+  private static final class Node {
+    @Synthetic final Runnable task;
+    @Synthetic final long queuedNanos;
+    @Synthetic int priority;
+
+    Node(Runnable task, int priority, long queuedNanos) {
+      this.task = task;
+      this.priority = priority;
+      this.queuedNanos = queuedNanos;
+    }
+  }
+}
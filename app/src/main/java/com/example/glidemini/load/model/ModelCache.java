@@ -3,7 +3,7 @@ package com.example.glidemini.load.model;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
-import com.bumptech.glide.util.LruCache;
+import com.example.glidemini.cache.memoryCache.StripedLruCache;
 import com.bumptech.glide.util.Util;
 import java.util.Queue;
 
@@ -18,7 +18,7 @@ import java.util.Queue;
 public class ModelCache<A, B> {
   private static final int DEFAULT_SIZE = 250;
 
-  private final LruCache<ModelKey<A>, B> cache;
+  private final StripedLruCache<ModelKey<A>, B> cache;
 
   // Public API.
   @SuppressWarnings("unused")
@@ -28,7 +28,7 @@ public class ModelCache<A, B> {
 
   public ModelCache(long size) {
     cache =
-        new LruCache<ModelKey<A>, B>(size) {
+        new StripedLruCache<ModelKey<A>, B>(size) {
           @Override
           protected void onItemEvicted(@NonNull ModelKey<A> key, @Nullable B item) {
             key.release();
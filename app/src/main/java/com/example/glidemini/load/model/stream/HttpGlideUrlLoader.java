@@ -4,16 +4,23 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.example.glidemini.load.Option;
 import com.example.glidemini.load.Options;
-import com.bumptech.glide.load.data.HttpUrlFetcher;
 import com.example.glidemini.cache.key.GlideUrl;
 import com.example.glidemini.load.model.ModelCache;
 import com.example.glidemini.load.model.ModelLoaderFactory;
 import com.example.glidemini.load.model.MultiModelLoaderFactory;
+import com.example.glidemini.loader.model.httpUrl.HostHealthTracker;
+import com.example.glidemini.loader.model.httpUrl.HttpUrlFetcher;
+import com.example.glidemini.loader.model.httpUrl.PartialDownloads;
 import java.io.InputStream;
 
 /**
  * An {@link ModelLoader} for translating {@link
  * GlideUrl} (http/https URLS) into {@link java.io.InputStream} data.
+ *
+ * <p>Given a {@link PartialDownloads}, large downloads that are cancelled part way through are
+ * kept and resumed with a range request the next time the same url is loaded. Given a {@link
+ * HostHealthTracker}, transient failures are retried with backoff and requests to a host that keeps
+ * failing fail fast until it recovers.
  */
 // Public API.
 @SuppressWarnings("WeakerAccess")
@@ -28,13 +35,30 @@ public class HttpGlideUrlLoader implements ModelLoader<GlideUrl, InputStream> {
       Option.memory("com.bumptech.glide.load.model.stream.HttpGlideUrlLoader.Timeout", 2500);
 
   @Nullable private final ModelCache<GlideUrl, GlideUrl> modelCache;
+  @Nullable private final PartialDownloads partialDownloads;
+  @Nullable private final HostHealthTracker hostHealthTracker;
 
   public HttpGlideUrlLoader() {
     this(null);
   }
 
   public HttpGlideUrlLoader(@Nullable ModelCache<GlideUrl, GlideUrl> modelCache) {
+    this(modelCache, /*partialDownloads=*/ null);
+  }
+
+  public HttpGlideUrlLoader(
+      @Nullable ModelCache<GlideUrl, GlideUrl> modelCache,
+      @Nullable PartialDownloads partialDownloads) {
+    this(modelCache, partialDownloads, /*hostHealthTracker=*/ null);
+  }
+
+  public HttpGlideUrlLoader(
+      @Nullable ModelCache<GlideUrl, GlideUrl> modelCache,
+      @Nullable PartialDownloads partialDownloads,
+      @Nullable HostHealthTracker hostHealthTracker) {
     this.modelCache = modelCache;
+    this.partialDownloads = partialDownloads;
+    this.hostHealthTracker = hostHealthTracker;
   }
 
   @Override
@@ -51,7 +75,8 @@ public class HttpGlideUrlLoader implements ModelLoader<GlideUrl, InputStream> {
       }
     }
     int timeout = options.get(TIMEOUT);
-    return new LoadData<>(url, new HttpUrlFetcher(url, timeout));
+    return new LoadData<>(
+        url, new HttpUrlFetcher(url, timeout, partialDownloads, hostHealthTracker));
   }
 
   @Override
@@ -62,11 +87,38 @@ public class HttpGlideUrlLoader implements ModelLoader<GlideUrl, InputStream> {
   /** The default factory for {@link HttpGlideUrlLoader}s. */
   public static class Factory implements ModelLoaderFactory<GlideUrl, InputStream> {
     private final ModelCache<GlideUrl, GlideUrl> modelCache = new ModelCache<>(500);
+    @Nullable private final PartialDownloads partialDownloads;
+    @Nullable private final HostHealthTracker hostHealthTracker;
+
+    public Factory() {
+      this(/*partialDownloads=*/ null);
+    }
+
+    /**
+     * @param partialDownloads Where cancelled downloads are kept for resuming, or {@code null} to
+     *     always download from the start.
+     */
+    public Factory(@Nullable PartialDownloads partialDownloads) {
+      this(partialDownloads, /*hostHealthTracker=*/ null);
+    }
+
+    /**
+     * @param partialDownloads Where cancelled downloads are kept for resuming, or {@code null} to
+     *     always download from the start.
+     * @param hostHealthTracker Retries transient failures and fails fast for hosts that keep
+     *     failing, or {@code null} to fail on the first error. Usually shared by the whole app.
+     */
+    public Factory(
+        @Nullable PartialDownloads partialDownloads,
+        @Nullable HostHealthTracker hostHealthTracker) {
+      this.partialDownloads = partialDownloads;
+      this.hostHealthTracker = hostHealthTracker;
+    }
 
     @NonNull
     @Override
     public ModelLoader<GlideUrl, InputStream> build(MultiModelLoaderFactory multiFactory) {
-      return new HttpGlideUrlLoader(modelCache);
+      return new HttpGlideUrlLoader(modelCache, partialDownloads, hostHealthTracker);
     }
 
     @Override
@@ -0,0 +1,109 @@
+package com.example.glidemini.load.model.stream;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.example.glidemini.load.Options;
+import com.example.glidemini.cache.key.GlideUrl;
+import com.example.glidemini.load.model.ModelCache;
+import com.example.glidemini.load.model.ModelLoaderFactory;
+import com.example.glidemini.load.model.MultiModelLoaderFactory;
+import com.example.glidemini.loader.model.httpUrl.HttpConnectionManager;
+import com.example.glidemini.loader.model.httpUrl.PartialDownloads;
+import com.example.glidemini.loader.model.httpUrl.PooledHttpUrlFetcher;
+import java.io.InputStream;
+
+/**
+ * An alternative to {@link HttpGlideUrlLoader} whose fetchers share a {@link
+ * HttpConnectionManager}, which limits concurrent connections per host, keeps connections alive
+ * for reuse and caches redirects.
+ *
+ * <p>Given a {@link PartialDownloads}, large downloads that are cancelled part way through are
+ * kept and resumed with a range request the next time the same url is loaded.
+ *
+ * <p>To use it, replace the default loader for {@link GlideUrl}s in the registry with {@link
+ * Factory}.
+ */
+// Public API.
+@SuppressWarnings("WeakerAccess")
+public class PooledHttpGlideUrlLoader implements ModelLoader<GlideUrl, InputStream> {
+  @Nullable private final ModelCache<GlideUrl, GlideUrl> modelCache;
+  private final HttpConnectionManager connectionManager;
+  @Nullable private final PartialDownloads partialDownloads;
+
+  public PooledHttpGlideUrlLoader(@NonNull HttpConnectionManager connectionManager) {
+    this(connectionManager, null);
+  }
+
+  public PooledHttpGlideUrlLoader(
+      @NonNull HttpConnectionManager connectionManager,
+      @Nullable ModelCache<GlideUrl, GlideUrl> modelCache) {
+    this(connectionManager, modelCache, /*partialDownloads=*/ null);
+  }
+
+  public PooledHttpGlideUrlLoader(
+      @NonNull HttpConnectionManager connectionManager,
+      @Nullable ModelCache<GlideUrl, GlideUrl> modelCache,
+      @Nullable PartialDownloads partialDownloads) {
+    this.connectionManager = connectionManager;
+    this.modelCache = modelCache;
+    this.partialDownloads = partialDownloads;
+  }
+
+  @Override
+  public LoadData<InputStream> buildLoadData(
+      @NonNull GlideUrl model, int width, int height, @NonNull Options options) {
+    GlideUrl url = model;
+    if (modelCache != null) {
+      url = modelCache.get(model, 0, 0);
+      if (url == null) {
+        modelCache.put(model, 0, 0, model);
+        url = model;
+      }
+    }
+    int timeout = options.get(HttpGlideUrlLoader.TIMEOUT);
+    return new LoadData<>(
+        url, new PooledHttpUrlFetcher(url, timeout, connectionManager, partialDownloads));
+  }
+
+  @Override
+  public boolean handles(@NonNull GlideUrl model) {
+    return true;
+  }
+
+  /** The factory for {@link PooledHttpGlideUrlLoader}s, all sharing one connection manager. */
+  public static class Factory implements ModelLoaderFactory<GlideUrl, InputStream> {
+    private final ModelCache<GlideUrl, GlideUrl> modelCache = new ModelCache<>(500);
+    private final HttpConnectionManager connectionManager;
+    @Nullable private final PartialDownloads partialDownloads;
+
+    public Factory() {
+      this(new HttpConnectionManager());
+    }
+
+    public Factory(@NonNull HttpConnectionManager connectionManager) {
+      this(connectionManager, /*partialDownloads=*/ null);
+    }
+
+    /**
+     * @param partialDownloads Where cancelled downloads are kept for resuming, or {@code null} to
+     *     always download from the start.
+     */
+    public Factory(
+        @NonNull HttpConnectionManager connectionManager,
+        @Nullable PartialDownloads partialDownloads) {
+      this.connectionManager = connectionManager;
+      this.partialDownloads = partialDownloads;
+    }
+
+    @NonNull
+    @Override
+    public ModelLoader<GlideUrl, InputStream> build(MultiModelLoaderFactory multiFactory) {
+      return new PooledHttpGlideUrlLoader(connectionManager, modelCache, partialDownloads);
+    }
+
+    @Override
+    public void teardown() {
+      connectionManager.clearRedirects();
+    }
+  }
+}
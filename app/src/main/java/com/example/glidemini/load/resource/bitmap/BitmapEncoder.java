@@ -18,6 +18,9 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * An {@link ResourceEncoder} that writes {@link android.graphics.Bitmap}s
@@ -25,7 +28,8 @@ import java.io.OutputStream;
  *
  * <p>{@link android.graphics.Bitmap}s that return true from {@link android.graphics.Bitmap#hasAlpha
  * ()}} are written using {@link android.graphics.Bitmap.CompressFormat#PNG} to preserve alpha and
- * all other bitmaps are written using {@link android.graphics.Bitmap.CompressFormat#JPEG}.
+ * all other bitmaps are written using {@link android.graphics.Bitmap.CompressFormat#JPEG}, unless
+ * {@link #ENCODE_RAW_PIXELS} is set.
  *
  * @see android.graphics.Bitmap#compress(android.graphics.Bitmap.CompressFormat, int,
  *     java.io.OutputStream)
@@ -49,6 +53,21 @@ public class BitmapEncoder implements ResourceEncoder<Bitmap> {
   public static final Option<Bitmap.CompressFormat> COMPRESSION_FORMAT =
       Option.memory("com.bumptech.glide.load.resource.bitmap.BitmapEncoder.CompressionFormat");
 
+  /**
+   * A boolean option that writes {@link android.graphics.Bitmap}s as an uncompressed copy of their
+   * pixels, to be read back by {@link RawBitmapDecoder}, instead of compressing them.
+   *
+   * <p>Raw entries are several times larger on disk, but decoding them is a single copy, so this
+   * suits small, frequently reloaded resources like thumbnails cached with {@link
+   * com.example.glidemini.load.engine.DiskCacheStrategy#RESOURCE}. Bitmaps whose config can't be
+   * copied, like {@link android.graphics.Bitmap.Config#HARDWARE}, are still compressed.
+   *
+   * <p>Defaults to {@code false}.
+   */
+  public static final Option<Boolean> ENCODE_RAW_PIXELS =
+      Option.memory(
+          "com.example.glidemini.load.resource.bitmap.BitmapEncoder.EncodeRawPixels", false);
+
   private static final String TAG = "BitmapEncoder";
   @Nullable private final ArrayPool arrayPool;
 
@@ -66,6 +85,9 @@ public class BitmapEncoder implements ResourceEncoder<Bitmap> {
   public boolean encode(
       @NonNull Resource<Bitmap> resource, @NonNull File file, @NonNull Options options) {
     final Bitmap bitmap = resource.get();
+    if (options.get(ENCODE_RAW_PIXELS) && RawBitmapFormat.isSupported(bitmap.getConfig())) {
+      return encodeRawPixels(bitmap, file);
+    }
     Bitmap.CompressFormat format = getFormat(bitmap, options);
     GlideTrace.beginSectionFormat(
         "encode: [%dx%d] %s", bitmap.getWidth(), bitmap.getHeight(), format);
@@ -117,6 +139,51 @@ public class BitmapEncoder implements ResourceEncoder<Bitmap> {
     }
   }
 
+  // Maps the file and copies the pixels straight into the mapping, rather than into a heap buffer
+  // the size of the bitmap first.
+  private static boolean encodeRawPixels(Bitmap bitmap, File file) {
+    GlideTrace.beginSectionFormat("encodeRaw: [%dx%d]", bitmap.getWidth(), bitmap.getHeight());
+    long start = LogTime.getLogTime();
+    RandomAccessFile raf = null;
+    boolean success = false;
+    try {
+      raf = new RandomAccessFile(file, "rw");
+      ByteBuffer buffer =
+          raf.getChannel()
+              .map(
+                  FileChannel.MapMode.READ_WRITE,
+                  0,
+                  RawBitmapFormat.HEADER_SIZE + bitmap.getByteCount());
+      RawBitmapFormat.writeHeader(buffer, bitmap);
+      bitmap.copyPixelsToBuffer(buffer);
+      success = true;
+    } catch (IOException e) {
+      if (Log.isLoggable(TAG, Log.DEBUG)) {
+        Log.d(TAG, "Failed to write raw Bitmap", e);
+      }
+    } finally {
+      if (raf != null) {
+        try {
+          raf.close();
+        } catch (IOException e) {
+          // Do nothing.
+        }
+      }
+      GlideTrace.endSection();
+    }
+    if (Log.isLoggable(TAG, Log.VERBOSE)) {
+      Log.v(
+          TAG,
+          "Wrote raw pixels with config: "
+              + bitmap.getConfig()
+              + " of size "
+              + Util.getBitmapByteSize(bitmap)
+              + " in "
+              + LogTime.getElapsedMillis(start));
+    }
+    return success;
+  }
+
   private Bitmap.CompressFormat getFormat(Bitmap bitmap, Options options) {
     Bitmap.CompressFormat format = options.get(COMPRESSION_FORMAT);
     if (format != null) {
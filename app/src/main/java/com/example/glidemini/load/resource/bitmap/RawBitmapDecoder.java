@@ -0,0 +1,51 @@
+package com.example.glidemini.load.resource.bitmap;
+
+import android.graphics.Bitmap;
+import androidx.annotation.NonNull;
+import com.example.glidemini.bitmapRecycle.BitmapPool;
+import com.example.glidemini.load.Options;
+import com.example.glidemini.load.ResourceDecoder;
+import com.example.glidemini.load.engine.Resource;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes {@link Bitmap}s written as raw pixels by {@link BitmapEncoder}, see {@link
+ * BitmapEncoder#ENCODE_RAW_PIXELS}.
+ *
+ * <p>The pixels are copied straight from the buffer, usually a mapping of the resource cache
+ * entry, into a pooled {@link Bitmap}. The requested size is ignored, the cached resource already
+ * has the transformed size.
+ */
+public class RawBitmapDecoder implements ResourceDecoder<ByteBuffer, Bitmap> {
+  private final BitmapPool bitmapPool;
+
+  public RawBitmapDecoder(@NonNull BitmapPool bitmapPool) {
+    this.bitmapPool = bitmapPool;
+  }
+
+  @Override
+  public boolean handles(@NonNull ByteBuffer source, @NonNull Options options) {
+    return RawBitmapFormat.isRawBitmap(source);
+  }
+
+  @Override
+  public Resource<Bitmap> decode(
+      @NonNull ByteBuffer source, int width, int height, @NonNull Options options)
+      throws IOException {
+    // Leave the position of the source alone, it may be rewound and read by other decoders.
+    ByteBuffer pixels = source.duplicate();
+    RawBitmapFormat.Header header = RawBitmapFormat.readHeader(pixels);
+    // Every pixel is overwritten, so there's no need to erase the bitmap.
+    Bitmap bitmap = bitmapPool.getDirty(header.width, header.height, header.config);
+    if (bitmap.getRowBytes() != header.rowBytes) {
+      bitmapPool.put(bitmap);
+      throw new IOException(
+          "Stride mismatch, expected: " + header.rowBytes + ", but got: " + bitmap.getRowBytes());
+    }
+    pixels.limit(pixels.position() + header.byteCount);
+    bitmap.copyPixelsFromBuffer(pixels);
+    bitmap.setHasAlpha(header.hasAlpha);
+    return BitmapResource.obtain(bitmap, bitmapPool);
+  }
+}
@@ -0,0 +1,201 @@
+package com.example.glidemini.load.resource.bitmap;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.example.glidemini.util.Synthetic;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The layout of {@link Bitmap}s written by {@link BitmapEncoder} when {@link
+ * BitmapEncoder#ENCODE_RAW_PIXELS} is set, and read by {@link RawBitmapDecoder}.
+ *
+ * <p>A fixed size big endian header is followed by the pixels exactly as {@link
+ * Bitmap#copyPixelsToBuffer(java.nio.Buffer)} writes them, so decoding is a single copy into a
+ * pooled {@link Bitmap}:
+ *
+ * <pre>
+ *   int  magic ('G', 'R', 'A', 'W')
+ *   byte version
+ *   byte config, see {@link #toCode(Bitmap.Config)}
+ *   byte hasAlpha
+ *   byte reserved
+ *   int  width
+ *   int  height
+ *   int  rowBytes
+ *   int  pixel byte count
+ * </pre>
+ */
+final class RawBitmapFormat {
+  static final int HEADER_SIZE = 24;
+
+  private static final int MAGIC = 0x47524157;
+  private static final byte VERSION = 1;
+
+  private RawBitmapFormat() {
+    // Utility class.
+  }
+
+  /** Returns {@code true} if bitmaps with the given config can be written as raw pixels. */
+  static boolean isSupported(@Nullable Bitmap.Config config) {
+    return toCode(config) != 0;
+  }
+
+  /** Returns {@code true} if the given data starts with a raw bitmap header. */
+  static boolean isRawBitmap(@NonNull ByteBuffer data) {
+    return data.remaining() >= HEADER_SIZE
+        && data.getInt(data.position()) == MAGIC
+        && data.get(data.position() + 4) == VERSION;
+  }
+
+  static void writeHeader(@NonNull ByteBuffer target, @NonNull Bitmap bitmap) {
+    target
+        .putInt(MAGIC)
+        .put(VERSION)
+        .put(toCode(bitmap.getConfig()))
+        .put((byte) (bitmap.hasAlpha() ? 1 : 0))
+        .put((byte) 0)
+        .putInt(bitmap.getWidth())
+        .putInt(bitmap.getHeight())
+        .putInt(bitmap.getRowBytes())
+        .putInt(bitmap.getByteCount());
+  }
+
+  /**
+   * Reads the header and leaves the given buffer positioned at the first pixel.
+   *
+   * <p>Cache entries can be truncated or corrupted, so the header is validated before any of it is
+   * used to allocate a {@link Bitmap}: the stride has to fit a row of pixels and the pixels have to
+   * fit in the rest of the buffer.
+   */
+  @NonNull
+  static Header readHeader(@NonNull ByteBuffer source) throws IOException {
+    if (!isRawBitmap(source)) {
+      throw new IOException("Not a raw bitmap");
+    }
+    source.position(source.position() + 5);
+    Bitmap.Config config = fromCode(source.get());
+    boolean hasAlpha = source.get() != 0;
+    source.get();
+    Header header =
+        new Header(
+            config,
+            hasAlpha,
+            /*width=*/ source.getInt(),
+            /*height=*/ source.getInt(),
+            /*rowBytes=*/ source.getInt(),
+            /*byteCount=*/ source.getInt());
+    if (config == null || header.width <= 0 || header.height <= 0) {
+      throw new IOException("Invalid raw bitmap header: " + header);
+    }
+    // As longs, an int product of large dimensions can wrap around to a small byte count.
+    long minRowBytes = (long) header.width * bytesPerPixel(config);
+    long pixelBytes = (long) header.rowBytes * header.height;
+    if (header.rowBytes < minRowBytes
+        || pixelBytes != header.byteCount
+        || pixelBytes > source.remaining()) {
+      throw new IOException(
+          "Invalid raw bitmap header: " + header + ", remaining: " + source.remaining());
+    }
+    return header;
+  }
+
+  private static int bytesPerPixel(@NonNull Bitmap.Config config) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.RGBA_F16) {
+      return 8;
+    }
+    switch (config) {
+      case ALPHA_8:
+        return 1;
+      case RGB_565:
+      case ARGB_4444:
+        return 2;
+      default:
+        return 4;
+    }
+  }
+
+  private static byte toCode(@Nullable Bitmap.Config config) {
+    if (config == null) {
+      return 0;
+    }
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.RGBA_F16) {
+      return 5;
+    }
+    switch (config) {
+      case ALPHA_8:
+        return 1;
+      case RGB_565:
+        return 2;
+      case ARGB_4444:
+        return 3;
+      case ARGB_8888:
+        return 4;
+      default:
+        // Hardware bitmaps, among others, can't be copied to a buffer.
+        return 0;
+    }
+  }
+
+  @Nullable
+  private static Bitmap.Config fromCode(byte code) {
+    switch (code) {
+      case 1:
+        return Bitmap.Config.ALPHA_8;
+      case 2:
+        return Bitmap.Config.RGB_565;
+      case 3:
+        return Bitmap.Config.ARGB_4444;
+      case 4:
+        return Bitmap.Config.ARGB_8888;
+      case 5:
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O ? Bitmap.Config.RGBA_F16 : null;
+      default:
+        return null;
+    }
+  }
+
+  static final class Header {
+    @Synthetic final Bitmap.Config config;
+    @Synthetic final boolean hasAlpha;
+    @Synthetic final int width;
+    @Synthetic final int height;
+    @Synthetic final int rowBytes;
+    @Synthetic final int byteCount;
+
+    Header(
+        Bitmap.Config config,
+        boolean hasAlpha,
+        int width,
+        int height,
+        int rowBytes,
+        int byteCount) {
+      this.config = config;
+      this.hasAlpha = hasAlpha;
+      this.width = width;
+      this.height = height;
+      this.rowBytes = rowBytes;
+      this.byteCount = byteCount;
+    }
+
+    @Override
+    public String toString() {
+      return "Header{"
+          + "config="
+          + config
+          + ", hasAlpha="
+          + hasAlpha
+          + ", width="
+          + width
+          + ", height="
+          + height
+          + ", rowBytes="
+          + rowBytes
+          + ", byteCount="
+          + byteCount
+          + '}';
+    }
+  }
+}
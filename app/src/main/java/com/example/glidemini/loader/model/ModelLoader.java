@@ -3,8 +3,6 @@ package com.example.glidemini.loader.model;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.bumptech.glide.load.data.DataFetcher;
-import com.bumptech.glide.util.Preconditions;
 import com.example.glidemini.load.Options;
 
 /**
@@ -0,0 +1,322 @@
+package com.example.glidemini.loader.model.httpUrl;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.glidemini.load.HttpException;
+import com.example.glidemini.util.Synthetic;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按host记录请求是否健康，用于HTTP fetcher的重试和熔断，一般整个应用只需要一个实例
+ *
+ * <ul>
+ *   <li>重试：5xx、408、429、连接失败、超时这类临时错误，按指数退避(带随机抖动)重试，最多{@code maxRetries}次
+ *   <li>熔断：一个host连续{@code failureThreshold}次临时错误后熔断({@link State#OPEN})，
+ *       冷却期{@code cooldownMillis}内对这个host的请求直接失败，不再占用source线程等待超时
+ *   <li>冷却期过后进入{@link State#HALF_OPEN}，只放行一个试探请求：成功则恢复，失败则重新熔断
+ * </ul>
+ *
+ * <p>404这类非临时错误说明host本身是正常的，和成功一样会重置连续失败次数。状态变化可以通过{@link Listener}观察
+ */
+public final class HostHealthTracker {
+    private static final String TAG = "HostHealthTracker";
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_COOLDOWN_MILLIS = 30 * 1000;
+    public static final int DEFAULT_MAX_RETRIES = 2;
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 250;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 2000;
+
+    private static final int INVALID_STATUS_CODE = -1;
+    private static final int HTTP_REQUEST_TIMEOUT = 408;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * 一个host的熔断状态
+     */
+    public enum State {
+        /** 正常放行 */
+        CLOSED,
+        /** 熔断中，请求直接失败 */
+        OPEN,
+        /** 冷却期已过，放行一个试探请求 */
+        HALF_OPEN,
+    }
+
+    /**
+     * 状态变化的回调，在发起请求的线程上调用，实现应该尽量快
+     */
+    public interface Listener {
+        void onStateChanged(@NonNull String host, @NonNull State previous, @NonNull State current);
+    }
+
+    /**
+     * 一次可以重试的请求
+     */
+    public interface Request<T> {
+        /**
+         * 发起一次请求，返回null表示被取消
+         */
+        @Nullable
+        T execute() throws IOException;
+
+        /**
+         * 重试前调用，关闭上一次请求的连接
+         */
+        void onRetry();
+
+        boolean isCancelled();
+    }
+
+    private final int failureThreshold;
+    private final long cooldownMillis;
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    //host -> 这个host的状态，只增不减，host的数量一般很少
+    private final ConcurrentHashMap<String, HostState> hosts = new ConcurrentHashMap<>();
+    private final Random random = new Random();
+    @Nullable
+    private volatile Listener listener;
+
+    public HostHealthTracker() {
+        this(
+                DEFAULT_FAILURE_THRESHOLD,
+                DEFAULT_COOLDOWN_MILLIS,
+                DEFAULT_MAX_RETRIES,
+                DEFAULT_INITIAL_BACKOFF_MILLIS,
+                DEFAULT_MAX_BACKOFF_MILLIS);
+    }
+
+    public HostHealthTracker(
+            int failureThreshold,
+            long cooldownMillis,
+            int maxRetries,
+            long initialBackoffMillis,
+            long maxBackoffMillis) {
+        if (failureThreshold <= 0 || cooldownMillis < 0 || maxRetries < 0
+                || initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("Invalid retry or circuit breaker limits");
+        }
+        this.failureThreshold = failureThreshold;
+        this.cooldownMillis = cooldownMillis;
+        this.maxRetries = maxRetries;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * 设置状态变化的回调，传null移除
+     */
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 返回host当前的状态
+     */
+    @NonNull
+    public State getState(@NonNull String host) {
+        HostState state = hosts.get(host);
+        if (state == null) {
+            return State.CLOSED;
+        }
+        synchronized (state) {
+            return state.state;
+        }
+    }
+
+    /**
+     * 对host发起请求，临时错误时退避重试，熔断时直接失败
+     *
+     * @throws HttpException 熔断时抛出，状态码为-1
+     */
+    @Nullable
+    public <T> T fetch(@NonNull String host, @NonNull Request<T> request) throws IOException {
+        HostState state = getOrCreate(host);
+        for (int attempt = 0; ; attempt++) {
+            if (!allowRequest(host, state)) {
+                throw new HttpException(
+                        "Circuit breaker open for host: " + host, INVALID_STATUS_CODE);
+            }
+            T result;
+            try {
+                result = request.execute();
+            } catch (IOException e) {
+                if (!isTransient(e)) {
+                    onHealthy(host, state);
+                    throw e;
+                }
+                boolean isOpen = onTransientFailure(host, state);
+                // 熔断后不再重试，抛出真正的错误而不是熔断的错误
+                if (isOpen || attempt >= maxRetries || request.isCancelled()) {
+                    throw e;
+                }
+                long backoffMillis = getBackoffMillis(attempt);
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Retrying " + host + " in " + backoffMillis + "ms", e);
+                }
+                request.onRetry();
+                sleep(backoffMillis);
+                if (request.isCancelled()) {
+                    return null;
+                }
+                continue;
+            }
+            if (result != null) {
+                onHealthy(host, state);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 5xx、408、429、连接失败和超时属于临时错误，可以重试
+     */
+    public static boolean isTransient(@NonNull IOException e) {
+        if (e instanceof SocketTimeoutException || e instanceof ConnectException) {
+            return true;
+        }
+        if (e instanceof HttpException) {
+            int statusCode = ((HttpException) e).getStatusCode();
+            if (statusCode / 100 == 5
+                    || statusCode == HTTP_REQUEST_TIMEOUT
+                    || statusCode == HTTP_TOO_MANY_REQUESTS) {
+                return true;
+            }
+            Throwable cause = e.getCause();
+            return cause instanceof SocketTimeoutException || cause instanceof ConnectException;
+        }
+        return false;
+    }
+
+    private HostState getOrCreate(String host) {
+        HostState state = hosts.get(host);
+        if (state == null) {
+            HostState created = new HostState();
+            state = hosts.putIfAbsent(host, created);
+            if (state == null) {
+                state = created;
+            }
+        }
+        return state;
+    }
+
+    private boolean allowRequest(String host, HostState state) {
+        long now = SystemClock.elapsedRealtime();
+        State previous;
+        synchronized (state) {
+            previous = state.state;
+            switch (previous) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if (now - state.openedAtMillis < cooldownMillis) {
+                        return false;
+                    }
+                    state.state = State.HALF_OPEN;
+                    state.probeStartedAtMillis = now;
+                    break;
+                case HALF_OPEN:
+                    // 试探请求还没有结果，再等一个冷却期，避免试探请求被取消后一直卡在这个状态
+                    if (now - state.probeStartedAtMillis < cooldownMillis) {
+                        return false;
+                    }
+                    state.probeStartedAtMillis = now;
+                    return true;
+                default:
+                    throw new IllegalStateException("Unrecognized state: " + previous);
+            }
+        }
+        notifyStateChanged(host, previous, State.HALF_OPEN);
+        return true;
+    }
+
+    private void onHealthy(String host, HostState state) {
+        State previous;
+        synchronized (state) {
+            previous = state.state;
+            state.failures = 0;
+            state.state = State.CLOSED;
+        }
+        if (previous != State.CLOSED) {
+            notifyStateChanged(host, previous, State.CLOSED);
+        }
+    }
+
+    //返回这个host是否已经熔断
+    private boolean onTransientFailure(String host, HostState state) {
+        State previous;
+        synchronized (state) {
+            previous = state.state;
+            state.failures++;
+            if (previous == State.OPEN) {
+                return true;
+            }
+            if (previous == State.CLOSED && state.failures < failureThreshold) {
+                return false;
+            }
+            state.state = State.OPEN;
+            state.openedAtMillis = SystemClock.elapsedRealtime();
+        }
+        notifyStateChanged(host, previous, State.OPEN);
+        return true;
+    }
+
+    private void notifyStateChanged(String host, State previous, State current) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, host + ": " + previous + " -> " + current);
+        }
+        Listener local = listener;
+        if (local != null) {
+            local.onStateChanged(host, previous, current);
+        }
+    }
+
+    //initialBackoffMillis * 2^attempt，不超过maxBackoffMillis，再乘以[0.5, 1)的随机抖动，避免重试扎堆
+    private long getBackoffMillis(int attempt) {
+        long backoff = initialBackoffMillis << Math.min(attempt, 30);
+        if (backoff <= 0 || backoff > maxBackoffMillis) {
+            backoff = maxBackoffMillis;
+        }
+        double jitter = 0.5 + random.nextDouble() / 2;
+        return (long) (backoff * jitter);
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while backing off");
+        }
+    }
+
+    private static final class HostState {
+        @GuardedBy("this")
+        @Synthetic
+        State state = State.CLOSED;
+        @GuardedBy("this")
+        @Synthetic
+        int failures;
+        @GuardedBy("this")
+        @Synthetic
+        long openedAtMillis;
+        @GuardedBy("this")
+        @Synthetic
+        long probeStartedAtMillis;
+
+        @Synthetic
+        HostState() {}
+    }
+}
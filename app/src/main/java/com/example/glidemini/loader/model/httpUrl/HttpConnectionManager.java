@@ -0,0 +1,186 @@
+package com.example.glidemini.loader.model.httpUrl;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.glidemini.cache.key.GlideUrl;
+import com.example.glidemini.cache.memoryCache.StripedLruCache;
+import com.example.glidemini.util.Synthetic;
+
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link PooledHttpUrlFetcher}共享的连接管理，一般整个应用只需要一个实例
+ *
+ * <ul>
+ *   <li>并发限制：同时打开的连接总数和每个host的连接数都有上限，超出的请求排队等待，
+ *       避免滑动列表时对同一个host发起几十个连接，互相抢带宽，连接也没法复用
+ *   <li>keep-alive：连接本身由平台的HttpURLConnection连接池复用。fetcher读完后只关闭流、不调用disconnect，
+ *       连接就会回到连接池；限制并发数也让连接池里的空闲连接够用
+ *   <li>重定向缓存：记录每个{@link GlideUrl}最终重定向到的URL，下次直接请求目标地址，省掉重定向的往返。
+ *       永久重定向(301/308)一直有效，临时重定向只缓存{@link #TEMPORARY_REDIRECT_TTL_MILLIS}
+ *   <li>重试和熔断：设置了{@link HostHealthTracker}时，临时错误会退避重试，连续失败的host会被熔断
+ * </ul>
+ */
+public final class HttpConnectionManager {
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+    public static final int DEFAULT_MAX_CONNECTIONS = 16;
+    public static final int DEFAULT_REDIRECT_CACHE_SIZE = 256;
+    static final long TEMPORARY_REDIRECT_TTL_MILLIS = 5 * 60 * 1000;
+
+    private final int maxConnectionsPerHost;
+    private final int maxConnections;
+    private final Semaphore connections;
+    //host -> 这个host的连接数信号量，只增不减，host的数量一般很少
+    private final ConcurrentHashMap<String, Semaphore> hostConnections = new ConcurrentHashMap<>();
+    private final StripedLruCache<GlideUrl, Redirect> redirects;
+    @Nullable
+    private final HostHealthTracker hostHealthTracker;
+
+    public HttpConnectionManager() {
+        this(
+                DEFAULT_MAX_CONNECTIONS_PER_HOST,
+                DEFAULT_MAX_CONNECTIONS,
+                DEFAULT_REDIRECT_CACHE_SIZE);
+    }
+
+    public HttpConnectionManager(
+            int maxConnectionsPerHost, int maxConnections, int redirectCacheSize) {
+        this(maxConnectionsPerHost, maxConnections, redirectCacheSize, /*hostHealthTracker=*/ null);
+    }
+
+    public HttpConnectionManager(
+            int maxConnectionsPerHost,
+            int maxConnections,
+            int redirectCacheSize,
+            @Nullable HostHealthTracker hostHealthTracker) {
+        if (maxConnectionsPerHost <= 0 || maxConnections <= 0 || redirectCacheSize <= 0) {
+            throw new IllegalArgumentException("Limits must be > 0");
+        }
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.maxConnections = maxConnections;
+        this.connections = new Semaphore(maxConnections);
+        this.redirects = new StripedLruCache<>(redirectCacheSize);
+        this.hostHealthTracker = hostHealthTracker;
+    }
+
+    /**
+     * 为指定的host申请一个连接，最多等待timeoutMillis，超时返回null，调用方可以检查是否被取消后再重试
+     *
+     * <p>先申请host的名额再申请总数的名额，这样排队等某个繁忙host的请求不会占着总数的名额
+     */
+    @Nullable
+    Permit tryAcquire(@NonNull String host, long timeoutMillis) throws InterruptedIOException {
+        Semaphore hostSemaphore = hostConnections.get(host);
+        if (hostSemaphore == null) {
+            Semaphore created = new Semaphore(maxConnectionsPerHost);
+            hostSemaphore = hostConnections.putIfAbsent(host, created);
+            if (hostSemaphore == null) {
+                hostSemaphore = created;
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            if (!hostSemaphore.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+            long remainingNanos = Math.max(0, deadline - System.nanoTime());
+            if (!connections.tryAcquire(remainingNanos, TimeUnit.NANOSECONDS)) {
+                hostSemaphore.release();
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a connection to " + host);
+        }
+        return new Permit(hostSemaphore, connections);
+    }
+
+    @Nullable
+    HostHealthTracker getHostHealthTracker() {
+        return hostHealthTracker;
+    }
+
+    /**
+     * 返回之前缓存的重定向目标，没有或者已经过期时返回null
+     */
+    @Nullable
+    URL getRedirect(@NonNull GlideUrl url) {
+        Redirect redirect = redirects.get(url);
+        if (redirect == null) {
+            return null;
+        }
+        if (redirect.expiresAtMillis != 0
+                && System.currentTimeMillis() >= redirect.expiresAtMillis) {
+            redirects.remove(url);
+            return null;
+        }
+        return redirect.target;
+    }
+
+    void putRedirect(@NonNull GlideUrl url, @NonNull URL target, boolean isPermanent) {
+        long expiresAtMillis =
+                isPermanent ? 0 : System.currentTimeMillis() + TEMPORARY_REDIRECT_TTL_MILLIS;
+        redirects.put(url, new Redirect(target, expiresAtMillis));
+    }
+
+    //缓存的目标地址请求失败了，可能已经失效，下次从原始地址重新走重定向
+    void removeRedirect(@NonNull GlideUrl url) {
+        redirects.remove(url);
+    }
+
+    /**
+     * 清空重定向缓存
+     */
+    public void clearRedirects() {
+        redirects.clearMemory();
+    }
+
+    /**
+     * 正在使用的连接数
+     */
+    public int getActiveConnectionCount() {
+        return maxConnections - connections.availablePermits();
+    }
+
+    /**
+     * 占用的一个连接名额，通过{@link #release()}归还，重复调用没有影响
+     */
+    static final class Permit {
+        private final Semaphore host;
+        private final Semaphore total;
+        private final AtomicBoolean isReleased = new AtomicBoolean();
+
+        @Synthetic
+        Permit(Semaphore host, Semaphore total) {
+            this.host = host;
+            this.total = total;
+        }
+
+        void release() {
+            if (isReleased.compareAndSet(false, true)) {
+                total.release();
+                host.release();
+            }
+        }
+    }
+
+    private static final class Redirect {
+        @Synthetic
+        final URL target;
+        //0表示不过期
+        @Synthetic
+        final long expiresAtMillis;
+
+        @Synthetic
+        Redirect(URL target, long expiresAtMillis) {
+            this.target = target;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.example.glidemini.loader.model.httpUrl
 import android.text.TextUtils
 import android.util.Log
 import androidx.annotation.VisibleForTesting
+import com.example.glidemini.load.CacheValidators
 import com.example.glidemini.load.DataSource
 import com.example.glidemini.load.HttpException
 import com.example.glidemini.cache.key.GlideUrl
@@ -16,23 +17,70 @@ import java.net.URL
 
 /**
  * 获取URL流
+ *
+ * 支持条件请求：设置了缓存条目的ETag/Last-Modified后，会带上If-None-Match/If-Modified-Since，
+ * 服务端返回304时以状态码304的HttpException失败，见[CacheValidators]
+ *
+ * 设置了[PartialDownloads]时，被取消的大图下载会保存已下载的部分，下次用Range请求续传
+ *
+ * 设置了[HostHealthTracker]时，临时错误会退避重试，熔断的host直接失败
  */
 class HttpUrlFetcher internal constructor(
     private val glideUrl: GlideUrl,
     private val timeout: Int,
-    private val connectionFactory: HttpUrlConnectionFactory = DEFAULT_CONNECTION_FACTORY
-) : DataFetcher<InputStream> {
+    private val connectionFactory: HttpUrlConnectionFactory = DEFAULT_CONNECTION_FACTORY,
+    private val partialDownloads: PartialDownloads? = null,
+    private val hostHealthTracker: HostHealthTracker? = null
+) : DataFetcher<InputStream>, CacheValidators.ConditionalFetcher {
+
+    /**
+     * 供其他包里的ModelLoader使用，比如HttpGlideUrlLoader
+     *
+     * @param partialDownloads 保存被取消的下载用于续传，为null时总是从头下载
+     * @param hostHealthTracker 用于重试和熔断，为null时失败直接返回
+     */
+    constructor(
+        glideUrl: GlideUrl,
+        timeout: Int,
+        partialDownloads: PartialDownloads?,
+        hostHealthTracker: HostHealthTracker?
+    ) : this(glideUrl, timeout, DEFAULT_CONNECTION_FACTORY, partialDownloads, hostHealthTracker)
 
     private var urlConnection: HttpURLConnection? = null
     private var stream: InputStream? = null
+    private var conditionalValidators: CacheValidators? = null
+    private var responseValidators: CacheValidators? = null
+    private var download: PartialDownloads.Download? = null
 
     @Volatile
     private var isCancelled = false
 
 
     override fun loadData(priority: Priority, callback: DataFetcher.DataCallback<in InputStream>) {
+        //条件请求的body是用来替换缓存的，不续传
+        if (conditionalValidators == null) {
+            download = partialDownloads?.start(glideUrl)
+        }
         try {
-            val result = loadDataWithRedirects(glideUrl.toURL(), 0, null, glideUrl.getHeaders())
+            val url = glideUrl.toURL()
+            val tracker = hostHealthTracker
+            val result = if (tracker == null) {
+                loadDataWithRedirects(url, 0, null, glideUrl.getHeaders())
+            } else {
+                tracker.fetch(url.host, object : HostHealthTracker.Request<InputStream> {
+                    override fun execute(): InputStream? {
+                        return loadDataWithRedirects(url, 0, null, glideUrl.getHeaders())
+                    }
+
+                    override fun onRetry() {
+                        closeConnection()
+                    }
+
+                    override fun isCancelled(): Boolean {
+                        return this@HttpUrlFetcher.isCancelled
+                    }
+                })
+            }
             callback.onDataReady(result)
         } catch (e: IOException) {
             Log.d(TAG, "Failed to load data for url", e)
@@ -55,9 +103,12 @@ class HttpUrlFetcher internal constructor(
             // Set the stream so that it's closed in cleanup to avoid resource leaks. See #2352.
             connection.inputStream
         } catch (e: IOException) {
-            throw HttpException(
-                "Failed to connect or obtain data", getHttpStatusCodeOrInvalid(urlConnection), e
-            )
+            val statusCode = getHttpStatusCodeOrInvalid(urlConnection)
+            //状态码>=400时inputStream直接抛异常，416只能在这里处理：记录的部分已经不能续传了
+            if (statusCode == PartialDownloads.HTTP_RANGE_NOT_SATISFIABLE) {
+                download?.discard()
+            }
+            throw HttpException("Failed to connect or obtain data", statusCode, e)
         }
         if (isCancelled) {
             return null
@@ -65,16 +116,22 @@ class HttpUrlFetcher internal constructor(
         val statusCode = getHttpStatusCodeOrInvalid(urlConnection)
         return when {
             isHttpOk(statusCode) -> {
+                responseValidators = readValidators(connection)
                 getStreamForSuccessfulRequest(urlConnection)
             }
+            //304也是3开头的，但不是重定向：缓存的数据仍然有效，没有body
+            statusCode == CacheValidators.HTTP_NOT_MODIFIED && conditionalValidators != null -> {
+                responseValidators = readValidators(connection)
+                throw HttpException("Not modified", statusCode)
+            }
             isHttpRedirect(statusCode) -> {
                 val redirectUrlString = urlConnection!!.getHeaderField(REDIRECT_HEADER_FIELD)
                 if (TextUtils.isEmpty(redirectUrlString)) {
                     throw HttpException("Received empty or null redirect url", statusCode)
                 }
                 val redirectUrl = URL(url, redirectUrlString)
-                // 这里需要关闭好,避免泄漏
-                cleanup()
+                // 这里需要关闭好,避免泄漏；续传的记录要留给重定向后的请求
+                closeConnection()
                 loadDataWithRedirects(redirectUrl, redirects + 1, url, headers)
             }
             else -> {
@@ -96,6 +153,11 @@ class HttpUrlFetcher internal constructor(
         for ((key, value) in headers) {
             urlConnection.addRequestProperty(key, value)
         }
+        download?.prepare(urlConnection)
+        conditionalValidators?.let { validators ->
+            validators.eTag?.let { urlConnection.setRequestProperty(IF_NONE_MATCH, it) }
+            validators.lastModified?.let { urlConnection.setRequestProperty(IF_MODIFIED_SINCE, it) }
+        }
         urlConnection.connectTimeout = timeout
         urlConnection.readTimeout = timeout
         urlConnection.useCaches = false
@@ -111,12 +173,20 @@ class HttpUrlFetcher internal constructor(
         if (urlConnection == null) {
             return null
         }
+        val download = download
         stream = try {
-            if (urlConnection.contentEncoding.isEmpty()) {
-                val contentLength: Long = urlConnection.contentLength.toLong()
-                ContentLengthInputStream.obtain(urlConnection.inputStream, contentLength)
-            } else {
-                urlConnection.inputStream
+            val body = urlConnection.inputStream
+            val resumed = download?.resume(urlConnection, body)
+            when {
+                download != null && resumed != null ->
+                    ContentLengthInputStream.obtain(resumed, download.totalLength)
+                urlConnection.contentEncoding.isEmpty() -> {
+                    val contentLength: Long = urlConnection.contentLength.toLong()
+                    ContentLengthInputStream.obtain(
+                        download?.record(urlConnection, body) ?: body, contentLength
+                    )
+                }
+                else -> download?.record(urlConnection, body) ?: body
             }
         } catch (e: IOException) {
             throw HttpException(
@@ -127,16 +197,31 @@ class HttpUrlFetcher internal constructor(
         return stream
     }
 
-    override fun cleanup() {
+    private fun closeConnection() {
         stream?.close()
         urlConnection?.disconnect()
         urlConnection = null
     }
 
+    override fun cleanup() {
+        closeConnection()
+        //流已经关闭，没读完的部分保留下来
+        download?.close()
+        download = null
+    }
+
     override fun cancel() {
         isCancelled = true
     }
 
+    override fun setConditionalValidators(validators: CacheValidators) {
+        conditionalValidators = validators
+    }
+
+    override fun getResponseValidators(): CacheValidators? {
+        return responseValidators
+    }
+
     override fun getDataClass(): Class<InputStream> {
         return InputStream::class.java
     }
@@ -155,6 +240,8 @@ class HttpUrlFetcher internal constructor(
 
         @VisibleForTesting
         val REDIRECT_HEADER_FIELD = "Location"
+        private const val IF_NONE_MATCH = "If-None-Match"
+        private const val IF_MODIFIED_SINCE = "If-Modified-Since"
 
         @VisibleForTesting
         val DEFAULT_CONNECTION_FACTORY: HttpUrlConnectionFactory = DefaultHttpUrlConnectionFactory()
@@ -172,6 +259,15 @@ class HttpUrlFetcher internal constructor(
             return -1
         }
 
+        private fun readValidators(connection: HttpURLConnection): CacheValidators? {
+            return CacheValidators.fromHeaders(
+                connection.getHeaderField("ETag"),
+                connection.getHeaderField("Last-Modified"),
+                connection.getHeaderField("Cache-Control"),
+                System.currentTimeMillis()
+            )
+        }
+
         // 2开头的都是成功系列
         private fun isHttpOk(statusCode: Int): Boolean {
             return statusCode / 100 == 2
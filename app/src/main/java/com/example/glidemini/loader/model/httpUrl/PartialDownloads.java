@@ -0,0 +1,448 @@
+package com.example.glidemini.loader.model.httpUrl;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.glidemini.cache.SafeKeyGenerator;
+import com.example.glidemini.cache.key.GlideUrl;
+import com.example.glidemini.util.Synthetic;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 大图下载到一半被取消时(比如滑出屏幕)，把已经下载的部分存下来，下次请求同一个{@link GlideUrl}时
+ * 用Range请求从断点继续下载，而不是从头开始
+ *
+ * <p>每个未完成的下载在目录里对应两个文件，文件名是GlideUrl的safe key：
+ *
+ * <ul>
+ *   <li>"key.meta"：生成key的算法({@link SafeKeyGenerator.Scheme})、响应的validator
+ *       (强ETag或者Last-Modified)和完整的长度
+ *   <li>"key.part"：已经下载的字节
+ * </ul>
+ *
+ * <p>续传时带上{@code Range: bytes=N-}和{@code If-Range: validator}，服务端的资源变了或者不支持Range时
+ * 会返回200和完整的body，这时丢掉旧的部分从头开始。只记录Content-Length不小于minContentLength、
+ * 带有validator、没有Content-Encoding的响应。目录的总大小超过maxSize时，先删掉最久没有更新的
+ *
+ * <p>一个url同一时间只有一个fetcher可以续传和记录，其他fetcher照常完整下载
+ */
+public final class PartialDownloads {
+    private static final String TAG = "PartialDownloads";
+    public static final long DEFAULT_MAX_SIZE = 32 * 1024 * 1024;
+    public static final long DEFAULT_MIN_CONTENT_LENGTH = 256 * 1024;
+    public static final String DEFAULT_DIRECTORY_NAME = "image_manager_partial_downloads";
+
+    private static final int META_MAGIC = 0x47504459; // "GPDY"
+    private static final String META_SUFFIX = ".meta";
+    private static final String PART_SUFFIX = ".part";
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    private final File directory;
+    private final long maxSize;
+    private final long minContentLength;
+    private final SafeKeyGenerator safeKeyGenerator;
+    //正在被某个fetcher续传或者记录的safe key
+    private final Set<String> inUse =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    public PartialDownloads(@NonNull File directory) {
+        this(directory, DEFAULT_MAX_SIZE, DEFAULT_MIN_CONTENT_LENGTH);
+    }
+
+    public PartialDownloads(@NonNull File directory, long maxSize, long minContentLength) {
+        this(directory, maxSize, minContentLength, SafeKeyGenerator.Scheme.SHA_256);
+    }
+
+    /**
+     * @param keyScheme 由url生成文件名的算法，记录在每个meta文件里，用别的算法记录的下载不会被续传
+     */
+    public PartialDownloads(
+            @NonNull File directory,
+            long maxSize,
+            long minContentLength,
+            @NonNull SafeKeyGenerator.Scheme keyScheme) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.minContentLength = minContentLength;
+        this.safeKeyGenerator = new SafeKeyGenerator(keyScheme);
+    }
+
+    /**
+     * 开始一次下载，返回null表示这个url正在被别的fetcher使用，这次下载不续传也不记录
+     *
+     * <p>返回的Download必须调用{@link Download#close()}
+     */
+    @Nullable
+    Download start(@NonNull GlideUrl url) {
+        String safeKey = safeKeyGenerator.getSafeKey(url);
+        if (!inUse.add(safeKey)) {
+            return null;
+        }
+        File meta = new File(directory, safeKey + META_SUFFIX);
+        File part = new File(directory, safeKey + PART_SUFFIX);
+        String validator = null;
+        long totalLength = 0;
+        if (meta.exists() && part.exists()) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new FileInputStream(meta));
+                //magic不对(比如旧版本没有记录key算法的meta)或者key的算法不同时，从头下载
+                if (in.readInt() == META_MAGIC
+                        && in.readInt() == safeKeyGenerator.getScheme().getId()) {
+                    validator = in.readUTF();
+                    totalLength = in.readLong();
+                }
+            } catch (IOException e) {
+                validator = null;
+            } finally {
+                closeQuietly(in);
+            }
+        }
+        long offset = part.length();
+        if (validator == null || offset <= 0 || offset >= totalLength) {
+            delete(meta, part);
+            return new Download(safeKey, meta, part, null, 0, 0);
+        }
+        return new Download(safeKey, meta, part, validator, offset, totalLength);
+    }
+
+    @Synthetic
+    void finish(String safeKey) {
+        inUse.remove(safeKey);
+    }
+
+    //删掉最久没有更新的文件，直到总大小不超过maxSize，正在使用的跳过
+    @Synthetic
+    void trimToSize() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= maxSize) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                return Long.compare(first.lastModified(), second.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (size <= maxSize) {
+                break;
+            }
+            String name = file.getName();
+            int suffix = name.lastIndexOf('.');
+            if (suffix > 0 && inUse.contains(name.substring(0, suffix))) {
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    //强ETag优先；弱ETag不能用于If-Range
+    @Nullable
+    @Synthetic
+    static String getValidator(HttpURLConnection connection) {
+        String eTag = connection.getHeaderField("ETag");
+        if (!TextUtils.isEmpty(eTag) && !eTag.startsWith("W/")) {
+            return eTag;
+        }
+        String lastModified = connection.getHeaderField("Last-Modified");
+        return TextUtils.isEmpty(lastModified) ? null : lastModified;
+    }
+
+    //解析"bytes start-end/total"，返回start；格式不对时返回-1
+    @Synthetic
+    static long parseContentRangeStart(@Nullable String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-');
+        if (dash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring("bytes ".length(), dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Synthetic
+    static void delete(File meta, File part) {
+        // 先删meta，这样就算part没删掉也不会被当成可以续传的
+        meta.delete();
+        part.delete();
+    }
+
+    @Synthetic
+    static void closeQuietly(@Nullable java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignored.
+            }
+        }
+    }
+
+    /**
+     * 一个url的一次下载
+     */
+    final class Download {
+        private final String safeKey;
+        private final File meta;
+        private final File part;
+        @Nullable
+        private final String validator;
+        private final long offset;
+        private final long totalLength;
+        @Nullable
+        private RecordingInputStream recording;
+        private boolean isClosed;
+
+        @Synthetic
+        Download(
+                String safeKey,
+                File meta,
+                File part,
+                @Nullable String validator,
+                long offset,
+                long totalLength) {
+            this.safeKey = safeKey;
+            this.meta = meta;
+            this.part = part;
+            this.validator = validator;
+            this.offset = offset;
+            this.totalLength = totalLength;
+        }
+
+        //有可以续传的部分时，在连接前加上Range和If-Range
+        void prepare(@NonNull HttpURLConnection connection) {
+            if (validator != null) {
+                connection.setRequestProperty("Range", "bytes=" + offset + "-");
+                connection.setRequestProperty("If-Range", validator);
+            }
+        }
+
+        /**
+         * 服务端接受了Range请求时，返回已下载部分和剩余部分拼接起来的完整流，以及完整的长度；
+         * 否则返回null，调用方按普通的200响应处理，再调用{@link #record}
+         */
+        @Nullable
+        InputStream resume(@NonNull HttpURLConnection connection, @NonNull InputStream body)
+                throws IOException {
+            if (validator == null
+                    || connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL
+                    || parseContentRangeStart(connection.getHeaderField("Content-Range"))
+                    != offset) {
+                return null;
+            }
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Resuming download at " + offset + " of " + totalLength);
+            }
+            recording = new RecordingInputStream(body, openPart(/*append=*/ true));
+            return new SequenceInputStream(new FileInputStream(part), recording);
+        }
+
+        /**
+         * 完整的长度，只在{@link #resume}返回非null时有效
+         */
+        long getTotalLength() {
+            return totalLength;
+        }
+
+        /**
+         * 从头开始下载时调用，符合条件的响应会一边读取一边记录下来
+         */
+        @NonNull
+        InputStream record(@NonNull HttpURLConnection connection, @NonNull InputStream body) {
+            delete(meta, part);
+            String newValidator = getValidator(connection);
+            long contentLength = connection.getContentLength();
+            if (newValidator == null
+                    || contentLength < minContentLength
+                    || !TextUtils.isEmpty(connection.getContentEncoding())) {
+                return body;
+            }
+            DataOutputStream out = null;
+            try {
+                out = new DataOutputStream(new FileOutputStream(meta));
+                out.writeInt(META_MAGIC);
+                out.writeInt(safeKeyGenerator.getScheme().getId());
+                out.writeUTF(newValidator);
+                out.writeLong(contentLength);
+                out.close();
+                out = null;
+                recording = new RecordingInputStream(body, openPart(/*append=*/ false));
+                return recording;
+            } catch (IOException e) {
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Unable to record partial download", e);
+                }
+                closeQuietly(out);
+                delete(meta, part);
+                return body;
+            }
+        }
+
+        private OutputStream openPart(boolean append) throws IOException {
+            if (!directory.exists() && !directory.mkdirs() && !directory.exists()) {
+                throw new IOException("Unable to create " + directory);
+            }
+            return new BufferedOutputStream(new FileOutputStream(part, append), WRITE_BUFFER_SIZE);
+        }
+
+        /**
+         * 服务端返回416时调用，记录的部分已经不能用了，下次从头下载
+         */
+        void discard() {
+            if (recording == null) {
+                delete(meta, part);
+            }
+        }
+
+        /**
+         * 结束这次下载。读到结尾时删掉记录，数据已经完整了；否则保留已经下载的部分，下次续传
+         */
+        void close() {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            RecordingInputStream local = recording;
+            recording = null;
+            boolean isSaved = false;
+            try {
+                if (local != null) {
+                    isSaved = local.closeOutput() && !local.isComplete();
+                    if (!isSaved) {
+                        delete(meta, part);
+                    } else if (Log.isLoggable(TAG, Log.DEBUG)) {
+                        Log.d(TAG, "Saved partial download, bytes: " + part.length());
+                    }
+                }
+            } finally {
+                finish(safeKey);
+            }
+            //只有保存了新的部分时目录才会变大，不用每次都列一遍目录
+            if (isSaved) {
+                trimToSize();
+            }
+        }
+    }
+
+    /**
+     * 把读到的每个字节同时写到文件里
+     */
+    private static final class RecordingInputStream extends FilterInputStream {
+        private final OutputStream output;
+        private boolean isComplete;
+        private boolean isOutputFailed;
+
+        @Synthetic
+        RecordingInputStream(InputStream in, OutputStream output) {
+            super(in);
+            this.output = output;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if (result == -1) {
+                isComplete = true;
+            } else {
+                write(new byte[] {(byte) result}, 0, 1);
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int result = super.read(buffer, offset, count);
+            if (result == -1) {
+                isComplete = true;
+            } else {
+                write(buffer, offset, result);
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            // 跳过的字节也要记录，所以读出来再丢掉
+            byte[] buffer = new byte[(int) Math.min(byteCount, 8192)];
+            long skipped = 0;
+            while (skipped < byteCount) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, byteCount - skipped));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void write(byte[] buffer, int offset, int count) {
+            if (isOutputFailed) {
+                return;
+            }
+            try {
+                output.write(buffer, offset, count);
+            } catch (IOException e) {
+                // 记录失败不影响这次下载，只是下次不能续传
+                isOutputFailed = true;
+            }
+        }
+
+        @Synthetic
+        boolean isComplete() {
+            return isComplete;
+        }
+
+        //返回记录的内容是否完整地写到了文件里
+        @Synthetic
+        boolean closeOutput() {
+            try {
+                output.close();
+            } catch (IOException e) {
+                isOutputFailed = true;
+            }
+            return !isOutputFailed;
+        }
+    }
+}
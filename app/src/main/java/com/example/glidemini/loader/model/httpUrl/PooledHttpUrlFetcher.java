@@ -0,0 +1,397 @@
+package com.example.glidemini.loader.model.httpUrl;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.glidemini.cache.key.GlideUrl;
+import com.example.glidemini.load.CacheValidators;
+import com.example.glidemini.load.DataSource;
+import com.example.glidemini.load.HttpException;
+import com.example.glidemini.loader.model.DataFetcher;
+import com.example.glidemini.loader.model.Priority;
+import com.example.glidemini.util.ContentLengthInputStream;
+import com.example.glidemini.util.Synthetic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * {@link HttpUrlFetcher}的另一个实现，通过共享的{@link HttpConnectionManager}限制每个host的并发连接数、
+ * 复用keep-alive连接、缓存重定向结果
+ *
+ * <p>和{@link HttpUrlFetcher}的区别：
+ *
+ * <ul>
+ *   <li>建立连接前先向{@link HttpConnectionManager}申请名额，拿到名额前可以被取消
+ *   <li>成功读取后cleanup只关闭流，不调用disconnect，连接回到平台的连接池；失败或者取消时才断开
+ *   <li>重定向结果按{@link GlideUrl}缓存，下次直接请求最终地址；缓存的地址失败时从原始地址重新请求一次
+ *   <li>{@link HttpConnectionManager}设置了{@link HostHealthTracker}时，临时错误会退避重试，熔断的host直接失败
+ *   <li>设置了{@link PartialDownloads}时，被取消的大图下载会保存已下载的部分，下次用Range请求续传
+ * </ul>
+ */
+public class PooledHttpUrlFetcher
+        implements DataFetcher<InputStream>, CacheValidators.ConditionalFetcher {
+    private static final String TAG = "PooledHttpUrlFetcher";
+    private static final int MAXIMUM_REDIRECTS = 5;
+    private static final int INVALID_STATUS_CODE = -1;
+    //等待连接名额时，每隔这么久检查一次是否被取消
+    private static final long PERMIT_POLL_INTERVAL_MILLIS = 100;
+    private static final String REDIRECT_HEADER_FIELD = "Location";
+    private static final String IF_NONE_MATCH = "If-None-Match";
+    private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private final GlideUrl glideUrl;
+    private final int timeout;
+    private final HttpConnectionManager connectionManager;
+    private final HttpUrlFetcher.HttpUrlConnectionFactory connectionFactory;
+    @Nullable
+    private final PartialDownloads partialDownloads;
+
+    private HttpURLConnection urlConnection;
+    private InputStream stream;
+    private HttpConnectionManager.Permit permit;
+    @Nullable
+    private PartialDownloads.Download download;
+    @Nullable
+    private CacheValidators conditionalValidators;
+    @Nullable
+    private CacheValidators responseValidators;
+    private volatile boolean isCancelled;
+
+    public PooledHttpUrlFetcher(
+            GlideUrl glideUrl, int timeout, HttpConnectionManager connectionManager) {
+        this(glideUrl, timeout, connectionManager, /*partialDownloads=*/ null);
+    }
+
+    public PooledHttpUrlFetcher(
+            GlideUrl glideUrl,
+            int timeout,
+            HttpConnectionManager connectionManager,
+            @Nullable PartialDownloads partialDownloads) {
+        this(
+                glideUrl,
+                timeout,
+                connectionManager,
+                partialDownloads,
+                new DefaultHttpUrlConnectionFactory());
+    }
+
+    PooledHttpUrlFetcher(
+            GlideUrl glideUrl,
+            int timeout,
+            HttpConnectionManager connectionManager,
+            @Nullable PartialDownloads partialDownloads,
+            HttpUrlFetcher.HttpUrlConnectionFactory connectionFactory) {
+        this.glideUrl = glideUrl;
+        this.timeout = timeout;
+        this.connectionManager = connectionManager;
+        this.partialDownloads = partialDownloads;
+        this.connectionFactory = connectionFactory;
+    }
+
+    @Override
+    public void loadData(
+            @NonNull Priority priority,
+            @NonNull DataCallback<? super InputStream> callback) {
+        //条件请求的body是用来替换缓存的，不续传
+        if (partialDownloads != null && conditionalValidators == null) {
+            download = partialDownloads.start(glideUrl);
+        }
+        InputStream result;
+        try {
+            HostHealthTracker tracker = connectionManager.getHostHealthTracker();
+            result = tracker == null ? load() : loadWithRetries(tracker);
+        } catch (IOException e) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Failed to load data for url", e);
+            }
+            //失败的连接不能复用
+            closeConnection(/*isReusable=*/ false);
+            callback.onLoadFailed(e);
+            return;
+        }
+        callback.onDataReady(result);
+    }
+
+    @Nullable
+    private InputStream loadWithRetries(HostHealthTracker tracker) throws IOException {
+        return tracker.fetch(
+                glideUrl.toURL().getHost(),
+                new HostHealthTracker.Request<InputStream>() {
+                    @Nullable
+                    @Override
+                    public InputStream execute() throws IOException {
+                        return load();
+                    }
+
+                    @Override
+                    public void onRetry() {
+                        closeConnection(/*isReusable=*/ false);
+                    }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return isCancelled;
+                    }
+                });
+    }
+
+    @Nullable
+    @Synthetic
+    InputStream load() throws IOException {
+        Map<String, String> headers = glideUrl.getHeaders();
+        URL redirect = connectionManager.getRedirect(glideUrl);
+        if (redirect != null) {
+            try {
+                return loadDataWithRedirects(redirect, 0, headers, /*isPermanent=*/ false);
+            } catch (HttpException e) {
+                if (e.getStatusCode() == CacheValidators.HTTP_NOT_MODIFIED) {
+                    throw e;
+                }
+                //缓存的重定向地址可能已经失效，从原始地址重新请求
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Cached redirect failed, retrying original url: " + glideUrl, e);
+                }
+                connectionManager.removeRedirect(glideUrl);
+                closeConnection(/*isReusable=*/ false);
+            }
+        }
+        return loadDataWithRedirects(glideUrl.toURL(), 0, headers, /*isPermanent=*/ true);
+    }
+
+    //isPermanent: 到目前为止的重定向是否都是永久重定向
+    @Nullable
+    private InputStream loadDataWithRedirects(
+            URL url, int redirects, Map<String, String> headers, boolean isPermanent)
+            throws IOException {
+        if (redirects >= MAXIMUM_REDIRECTS) {
+            throw new HttpException(
+                    "Too many (> " + MAXIMUM_REDIRECTS + ") redirects!", INVALID_STATUS_CODE);
+        }
+        permit = acquirePermit(url.getHost());
+        if (permit == null) {
+            return null;
+        }
+        HttpURLConnection connection = buildAndConfigureConnection(url, headers);
+        urlConnection = connection;
+        try {
+            // Connect explicitly to avoid errors in decoders if connection fails.
+            connection.connect();
+        } catch (IOException e) {
+            throw new HttpException(
+                    "Failed to connect or obtain data", getHttpStatusCodeOrInvalid(connection), e);
+        }
+        if (isCancelled) {
+            return null;
+        }
+
+        int statusCode = getHttpStatusCodeOrInvalid(connection);
+        if (isHttpOk(statusCode)) {
+            responseValidators = readValidators(connection);
+            if (redirects > 0) {
+                connectionManager.putRedirect(glideUrl, url, isPermanent);
+            }
+            return getStreamForSuccessfulRequest(connection);
+        } else if (statusCode == CacheValidators.HTTP_NOT_MODIFIED
+                && conditionalValidators != null) {
+            //304也是3开头的，但不是重定向：缓存的数据仍然有效，没有body
+            responseValidators = readValidators(connection);
+            throw new HttpException("Not modified", statusCode);
+        } else if (isHttpRedirect(statusCode)) {
+            String redirectUrlString = connection.getHeaderField(REDIRECT_HEADER_FIELD);
+            if (TextUtils.isEmpty(redirectUrlString)) {
+                throw new HttpException("Received empty or null redirect url", statusCode);
+            }
+            URL redirectUrl;
+            try {
+                redirectUrl = new URL(url, redirectUrlString);
+            } catch (MalformedURLException e) {
+                throw new HttpException("Bad redirect url: " + redirectUrlString, statusCode, e);
+            }
+            //重定向的目标可能是另一个host，先归还这个host的名额
+            closeConnection(/*isReusable=*/ false);
+            boolean isPermanentRedirect =
+                    statusCode == HttpURLConnection.HTTP_MOVED_PERM || statusCode == 308;
+            return loadDataWithRedirects(
+                    redirectUrl, redirects + 1, headers, isPermanent && isPermanentRedirect);
+        } else if (statusCode == INVALID_STATUS_CODE) {
+            throw new HttpException(statusCode);
+        } else {
+            if (statusCode == PartialDownloads.HTTP_RANGE_NOT_SATISFIABLE && download != null) {
+                download.discard();
+            }
+            try {
+                throw new HttpException(connection.getResponseMessage(), statusCode);
+            } catch (IOException e) {
+                throw new HttpException("Failed to get a response message", statusCode, e);
+            }
+        }
+    }
+
+    @Nullable
+    private HttpConnectionManager.Permit acquirePermit(String host) throws IOException {
+        while (!isCancelled) {
+            HttpConnectionManager.Permit result =
+                    connectionManager.tryAcquire(host, PERMIT_POLL_INTERVAL_MILLIS);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private HttpURLConnection buildAndConfigureConnection(URL url, Map<String, String> headers)
+            throws HttpException {
+        HttpURLConnection connection;
+        try {
+            connection = connectionFactory.build(url);
+        } catch (IOException e) {
+            throw new HttpException("URL.openConnection threw", INVALID_STATUS_CODE, e);
+        }
+        for (Map.Entry<String, String> headerEntry : headers.entrySet()) {
+            connection.addRequestProperty(headerEntry.getKey(), headerEntry.getValue());
+        }
+        if (download != null) {
+            download.prepare(connection);
+        }
+        if (conditionalValidators != null) {
+            if (conditionalValidators.getETag() != null) {
+                connection.setRequestProperty(IF_NONE_MATCH, conditionalValidators.getETag());
+            }
+            if (conditionalValidators.getLastModified() != null) {
+                connection.setRequestProperty(
+                        IF_MODIFIED_SINCE, conditionalValidators.getLastModified());
+            }
+        }
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+        connection.setUseCaches(false);
+        connection.setDoInput(true);
+        // 自己处理重定向，这样才能缓存重定向的结果
+        connection.setInstanceFollowRedirects(false);
+        return connection;
+    }
+
+    private InputStream getStreamForSuccessfulRequest(HttpURLConnection connection)
+            throws HttpException {
+        try {
+            InputStream body = connection.getInputStream();
+            InputStream resumed = download != null ? download.resume(connection, body) : null;
+            if (resumed != null) {
+                stream = ContentLengthInputStream.obtain(resumed, download.getTotalLength());
+                return stream;
+            }
+            if (download != null) {
+                body = download.record(connection, body);
+            }
+            if (TextUtils.isEmpty(connection.getContentEncoding())) {
+                int contentLength = connection.getContentLength();
+                stream = ContentLengthInputStream.obtain(body, contentLength);
+            } else {
+                stream = body;
+            }
+        } catch (IOException e) {
+            throw new HttpException(
+                    "Failed to obtain InputStream", getHttpStatusCodeOrInvalid(connection), e);
+        }
+        return stream;
+    }
+
+    //isReusable为true时只关闭流，连接回到连接池；否则断开连接
+    @Synthetic
+    void closeConnection(boolean isReusable) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            stream = null;
+        }
+        if (urlConnection != null) {
+            if (!isReusable) {
+                urlConnection.disconnect();
+            }
+            urlConnection = null;
+        }
+        if (permit != null) {
+            permit.release();
+            permit = null;
+        }
+    }
+
+    @Override
+    public void cleanup() {
+        closeConnection(/*isReusable=*/ !isCancelled);
+        //流已经关闭，没读完的部分保留下来
+        if (download != null) {
+            download.close();
+            download = null;
+        }
+    }
+
+    @Override
+    public void cancel() {
+        isCancelled = true;
+    }
+
+    @Override
+    public void setConditionalValidators(@NonNull CacheValidators validators) {
+        conditionalValidators = validators;
+    }
+
+    @Nullable
+    @Override
+    public CacheValidators getResponseValidators() {
+        return responseValidators;
+    }
+
+    @NonNull
+    @Override
+    public Class<InputStream> getDataClass() {
+        return InputStream.class;
+    }
+
+    @NonNull
+    @Override
+    public DataSource getDataSource() {
+        return DataSource.REMOTE;
+    }
+
+    private static int getHttpStatusCodeOrInvalid(HttpURLConnection connection) {
+        try {
+            return connection.getResponseCode();
+        } catch (IOException e) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Failed to get a response code", e);
+            }
+        }
+        return INVALID_STATUS_CODE;
+    }
+
+    @Nullable
+    private static CacheValidators readValidators(HttpURLConnection connection) {
+        return CacheValidators.fromHeaders(
+                connection.getHeaderField("ETag"),
+                connection.getHeaderField("Last-Modified"),
+                connection.getHeaderField("Cache-Control"),
+                System.currentTimeMillis());
+    }
+
+    // 2开头的都是成功系列
+    private static boolean isHttpOk(int statusCode) {
+        return statusCode / 100 == 2;
+    }
+
+    // 3开头的都是重定向
+    private static boolean isHttpRedirect(int statusCode) {
+        return statusCode / 100 == 3;
+    }
+}
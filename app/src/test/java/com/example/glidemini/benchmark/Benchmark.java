@@ -0,0 +1,145 @@
+package com.example.glidemini.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assume;
+
+/**
+ * Measures the time and heap allocation per operation of JVM micro benchmarks.
+ *
+ * <p>Benchmarks are tests that call {@link #assumeEnabled()} first, so they're skipped unless the
+ * tests are run with {@code ./gradlew testDebugUnitTest -Pbenchmark}. Results are printed to
+ * stdout, one line per measurement. They're only comparable between runs on the same machine.
+ */
+public final class Benchmark {
+  private static final String PROPERTY = "glidemini.benchmark";
+
+  private Benchmark() {
+    // Utility class.
+  }
+
+  /** Skips the calling test unless benchmarks are enabled. */
+  public static void assumeEnabled() {
+    Assume.assumeTrue("Benchmarks only run with -Pbenchmark", Boolean.getBoolean(PROPERTY));
+  }
+
+  /** Runs {@code ops} operations once to warm up and once measured, on the calling thread. */
+  public static Result measure(String name, int ops, Op op) throws Exception {
+    for (int i = 0; i < ops; i++) {
+      op.run(i);
+    }
+    long startBytes = allocatedBytes();
+    long startNanos = System.nanoTime();
+    for (int i = 0; i < ops; i++) {
+      op.run(i);
+    }
+    long elapsedNanos = System.nanoTime() - startNanos;
+    long bytes = allocatedBytes() - startBytes;
+    Result result =
+        new Result(name, (double) elapsedNanos / ops, startBytes < 0 ? -1 : (double) bytes / ops);
+    report(result.toString());
+    return result;
+  }
+
+  /**
+   * Runs {@code opsPerThread} operations on each of {@code threads} threads, started together, and
+   * returns the operations per second over all threads. Operations are numbered per thread.
+   */
+  public static double measureThroughput(
+      String name, int threads, final int opsPerThread, final ThreadOp op) throws Exception {
+    // Warms up on the calling thread first.
+    for (int i = 0; i < opsPerThread; i++) {
+      op.run(/*thread=*/ 0, i);
+    }
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Exception> failure = new AtomicReference<>();
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      workers[t] =
+          new Thread() {
+            @Override
+            public void run() {
+              try {
+                start.await();
+                for (int i = 0; i < opsPerThread; i++) {
+                  op.run(thread, i);
+                }
+              } catch (Exception e) {
+                failure.set(e);
+              }
+            }
+          };
+      workers[t].start();
+    }
+    long startNanos = System.nanoTime();
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    long elapsedNanos = System.nanoTime() - startNanos;
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+    double opsPerSecond = (double) threads * opsPerThread * 1e9 / elapsedNanos;
+    report(String.format(Locale.US, "%s, %d threads: %.0f ops/s", name, threads, opsPerSecond));
+    return opsPerSecond;
+  }
+
+  /** Prints one line of a benchmark report. */
+  public static void report(String line) {
+    System.out.println("[benchmark] " + line);
+  }
+
+  // Returns -1 if the VM can't measure allocations per thread.
+  private static long allocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+      if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+        return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+
+  /** A single benchmarked operation. */
+  public interface Op {
+    void run(int i) throws Exception;
+  }
+
+  /** A single benchmarked operation on one of several threads. */
+  public interface ThreadOp {
+    void run(int thread, int i) throws Exception;
+  }
+
+  /** The time and allocation per operation of a benchmark. */
+  public static final class Result {
+    private final String name;
+    private final double nanosPerOp;
+    private final double bytesPerOp;
+
+    Result(String name, double nanosPerOp, double bytesPerOp) {
+      this.name = name;
+      this.nanosPerOp = nanosPerOp;
+      this.bytesPerOp = bytesPerOp;
+    }
+
+    public double getNanosPerOp() {
+      return nanosPerOp;
+    }
+
+    /** Returns -1 if allocations couldn't be measured. */
+    public double getBytesPerOp() {
+      return bytesPerOp;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US, "%s: %.1f ns/op, %.1f B/op", name, nanosPerOp, bytesPerOp);
+    }
+  }
+}
@@ -0,0 +1,217 @@
+package com.example.glidemini.cache;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Test;
+
+public class DiskCacheWriteLockerTest {
+  // Long enough for a thread that isn't blocked to get the lock.
+  private static final long BLOCKED_MILLIS = 100;
+  private static final long TIMEOUT_SECONDS = 5;
+
+  private final List<Thread> threads = new ArrayList<>();
+  private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+  @After
+  public void tearDown() throws InterruptedException {
+    for (Thread thread : threads) {
+      thread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+    }
+    assertNull(failure.get());
+  }
+
+  @Test
+  public void acquire_striped_keysOnSameStripeSerialize() throws InterruptedException {
+    DiskCacheWriteLocker locker = new DiskCacheWriteLocker(/*stripeCount=*/ 1, false);
+    locker.acquire("a");
+
+    CountDownLatch acquired = acquireAndReleaseOnOtherThread(locker, "b");
+
+    assertFalse(acquired.await(BLOCKED_MILLIS, TimeUnit.MILLISECONDS));
+    locker.release("a");
+    assertTrue(acquired.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void acquire_exact_otherKeyOnSameStripeDoesNotWait() throws InterruptedException {
+    DiskCacheWriteLocker locker = new DiskCacheWriteLocker(/*stripeCount=*/ 1, true);
+    locker.acquire("a");
+
+    CountDownLatch acquired = acquireAndReleaseOnOtherThread(locker, "b");
+
+    assertTrue(acquired.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    locker.release("a");
+  }
+
+  @Test
+  public void acquire_exact_sameKeyWaitsForRelease() throws InterruptedException {
+    DiskCacheWriteLocker locker = new DiskCacheWriteLocker(/*stripeCount=*/ 1, true);
+    locker.acquire("a");
+
+    CountDownLatch acquired = acquireAndReleaseOnOtherThread(locker, "a");
+
+    assertFalse(acquired.await(BLOCKED_MILLIS, TimeUnit.MILLISECONDS));
+    locker.release("a");
+    assertTrue(acquired.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void acquire_exact_withEverySlotClaimed_waitsForUnclaim() throws InterruptedException {
+    DiskCacheWriteLocker locker = new DiskCacheWriteLocker(/*stripeCount=*/ 1, true);
+    // A stripe has four slots.
+    for (int i = 0; i < 4; i++) {
+      locker.acquire("held" + i);
+    }
+
+    CountDownLatch acquired = acquireAndReleaseOnOtherThread(locker, "other");
+
+    assertFalse(acquired.await(BLOCKED_MILLIS, TimeUnit.MILLISECONDS));
+    locker.release("held2");
+    assertTrue(acquired.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    for (int i : new int[] {0, 1, 3}) {
+      locker.release("held" + i);
+    }
+  }
+
+  @Test
+  public void acquire_exact_reusesUnclaimedSlots() {
+    DiskCacheWriteLocker locker = new DiskCacheWriteLocker(/*stripeCount=*/ 1, true);
+
+    // Would block on the fifth key if released slots weren't handed out again.
+    for (int i = 0; i < 100; i++) {
+      locker.acquire("key" + i);
+      locker.release("key" + i);
+    }
+  }
+
+  @Test
+  public void acquire_exact_reentrant_keepsSlotUntilLastRelease() throws InterruptedException {
+    DiskCacheWriteLocker locker = new DiskCacheWriteLocker(/*stripeCount=*/ 1, true);
+    locker.acquire("a");
+    locker.acquire("a");
+    locker.release("a");
+
+    CountDownLatch acquired = acquireAndReleaseOnOtherThread(locker, "a");
+
+    assertFalse(acquired.await(BLOCKED_MILLIS, TimeUnit.MILLISECONDS));
+    locker.release("a");
+    assertTrue(acquired.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void release_exact_notAcquired_throws() {
+    DiskCacheWriteLocker locker = new DiskCacheWriteLocker(/*stripeCount=*/ 1, true);
+
+    try {
+      locker.release("a");
+      fail();
+    } catch (IllegalStateException expected) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void release_exact_fromOtherThread_throwsAndKeepsLockHeld() throws InterruptedException {
+    final DiskCacheWriteLocker locker = new DiskCacheWriteLocker(/*stripeCount=*/ 1, true);
+    locker.acquire("a");
+    final AtomicReference<Throwable> thrown = new AtomicReference<>();
+    Thread releaser =
+        new Thread() {
+          @Override
+          public void run() {
+            try {
+              locker.release("a");
+            } catch (Throwable e) {
+              thrown.set(e);
+            }
+          }
+        };
+    releaser.start();
+    releaser.join();
+    assertTrue(thrown.get() instanceof IllegalStateException);
+
+    CountDownLatch acquired = acquireAndReleaseOnOtherThread(locker, "a");
+
+    assertFalse(acquired.await(BLOCKED_MILLIS, TimeUnit.MILLISECONDS));
+    locker.release("a");
+    assertTrue(acquired.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void acquireAndRelease_exact_fromManyThreads_fencesEachKey() throws InterruptedException {
+    final DiskCacheWriteLocker locker = new DiskCacheWriteLocker(/*stripeCount=*/ 2, true);
+    final int keys = 8;
+    final int[] owners = new int[keys];
+    final CountDownLatch start = new CountDownLatch(1);
+    for (int t = 0; t < 4; t++) {
+      final int thread = t + 1;
+      startThread(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                start.await();
+              } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+              }
+              for (int i = 0; i < 20_000; i++) {
+                int key = (i + thread) % keys;
+                locker.acquire("key" + key);
+                try {
+                  if (owners[key] != 0) {
+                    throw new AssertionError("key" + key + " held by " + owners[key]);
+                  }
+                  owners[key] = thread;
+                  Thread.yield();
+                  owners[key] = 0;
+                } finally {
+                  locker.release("key" + key);
+                }
+              }
+            }
+          });
+    }
+    start.countDown();
+  }
+
+  // Acquires and releases the key on another thread, counting down once it holds the lock.
+  private CountDownLatch acquireAndReleaseOnOtherThread(
+      final DiskCacheWriteLocker locker, final String safeKey) {
+    final CountDownLatch acquired = new CountDownLatch(1);
+    startThread(
+        new Runnable() {
+          @Override
+          public void run() {
+            locker.acquire(safeKey);
+            acquired.countDown();
+            locker.release(safeKey);
+          }
+        });
+    return acquired;
+  }
+
+  private void startThread(final Runnable runnable) {
+    Thread thread =
+        new Thread() {
+          @Override
+          public void run() {
+            try {
+              runnable.run();
+            } catch (Throwable e) {
+              failure.set(e);
+            }
+          }
+        };
+    threads.add(thread);
+    thread.start();
+  }
+}
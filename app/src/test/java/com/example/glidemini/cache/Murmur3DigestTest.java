@@ -0,0 +1,80 @@
+package com.example.glidemini.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.Charset;
+import org.junit.Test;
+
+public class Murmur3DigestTest {
+  private static final Charset CHARSET = Charset.forName("UTF-8");
+
+  // Expected values match Guava's Hashing.murmur3_128().
+  @Test
+  public void hexDigest_matchesReferenceVectors() {
+    assertEquals("00000000000000000000000000000000", hexDigest(new byte[0]));
+    assertEquals("897859f6655555855a890e51483ab5e6", hexDigest(bytes("a")));
+    assertEquals("67f8103e694299624753ebba820bdb92", hexDigest(bytes("hell")));
+    assertEquals(
+        "6c1b07bc7bbc4be347939ac4a93c437a",
+        hexDigest(bytes("The quick brown fox jumps over the lazy dog")));
+    assertEquals("1246bafa1b28417d0ba3d6a77380ac55", hexDigest(sequence(33)));
+  }
+
+  @Test
+  public void digest_matchesHexDigest() {
+    Murmur3Digest digest = new Murmur3Digest();
+    digest.update(sequence(33));
+
+    assertEquals("1246bafa1b28417d0ba3d6a77380ac55", toHex(digest.digest()));
+  }
+
+  @Test
+  public void update_inChunks_matchesSingleUpdate() {
+    byte[] data = sequence(100);
+    Murmur3Digest digest = new Murmur3Digest();
+
+    digest.update(data, 0, 3);
+    digest.update(data[3]);
+    digest.update(data, 4, 20);
+    digest.update(data, 24, 76);
+
+    assertEquals(hexDigest(data), digest.hexDigest());
+  }
+
+  @Test
+  public void hexDigest_resetsDigest() {
+    Murmur3Digest digest = new Murmur3Digest();
+    digest.update(bytes("hello"));
+    digest.hexDigest();
+
+    digest.update(bytes("hell"));
+
+    assertEquals("67f8103e694299624753ebba820bdb92", digest.hexDigest());
+  }
+
+  private static String hexDigest(byte[] data) {
+    Murmur3Digest digest = new Murmur3Digest();
+    digest.update(data);
+    return digest.hexDigest();
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(CHARSET);
+  }
+
+  private static byte[] sequence(int length) {
+    byte[] result = new byte[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = (byte) i;
+    }
+    return result;
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder result = new StringBuilder();
+    for (byte b : bytes) {
+      result.append(String.format("%02x", b & 0xff));
+    }
+    return result.toString();
+  }
+}
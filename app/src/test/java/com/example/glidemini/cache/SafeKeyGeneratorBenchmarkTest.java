@@ -0,0 +1,66 @@
+package com.example.glidemini.cache;
+
+import com.example.glidemini.benchmark.Benchmark;
+import com.example.glidemini.cache.key.Key;
+import com.example.glidemini.testutil.TestKey;
+import java.util.Locale;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Compares the cost of the {@link SafeKeyGenerator.Scheme}s, run with {@code -Pbenchmark}. */
+public class SafeKeyGeneratorBenchmarkTest {
+  // Several times the size of the generator's name cache, so every lookup is a miss.
+  private static final int KEY_COUNT = 100_000;
+  private static final int HIT_KEY_COUNT = 100;
+
+  private Key[] keys;
+
+  @Before
+  public void setUp() {
+    Benchmark.assumeEnabled();
+    keys = new Key[KEY_COUNT];
+    for (int i = 0; i < KEY_COUNT; i++) {
+      keys[i] = new TestKey("https://example.com/images/" + i + ".jpg?w=1080&h=1920");
+    }
+  }
+
+  @Test
+  public void getSafeKey_onMiss() throws Exception {
+    Benchmark.Result sha256 = measure(SafeKeyGenerator.Scheme.SHA_256, KEY_COUNT);
+    Benchmark.Result murmur3 = measure(SafeKeyGenerator.Scheme.MURMUR3_128, KEY_COUNT);
+    reportSpeedup("miss", sha256, murmur3);
+  }
+
+  @Test
+  public void getSafeKey_onHit() throws Exception {
+    Benchmark.Result sha256 = measure(SafeKeyGenerator.Scheme.SHA_256, HIT_KEY_COUNT);
+    Benchmark.Result murmur3 = measure(SafeKeyGenerator.Scheme.MURMUR3_128, HIT_KEY_COUNT);
+    reportSpeedup("hit", sha256, murmur3);
+  }
+
+  private Benchmark.Result measure(SafeKeyGenerator.Scheme scheme, final int keyCount)
+      throws Exception {
+    final SafeKeyGenerator generator = new SafeKeyGenerator(scheme);
+    // Warm up and measured runs each go through the keys once on misses, ten times on hits.
+    int ops = Math.max(KEY_COUNT, keyCount * 10);
+    return Benchmark.measure(
+        "getSafeKey " + scheme + " (" + keyCount + " keys)",
+        ops,
+        new Benchmark.Op() {
+          @Override
+          public void run(int i) {
+            generator.getSafeKey(keys[i % keyCount]);
+          }
+        });
+  }
+
+  private static void reportSpeedup(
+      String name, Benchmark.Result sha256, Benchmark.Result murmur3) {
+    Benchmark.report(
+        String.format(
+            Locale.US,
+            "getSafeKey %s: MURMUR3_128 is %.2fx as fast as SHA_256",
+            name,
+            sha256.getNanosPerOp() / murmur3.getNanosPerOp()));
+  }
+}
@@ -0,0 +1,120 @@
+package com.example.glidemini.cache;
+
+import androidx.annotation.NonNull;
+import com.example.glidemini.benchmark.Benchmark;
+import com.example.glidemini.cache.diskLruCache.DiskLruCacheWrapper;
+import com.example.glidemini.cache.key.Key;
+import com.example.glidemini.testutil.TestKey;
+import com.example.glidemini.util.ByteBufferUtil;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares writes and reads of small entries in {@link SegmentedDiskCache} and {@link
+ * DiskLruCacheWrapper}, run with {@code -Pbenchmark}.
+ */
+public class SegmentedDiskCacheBenchmarkTest {
+  private static final int ENTRY_COUNT = 2_000;
+  // About the size of a thumbnail in the data cache.
+  private static final int ENTRY_SIZE = 16 * 1024;
+  private static final long MAX_SIZE = 4L * ENTRY_COUNT * ENTRY_SIZE;
+
+  private final byte[] data = new byte[ENTRY_SIZE];
+  private File directory;
+
+  @Before
+  public void setUp() throws IOException {
+    Benchmark.assumeEnabled();
+    directory = Files.createTempDirectory("segmented_disk_cache_benchmark").toFile();
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+  }
+
+  @After
+  public void tearDown() {
+    if (directory != null) {
+      deleteRecursively(directory);
+    }
+  }
+
+  @Test
+  public void putAndRead() throws Exception {
+    measure(
+        "SegmentedDiskCache",
+        SegmentedDiskCache.create(new File(directory, "segmented"), MAX_SIZE));
+    measure(
+        "DiskLruCacheWrapper", DiskLruCacheWrapper.create(new File(directory, "lru"), MAX_SIZE));
+  }
+
+  private void measure(String name, final DiskCache cache) throws Exception {
+    final DiskCache.Writer writer =
+        new DiskCache.Writer() {
+          @Override
+          public boolean write(@NonNull File file) {
+            try {
+              FileOutputStream os = new FileOutputStream(file);
+              try {
+                os.write(data);
+              } finally {
+                os.close();
+              }
+              return true;
+            } catch (IOException e) {
+              return false;
+            }
+          }
+        };
+    // The warm up run writes its own keys, so both runs only write new entries.
+    Benchmark.measure(
+        name + " put",
+        ENTRY_COUNT,
+        new Benchmark.Op() {
+          private int next;
+
+          @Override
+          public void run(int i) {
+            cache.put(new TestKey("key" + next++), writer);
+          }
+        });
+    Benchmark.measure(
+        name + " read",
+        ENTRY_COUNT,
+        new Benchmark.Op() {
+          @Override
+          public void run(int i) throws IOException {
+            ByteBuffer buffer = read(cache, new TestKey("key" + i));
+            if (buffer == null || buffer.remaining() != ENTRY_SIZE) {
+              throw new IllegalStateException("Missing entry: " + i);
+            }
+            // Touches every page, mapped buffers are read lazily.
+            for (int position = 0; position < ENTRY_SIZE; position += 4096) {
+              buffer.get(position);
+            }
+          }
+        });
+    cache.clear();
+  }
+
+  // Reads like DataCacheGenerator: a mapped File if the cache has one, otherwise its buffer.
+  private static ByteBuffer read(DiskCache cache, Key key) throws IOException {
+    File file = cache.get(key);
+    return file != null ? ByteBufferUtil.fromFile(file) : cache.getBuffer(key);
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+}
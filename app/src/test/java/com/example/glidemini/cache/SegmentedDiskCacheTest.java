@@ -0,0 +1,277 @@
+package com.example.glidemini.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+import com.example.glidemini.cache.key.Key;
+import com.example.glidemini.testutil.TestKey;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SegmentedDiskCacheTest {
+  private File directory;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("segmented").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    deleteRecursively(directory);
+  }
+
+  @Test
+  public void put_makesEntryReadableAndContained() {
+    DiskCache cache = SegmentedDiskCache.create(directory, 1024 * 1024);
+    Key key = new TestKey("a");
+
+    cache.put(key, writerOf(bytes(10, 1)));
+
+    assertTrue(cache.contains(key));
+    assertNull(cache.get(key));
+    assertArrayEquals(bytes(10, 1), read(cache.getBuffer(key)));
+    assertFalse(cache.contains(new TestKey("b")));
+  }
+
+  @Test
+  public void delete_staysDeletedAfterReopen() {
+    DiskCache cache = SegmentedDiskCache.create(directory, 1024 * 1024);
+    Key key = new TestKey("a");
+    cache.put(key, writerOf(bytes(10, 1)));
+
+    cache.delete(key);
+
+    assertFalse(cache.contains(key));
+    assertFalse(SegmentedDiskCache.create(directory, 1024 * 1024).contains(key));
+  }
+
+  @Test
+  public void delete_staysDeletedAfterSegmentWithDeletionIsCompacted() throws InterruptedException {
+    // Records are a 74 byte header plus their data, so each segment holds at most two of these.
+    DiskCache cache = SegmentedDiskCache.create(directory, 1024 * 1024, /*segmentSize=*/ 400);
+    Key deleted = new TestKey("deleted");
+    Key kept = new TestKey("kept");
+    Key other = new TestKey("other");
+    Key last = new TestKey("last");
+    // Segment 0 stays mostly live, so it's never compacted.
+    cache.put(deleted, writerOf(bytes(20, 1)));
+    cache.put(kept, writerOf(bytes(200, 2)));
+    // Segment 1 holds the deletion of the first entry and ends up with nothing live.
+    cache.put(other, writerOf(bytes(200, 3)));
+    cache.delete(deleted);
+    cache.delete(other);
+    // Rolls to segment 2, which schedules the compaction of segment 1.
+    cache.put(last, writerOf(bytes(200, 4)));
+    awaitDeleted(new File(directory, "segment_1.blob"));
+
+    DiskCache reopened = SegmentedDiskCache.create(directory, 1024 * 1024, 400);
+    assertFalse(reopened.contains(deleted));
+    assertFalse(reopened.contains(other));
+    assertArrayEquals(bytes(200, 2), read(reopened.getBuffer(kept)));
+    assertArrayEquals(bytes(200, 4), read(reopened.getBuffer(last)));
+  }
+
+  @Test
+  public void compaction_movesLiveEntriesAndDropsSegment() throws InterruptedException {
+    DiskCache cache = SegmentedDiskCache.create(directory, 1024 * 1024, /*segmentSize=*/ 400);
+    Key live = new TestKey("live");
+    Key dead = new TestKey("dead");
+    // Segment 0 ends up with a small live entry and a large deleted one.
+    cache.put(live, writerOf(bytes(20, 1)));
+    cache.put(dead, writerOf(bytes(200, 2)));
+    cache.delete(dead);
+    // Rolls to segment 1, which schedules the compaction of segment 0.
+    cache.put(new TestKey("next"), writerOf(bytes(200, 3)));
+    awaitDeleted(new File(directory, "segment_0.blob"));
+
+    assertArrayEquals(bytes(20, 1), read(cache.getBuffer(live)));
+    DiskCache reopened = SegmentedDiskCache.create(directory, 1024 * 1024, 400);
+    assertArrayEquals(bytes(20, 1), read(reopened.getBuffer(live)));
+    assertFalse(reopened.contains(dead));
+  }
+
+  @Test
+  public void put_deletesScratchFile() {
+    DiskCache cache = SegmentedDiskCache.create(directory, 1024 * 1024);
+
+    cache.put(new TestKey("a"), writerOf(bytes(10, 1)));
+    cache.put(new TestKey("b"), failingWriterOf(bytes(10, 2)));
+
+    assertEquals(0, new File(directory, "scratch").listFiles().length);
+  }
+
+  @Test
+  public void create_deletesLeftoverScratchFiles() throws IOException {
+    File scratchDirectory = new File(directory, "scratch");
+    assertTrue(scratchDirectory.mkdirs());
+    Files.write(new File(scratchDirectory, "scratch_1").toPath(), bytes(10, 1));
+    DiskCache cache = SegmentedDiskCache.create(directory, 1024 * 1024);
+
+    assertFalse(cache.contains(new TestKey("a")));
+
+    assertEquals(0, scratchDirectory.listFiles().length);
+  }
+
+  @Test
+  public void put_concurrentPutsOfDifferentKeys_areAllReadableAfterReopen() throws Exception {
+    final DiskCache cache = SegmentedDiskCache.create(directory, 64 * 1024 * 1024, 64 * 1024);
+    final int threads = 8;
+    final int perThread = 50;
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      Thread worker =
+          new Thread() {
+            @Override
+            public void run() {
+              try {
+                start.await();
+                for (int i = 0; i < perThread; i++) {
+                  int id = thread * perThread + i;
+                  cache.put(new TestKey("key" + id), writerOf(bytes(100 + id, id)));
+                }
+              } catch (Throwable e) {
+                failure.set(e);
+              }
+            }
+          };
+      worker.start();
+      workers.add(worker);
+    }
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    assertNull(failure.get());
+
+    DiskCache reopened = SegmentedDiskCache.create(directory, 64 * 1024 * 1024, 64 * 1024);
+    for (int id = 0; id < threads * perThread; id++) {
+      assertArrayEquals(bytes(100 + id, id), read(reopened.getBuffer(new TestKey("key" + id))));
+    }
+  }
+
+  @Test
+  public void put_overMaxSize_dropsOldestSegment() {
+    DiskCache cache = SegmentedDiskCache.create(directory, /*maxSize=*/ 1000, /*segmentSize=*/ 400);
+    Key first = new TestKey("first");
+    cache.put(first, writerOf(bytes(300, 1)));
+    for (int i = 0; i < 4; i++) {
+      cache.put(new TestKey("next" + i), writerOf(bytes(300, i)));
+    }
+
+    assertFalse(cache.contains(first));
+    assertEquals(300, cache.getBuffer(new TestKey("next3")).remaining());
+  }
+
+  @Test
+  public void create_withOtherKeyScheme_deletesSegmentsOfPreviousScheme() {
+    Key key = new TestKey("a");
+    SegmentedDiskCache.create(directory, 1024 * 1024).put(key, writerOf(bytes(10, 1)));
+
+    DiskCache murmur =
+        SegmentedDiskCache.create(
+            directory, 1024 * 1024, 64 * 1024, SafeKeyGenerator.Scheme.MURMUR3_128);
+    assertFalse(murmur.contains(key));
+    assertFalse(new File(directory, "segment_0.blob").exists());
+    murmur.put(key, writerOf(bytes(10, 2)));
+
+    DiskCache reopened =
+        SegmentedDiskCache.create(
+            directory, 1024 * 1024, 64 * 1024, SafeKeyGenerator.Scheme.MURMUR3_128);
+    assertArrayEquals(bytes(10, 2), read(reopened.getBuffer(key)));
+  }
+
+  @Test
+  public void create_withSegmentWithoutHeader_readsItAsSha256() throws IOException {
+    Key key = new TestKey("a");
+    byte[] safeKey = new SafeKeyGenerator().getSafeKey(key).getBytes("US-ASCII");
+    byte[] data = bytes(10, 1);
+    ByteBuffer record = ByteBuffer.allocate(10 + safeKey.length + data.length);
+    record.putInt(0x474c5342).putShort((short) safeKey.length).put(safeKey);
+    record.putInt(data.length).put(data);
+    Files.write(new File(directory, "segment_0.blob").toPath(), record.array());
+
+    DiskCache cache = SegmentedDiskCache.create(directory, 1024 * 1024);
+
+    assertArrayEquals(data, read(cache.getBuffer(key)));
+  }
+
+  private static void awaitDeleted(File file) throws InterruptedException {
+    for (int i = 0; i < 500 && file.exists(); i++) {
+      Thread.sleep(10);
+    }
+    assertFalse("Segment wasn't compacted: " + file, file.exists());
+  }
+
+  private static DiskCache.Writer writerOf(final byte[] data) {
+    return new DiskCache.Writer() {
+      @Override
+      public boolean write(@NonNull File file) {
+        try {
+          FileOutputStream os = new FileOutputStream(file);
+          try {
+            os.write(data);
+          } finally {
+            os.close();
+          }
+          return true;
+        } catch (IOException e) {
+          return false;
+        }
+      }
+    };
+  }
+
+  // Writes the data but reports failure, like a writer that gave up half way.
+  private static DiskCache.Writer failingWriterOf(final byte[] data) {
+    final DiskCache.Writer writer = writerOf(data);
+    return new DiskCache.Writer() {
+      @Override
+      public boolean write(@NonNull File file) {
+        writer.write(file);
+        return false;
+      }
+    };
+  }
+
+  private static byte[] bytes(int length, int seed) {
+    byte[] result = new byte[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = (byte) (seed * 31 + i);
+    }
+    return result;
+  }
+
+  private static byte[] read(ByteBuffer buffer) {
+    byte[] result = new byte[buffer.remaining()];
+    buffer.get(result);
+    return result;
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+}
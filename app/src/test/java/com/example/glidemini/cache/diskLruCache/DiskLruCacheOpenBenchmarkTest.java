@@ -0,0 +1,113 @@
+package com.example.glidemini.cache.diskLruCache;
+
+import com.example.glidemini.benchmark.Benchmark;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures how long {@link DiskLruCache#open} takes for large journals, run with {@code
+ * -Pbenchmark}: once for a text journal, which is migrated to the binary journal, and then for
+ * the binary journal it was migrated to.
+ */
+public class DiskLruCacheOpenBenchmarkTest {
+  private static final int APP_VERSION = 1;
+  private static final int VALUE_COUNT = 1;
+  private static final long MAX_SIZE = Long.MAX_VALUE / 2;
+  private static final int[] ENTRY_COUNTS = {10_000, 100_000, 500_000};
+  private static final int BINARY_RUNS = 3;
+
+  private File directory;
+
+  @Before
+  public void setUp() throws IOException {
+    Benchmark.assumeEnabled();
+    directory = Files.createTempDirectory("disk_lru_cache_benchmark").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    if (directory != null) {
+      deleteRecursively(directory);
+    }
+  }
+
+  @Test
+  public void open() throws IOException {
+    for (int entryCount : ENTRY_COUNTS) {
+      deleteRecursively(directory);
+      directory.mkdirs();
+      writeLegacyJournal(entryCount);
+
+      long startNanos = System.nanoTime();
+      openCache().close();
+      double legacyMillis = (System.nanoTime() - startNanos) / 1e6;
+
+      double binaryMillis = Double.MAX_VALUE;
+      for (int i = 0; i < BINARY_RUNS; i++) {
+        startNanos = System.nanoTime();
+        DiskLruCache cache = openCache();
+        binaryMillis = Math.min(binaryMillis, (System.nanoTime() - startNanos) / 1e6);
+        cache.close();
+      }
+
+      Benchmark.report(
+          String.format(
+              Locale.US,
+              "DiskLruCache open, %d entries: text journal with migration %.1f ms,"
+                  + " binary journal %.1f ms",
+              entryCount,
+              legacyMillis,
+              binaryMillis));
+    }
+  }
+
+  private DiskLruCache openCache() throws IOException {
+    return DiskLruCache.open(
+        directory, APP_VERSION, VALUE_COUNT, MAX_SIZE, DiskLruCache.KEY_SCHEME_SHA_256);
+  }
+
+  // Each entry is written, committed and read once, like a cache that has been in use for a while.
+  private void writeLegacyJournal(int entryCount) throws IOException {
+    File journal = new File(directory, DiskLruCache.JOURNAL_FILE);
+    Writer writer =
+        new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(journal), StandardCharsets.US_ASCII));
+    try {
+      writer.write(
+          DiskLruCache.MAGIC
+              + "\n"
+              + DiskLruCache.VERSION_1
+              + "\n"
+              + APP_VERSION
+              + "\n"
+              + VALUE_COUNT
+              + "\n\n");
+      for (int i = 0; i < entryCount; i++) {
+        String key = String.format(Locale.US, "%064x", i * 0x9e3779b97f4a7c15L);
+        writer.write("DIRTY " + key + "\nCLEAN " + key + " 20000\nREAD " + key + "\n");
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+}
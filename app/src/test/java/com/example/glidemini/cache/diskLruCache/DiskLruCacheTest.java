@@ -0,0 +1,355 @@
+package com.example.glidemini.cache.diskLruCache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DiskLruCacheTest {
+  private static final int APP_VERSION = 1;
+  private static final int VALUE_COUNT = 1;
+  private static final long MAX_SIZE = 1024 * 1024;
+  private static final String KEY_A =
+      "a665a45920422f9d417e4867efdc4fb8a04a1f3fff1fa07e998e86f7f7a27ae3";
+  private static final String KEY_B =
+      "b3a8e0e1f9ab1bfe3a36f231f676f78bb30a519d2b21e6c530c0eee8ebb4a5d0";
+
+  private File directory;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("disk_lru_cache").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    deleteRecursively(directory);
+  }
+
+  @Test
+  public void binaryJournal_keepsCommittedAndRemovedEntriesAcrossReopen() throws IOException {
+    DiskLruCache cache = open();
+    put(cache, KEY_A, bytes(10, 1));
+    put(cache, KEY_B, bytes(20, 2));
+    cache.remove(KEY_B);
+    cache.close();
+
+    DiskLruCache reopened = open();
+
+    assertArrayEquals(bytes(10, 1), read(reopened, KEY_A));
+    assertNull(reopened.get(KEY_B));
+    assertTrue(new File(directory, DiskLruCache.BINARY_JOURNAL_FILE).exists());
+    reopened.close();
+  }
+
+  @Test
+  public void binaryJournal_withOnlyBackup_isRecovered() throws IOException {
+    DiskLruCache cache = open();
+    put(cache, KEY_A, bytes(10, 1));
+    cache.close();
+    rename(DiskLruCache.BINARY_JOURNAL_FILE, DiskLruCache.BINARY_JOURNAL_FILE_BACKUP);
+
+    DiskLruCache reopened = open();
+
+    assertArrayEquals(bytes(10, 1), read(reopened, KEY_A));
+    assertFalse(new File(directory, DiskLruCache.BINARY_JOURNAL_FILE_BACKUP).exists());
+    reopened.close();
+  }
+
+  @Test
+  public void binaryJournal_withTruncatedLastRecord_keepsEarlierEntriesAndIsRebuilt()
+      throws IOException {
+    DiskLruCache cache = open();
+    put(cache, KEY_A, bytes(10, 1));
+    put(cache, KEY_B, bytes(20, 2));
+    cache.close();
+    File journal = new File(directory, DiskLruCache.BINARY_JOURNAL_FILE);
+    // Cuts the lengths off the last record, the CLEAN record of KEY_B.
+    truncate(journal, journal.length() - 4);
+
+    DiskLruCache reopened = open();
+
+    assertArrayEquals(bytes(10, 1), read(reopened, KEY_A));
+    assertNull(reopened.get(KEY_B));
+    assertFalse(new File(directory, KEY_B + ".0").exists());
+    assertEquals(10, reopened.size());
+    reopened.close();
+
+    DiskLruCache again = open();
+
+    assertArrayEquals(bytes(10, 1), read(again, KEY_A));
+    assertNull(again.get(KEY_B));
+    again.close();
+  }
+
+  @Test
+  public void binaryJournal_withUnknownRecord_isDeleted() throws IOException {
+    DiskLruCache cache = open();
+    put(cache, KEY_A, bytes(10, 1));
+    cache.close();
+    ByteArrayOutputStream record = new ByteArrayOutputStream();
+    DataOutputStream os = new DataOutputStream(record);
+    os.writeByte(9);
+    os.writeShort(KEY_B.length());
+    os.writeBytes(KEY_B);
+    append(new File(directory, DiskLruCache.BINARY_JOURNAL_FILE), record.toByteArray());
+
+    DiskLruCache reopened = open();
+
+    assertNull(reopened.get(KEY_A));
+    assertFalse(new File(directory, KEY_A + ".0").exists());
+    assertEquals(0, reopened.size());
+    reopened.close();
+  }
+
+  @Test
+  public void binaryJournal_withTruncatedHeader_isDeleted() throws IOException {
+    DiskLruCache cache = open();
+    put(cache, KEY_A, bytes(10, 1));
+    cache.close();
+    truncate(new File(directory, DiskLruCache.BINARY_JOURNAL_FILE), 6);
+
+    DiskLruCache reopened = open();
+
+    assertNull(reopened.get(KEY_A));
+    assertFalse(new File(directory, KEY_A + ".0").exists());
+    reopened.close();
+  }
+
+  @Test
+  public void binaryJournal_withVersion1Header_isDeleted() throws IOException {
+    writeLegacyEntry(KEY_A, bytes(10, 1));
+    ByteArrayOutputStream journal = new ByteArrayOutputStream();
+    DataOutputStream os = new DataOutputStream(journal);
+    // The version 1 header, which had no key scheme.
+    os.writeInt(DiskLruCache.BINARY_MAGIC);
+    os.writeInt(1);
+    os.writeInt(APP_VERSION);
+    os.writeInt(VALUE_COUNT);
+    // A CLEAN record.
+    os.writeByte(1);
+    os.writeShort(KEY_A.length());
+    os.writeBytes(KEY_A);
+    os.writeLong(10);
+    Files.write(
+        new File(directory, DiskLruCache.BINARY_JOURNAL_FILE).toPath(), journal.toByteArray());
+
+    DiskLruCache cache = open();
+
+    assertNull(cache.get(KEY_A));
+    assertFalse(new File(directory, KEY_A + ".0").exists());
+    cache.close();
+  }
+
+  @Test
+  public void binaryJournal_withOtherKeyScheme_isDeleted() throws IOException {
+    DiskLruCache cache = open();
+    put(cache, KEY_A, bytes(10, 1));
+    cache.close();
+
+    DiskLruCache reopened =
+        DiskLruCache.open(
+            directory, APP_VERSION, VALUE_COUNT, MAX_SIZE, DiskLruCache.KEY_SCHEME_SHA_256 + 1);
+
+    assertNull(reopened.get(KEY_A));
+    assertFalse(new File(directory, KEY_A + ".0").exists());
+    reopened.close();
+  }
+
+  @Test
+  public void legacyJournal_isMigratedToBinaryJournal() throws IOException {
+    writeLegacyEntry(KEY_A, bytes(10, 1));
+    writeLegacyJournal(DiskLruCache.JOURNAL_FILE, KEY_A, 10);
+
+    DiskLruCache cache = open();
+
+    assertArrayEquals(bytes(10, 1), read(cache, KEY_A));
+    assertTrue(new File(directory, DiskLruCache.BINARY_JOURNAL_FILE).exists());
+    assertFalse(new File(directory, DiskLruCache.JOURNAL_FILE).exists());
+    cache.close();
+  }
+
+  @Test
+  public void legacyJournal_longerThanReadBuffer_isMigrated() throws IOException {
+    int entryCount = 500;
+    StringBuilder journal =
+        new StringBuilder(
+            DiskLruCache.MAGIC
+                + "\n"
+                + DiskLruCache.VERSION_1
+                + "\n"
+                + APP_VERSION
+                + "\n"
+                + VALUE_COUNT
+                + "\n\n");
+    for (int i = 0; i < entryCount; i++) {
+      String key = String.format(Locale.US, "%064x", i);
+      journal.append("DIRTY ").append(key).append("\nCLEAN ").append(key).append(" 10\n");
+    }
+    Files.write(
+        new File(directory, DiskLruCache.JOURNAL_FILE).toPath(),
+        journal.toString().getBytes(StandardCharsets.US_ASCII));
+
+    DiskLruCache cache = open();
+
+    assertEquals(entryCount * 10L, cache.size());
+    cache.close();
+  }
+
+  @Test
+  public void legacyJournal_withOnlyBackup_isRecoveredAndMigrated() throws IOException {
+    writeLegacyEntry(KEY_A, bytes(10, 1));
+    writeLegacyJournal(DiskLruCache.JOURNAL_FILE_BACKUP, KEY_A, 10);
+
+    DiskLruCache cache = open();
+
+    assertArrayEquals(bytes(10, 1), read(cache, KEY_A));
+    assertTrue(new File(directory, DiskLruCache.BINARY_JOURNAL_FILE).exists());
+    assertFalse(new File(directory, DiskLruCache.JOURNAL_FILE).exists());
+    assertFalse(new File(directory, DiskLruCache.JOURNAL_FILE_BACKUP).exists());
+    cache.close();
+  }
+
+  @Test
+  public void legacyJournalBackup_withBinaryJournal_isDeleted() throws IOException {
+    DiskLruCache cache = open();
+    put(cache, KEY_A, bytes(10, 1));
+    cache.close();
+    writeLegacyJournal(DiskLruCache.JOURNAL_FILE_BACKUP, KEY_B, 20);
+
+    DiskLruCache reopened = open();
+
+    assertArrayEquals(bytes(10, 1), read(reopened, KEY_A));
+    assertNull(reopened.get(KEY_B));
+    assertFalse(new File(directory, DiskLruCache.JOURNAL_FILE_BACKUP).exists());
+    reopened.close();
+  }
+
+  @Test
+  public void commit_pastBloomFilterCapacity_rebuildsFilterWithoutRemovedKeys() throws IOException {
+    DiskLruCache cache = open();
+    put(cache, KEY_A, bytes(1, 1));
+    cache.remove(KEY_A);
+    assertTrue(cache.mightContain(KEY_A));
+
+    // Past the 1638 keys the smallest filter is sized for.
+    for (int i = 0; i < 2_000; i++) {
+      put(cache, String.format(Locale.US, "%064x", i), bytes(1, i));
+    }
+
+    assertFalse(cache.mightContain(KEY_A));
+    for (int i = 0; i < 2_000; i++) {
+      assertTrue(cache.mightContain(String.format(Locale.US, "%064x", i)));
+    }
+    cache.close();
+  }
+
+  @Test
+  public void hasReadableEntry_withDeletedFile_returnsTrue() throws IOException {
+    DiskLruCache cache = open();
+    put(cache, KEY_A, bytes(10, 1));
+    assertTrue(cache.get(KEY_A).getFile(0).delete());
+
+    assertNull(cache.get(KEY_A));
+    assertTrue(cache.hasReadableEntry(KEY_A));
+    assertFalse(cache.hasReadableEntry(KEY_B));
+    cache.close();
+  }
+
+  private DiskLruCache open() throws IOException {
+    return DiskLruCache.open(
+        directory, APP_VERSION, VALUE_COUNT, MAX_SIZE, DiskLruCache.KEY_SCHEME_SHA_256);
+  }
+
+  private static void put(DiskLruCache cache, String key, byte[] data) throws IOException {
+    Editor editor = cache.edit(key);
+    assertNotNull(editor);
+    Files.write(editor.getFile(0).toPath(), data);
+    editor.commit();
+  }
+
+  private static byte[] read(DiskLruCache cache, String key) throws IOException {
+    Value value = cache.get(key);
+    assertNotNull(value);
+    return Files.readAllBytes(value.getFile(0).toPath());
+  }
+
+  private void writeLegacyEntry(String key, byte[] data) throws IOException {
+    Files.write(new File(directory, key + ".0").toPath(), data);
+  }
+
+  private void writeLegacyJournal(String name, String key, long length) throws IOException {
+    String journal =
+        DiskLruCache.MAGIC
+            + "\n"
+            + DiskLruCache.VERSION_1
+            + "\n"
+            + APP_VERSION
+            + "\n"
+            + VALUE_COUNT
+            + "\n\n"
+            + "DIRTY "
+            + key
+            + "\nCLEAN "
+            + key
+            + " "
+            + length
+            + "\n";
+    Files.write(new File(directory, name).toPath(), journal.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private static void truncate(File file, long length) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(length);
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static void append(File file, byte[] data) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(raf.length());
+      raf.write(data);
+    } finally {
+      raf.close();
+    }
+  }
+
+  private void rename(String from, String to) {
+    assertTrue(new File(directory, from).renameTo(new File(directory, to)));
+  }
+
+  private static byte[] bytes(int length, int value) {
+    byte[] result = new byte[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = (byte) value;
+    }
+    return result;
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,299 @@
+package com.example.glidemini.cache.diskLruCache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+import com.example.glidemini.cache.DiskCache;
+import com.example.glidemini.cache.SafeKeyGenerator;
+import com.example.glidemini.cache.key.Key;
+import com.example.glidemini.testutil.TestKey;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DiskLruCacheWrapperTest {
+  private static final int SHARD_COUNT = 4;
+  private static final long EVICTION_TIMEOUT_MILLIS = 5_000;
+
+  private final SafeKeyGenerator safeKeyGenerator = new SafeKeyGenerator();
+  private File directory;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("wrapper").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    deleteRecursively(directory);
+  }
+
+  @Test
+  public void put_whileKeyIsEdited_returnsWithoutWriting() throws IOException {
+    DiskCache cache = DiskLruCacheWrapper.create(directory, 1024 * 1024);
+    Key key = new TestKey("a");
+    DiskCache.Editor editor = cache.edit(key);
+    assertNotNull(editor);
+
+    cache.put(key, writerOf(bytes(10, 1)));
+
+    assertNull(cache.get(key));
+    write(editor.getFile(), bytes(10, 2));
+    editor.commit();
+    assertArrayEquals(bytes(10, 2), readFile(cache.get(key)));
+  }
+
+  @Test
+  public void edit_whileKeyIsEdited_returnsNull() {
+    DiskCache cache = DiskLruCacheWrapper.create(directory, 1024 * 1024);
+    Key key = new TestKey("a");
+    DiskCache.Editor editor = cache.edit(key);
+
+    assertNull(cache.edit(key));
+
+    editor.abortUnlessCommitted();
+    assertNotNull(cache.edit(key));
+  }
+
+  @Test
+  public void put_withExactFencing_makesEntryReadable() throws IOException {
+    DiskCache cache =
+        DiskLruCacheWrapper.create(
+            directory,
+            1024 * 1024,
+            /*shardCount=*/ 1,
+            SafeKeyGenerator.Scheme.SHA_256,
+            /*isExactFencing=*/ true);
+    Key key = new TestKey("a");
+
+    cache.put(key, writerOf(bytes(10, 1)));
+
+    assertArrayEquals(bytes(10, 1), readFile(cache.get(key)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void create_withoutShards_throws() {
+    DiskLruCacheWrapper.create(directory, 1024 * 1024, /*shardCount=*/ 0);
+  }
+
+  @Test
+  public void put_withOneShard_writesToDirectory() throws IOException {
+    DiskCache cache = DiskLruCacheWrapper.create(directory, 1024 * 1024, /*shardCount=*/ 1);
+    Key key = new TestKey("a");
+
+    cache.put(key, writerOf(bytes(10, 1)));
+
+    assertEquals(directory, cache.get(key).getParentFile());
+    assertFalse(shardDirectory(0).exists());
+  }
+
+  @Test
+  public void put_withShards_writesToShardOfKey() throws IOException {
+    DiskCache cache = DiskLruCacheWrapper.create(directory, 1024 * 1024, SHARD_COUNT);
+    for (int shard = 0; shard < SHARD_COUNT; shard++) {
+      Key key = keyInShard(shard, /*skip=*/ 0);
+
+      cache.put(key, writerOf(bytes(10, shard)));
+
+      File file = cache.get(key);
+      assertEquals(shardDirectory(shard), file.getParentFile());
+      assertArrayEquals(bytes(10, shard), readFile(file));
+    }
+    for (int shard = 0; shard < SHARD_COUNT; shard++) {
+      assertEquals(1, entryFileCount(shardDirectory(shard)));
+    }
+  }
+
+  @Test
+  public void get_withShards_findsEntriesAfterReopen() throws IOException {
+    DiskCache cache = DiskLruCacheWrapper.create(directory, 1024 * 1024, SHARD_COUNT);
+    Key first = keyInShard(0, /*skip=*/ 0);
+    Key second = keyInShard(SHARD_COUNT - 1, /*skip=*/ 0);
+    cache.put(first, writerOf(bytes(10, 1)));
+    cache.put(second, writerOf(bytes(10, 2)));
+
+    DiskCache reopened = DiskLruCacheWrapper.create(directory, 1024 * 1024, SHARD_COUNT);
+
+    assertArrayEquals(bytes(10, 1), readFile(reopened.get(first)));
+    assertArrayEquals(bytes(10, 2), readFile(reopened.get(second)));
+  }
+
+  @Test
+  public void put_pastShardSize_evictsOldestEntryOfThatShard() throws Exception {
+    // Each shard gets 100 bytes, so two 60 byte entries overflow their shard but not the cache.
+    DiskCache cache = DiskLruCacheWrapper.create(directory, 100 * SHARD_COUNT, SHARD_COUNT);
+    Key oldest = keyInShard(0, /*skip=*/ 0);
+    Key newest = keyInShard(0, /*skip=*/ 1);
+    Key otherShard = keyInShard(1, /*skip=*/ 0);
+    cache.put(oldest, writerOf(bytes(60, 1)));
+    cache.put(otherShard, writerOf(bytes(60, 2)));
+
+    cache.put(newest, writerOf(bytes(60, 3)));
+
+    awaitEvicted(oldest, /*shard=*/ 0);
+    assertNull(cache.get(oldest));
+    assertArrayEquals(bytes(60, 3), readFile(cache.get(newest)));
+    assertArrayEquals(bytes(60, 2), readFile(cache.get(otherShard)));
+  }
+
+  @Test
+  public void put_withinShardSize_keepsAllEntries() throws IOException {
+    DiskCache cache = DiskLruCacheWrapper.create(directory, 100 * SHARD_COUNT, SHARD_COUNT);
+    Key[] keys = new Key[SHARD_COUNT];
+    for (int shard = 0; shard < SHARD_COUNT; shard++) {
+      keys[shard] = keyInShard(shard, /*skip=*/ 0);
+      cache.put(keys[shard], writerOf(bytes(60, shard)));
+    }
+
+    for (int shard = 0; shard < SHARD_COUNT; shard++) {
+      assertArrayEquals(bytes(60, shard), readFile(cache.get(keys[shard])));
+    }
+  }
+
+  @Test
+  public void clear_withShards_removesEntriesOfEveryShard() throws IOException {
+    DiskCache cache = DiskLruCacheWrapper.create(directory, 1024 * 1024, SHARD_COUNT);
+    Key[] keys = new Key[SHARD_COUNT];
+    for (int shard = 0; shard < SHARD_COUNT; shard++) {
+      keys[shard] = keyInShard(shard, /*skip=*/ 0);
+      cache.put(keys[shard], writerOf(bytes(10, shard)));
+    }
+
+    cache.clear();
+
+    for (int shard = 0; shard < SHARD_COUNT; shard++) {
+      assertNull(cache.get(keys[shard]));
+      assertEquals(0, entryFileCount(shardDirectory(shard)));
+    }
+    cache.put(keys[0], writerOf(bytes(10, 5)));
+    assertArrayEquals(bytes(10, 5), readFile(cache.get(keys[0])));
+  }
+
+  @Test
+  public void getBloomFilterFalsePositiveRate_withDeletedFile_doesNotCountMiss() {
+    DiskLruCacheWrapper cache =
+        (DiskLruCacheWrapper) DiskLruCacheWrapper.create(directory, 1024 * 1024);
+    Key key = new TestKey("a");
+    cache.put(key, writerOf(bytes(10, 1)));
+    assertTrue(cache.get(key).delete());
+
+    assertNull(cache.get(key));
+
+    assertEquals(0, cache.getBloomFilterFalsePositiveRate(), 0);
+  }
+
+  @Test
+  public void getBloomFilterFalsePositiveRate_withRemovedKey_countsMiss() {
+    DiskLruCacheWrapper cache =
+        (DiskLruCacheWrapper) DiskLruCacheWrapper.create(directory, 1024 * 1024);
+    Key removed = new TestKey("a");
+    cache.put(removed, writerOf(bytes(10, 1)));
+    cache.delete(removed);
+
+    // The filter still holds the removed key, so only the lookup of the absent key gets through.
+    assertNull(cache.get(removed));
+    assertNull(cache.get(new TestKey("b")));
+
+    assertEquals(0.5, cache.getBloomFilterFalsePositiveRate(), 0);
+  }
+
+  // Mirrors DiskLruCacheWrapper's shard selection, which hashes the safe key.
+  private int shardOf(Key key) {
+    return (safeKeyGenerator.getSafeKey(key).hashCode() & Integer.MAX_VALUE) % SHARD_COUNT;
+  }
+
+  private Key keyInShard(int shard, int skip) {
+    int found = 0;
+    for (int i = 0; ; i++) {
+      Key key = new TestKey("key" + i);
+      if (shardOf(key) == shard && found++ == skip) {
+        return key;
+      }
+    }
+  }
+
+  private File shardDirectory(int shard) {
+    return new File(directory, "shard_" + shard);
+  }
+
+  // Trimming happens on the cache's cleanup thread after the commit that overflowed it. Polls the
+  // entry's file rather than the cache, since reading the entry would make it the most recent.
+  private void awaitEvicted(Key key, int shard) throws InterruptedException {
+    File file = new File(shardDirectory(shard), safeKeyGenerator.getSafeKey(key) + ".0");
+    long deadline = System.currentTimeMillis() + EVICTION_TIMEOUT_MILLIS;
+    while (file.exists()) {
+      assertTrue("Not evicted: " + key, System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  private static int entryFileCount(File shardDirectory) {
+    int result = 0;
+    File[] files = shardDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (!file.getName().startsWith("journal")) {
+          result++;
+        }
+      }
+    }
+    return result;
+  }
+
+  private static DiskCache.Writer writerOf(final byte[] data) {
+    return new DiskCache.Writer() {
+      @Override
+      public boolean write(@NonNull File file) {
+        try {
+          DiskLruCacheWrapperTest.write(file, data);
+          return true;
+        } catch (IOException e) {
+          return false;
+        }
+      }
+    };
+  }
+
+  private static void write(File file, byte[] data) throws IOException {
+    FileOutputStream os = new FileOutputStream(file);
+    try {
+      os.write(data);
+    } finally {
+      os.close();
+    }
+  }
+
+  private static byte[] readFile(File file) throws IOException {
+    assertNotNull(file);
+    byte[] result = Files.readAllBytes(file.toPath());
+    assertEquals(file.length(), result.length);
+    return result;
+  }
+
+  private static byte[] bytes(int length, int seed) {
+    byte[] result = new byte[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = (byte) (seed * 31 + i);
+    }
+    return result;
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+}
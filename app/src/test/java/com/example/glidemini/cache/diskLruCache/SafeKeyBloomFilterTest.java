@@ -0,0 +1,124 @@
+package com.example.glidemini.cache.diskLruCache;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+public class SafeKeyBloomFilterTest {
+
+  @Test
+  public void mightContain_withoutPut_returnsFalse() {
+    SafeKeyBloomFilter filter = new SafeKeyBloomFilter(/*expectedEntries=*/ 0);
+
+    assertFalse(filter.mightContain(key(1)));
+  }
+
+  @Test
+  public void mightContain_afterPut_returnsTrue() {
+    SafeKeyBloomFilter filter = new SafeKeyBloomFilter(/*expectedEntries=*/ 10_000);
+
+    for (int i = 0; i < 10_000; i++) {
+      filter.put(key(i));
+    }
+
+    for (int i = 0; i < 10_000; i++) {
+      assertTrue(key(i), filter.mightContain(key(i)));
+    }
+  }
+
+  @Test
+  public void mightContain_withExpectedEntries_hasLowFalsePositiveRate() {
+    SafeKeyBloomFilter filter = new SafeKeyBloomFilter(/*expectedEntries=*/ 10_000);
+    for (int i = 0; i < 10_000; i++) {
+      filter.put(key(i));
+    }
+
+    int falsePositives = 0;
+    for (int i = 10_000; i < 110_000; i++) {
+      if (filter.mightContain(key(i))) {
+        falsePositives++;
+      }
+    }
+
+    // About 1% at the filter's designed load, which is twice the expected entries.
+    assertTrue("false positives: " + falsePositives, falsePositives < 1_000);
+  }
+
+  @Test
+  public void isOverCapacity_withinCapacity_returnsFalse() {
+    // The smallest filter has 2^14 bits, room for 1638 keys at 10 bits each.
+    SafeKeyBloomFilter filter = new SafeKeyBloomFilter(/*expectedEntries=*/ 0);
+
+    for (int i = 0; i < 1_500; i++) {
+      filter.put(key(i));
+    }
+
+    assertFalse(filter.isOverCapacity());
+  }
+
+  @Test
+  public void isOverCapacity_pastCapacity_returnsTrue() {
+    SafeKeyBloomFilter filter = new SafeKeyBloomFilter(/*expectedEntries=*/ 0);
+
+    for (int i = 0; i < 2_000; i++) {
+      filter.put(key(i));
+    }
+
+    assertTrue(filter.isOverCapacity());
+  }
+
+  @Test
+  public void isOverCapacity_withSameKeyPutRepeatedly_returnsFalse() {
+    SafeKeyBloomFilter filter = new SafeKeyBloomFilter(/*expectedEntries=*/ 0);
+
+    for (int i = 0; i < 2_000; i++) {
+      filter.put(key(1));
+    }
+
+    assertFalse(filter.isOverCapacity());
+  }
+
+  @Test
+  public void put_fromManyThreads_keepsEveryKey() throws InterruptedException {
+    final SafeKeyBloomFilter filter = new SafeKeyBloomFilter(/*expectedEntries=*/ 8_000);
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      final int thread = t;
+      Thread worker =
+          new Thread() {
+            @Override
+            public void run() {
+              try {
+                start.await();
+              } catch (InterruptedException e) {
+                return;
+              }
+              for (int i = thread; i < 8_000; i += 8) {
+                filter.put(key(i));
+              }
+            }
+          };
+      worker.start();
+      threads.add(worker);
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    for (int i = 0; i < 8_000; i++) {
+      assertTrue(key(i), filter.mightContain(key(i)));
+    }
+  }
+
+  // Safe keys are 64 character hex strings.
+  private static String key(int i) {
+    return String.format(Locale.US, "%064x", i * 0x9e3779b97f4a7c15L);
+  }
+}
@@ -0,0 +1,54 @@
+package com.example.glidemini.cache.memoryCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FrequencySketchTest {
+
+  @Test
+  public void frequency_ofUnseenKey_isZero() {
+    FrequencySketch sketch = new FrequencySketch(/*expectedEntries=*/ 16);
+
+    assertEquals(0, sketch.frequency("a"));
+  }
+
+  @Test
+  public void increment_raisesFrequency() {
+    FrequencySketch sketch = new FrequencySketch(/*expectedEntries=*/ 16);
+
+    for (int i = 0; i < 5; i++) {
+      sketch.increment("a");
+    }
+
+    assertEquals(5, sketch.frequency("a"));
+  }
+
+  @Test
+  public void increment_saturatesAtFifteen() {
+    FrequencySketch sketch = new FrequencySketch(/*expectedEntries=*/ 16);
+
+    for (int i = 0; i < 20; i++) {
+      sketch.increment("a");
+    }
+
+    assertEquals(15, sketch.frequency("a"));
+  }
+
+  @Test
+  public void increment_afterSampleSize_halvesFrequencies() {
+    // 16 entries use a 16 counter table and halve all counters every 160 increments.
+    FrequencySketch sketch = new FrequencySketch(/*expectedEntries=*/ 16);
+    for (int i = 0; i < 10; i++) {
+      sketch.increment("a");
+    }
+
+    for (int i = 0; i < 150; i++) {
+      sketch.increment(i);
+    }
+
+    int frequency = sketch.frequency("a");
+    assertTrue("frequency: " + frequency, frequency >= 5 && frequency < 10);
+  }
+}
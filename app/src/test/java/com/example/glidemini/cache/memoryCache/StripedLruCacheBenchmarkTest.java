@@ -0,0 +1,66 @@
+package com.example.glidemini.cache.memoryCache;
+
+import com.example.glidemini.benchmark.Benchmark;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the throughput of {@link StripedLruCache} and {@link LruCache} under a read heavy mix
+ * from several threads, run with {@code -Pbenchmark}.
+ */
+public class StripedLruCacheBenchmarkTest {
+  private static final int CAPACITY = 1_000;
+  // Twice the capacity, so some reads miss and cause a put and an eviction.
+  private static final int KEY_SPACE = CAPACITY * 2;
+  private static final int OPS_PER_THREAD = 1_000_000;
+  private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+
+  private Integer[] keys;
+
+  @Before
+  public void setUp() {
+    Benchmark.assumeEnabled();
+    // Skewed towards the first keys, like a list scrolling back and forth.
+    Random random = new Random(0);
+    keys = new Integer[OPS_PER_THREAD];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = (int) (KEY_SPACE * Math.pow(random.nextDouble(), 2));
+    }
+  }
+
+  @Test
+  public void getOrPut() throws Exception {
+    for (int threads : THREAD_COUNTS) {
+      final LruCache<Integer, Integer> lruCache = new LruCache<>(CAPACITY);
+      Benchmark.measureThroughput(
+          "LruCache get or put",
+          threads,
+          OPS_PER_THREAD,
+          new Benchmark.ThreadOp() {
+            @Override
+            public void run(int thread, int i) {
+              Integer key = keys[(i + thread * 7919) % keys.length];
+              if (lruCache.get(key) == null) {
+                lruCache.put(key, key);
+              }
+            }
+          });
+
+      final StripedLruCache<Integer, Integer> stripedCache = new StripedLruCache<>(CAPACITY);
+      Benchmark.measureThroughput(
+          "StripedLruCache get or put",
+          threads,
+          OPS_PER_THREAD,
+          new Benchmark.ThreadOp() {
+            @Override
+            public void run(int thread, int i) {
+              Integer key = keys[(i + thread * 7919) % keys.length];
+              if (stripedCache.get(key) == null) {
+                stripedCache.put(key, key);
+              }
+            }
+          });
+    }
+  }
+}
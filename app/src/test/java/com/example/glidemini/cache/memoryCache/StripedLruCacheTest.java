@@ -0,0 +1,179 @@
+package com.example.glidemini.cache.memoryCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class StripedLruCacheTest {
+
+  @Test
+  public void put_thenGet_returnsItem() {
+    TestCache cache = new TestCache(10, /*concurrencyLevel=*/ 4);
+
+    assertNull(cache.put("a", 1));
+
+    assertEquals(Integer.valueOf(1), cache.get("a"));
+    assertTrue(cache.contains("a"));
+    assertEquals(1, cache.getCurrentSize());
+  }
+
+  @Test
+  public void put_overMaxSize_evictsOldestUnreferencedItem() {
+    TestCache cache = new TestCache(2, /*concurrencyLevel=*/ 1);
+    cache.put("a", 1);
+    cache.put("b", 1);
+    cache.get("a");
+
+    cache.put("c", 1);
+
+    assertEquals(Collections.singletonList("b"), cache.evicted);
+    assertTrue(cache.contains("a"));
+    assertTrue(cache.contains("c"));
+    assertEquals(2, cache.getCurrentSize());
+  }
+
+  @Test
+  public void put_withWeightedItems_evictsUntilUnderMaxSize() {
+    TestCache cache = new TestCache(10, /*concurrencyLevel=*/ 1);
+    cache.put("a", 4);
+    cache.put("b", 4);
+
+    cache.put("c", 8);
+
+    assertFalse(cache.contains("a"));
+    assertFalse(cache.contains("b"));
+    assertEquals(8, cache.getCurrentSize());
+  }
+
+  @Test
+  public void put_withItemAsLargeAsMaxSize_evictsItImmediately() {
+    TestCache cache = new TestCache(10, /*concurrencyLevel=*/ 4);
+
+    assertNull(cache.put("a", 10));
+
+    assertFalse(cache.contains("a"));
+    assertEquals(Collections.singletonList("a"), cache.evicted);
+    assertEquals(0, cache.getCurrentSize());
+  }
+
+  @Test
+  public void put_replacingItem_evictsOldItemAndKeepsSize() {
+    TestCache cache = new TestCache(10, /*concurrencyLevel=*/ 4);
+    cache.put("a", 2);
+
+    assertEquals(Integer.valueOf(2), cache.put("a", 3));
+
+    assertEquals(Collections.singletonList("a"), cache.evicted);
+    assertEquals(3, cache.getCurrentSize());
+  }
+
+  @Test
+  public void put_withNullItem_removesKey() {
+    TestCache cache = new TestCache(10, /*concurrencyLevel=*/ 4);
+    cache.put("a", 2);
+
+    assertEquals(Integer.valueOf(2), cache.put("a", null));
+
+    assertFalse(cache.contains("a"));
+    assertTrue(cache.evicted.isEmpty());
+    assertEquals(0, cache.getCurrentSize());
+  }
+
+  @Test
+  public void setSizeMultiplier_trimsToNewMaxSize() {
+    TestCache cache = new TestCache(10, /*concurrencyLevel=*/ 4);
+    for (int i = 0; i < 10; i++) {
+      cache.put("key" + i, 1);
+    }
+
+    cache.setSizeMultiplier(0.5f);
+
+    assertEquals(5, cache.getMaxSize());
+    assertEquals(5, cache.getCurrentSize());
+    assertEquals(5, cache.getCount());
+  }
+
+  @Test
+  public void clearMemory_evictsAllItems() {
+    TestCache cache = new TestCache(10, /*concurrencyLevel=*/ 4);
+    for (int i = 0; i < 5; i++) {
+      cache.put("key" + i, 1);
+    }
+
+    cache.clearMemory();
+
+    assertEquals(0, cache.getCurrentSize());
+    assertEquals(0, cache.getCount());
+    assertEquals(5, cache.evicted.size());
+  }
+
+  @Test
+  public void put_fromManyThreads_keepsSizeConsistentWithContents() throws InterruptedException {
+    final TestCache cache = new TestCache(100, /*concurrencyLevel=*/ 4);
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      final int thread = t;
+      Thread worker =
+          new Thread() {
+            @Override
+            public void run() {
+              try {
+                start.await();
+                for (int i = 0; i < 10_000; i++) {
+                  String key = "key" + ((i * 31 + thread) % 500);
+                  if (i % 4 == 0) {
+                    cache.remove(key);
+                  } else if (cache.get(key) == null) {
+                    cache.put(key, 1 + i % 3);
+                  }
+                }
+              } catch (Throwable e) {
+                failure.set(e);
+              }
+            }
+          };
+      worker.start();
+      threads.add(worker);
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertNull(failure.get());
+    assertTrue(cache.getCurrentSize() <= cache.getMaxSize());
+    cache.clearMemory();
+    assertEquals(0, cache.getCurrentSize());
+    assertEquals(0, cache.getCount());
+  }
+
+  private static final class TestCache extends StripedLruCache<String, Integer> {
+    final List<String> evicted = Collections.synchronizedList(new ArrayList<String>());
+
+    TestCache(long size, int concurrencyLevel) {
+      super(size, concurrencyLevel);
+    }
+
+    @Override
+    protected int getSize(@Nullable Integer item) {
+      return item == null ? 1 : item;
+    }
+
+    @Override
+    protected void onItemEvicted(@NonNull String key, @NonNull Integer item) {
+      evicted.add(key);
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package com.example.glidemini.cache.memoryCache;
+
+import com.example.glidemini.benchmark.Benchmark;
+import com.example.glidemini.cache.key.Key;
+import com.example.glidemini.load.engine.Resource;
+import com.example.glidemini.testutil.TestKey;
+import com.example.glidemini.testutil.TestResource;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the hit rates of {@link TinyLfuResourceCache} and {@link LruResourceCache}, run with
+ * {@code -Pbenchmark}.
+ *
+ * <p>The trace mixes a Zipf distributed working set, like images shown on most screens, with scans
+ * of images that are only shown once, like a long list flung to the end.
+ */
+public class TinyLfuResourceCacheBenchmarkTest {
+  private static final int WORKING_SET = 10_000;
+  private static final double ZIPF_EXPONENT = 0.9;
+  private static final int REQUESTS = 500_000;
+  private static final int SCAN_INTERVAL = 1_000;
+  private static final int SCAN_LENGTH = 500;
+  private static final int[] CACHE_SIZES = {100, 500, 2_000};
+
+  private Key[] trace;
+
+  @Before
+  public void setUp() {
+    Benchmark.assumeEnabled();
+    trace = newTrace();
+  }
+
+  @Test
+  public void hitRate() {
+    for (int size : CACHE_SIZES) {
+      double lru = hitRate(new LruResourceCache(size));
+      double tinyLfu = hitRate(new TinyLfuResourceCache(size, /*expectedEntries=*/ size));
+      Benchmark.report(
+          String.format(
+              Locale.US,
+              "hit rate, %d entries: LruResourceCache %.1f%%, TinyLfuResourceCache %.1f%%",
+              size,
+              lru * 100,
+              tinyLfu * 100));
+    }
+  }
+
+  // Looks resources up like the Engine: removed on hits and put back when released.
+  private double hitRate(MemoryCache cache) {
+    int hits = 0;
+    for (Key key : trace) {
+      Resource<?> resource = cache.remove(key);
+      if (resource != null) {
+        hits++;
+      } else {
+        resource = new TestResource();
+      }
+      cache.put(key, resource);
+    }
+    return (double) hits / trace.length;
+  }
+
+  private static Key[] newTrace() {
+    double[] cumulative = new double[WORKING_SET];
+    double sum = 0;
+    for (int i = 0; i < WORKING_SET; i++) {
+      sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+      cumulative[i] = sum;
+    }
+    Random random = new Random(0);
+    Key[] trace = new Key[REQUESTS];
+    int scanned = 0;
+    int i = 0;
+    while (i < REQUESTS) {
+      if (i % SCAN_INTERVAL == 0) {
+        for (int j = 0; j < SCAN_LENGTH && i < REQUESTS; j++) {
+          trace[i++] = new TestKey("scan" + scanned++);
+        }
+      } else {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+        trace[i++] = new TestKey("image" + (index < 0 ? -index - 1 : index));
+      }
+    }
+    return trace;
+  }
+}
@@ -0,0 +1,119 @@
+package com.example.glidemini.cache.memoryCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import androidx.annotation.NonNull;
+import com.example.glidemini.cache.key.Key;
+import com.example.glidemini.load.engine.Resource;
+import com.example.glidemini.testutil.TestKey;
+import com.example.glidemini.testutil.TestResource;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class TinyLfuResourceCacheTest {
+  private final List<Resource<?>> removed = new ArrayList<>();
+
+  @Test
+  public void remove_countsHitsAndMisses() {
+    TinyLfuResourceCache cache = newCache(/*size=*/ 100);
+    TestResource resource = new TestResource(1);
+    cache.put(new TestKey("a"), resource);
+
+    assertSame(resource, cache.remove(new TestKey("a")));
+    assertNull(cache.remove(new TestKey("a")));
+
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(0, cache.getCurrentSize());
+  }
+
+  @Test
+  public void put_withResourceAsLargeAsMaxSize_removesItImmediately() {
+    TinyLfuResourceCache cache = newCache(/*size=*/ 100);
+    TestResource resource = new TestResource(100);
+
+    assertNull(cache.put(new TestKey("a"), resource));
+
+    assertEquals(0, cache.getCurrentSize());
+    assertEquals(1, removed.size());
+    assertSame(resource, removed.get(0));
+  }
+
+  @Test
+  public void put_overMaxSize_keepsSizeWithinMaxSize() {
+    TinyLfuResourceCache cache = newCache(/*size=*/ 100);
+
+    for (int i = 0; i < 200; i++) {
+      cache.put(new TestKey("key" + i), new TestResource(1));
+    }
+
+    assertEquals(100, cache.getCurrentSize());
+    assertEquals(100, removed.size());
+  }
+
+  @Test
+  public void put_withReusedResources_keepsThemThroughScanOfOneTimeResources() {
+    TinyLfuResourceCache cache = newCache(/*size=*/ 100);
+    // The Engine removes resources on every memory cache hit and puts them back when released.
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < 10; i++) {
+        load(cache, new TestKey("hot" + i));
+      }
+    }
+
+    for (int i = 0; i < 1000; i++) {
+      load(cache, new TestKey("scan" + i));
+    }
+
+    for (int i = 0; i < 10; i++) {
+      assertNotNull("hot" + i, cache.remove(new TestKey("hot" + i)));
+    }
+  }
+
+  @Test
+  public void setSizeMultiplier_trimsToNewMaxSize() {
+    TinyLfuResourceCache cache = newCache(/*size=*/ 100);
+    for (int i = 0; i < 100; i++) {
+      cache.put(new TestKey("key" + i), new TestResource(1));
+    }
+
+    cache.setSizeMultiplier(0.5f);
+
+    assertEquals(50, cache.getMaxSize());
+    assertEquals(50, cache.getCurrentSize());
+  }
+
+  @Test
+  public void clearMemory_removesAllResources() {
+    TinyLfuResourceCache cache = newCache(/*size=*/ 100);
+    for (int i = 0; i < 10; i++) {
+      cache.put(new TestKey("key" + i), new TestResource(1));
+    }
+
+    cache.clearMemory();
+
+    assertEquals(0, cache.getCurrentSize());
+    assertEquals(10, removed.size());
+  }
+
+  private TinyLfuResourceCache newCache(long size) {
+    TinyLfuResourceCache cache = new TinyLfuResourceCache(size, /*expectedEntries=*/ 128);
+    cache.setResourceRemovedListener(
+        new MemoryCache.ResourceRemovedListener() {
+          @Override
+          public void onResourceRemoved(@NonNull Resource<?> resource) {
+            removed.add(resource);
+          }
+        });
+    return cache;
+  }
+
+  private static void load(TinyLfuResourceCache cache, Key key) {
+    Resource<?> resource = cache.remove(key);
+    cache.put(key, resource != null ? resource : new TestResource(1));
+  }
+}
@@ -0,0 +1,118 @@
+package com.example.glidemini.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class CacheValidatorsTest {
+
+  @Test
+  public void fromHeaders_parsesMaxAge() {
+    CacheValidators validators =
+        CacheValidators.fromHeaders("\"a\"", null, "public, max-age=60", /*fetchedAtMillis=*/ 0);
+
+    assertEquals("\"a\"", validators.getETag());
+    assertNull(validators.getLastModified());
+    assertEquals(60_000, validators.getMaxAgeMillis());
+  }
+
+  @Test
+  public void fromHeaders_withNoCache_expiresImmediately() {
+    CacheValidators validators = CacheValidators.fromHeaders("\"a\"", null, "no-cache", 1000);
+
+    assertTrue(validators.isExpired(/*nowMillis=*/ 1000, /*defaultMaxAgeMillis=*/ 60_000));
+  }
+
+  @Test
+  public void fromHeaders_withoutValidators_onlyRecordsAge() {
+    CacheValidators validators = CacheValidators.fromHeaders(null, "", null, 1000);
+
+    assertFalse(validators.hasValidators());
+    assertFalse(validators.isExpired(/*nowMillis=*/ 1500, /*defaultMaxAgeMillis=*/ 1000));
+    assertTrue(validators.isExpired(/*nowMillis=*/ 2000, /*defaultMaxAgeMillis=*/ 1000));
+  }
+
+  @Test
+  public void isExpired_withoutMaxAge_usesDefault() {
+    CacheValidators validators = CacheValidators.fromHeaders("\"a\"", null, null, 1000);
+
+    assertFalse(validators.isExpired(1999, 1000));
+    assertTrue(validators.isExpired(2000, 1000));
+  }
+
+  @Test
+  public void isExpired_withClockMovedBackwards_isExpired() {
+    CacheValidators validators = CacheValidators.fromHeaders("\"a\"", null, "max-age=60", 1000);
+
+    assertTrue(validators.isExpired(999, 60_000));
+  }
+
+  @Test
+  public void refresh_keepsVersionAndRestartsAge() {
+    CacheValidators validators = CacheValidators.fromHeaders("\"a\"", null, "max-age=1", 0);
+
+    CacheValidators refreshed = validators.refresh(/*response=*/ null, /*nowMillis=*/ 5000);
+
+    assertEquals(validators.getVersion(), refreshed.getVersion());
+    assertEquals(5000, refreshed.getFetchedAtMillis());
+    assertFalse(refreshed.isExpired(5500, 0));
+  }
+
+  @Test
+  public void refresh_withResponseHeaders_overridesCachedOnes() {
+    CacheValidators validators =
+        CacheValidators.fromHeaders("\"a\"", "Mon, 01 Jan 2024 00:00:00 GMT", "max-age=1", 0);
+    CacheValidators response = CacheValidators.fromHeaders(null, null, "max-age=120", 5000);
+
+    CacheValidators refreshed = validators.refresh(response, 5000);
+
+    assertEquals("\"a\"", refreshed.getETag());
+    assertEquals("Mon, 01 Jan 2024 00:00:00 GMT", refreshed.getLastModified());
+    assertEquals(120_000, refreshed.getMaxAgeMillis());
+  }
+
+  @Test
+  public void getVersion_differsForReplacedData() {
+    assertNotEquals(
+        CacheValidators.fromHeaders("\"a\"", null, null, 0).getVersion(),
+        CacheValidators.fromHeaders("\"b\"", null, null, 0).getVersion());
+    assertNotEquals(
+        CacheValidators.withoutValidators(1000).getVersion(),
+        CacheValidators.withoutValidators(2000).getVersion());
+  }
+
+  @Test
+  public void toBytes_roundTrips() {
+    CacheValidators validators =
+        CacheValidators.fromHeaders("\"a\"", "Mon, 01 Jan 2024 00:00:00 GMT", "max-age=60", 1234);
+
+    CacheValidators read = CacheValidators.fromBytes(ByteBuffer.wrap(validators.toBytes()));
+
+    assertEquals(validators.getETag(), read.getETag());
+    assertEquals(validators.getLastModified(), read.getLastModified());
+    assertEquals(validators.getFetchedAtMillis(), read.getFetchedAtMillis());
+    assertEquals(validators.getMaxAgeMillis(), read.getMaxAgeMillis());
+  }
+
+  @Test
+  public void toBytes_withoutValidators_roundTrips() {
+    CacheValidators validators = CacheValidators.withoutValidators(1234);
+
+    CacheValidators read = CacheValidators.fromBytes(ByteBuffer.wrap(validators.toBytes()));
+
+    assertFalse(read.hasValidators());
+    assertEquals(validators.getVersion(), read.getVersion());
+  }
+
+  @Test
+  public void fromBytes_withInvalidData_returnsNull() {
+    assertNull(CacheValidators.fromBytes(ByteBuffer.wrap(new byte[] {1, 2, 3})));
+    byte[] truncated = CacheValidators.withoutValidators(0).toBytes();
+    assertNull(CacheValidators.fromBytes(ByteBuffer.wrap(truncated, 0, truncated.length - 2)));
+  }
+}
@@ -0,0 +1,255 @@
+package com.example.glidemini.load.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import androidx.annotation.NonNull;
+import com.example.glidemini.cache.key.Key;
+import com.example.glidemini.load.engine.ActiveResources.ResourceWeakReference;
+import com.example.glidemini.testutil.TestKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ActiveResourcesTest {
+  private static final int RACES = 5_000;
+  private static final int THREADS = 4;
+
+  private final Key key = new TestKey("key");
+  private final RecordingListener listener = new RecordingListener();
+  private ActiveResources activeResources;
+
+  @Before
+  public void setUp() {
+    activeResources = newActiveResources();
+  }
+
+  @Test
+  public void get_afterActivate_returnsResource() {
+    EngineResource<?> resource = newResource(key);
+    activeResources.activate(key, resource);
+
+    assertSame(resource, activeResources.get(key));
+  }
+
+  @Test
+  public void get_afterDeactivate_returnsNull() {
+    activeResources.activate(key, newResource(key));
+
+    activeResources.deactivate(key);
+
+    assertNull(activeResources.get(key));
+  }
+
+  @Test
+  public void activate_withActiveKey_replacesAndResetsOldReference() {
+    activeResources.activate(key, newResource(key));
+    ResourceWeakReference old = activeResources.activeEngineResources.get(key);
+    EngineResource<?> replacement = newResource(key);
+
+    activeResources.activate(key, replacement);
+
+    assertSame(replacement, activeResources.get(key));
+    assertNull(old.get());
+    assertNull(old.resource);
+  }
+
+  @Test
+  public void get_withClearedReference_releasesRetainedResourceOnce() {
+    EngineResource<?> resource = newResource(key);
+    activeResources.activate(key, resource);
+    ResourceWeakReference ref = activeResources.activeEngineResources.get(key);
+    ref.clear();
+
+    assertNull(activeResources.get(key));
+    assertNull(activeResources.get(key));
+
+    assertEquals(1, listener.released.size());
+    assertSame(resource.getResource(), listener.released.get(0).getResource());
+    assertNull(activeResources.activeEngineResources.get(key));
+  }
+
+  @Test
+  public void drainReferenceQueue_withEnqueuedReference_releasesRetainedResource() {
+    activeResources.activate(key, newResource(key));
+    clearAndEnqueue(activeResources.activeEngineResources.get(key));
+
+    activeResources.drainReferenceQueue();
+
+    assertEquals(1, listener.released.size());
+    assertNull(activeResources.activeEngineResources.get(key));
+  }
+
+  @Test
+  public void drainReferenceQueue_withReplacedReference_doesNotRemoveReplacement() {
+    activeResources.activate(key, newResource(key));
+    ResourceWeakReference old = activeResources.activeEngineResources.get(key);
+    EngineResource<?> replacement = newResource(key);
+    activeResources.activate(key, replacement);
+    clearAndEnqueue(old);
+
+    activeResources.drainReferenceQueue();
+
+    assertEquals(0, listener.released.size());
+    assertSame(replacement, activeResources.get(key));
+  }
+
+  @Test
+  public void getAndDrain_racingOnClearedReference_releaseOnce() throws Exception {
+    final CyclicBarrier barrier = new CyclicBarrier(2);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread drainer =
+        new Thread() {
+          @Override
+          public void run() {
+            try {
+              for (int i = 0; i < RACES; i++) {
+                barrier.await();
+                activeResources.drainReferenceQueue();
+                barrier.await();
+              }
+            } catch (Throwable e) {
+              failure.set(e);
+            }
+          }
+        };
+    drainer.start();
+
+    for (int i = 0; i < RACES; i++) {
+      activeResources = newActiveResources();
+      listener.released.clear();
+      activeResources.activate(key, newResource(key));
+      clearAndEnqueue(activeResources.activeEngineResources.get(key));
+      barrier.await();
+      activeResources.get(key);
+      barrier.await();
+
+      assertEquals("Releases in race " + i, 1, listener.released.size());
+    }
+    drainer.join();
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+  }
+
+  @Test
+  public void activateAndDeactivate_fromManyThreads_keepsOneReferencePerKey() throws Exception {
+    final int opsPerThread = 50_000;
+    final Key[] keys = new Key[16];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = new TestKey("key" + i);
+    }
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread[] threads = new Thread[THREADS];
+    for (int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      threads[t] =
+          new Thread() {
+            @Override
+            public void run() {
+              try {
+                start.await();
+                for (int i = 0; i < opsPerThread; i++) {
+                  Key current = keys[(i + thread) % keys.length];
+                  EngineResource<?> resource = newResource(current);
+                  activeResources.activate(current, resource);
+                  EngineResource<?> active = activeResources.get(current);
+                  if (active != null && !current.equals(key(active))) {
+                    throw new AssertionError("Found " + active + " for " + current);
+                  }
+                  if (i % 2 == 0) {
+                    activeResources.deactivate(current);
+                  }
+                  activeResources.drainReferenceQueue();
+                }
+              } catch (Throwable e) {
+                failure.set(e);
+              }
+            }
+          };
+      threads[t].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+
+    for (Key current : keys) {
+      activeResources.deactivate(current);
+    }
+    assertEquals(0, activeResources.activeEngineResources.size());
+  }
+
+  private ActiveResources newActiveResources() {
+    ActiveResources result = new ActiveResources(/*isActiveResourceRetentionAllowed=*/ true);
+    result.setListener(listener);
+    return result;
+  }
+
+  private EngineResource<?> newResource(Key key) {
+    return new EngineResource<>(
+        new KeyedResource(key),
+        /*isMemoryCacheable=*/ true,
+        /*isRecyclable=*/ true,
+        key,
+        listener);
+  }
+
+  private static Key key(EngineResource<?> resource) {
+    return (Key) resource.get();
+  }
+
+  // Stands in for the garbage collector clearing a resource its request never released.
+  private static void clearAndEnqueue(ResourceWeakReference ref) {
+    ref.clear();
+    ref.enqueue();
+  }
+
+  private static final class KeyedResource implements Resource<Key> {
+    private final Key key;
+
+    KeyedResource(Key key) {
+      this.key = key;
+    }
+
+    @NonNull
+    @Override
+    public Class<Key> getResourceClass() {
+      return Key.class;
+    }
+
+    @NonNull
+    @Override
+    public Key get() {
+      return key;
+    }
+
+    @Override
+    public int getSize() {
+      return 1;
+    }
+
+    @Override
+    public void recycle() {}
+  }
+
+  private static final class RecordingListener implements EngineResource.ResourceListener {
+    private final List<EngineResource<?>> released =
+        Collections.synchronizedList(new ArrayList<EngineResource<?>>());
+
+    @Override
+    public void onResourceReleased(Key key, EngineResource<?> resource) {
+      released.add(resource);
+    }
+  }
+}
@@ -0,0 +1,172 @@
+package com.example.glidemini.load.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.Nullable;
+import com.example.glidemini.cache.DiskCache;
+import com.example.glidemini.cache.key.Key;
+import com.example.glidemini.testutil.TestKey;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DataCacheGeneratorTest {
+  private static final byte[] DATA = new byte[] {1, 2, 3, 4, 5, 6, 7, 8};
+
+  private final Key key = new TestKey("key");
+  private final FakeDiskCache diskCache = new FakeDiskCache();
+  private File directory;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("data_cache_generator").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void getCacheData_withBufferPreferred_mapsCacheFile() throws IOException {
+    diskCache.files.put(key, write("entry", DATA));
+
+    Object result = DataCacheGenerator.getCacheData(diskCache, key, /*isBufferPreferred=*/ true);
+
+    assertTrue(result instanceof MappedByteBuffer);
+    ByteBuffer buffer = (ByteBuffer) result;
+    assertTrue(buffer.isReadOnly());
+    assertArrayEquals(DATA, toBytes(buffer));
+  }
+
+  @Test
+  public void getCacheData_withBufferPreferred_looksUpKeyOnce() throws IOException {
+    diskCache.files.put(key, write("entry", DATA));
+
+    DataCacheGenerator.getCacheData(diskCache, key, /*isBufferPreferred=*/ true);
+
+    assertEquals(1, diskCache.getCount);
+    assertEquals(0, diskCache.getBufferCount);
+  }
+
+  @Test
+  public void getCacheData_withoutBufferPreferred_returnsCacheFile() throws IOException {
+    File file = write("entry", DATA);
+    diskCache.files.put(key, file);
+
+    assertSame(file, DataCacheGenerator.getCacheData(diskCache, key, /*isBufferPreferred=*/ false));
+  }
+
+  @Test
+  public void getCacheData_withEmptyCacheFile_returnsFile() throws IOException {
+    // Empty files can't be mapped.
+    File file = write("empty", new byte[0]);
+    diskCache.files.put(key, file);
+
+    assertSame(file, DataCacheGenerator.getCacheData(diskCache, key, /*isBufferPreferred=*/ true));
+  }
+
+  @Test
+  public void getCacheData_withMissingCacheFile_returnsFile() {
+    File file = new File(directory, "missing");
+    diskCache.files.put(key, file);
+
+    assertSame(file, DataCacheGenerator.getCacheData(diskCache, key, /*isBufferPreferred=*/ true));
+  }
+
+  @Test
+  public void getCacheData_withBufferOnlyEntry_returnsBuffer() {
+    ByteBuffer buffer = ByteBuffer.wrap(DATA).asReadOnlyBuffer();
+    diskCache.buffers.put(key, buffer);
+
+    assertSame(
+        buffer, DataCacheGenerator.getCacheData(diskCache, key, /*isBufferPreferred=*/ true));
+  }
+
+  @Test
+  public void getCacheData_withBufferOnlyEntryAndNoBufferPreferred_returnsNull() {
+    diskCache.buffers.put(key, ByteBuffer.wrap(DATA));
+
+    assertNull(DataCacheGenerator.getCacheData(diskCache, key, /*isBufferPreferred=*/ false));
+    assertEquals(0, diskCache.getBufferCount);
+  }
+
+  @Test
+  public void getCacheData_withMissingEntry_returnsNull() {
+    assertNull(DataCacheGenerator.getCacheData(diskCache, key, /*isBufferPreferred=*/ true));
+    assertNull(DataCacheGenerator.getCacheData(diskCache, key, /*isBufferPreferred=*/ false));
+  }
+
+  private File write(String name, byte[] data) throws IOException {
+    File file = new File(directory, name);
+    FileOutputStream os = new FileOutputStream(file);
+    try {
+      os.write(data);
+    } finally {
+      os.close();
+    }
+    return file;
+  }
+
+  private static byte[] toBytes(ByteBuffer buffer) {
+    byte[] result = new byte[buffer.remaining()];
+    buffer.duplicate().get(result);
+    return result;
+  }
+
+  private static final class FakeDiskCache implements DiskCache {
+    private final Map<Key, File> files = new HashMap<>();
+    private final Map<Key, ByteBuffer> buffers = new HashMap<>();
+    private int getCount;
+    private int getBufferCount;
+
+    @Nullable
+    @Override
+    public File get(Key key) {
+      getCount++;
+      return files.get(key);
+    }
+
+    @Nullable
+    @Override
+    public ByteBuffer getBuffer(Key key) {
+      getBufferCount++;
+      return buffers.get(key);
+    }
+
+    @Override
+    public void put(Key key, Writer writer) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void delete(Key key) {
+      files.remove(key);
+      buffers.remove(key);
+    }
+
+    @Override
+    public void clear() {
+      files.clear();
+      buffers.clear();
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package com.example.glidemini.load.engine;
+
+import androidx.annotation.Nullable;
+import com.example.glidemini.benchmark.Benchmark;
+import com.example.glidemini.cache.DiskCache;
+import com.example.glidemini.cache.key.Key;
+import com.example.glidemini.testutil.TestKey;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares reading cached source data through a stream from the cache File, copying the File into
+ * a heap buffer, and reading the File mapped by {@link DataCacheGenerator#getCacheData(DiskCache,
+ * Key, boolean)}, run with {@code -Pbenchmark}.
+ */
+public class DataCacheReadBenchmarkTest {
+  private static final int ENTRY_COUNT = 200;
+  // About the size of a full screen JPEG in the data cache.
+  private static final int ENTRY_SIZE = 256 * 1024;
+  // The buffer size stream decoders usually read with.
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  private final Key[] keys = new Key[ENTRY_COUNT];
+  private final FileDiskCache diskCache = new FileDiskCache();
+  private File directory;
+
+  @Before
+  public void setUp() throws IOException {
+    Benchmark.assumeEnabled();
+    directory = Files.createTempDirectory("data_cache_read_benchmark").toFile();
+    byte[] data = new byte[ENTRY_SIZE];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    for (int i = 0; i < ENTRY_COUNT; i++) {
+      keys[i] = new TestKey("key" + i);
+      File file = new File(directory, "entry" + i);
+      FileOutputStream os = new FileOutputStream(file);
+      try {
+        os.write(data);
+      } finally {
+        os.close();
+      }
+      diskCache.files.put(keys[i], file);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    if (directory == null) {
+      return;
+    }
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void read() throws Exception {
+    final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+    Benchmark.Result stream =
+        Benchmark.measure(
+            "Data cache read, File stream",
+            ENTRY_COUNT,
+            new Benchmark.Op() {
+              @Override
+              public void run(int i) throws Exception {
+                File file = (File) DataCacheGenerator.getCacheData(diskCache, keys[i], false);
+                InputStream is = new FileInputStream(file);
+                try {
+                  while (is.read(readBuffer) != -1) {
+                    // Read the whole entry, as a decoder would.
+                  }
+                } finally {
+                  is.close();
+                }
+              }
+            });
+    Benchmark.Result heap =
+        Benchmark.measure(
+            "Data cache read, File copied to a heap buffer",
+            ENTRY_COUNT,
+            new Benchmark.Op() {
+              @Override
+              public void run(int i) throws Exception {
+                // What a ByteBuffer decoder needs if the File isn't mapped.
+                File file = (File) DataCacheGenerator.getCacheData(diskCache, keys[i], false);
+                byte[] bytes = new byte[(int) file.length()];
+                InputStream is = new FileInputStream(file);
+                try {
+                  int offset = 0;
+                  int read;
+                  while (offset < bytes.length
+                      && (read = is.read(bytes, offset, bytes.length - offset)) != -1) {
+                    offset += read;
+                  }
+                } finally {
+                  is.close();
+                }
+                ByteBuffer.wrap(bytes);
+              }
+            });
+    Benchmark.Result mapped =
+        Benchmark.measure(
+            "Data cache read, mapped buffer",
+            ENTRY_COUNT,
+            new Benchmark.Op() {
+              @Override
+              public void run(int i) {
+                ByteBuffer buffer =
+                    (ByteBuffer) DataCacheGenerator.getCacheData(diskCache, keys[i], true);
+                while (buffer.hasRemaining()) {
+                  buffer.get(readBuffer, 0, Math.min(readBuffer.length, buffer.remaining()));
+                }
+              }
+            });
+    Benchmark.report(
+        "Data cache read, mapped/stream time: "
+            + String.format("%.2f", mapped.getNanosPerOp() / stream.getNanosPerOp())
+            + ", mapped/heap time: "
+            + String.format("%.2f", mapped.getNanosPerOp() / heap.getNanosPerOp()));
+  }
+
+  private static final class FileDiskCache implements DiskCache {
+    private final Map<Key, File> files = new HashMap<>();
+
+    @Nullable
+    @Override
+    public File get(Key key) {
+      return files.get(key);
+    }
+
+    @Override
+    public void put(Key key, Writer writer) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void delete(Key key) {
+      files.remove(key);
+    }
+
+    @Override
+    public void clear() {
+      files.clear();
+    }
+  }
+}
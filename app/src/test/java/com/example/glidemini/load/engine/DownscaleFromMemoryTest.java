@@ -0,0 +1,178 @@
+package com.example.glidemini.load.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import com.example.glidemini.bitmapRecycle.BitmapPoolAdapter;
+import com.example.glidemini.load.Options;
+import com.example.glidemini.load.Transformation;
+import com.example.glidemini.load.resource.bitmap.BitmapResource;
+import com.example.glidemini.testutil.TestKey;
+import com.example.glidemini.testutil.TestResource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class DownscaleFromMemoryTest {
+  private final DownscaleFromMemory downscaleFromMemory = new DownscaleFromMemory();
+
+  @Test
+  public void isEnabled_requiresOptionAndSize() {
+    assertTrue(DownscaleFromMemory.isEnabled(key("model", 100, 100)));
+    assertFalse(DownscaleFromMemory.isEnabled(key("model", 0, 100)));
+    assertFalse(
+        DownscaleFromMemory.isEnabled(
+            new EngineKey(
+                "model",
+                new TestKey("signature"),
+                100,
+                100,
+                noTransformations(),
+                Bitmap.class,
+                Bitmap.class,
+                new Options())));
+  }
+
+  @Test
+  public void getLarger_returnsLargerSizesOfSameLoadLargestFirst() {
+    EngineKey small = key("model", 100, 100);
+    EngineKey medium = key("model", 200, 200);
+    EngineKey large = key("model", 400, 400);
+    downscaleFromMemory.put(medium);
+    downscaleFromMemory.put(large);
+    downscaleFromMemory.put(small);
+    downscaleFromMemory.put(key("other", 800, 800));
+
+    assertEquals(Arrays.asList(large, medium), downscaleFromMemory.getLarger(small));
+    assertEquals(Collections.singletonList(large), downscaleFromMemory.getLarger(medium));
+    assertTrue(downscaleFromMemory.getLarger(large).isEmpty());
+  }
+
+  @Test
+  public void getLarger_skipsSizesSmallerInEitherDimension() {
+    EngineKey wide = key("model", 400, 50);
+    downscaleFromMemory.put(wide);
+
+    assertTrue(downscaleFromMemory.getLarger(key("model", 100, 100)).isEmpty());
+  }
+
+  @Test
+  public void put_overMaxSizesPerLoad_dropsSmallest() {
+    for (int size = 200; size <= 600; size += 100) {
+      downscaleFromMemory.put(key("model", size, size));
+    }
+
+    // Four sizes are kept per load.
+    assertEquals(
+        Arrays.asList(
+            key("model", 600, 600),
+            key("model", 500, 500),
+            key("model", 400, 400),
+            key("model", 300, 300)),
+        downscaleFromMemory.getLarger(key("model", 100, 100)));
+  }
+
+  @Test
+  public void put_overMaxLoads_dropsLeastRecentlyUsedLoad() {
+    DownscaleFromMemory downscaleFromMemory = new DownscaleFromMemory(/*maxLoads=*/ 2);
+    downscaleFromMemory.put(key("first", 400, 400));
+    downscaleFromMemory.put(key("second", 400, 400));
+    downscaleFromMemory.getLarger(key("first", 100, 100));
+
+    downscaleFromMemory.put(key("third", 400, 400));
+
+    assertEquals(1, downscaleFromMemory.getLarger(key("first", 100, 100)).size());
+    assertTrue(downscaleFromMemory.getLarger(key("second", 100, 100)).isEmpty());
+    assertEquals(1, downscaleFromMemory.getLarger(key("third", 100, 100)).size());
+  }
+
+  @Test
+  public void remove_forgetsSize() {
+    EngineKey large = key("model", 400, 400);
+    downscaleFromMemory.put(large);
+
+    downscaleFromMemory.remove(large);
+
+    assertTrue(downscaleFromMemory.getLarger(key("model", 100, 100)).isEmpty());
+  }
+
+  @Test
+  public void canScale_withLargerBitmap_returnsTrue() {
+    assertTrue(DownscaleFromMemory.canScale(bitmapResource(400, 400), key("model", 100, 100)));
+  }
+
+  @Test
+  public void canScale_withBitmapOfTargetSize_returnsFalse() {
+    assertFalse(DownscaleFromMemory.canScale(bitmapResource(100, 100), key("model", 100, 100)));
+  }
+
+  @Test
+  public void canScale_withRecycledBitmap_returnsFalse() {
+    Resource<Bitmap> resource = bitmapResource(400, 400);
+    resource.get().recycle();
+
+    assertFalse(DownscaleFromMemory.canScale(resource, key("model", 100, 100)));
+  }
+
+  @Test
+  public void canScale_withoutBitmap_returnsFalse() {
+    assertFalse(DownscaleFromMemory.canScale(new TestResource(), key("model", 100, 100)));
+  }
+
+  @Test
+  public void scale_withLargerBitmap_returnsNewBitmapOfTargetSize() {
+    Resource<Bitmap> source = bitmapResource(400, 200);
+
+    Resource<?> scaled =
+        DownscaleFromMemory.scale(
+            /*resources=*/ null, new BitmapPoolAdapter(), source, key("model", 100, 100));
+
+    Bitmap bitmap = (Bitmap) scaled.get();
+    assertNotSame(source.get(), bitmap);
+    // The default CENTER_OUTSIDE strategy fills the target, as it would for a decode.
+    assertEquals(200, bitmap.getWidth());
+    assertEquals(100, bitmap.getHeight());
+    assertFalse(source.get().isRecycled());
+  }
+
+  @Test
+  public void scale_withRecycledBitmap_returnsNull() {
+    Resource<Bitmap> source = bitmapResource(400, 400);
+    source.get().recycle();
+
+    assertNull(
+        DownscaleFromMemory.scale(
+            /*resources=*/ null, new BitmapPoolAdapter(), source, key("model", 100, 100)));
+  }
+
+  static EngineKey key(Object model, int width, int height) {
+    return new EngineKey(
+        model,
+        new TestKey("signature"),
+        width,
+        height,
+        noTransformations(),
+        Bitmap.class,
+        Bitmap.class,
+        new Options().set(DownscaleFromMemory.ENABLED, true));
+  }
+
+  static Resource<Bitmap> bitmapResource(int width, int height) {
+    return BitmapResource.obtain(
+        Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888), new BitmapPoolAdapter());
+  }
+
+  private static Map<Class<?>, Transformation<?>> noTransformations() {
+    return Collections.emptyMap();
+  }
+}
@@ -0,0 +1,300 @@
+package com.example.glidemini.load.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import androidx.annotation.NonNull;
+import androidx.core.util.Pools;
+import com.example.glidemini.bitmapRecycle.BitmapPoolAdapter;
+import com.example.glidemini.cache.key.Key;
+import com.example.glidemini.load.DataSource;
+import com.example.glidemini.load.Options;
+import com.example.glidemini.load.Transformation;
+import com.example.glidemini.loader.model.Priority;
+import com.example.glidemini.testutil.TestKey;
+import com.example.glidemini.testutil.TestResource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Runs {@link DownscaleJob}s on queueing executors, so each test decides when the job runs. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class DownscaleJobTest {
+  private final EngineKey key = DownscaleFromMemoryTest.key("model", 100, 100);
+  private final RecordingPool pool = new RecordingPool();
+  private final RecordingCallback target = new RecordingCallback();
+  private final RecordingListener sourceListener = new RecordingListener();
+  private final QueueExecutor diskCacheExecutor = new QueueExecutor();
+  private final QueueExecutor sourceExecutor = new QueueExecutor();
+
+  @Test
+  public void run_withLargerBitmap_deliversScaledBitmapFromMemory() {
+    EngineResource<Bitmap> source =
+        acquiredSource(DownscaleFromMemoryTest.bitmapResource(400, 400));
+    DownscaleJob<Object> job = newJob(source);
+    job.start(diskCacheExecutor, sourceExecutor);
+
+    diskCacheExecutor.runAll();
+
+    assertEquals(1, target.ready.size());
+    Bitmap scaled = (Bitmap) target.ready.get(0).get();
+    assertEquals(100, scaled.getWidth());
+    assertEquals(100, scaled.getHeight());
+    assertFalse(source.get().isRecycled());
+    assertEquals(Collections.singletonList(DataSource.MEMORY_CACHE), target.dataSources);
+    assertReleasedOnce(source);
+    assertTrue(diskCacheExecutor.queued.isEmpty());
+    assertTrue(sourceExecutor.queued.isEmpty());
+  }
+
+  @Test
+  public void start_runsOnDiskCacheExecutor() {
+    DownscaleJob<Object> job =
+        newJob(acquiredSource(DownscaleFromMemoryTest.bitmapResource(400, 400)));
+
+    job.start(diskCacheExecutor, sourceExecutor);
+
+    assertEquals(Collections.<Runnable>singletonList(job), diskCacheExecutor.queued);
+    assertTrue(target.ready.isEmpty());
+  }
+
+  @Test
+  public void run_withSourceRecycledAfterStart_fallsBackToDecode() {
+    EngineResource<Bitmap> source =
+        acquiredSource(DownscaleFromMemoryTest.bitmapResource(400, 400));
+    DownscaleJob<Object> job = newJob(source);
+    job.start(diskCacheExecutor, sourceExecutor);
+
+    // Whoever else holds the bitmap recycled it before the job got to run.
+    source.get().recycle();
+    diskCacheExecutor.runOnce();
+
+    assertTrue(target.ready.isEmpty());
+    assertTrue(target.failures.isEmpty());
+    assertReleasedOnce(source);
+    assertFallbackQueued(job);
+  }
+
+  @Test
+  public void run_withResourceThatIsNotBitmap_fallsBackToDecode() {
+    EngineResource<Object> source = acquiredSource(new TestResource());
+    DownscaleJob<Object> job = newJob(source);
+    job.start(diskCacheExecutor, sourceExecutor);
+
+    diskCacheExecutor.runOnce();
+
+    assertTrue(target.ready.isEmpty());
+    assertReleasedOnce(source);
+    assertFallbackQueued(job);
+  }
+
+  @Test
+  public void run_withBitmapNoLargerThanTarget_fallsBackToDecode() {
+    EngineResource<Bitmap> source =
+        acquiredSource(DownscaleFromMemoryTest.bitmapResource(100, 100));
+    DownscaleJob<Object> job = newJob(source);
+    job.start(diskCacheExecutor, sourceExecutor);
+
+    diskCacheExecutor.runOnce();
+
+    assertTrue(target.ready.isEmpty());
+    assertReleasedOnce(source);
+    assertFallbackQueued(job);
+  }
+
+  @Test
+  public void run_withFallbackSkippingCache_runsFallbackOnSourceExecutor() {
+    EngineResource<Object> source = acquiredSource(new TestResource());
+    DownscaleJob<Object> job = newJob(source, DiskCacheStrategy.NONE);
+    job.start(diskCacheExecutor, sourceExecutor);
+
+    diskCacheExecutor.runOnce();
+
+    assertTrue(diskCacheExecutor.queued.isEmpty());
+    assertEquals(Collections.<Runnable>singletonList(job.getFallbackJob()), sourceExecutor.queued);
+  }
+
+  @Test
+  public void cancel_beforeRun_failsWithoutScalingOrFallback() {
+    EngineResource<Bitmap> source =
+        acquiredSource(DownscaleFromMemoryTest.bitmapResource(400, 400));
+    DownscaleJob<Object> job = newJob(source);
+    job.start(diskCacheExecutor, sourceExecutor);
+
+    job.cancel();
+    diskCacheExecutor.runAll();
+
+    assertTrue(target.ready.isEmpty());
+    assertEquals(1, target.failures.size());
+    assertReleasedOnce(source);
+    assertTrue(sourceExecutor.queued.isEmpty());
+  }
+
+  @Test
+  public void cancel_afterFallbackStarted_cancelsFallback() {
+    DownscaleJob<Object> job = newJob(acquiredSource(new TestResource()));
+    job.start(diskCacheExecutor, sourceExecutor);
+    diskCacheExecutor.runOnce();
+
+    job.cancel();
+
+    assertTrue(job.getFallbackJob().isCancelled());
+  }
+
+  @Test
+  public void release_withoutFallbackStarted_returnsFallbackToPool() {
+    DownscaleJob<Object> job =
+        newJob(acquiredSource(DownscaleFromMemoryTest.bitmapResource(400, 400)));
+    job.start(diskCacheExecutor, sourceExecutor);
+    diskCacheExecutor.runAll();
+
+    job.release();
+
+    assertEquals(Collections.<DecodeJob<?>>singletonList(job.getFallbackJob()), pool.released);
+  }
+
+  private DownscaleJob<Object> newJob(EngineResource<?> source) {
+    return newJob(source, DiskCacheStrategy.AUTOMATIC);
+  }
+
+  private DownscaleJob<Object> newJob(
+      EngineResource<?> source, DiskCacheStrategy diskCacheStrategy) {
+    Map<Class<?>, Transformation<?>> transformations = Collections.emptyMap();
+    DecodeJob<Object> fallbackJob =
+        new DecodeJob<Object>(
+                /*diskCacheProvider=*/ null,
+                /*encodeQueue=*/ null,
+                /*sourceRevalidator=*/ null,
+                /*sourceFetchCoalescer=*/ null,
+                pool)
+            .init(
+                /*glideContext=*/ null,
+                /*model=*/ "model",
+                key,
+                new TestKey("signature"),
+                /*width=*/ 100,
+                /*height=*/ 100,
+                Object.class,
+                Object.class,
+                Priority.NORMAL,
+                diskCacheStrategy,
+                transformations,
+                /*isTransformationRequired=*/ false,
+                /*isScaleOnlyOrNoTransform=*/ true,
+                /*onlyRetrieveFromCache=*/ false,
+                new Options(),
+                target,
+                /*order=*/ 0);
+    return new DownscaleJob<>(
+        target, fallbackJob, source, key, /*resources=*/ null, new BitmapPoolAdapter());
+  }
+
+  // Acquired the way Engine acquires the larger resource before starting the job.
+  private <T> EngineResource<T> acquiredSource(Resource<T> resource) {
+    EngineResource<T> result =
+        new EngineResource<>(
+            resource,
+            /*isMemoryCacheable=*/ true,
+            /*isRecyclable=*/ true,
+            DownscaleFromMemoryTest.key("model", 400, 400),
+            sourceListener);
+    result.acquire();
+    return result;
+  }
+
+  private void assertReleasedOnce(EngineResource<?> source) {
+    assertEquals(Collections.<EngineResource<?>>singletonList(source), sourceListener.released);
+  }
+
+  private void assertFallbackQueued(DownscaleJob<Object> job) {
+    // AUTOMATIC looks in the disk cache first, so the fallback starts on the disk cache executor.
+    assertEquals(
+        Collections.<Runnable>singletonList(job.getFallbackJob()), diskCacheExecutor.queued);
+    assertTrue(sourceExecutor.queued.isEmpty());
+  }
+
+  private static final class QueueExecutor implements Executor {
+    private final List<Runnable> queued = new ArrayList<>();
+
+    @Override
+    public void execute(@NonNull Runnable command) {
+      queued.add(command);
+    }
+
+    void runOnce() {
+      queued.remove(0).run();
+    }
+
+    void runAll() {
+      while (!queued.isEmpty()) {
+        runOnce();
+      }
+    }
+  }
+
+  private static final class RecordingPool implements Pools.Pool<DecodeJob<?>> {
+    private final List<DecodeJob<?>> released = new ArrayList<>();
+
+    @Override
+    public DecodeJob<?> acquire() {
+      return null;
+    }
+
+    @Override
+    public boolean release(@NonNull DecodeJob<?> instance) {
+      released.add(instance);
+      return true;
+    }
+  }
+
+  private static final class RecordingListener implements EngineResource.ResourceListener {
+    private final List<EngineResource<?>> released = new ArrayList<>();
+
+    @Override
+    public void onResourceReleased(Key key, EngineResource<?> resource) {
+      released.add(resource);
+    }
+  }
+
+  private static final class RecordingCallback implements DecodeJob.Callback<Object> {
+    private final List<Resource<?>> ready = new ArrayList<>();
+    private final List<DataSource> dataSources = new ArrayList<>();
+    private final List<GlideException> failures = new ArrayList<>();
+
+    @Override
+    public void onResourceReady(
+        Resource<Object> resource, DataSource dataSource, boolean isLoadedFromAlternateCacheKey) {
+      ready.add(resource);
+      dataSources.add(dataSource);
+    }
+
+    @Override
+    public void onLoadFailed(GlideException e) {
+      failures.add(e);
+    }
+
+    @Override
+    public void reschedule(DecodeJob<?> job) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isDecodeStaged() {
+      return false;
+    }
+
+    @Override
+    public boolean rescheduleDecode(DecodeJob<?> job) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,194 @@
+package com.example.glidemini.load.engine;
+
+import com.bumptech.glide.request.ResourceCallback;
+import com.example.glidemini.benchmark.Benchmark;
+import com.example.glidemini.bitmapRecycle.BitmapPoolAdapter;
+import com.example.glidemini.cache.DiskCache;
+import com.example.glidemini.cache.DiskCacheAdapter;
+import com.example.glidemini.cache.key.Key;
+import com.example.glidemini.cache.memoryCache.TinyLfuResourceCache;
+import com.example.glidemini.load.DataSource;
+import com.example.glidemini.load.Options;
+import com.example.glidemini.load.Transformation;
+import com.example.glidemini.load.engine.executor.GlideExecutor;
+import com.example.glidemini.loader.model.Priority;
+import com.example.glidemini.testutil.TestKey;
+import com.example.glidemini.testutil.TestResource;
+import com.example.glidemini.util.Executors;
+import java.util.Collections;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares {@link Engine#load} from several threads with all keys behind one lock, like the Engine
+ * monitor before it was striped, and behind the Engine's 64 {@link KeyLocks} stripes, run with
+ * {@code -Pbenchmark}. Only meaningful on a multi-core machine.
+ *
+ * <p>Hits are served from the memory cache or the active resources and released straight away,
+ * which moves them back to the memory cache. Misses only retrieve from the disk cache and have no
+ * disk cache to read, so their jobs start, fail on the disk cache executor and complete under the
+ * key's lock like any other job, without a GlideContext. The share of misses defaults to {@link
+ * #DEFAULT_MISS_PERCENTS} and can be set with {@code -PbenchmarkMissPercents=0,25}.
+ */
+public class EngineLockBenchmarkTest {
+  private static final int HIT_KEY_COUNT = 1_000;
+  private static final int MISS_KEY_COUNT = 1_000;
+  private static final int OPS_PER_THREAD = 200_000;
+  private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+  private static final String DEFAULT_MISS_PERCENTS = "0,10,50";
+  private static final int SIZE = 100;
+
+  private final Key signature = new TestKey("signature");
+  private final Map<Class<?>, Transformation<?>> transformations = Collections.emptyMap();
+  private final Options options = new Options();
+  private Engine engine;
+
+  @Before
+  public void setUp() {
+    Benchmark.assumeEnabled();
+  }
+
+  @After
+  public void tearDown() {
+    if (engine != null) {
+      engine.shutdown();
+    }
+  }
+
+  @Test
+  public void load() throws Exception {
+    for (String value : getMissPercents()) {
+      int missPercent = Integer.parseInt(value.trim());
+      for (int threads : THREAD_COUNTS) {
+        measure("one lock", new KeyLocks(1), threads, missPercent);
+        measure("64 striped locks", new KeyLocks(64), threads, missPercent);
+      }
+    }
+  }
+
+  private void measure(String name, KeyLocks keyLocks, int threads, final int missPercent)
+      throws Exception {
+    engine = newEngine(keyLocks);
+    final Callback[] callbacks = new Callback[threads];
+    for (int i = 0; i < threads; i++) {
+      callbacks[i] = new Callback(engine);
+    }
+    Benchmark.measureThroughput(
+        "Engine.load, " + missPercent + "% misses, " + name,
+        threads,
+        OPS_PER_THREAD,
+        new Benchmark.ThreadOp() {
+          @Override
+          public void run(int thread, int i) {
+            boolean isMiss = (i * 37 + thread * 11) % 100 < missPercent;
+            int index = (i * 31 + thread * 7919) % (isMiss ? MISS_KEY_COUNT : HIT_KEY_COUNT);
+            load((isMiss ? "miss" : "hit") + index, callbacks[thread]);
+          }
+        });
+    engine.shutdown();
+    engine = null;
+  }
+
+  private Engine newEngine(KeyLocks keyLocks) {
+    TinyLfuResourceCache memoryCache = new TinyLfuResourceCache(/*size=*/ HIT_KEY_COUNT);
+    Engine result =
+        new Engine(
+            memoryCache,
+            new BitmapPoolAdapter(),
+            new DiskCache.Factory() {
+              @Override
+              public DiskCache build() {
+                return new DiskCacheAdapter();
+              }
+            },
+            GlideExecutor.newDiskCacheExecutor(),
+            GlideExecutor.newSourceExecutor(),
+            GlideExecutor.newUnlimitedSourceExecutor(),
+            GlideExecutor.newAnimationExecutor(),
+            /*jobs=*/ null,
+            /*keyFactory=*/ null,
+            /*activeResources=*/ null,
+            /*engineJobFactory=*/ null,
+            /*decodeJobFactory=*/ null,
+            /*resourceRecycler=*/ null,
+            keyLocks,
+            /*isActiveResourceRetentionAllowed=*/ false);
+    EngineKeyFactory keyFactory = new EngineKeyFactory();
+    for (int i = 0; i < HIT_KEY_COUNT; i++) {
+      EngineKey key =
+          keyFactory.buildKey(
+              "hit" + i,
+              signature,
+              SIZE,
+              SIZE,
+              transformations,
+              Object.class,
+              Object.class,
+              options);
+      memoryCache.put(
+          key,
+          new EngineResource<>(
+              new TestResource(),
+              /*isMemoryCacheable=*/ true,
+              /*isRecyclable=*/ true,
+              key,
+              /*listener=*/ result));
+    }
+    return result;
+  }
+
+  private void load(String model, ResourceCallback cb) {
+    engine.load(
+        /*glideContext=*/ null,
+        model,
+        signature,
+        SIZE,
+        SIZE,
+        Object.class,
+        Object.class,
+        Priority.NORMAL,
+        DiskCacheStrategy.NONE,
+        transformations,
+        /*isTransformationRequired=*/ false,
+        /*isScaleOnlyOrNoTransform=*/ false,
+        options,
+        /*isMemoryCacheable=*/ true,
+        /*useUnlimitedSourceExecutorPool=*/ false,
+        /*useAnimationPool=*/ false,
+        /*onlyRetrieveFromCache=*/ true,
+        cb,
+        Executors.directExecutor());
+  }
+
+  private static String[] getMissPercents() {
+    return System.getProperty("glidemini.benchmark.missPercents", DEFAULT_MISS_PERCENTS)
+        .split(",");
+  }
+
+  // Releases hits right away, as a request that's cleared as soon as it's shown would.
+  private static final class Callback implements ResourceCallback {
+    private final Engine engine;
+
+    Callback(Engine engine) {
+      this.engine = engine;
+    }
+
+    @Override
+    public void onResourceReady(
+        Resource<?> resource, DataSource dataSource, boolean isLoadedFromAlternateCacheKey) {
+      engine.release(resource);
+    }
+
+    @Override
+    public void onLoadFailed(GlideException e) {
+      // Misses fail, there's no disk cache to retrieve them from.
+    }
+
+    @Override
+    public Object getLock() {
+      return this;
+    }
+  }
+}
@@ -0,0 +1,207 @@
+package com.example.glidemini.load.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+import com.example.glidemini.cache.key.Key;
+import com.example.glidemini.testutil.TestKey;
+import com.example.glidemini.testutil.TestResource;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EngineResourceTest {
+  private static final int RACES = 10_000;
+  private static final int THREADS = 4;
+
+  private final Key key = new TestKey("key");
+  private final CountingListener listener = new CountingListener();
+  private TestResource wrapped;
+  private EngineResource<Object> resource;
+
+  @Before
+  public void setUp() {
+    wrapped = new TestResource();
+    resource = newResource(wrapped);
+  }
+
+  @Test
+  public void release_lastConsumer_notifiesListenerOnce() {
+    resource.acquire();
+    resource.acquire();
+
+    resource.release();
+    assertEquals(0, listener.count.get());
+    resource.release();
+
+    assertEquals(1, listener.count.get());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void release_notAcquired_throws() {
+    resource.release();
+  }
+
+  @Test
+  public void recycle_notAcquired_recyclesWrappedResource() {
+    resource.recycle();
+
+    assertEquals(1, wrapped.getRecycleCount());
+  }
+
+  @Test
+  public void recycle_notRecyclable_doesNotRecycleWrappedResource() {
+    resource =
+        new EngineResource<Object>(
+            wrapped, /*isMemoryCacheable=*/ true, /*isRecyclable=*/ false, key, listener);
+
+    resource.recycle();
+
+    assertEquals(0, wrapped.getRecycleCount());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void recycle_whileAcquired_throws() {
+    resource.acquire();
+
+    resource.recycle();
+  }
+
+  @Test
+  public void recycle_twice_throwsAndRecyclesOnce() {
+    resource.recycle();
+    try {
+      resource.recycle();
+      fail();
+    } catch (IllegalStateException expected) {
+      // Expected.
+    }
+    assertEquals(1, wrapped.getRecycleCount());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void acquire_afterRecycle_throws() {
+    resource.recycle();
+
+    resource.acquire();
+  }
+
+  @Test
+  public void tryAcquire_afterRecycle_returnsFalse() {
+    resource.recycle();
+
+    assertFalse(resource.tryAcquire());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void release_afterRecycle_throws() {
+    resource.recycle();
+
+    resource.release();
+  }
+
+  @Test
+  public void tryAcquire_racingRecycle_eitherAcquiresOrRecycles() throws Exception {
+    final CyclicBarrier barrier = new CyclicBarrier(2);
+    final AtomicReference<EngineResource<Object>> current = new AtomicReference<>();
+    final AtomicBoolean recycled = new AtomicBoolean();
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread recycler =
+        new Thread() {
+          @Override
+          public void run() {
+            try {
+              for (int i = 0; i < RACES; i++) {
+                barrier.await();
+                try {
+                  current.get().recycle();
+                  recycled.set(true);
+                } catch (IllegalStateException e) {
+                  recycled.set(false);
+                }
+                barrier.await();
+              }
+            } catch (Throwable e) {
+              failure.set(e);
+            }
+          }
+        };
+    recycler.start();
+
+    for (int i = 0; i < RACES; i++) {
+      TestResource toWrap = new TestResource();
+      current.set(newResource(toWrap));
+      barrier.await();
+      boolean acquired = current.get().tryAcquire();
+      barrier.await();
+
+      assertNotEquals("Acquired and recycled in race " + i, acquired, recycled.get());
+      assertEquals(recycled.get() ? 1 : 0, toWrap.getRecycleCount());
+    }
+    recycler.join();
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+  }
+
+  @Test
+  public void acquireAndRelease_fromManyThreads_keepsCount() throws Exception {
+    final int opsPerThread = 100_000;
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    // Held throughout so the count never drops to zero while the threads run.
+    resource.acquire();
+    Thread[] threads = new Thread[THREADS];
+    for (int t = 0; t < THREADS; t++) {
+      threads[t] =
+          new Thread() {
+            @Override
+            public void run() {
+              try {
+                start.await();
+                for (int i = 0; i < opsPerThread; i++) {
+                  resource.acquire();
+                  resource.release();
+                }
+              } catch (Throwable e) {
+                failure.set(e);
+              }
+            }
+          };
+      threads[t].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+
+    assertEquals(0, listener.count.get());
+    resource.release();
+    assertEquals(1, listener.count.get());
+    resource.recycle();
+    assertFalse(resource.tryAcquire());
+  }
+
+  private EngineResource<Object> newResource(TestResource toWrap) {
+    return new EngineResource<Object>(
+        toWrap, /*isMemoryCacheable=*/ true, /*isRecyclable=*/ true, key, listener);
+  }
+
+  private static final class CountingListener implements EngineResource.ResourceListener {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public void onResourceReleased(Key key, EngineResource<?> resource) {
+      count.incrementAndGet();
+    }
+  }
+}
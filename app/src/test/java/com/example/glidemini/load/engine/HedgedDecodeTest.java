@@ -0,0 +1,399 @@
+package com.example.glidemini.load.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+import androidx.core.util.Pools;
+import com.example.glidemini.cache.key.Key;
+import com.example.glidemini.load.DataSource;
+import com.example.glidemini.load.Options;
+import com.example.glidemini.load.Transformation;
+import com.example.glidemini.loader.model.Priority;
+import com.example.glidemini.testutil.TestKey;
+import com.example.glidemini.testutil.TestResource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Drives a {@link HedgedDecode} through its races by calling back from the two jobs directly. The
+ * deadline is triggered with {@link HedgedDecode#onDeadline()} rather than the main thread.
+ */
+public class HedgedDecodeTest {
+  // Long enough that the main thread never triggers it during a test.
+  private static final long DEADLINE_MILLIS = 60_000;
+
+  private final Key key = new TestKey("key");
+  private final RecordingPool pool = new RecordingPool();
+  private final RecordingCallback target = new RecordingCallback();
+  private final QueueExecutor diskCacheExecutor = new QueueExecutor();
+  private final QueueExecutor sourceExecutor = new QueueExecutor();
+  private LoadHedging loadHedging;
+  private HedgedDecode<Object> hedgedDecode;
+  private DecodeJob<Object> cacheJob;
+  private DecodeJob<Object> sourceJob;
+
+  @Before
+  public void setUp() {
+    loadHedging = new LoadHedging();
+    hedgedDecode = new HedgedDecode<>(target, loadHedging, key, DEADLINE_MILLIS);
+    cacheJob = newJob(hedgedDecode.getCacheCallback());
+    sourceJob = newJob(hedgedDecode.getSourceCallback()).skipDiskCache();
+    hedgedDecode.init(cacheJob, sourceJob).start(diskCacheExecutor, sourceExecutor);
+  }
+
+  @Test
+  public void start_runsCacheJobOnly() {
+    assertEquals(Collections.<Runnable>singletonList(cacheJob), diskCacheExecutor.queued);
+    assertTrue(sourceExecutor.queued.isEmpty());
+  }
+
+  @Test
+  public void cacheReady_beforeDeadline_deliversCacheResourceWithoutStartingSource() {
+    TestResource resource = new TestResource();
+
+    cacheReady(resource);
+    hedgedDecode.onDeadline();
+
+    assertEquals(Collections.<Resource<?>>singletonList(resource), target.ready);
+    assertTrue(sourceExecutor.queued.isEmpty());
+    assertCounts(LoadHedging.Outcome.CACHE_BEFORE_DEADLINE);
+  }
+
+  @Test
+  public void cacheFailed_beforeDeadline_startsSource() {
+    cacheFailed();
+
+    assertEquals(Collections.<Runnable>singletonList(sourceJob), sourceExecutor.queued);
+    assertTrue(target.failures.isEmpty());
+
+    TestResource resource = new TestResource();
+    sourceReady(resource);
+
+    assertEquals(Collections.<Resource<?>>singletonList(resource), target.ready);
+    assertCounts(LoadHedging.Outcome.SOURCE_AFTER_CACHE_MISS);
+  }
+
+  @Test
+  public void onDeadline_withCacheStillRunning_startsSource() {
+    hedgedDecode.onDeadline();
+    hedgedDecode.onDeadline();
+
+    assertEquals(Collections.<Runnable>singletonList(sourceJob), sourceExecutor.queued);
+  }
+
+  @Test
+  public void onDeadline_afterCancel_doesNotStartSource() {
+    hedgedDecode.cancel();
+
+    hedgedDecode.onDeadline();
+
+    assertTrue(sourceExecutor.queued.isEmpty());
+    assertTrue(cacheJob.isCancelled());
+  }
+
+  @Test
+  public void cacheReady_afterDeadline_winsRaceAndCancelsSource() {
+    hedgedDecode.onDeadline();
+    TestResource resource = new TestResource();
+
+    cacheReady(resource);
+
+    assertEquals(Collections.<Resource<?>>singletonList(resource), target.ready);
+    assertTrue(sourceJob.isCancelled());
+    assertFalse(cacheJob.isCancelled());
+    assertCounts(LoadHedging.Outcome.CACHE_WON_RACE);
+  }
+
+  @Test
+  public void sourceReady_afterDeadline_winsRaceAndCancelsCache() {
+    hedgedDecode.onDeadline();
+    TestResource resource = new TestResource();
+
+    sourceReady(resource);
+
+    assertEquals(Collections.<Resource<?>>singletonList(resource), target.ready);
+    assertTrue(cacheJob.isCancelled());
+    assertFalse(sourceJob.isCancelled());
+    assertCounts(LoadHedging.Outcome.SOURCE_WON_RACE);
+  }
+
+  @Test
+  public void loserReady_afterWinner_recyclesLosingResource() {
+    hedgedDecode.onDeadline();
+    TestResource winner = new TestResource();
+    TestResource loser = new TestResource();
+
+    sourceReady(winner);
+    cacheReady(loser);
+
+    assertEquals(Collections.<Resource<?>>singletonList(winner), target.ready);
+    assertEquals(0, winner.getRecycleCount());
+    assertEquals(1, loser.getRecycleCount());
+    assertCounts(LoadHedging.Outcome.SOURCE_WON_RACE);
+  }
+
+  @Test
+  public void loserFailed_afterWinner_isIgnored() {
+    hedgedDecode.onDeadline();
+
+    cacheReady(new TestResource());
+    sourceFailed();
+
+    assertEquals(1, target.ready.size());
+    assertTrue(target.failures.isEmpty());
+    assertCounts(LoadHedging.Outcome.CACHE_WON_RACE);
+  }
+
+  @Test
+  public void oneFailed_duringRace_waitsForOther() {
+    hedgedDecode.onDeadline();
+
+    sourceFailed();
+
+    assertTrue(target.failures.isEmpty());
+
+    TestResource resource = new TestResource();
+    cacheReady(resource);
+
+    assertEquals(Collections.<Resource<?>>singletonList(resource), target.ready);
+    assertCounts(LoadHedging.Outcome.CACHE_WON_RACE);
+  }
+
+  @Test
+  public void bothFailed_duringRace_reportsOneFailureWithBothCauses() {
+    hedgedDecode.onDeadline();
+    GlideException cacheFailure = cacheFailed();
+
+    assertTrue(target.failures.isEmpty());
+
+    GlideException sourceFailure = sourceFailed();
+
+    assertEquals(1, target.failures.size());
+    assertEquals(2, target.failures.get(0).getCauses().size());
+    assertSame(cacheFailure, target.failures.get(0).getCauses().get(0));
+    assertSame(sourceFailure, target.failures.get(0).getCauses().get(1));
+    assertTrue(target.ready.isEmpty());
+    assertCounts(LoadHedging.Outcome.FAILED);
+  }
+
+  @Test
+  public void bothFailed_afterCacheMiss_reportsOneFailureWithBothCauses() {
+    GlideException cacheFailure = cacheFailed();
+    GlideException sourceFailure = sourceFailed();
+
+    assertEquals(1, target.failures.size());
+    assertSame(cacheFailure, target.failures.get(0).getCauses().get(0));
+    assertSame(sourceFailure, target.failures.get(0).getCauses().get(1));
+    assertCounts(LoadHedging.Outcome.FAILED);
+  }
+
+  @Test
+  public void cacheFailed_afterCancel_reportsFailureWithoutStartingSourceOrRecording() {
+    hedgedDecode.cancel();
+
+    GlideException cacheFailure = cacheFailed();
+
+    assertTrue(sourceExecutor.queued.isEmpty());
+    assertEquals(Collections.singletonList(cacheFailure), target.failures);
+    assertCounts(/*expected=*/ null);
+  }
+
+  @Test
+  public void cancel_duringRace_cancelsBothJobs() {
+    hedgedDecode.onDeadline();
+
+    hedgedDecode.cancel();
+
+    assertTrue(cacheJob.isCancelled());
+    assertTrue(sourceJob.isCancelled());
+  }
+
+  @Test
+  public void release_withSourceNeverStarted_returnsSourceJobToPool() {
+    cacheReady(new TestResource());
+
+    hedgedDecode.release();
+
+    assertEquals(Collections.<DecodeJob<?>>singletonList(sourceJob), pool.released);
+  }
+
+  @Test
+  public void loserFinished_afterRelease_neverReachesTargetAndReturnsToPoolOnce() {
+    hedgedDecode.onDeadline();
+    cacheReady(new TestResource());
+    hedgedDecode.release();
+
+    assertTrue(pool.released.isEmpty());
+
+    // The engine job moves on to another load.
+    target.ready.clear();
+    // The cancelled source job finally runs.
+    sourceExecutor.runAll();
+
+    assertTrue(target.ready.isEmpty());
+    assertTrue(target.failures.isEmpty());
+    assertEquals(Collections.<DecodeJob<?>>singletonList(sourceJob), pool.released);
+    assertCounts(LoadHedging.Outcome.CACHE_WON_RACE);
+  }
+
+  @Test
+  public void loserReady_afterReleaseAndReuse_recyclesResourceWithoutReachingNewLoad() {
+    hedgedDecode.release();
+    assertEquals(Collections.<DecodeJob<?>>singletonList(sourceJob), pool.released);
+    // The pooled source job is reused by a new hedged load, with a new target.
+    RecordingCallback otherTarget = new RecordingCallback();
+    HedgedDecode<Object> other = new HedgedDecode<>(otherTarget, loadHedging, key, DEADLINE_MILLIS);
+    other
+        .init(newJob(other.getCacheCallback()), initJob(sourceJob, other.getSourceCallback()))
+        .start(diskCacheExecutor, sourceExecutor);
+    hedgedDecode.onDeadline();
+    TestResource late = new TestResource();
+
+    // The first load's cache job only finishes now.
+    cacheReady(late);
+    sourceFailed();
+
+    assertTrue(sourceExecutor.queued.isEmpty());
+    assertTrue(target.ready.isEmpty());
+    assertTrue(otherTarget.ready.isEmpty());
+    assertTrue(otherTarget.failures.isEmpty());
+    assertFalse(sourceJob.isCancelled());
+    assertEquals(1, late.getRecycleCount());
+  }
+
+  private void cacheReady(Resource<Object> resource) {
+    hedgedDecode
+        .getCacheCallback()
+        .onResourceReady(
+            resource, DataSource.DATA_DISK_CACHE, /*isLoadedFromAlternateCacheKey=*/ false);
+  }
+
+  private void sourceReady(Resource<Object> resource) {
+    hedgedDecode
+        .getSourceCallback()
+        .onResourceReady(resource, DataSource.REMOTE, /*isLoadedFromAlternateCacheKey=*/ false);
+  }
+
+  private GlideException cacheFailed() {
+    GlideException e = new GlideException("cache");
+    hedgedDecode.getCacheCallback().onLoadFailed(e);
+    return e;
+  }
+
+  private GlideException sourceFailed() {
+    GlideException e = new GlideException("source");
+    hedgedDecode.getSourceCallback().onLoadFailed(e);
+    return e;
+  }
+
+  private void assertCounts(LoadHedging.Outcome expected) {
+    for (LoadHedging.Outcome outcome : LoadHedging.Outcome.values()) {
+      assertEquals(outcome.toString(), outcome == expected ? 1 : 0, loadHedging.getCount(outcome));
+    }
+  }
+
+  private DecodeJob<Object> newJob(DecodeJob.Callback<Object> callback) {
+    return initJob(
+        new DecodeJob<Object>(
+            /*diskCacheProvider=*/ null,
+            /*encodeQueue=*/ null,
+            /*sourceRevalidator=*/ null,
+            /*sourceFetchCoalescer=*/ null,
+            pool),
+        callback);
+  }
+
+  private static DecodeJob<Object> initJob(
+      DecodeJob<Object> job, DecodeJob.Callback<Object> callback) {
+    Map<Class<?>, Transformation<?>> transformations = Collections.emptyMap();
+    return job.init(
+        /*glideContext=*/ null,
+        /*model=*/ "model",
+        /*loadKey=*/ null,
+        new TestKey("signature"),
+        /*width=*/ 100,
+        /*height=*/ 100,
+        Object.class,
+        Object.class,
+        Priority.NORMAL,
+        DiskCacheStrategy.AUTOMATIC,
+        transformations,
+        /*isTransformationRequired=*/ false,
+        /*isScaleOnlyOrNoTransform=*/ false,
+        /*onlyRetrieveFromCache=*/ false,
+        new Options(),
+        callback,
+        /*order=*/ 0);
+  }
+
+  private static final class QueueExecutor implements Executor {
+    private final List<Runnable> queued = new ArrayList<>();
+
+    @Override
+    public void execute(@NonNull Runnable command) {
+      queued.add(command);
+    }
+
+    void runAll() {
+      List<Runnable> toRun = new ArrayList<>(queued);
+      queued.clear();
+      for (Runnable runnable : toRun) {
+        runnable.run();
+      }
+    }
+  }
+
+  private static final class RecordingPool implements Pools.Pool<DecodeJob<?>> {
+    private final List<DecodeJob<?>> released = new ArrayList<>();
+
+    @Override
+    public DecodeJob<?> acquire() {
+      return null;
+    }
+
+    @Override
+    public boolean release(@NonNull DecodeJob<?> instance) {
+      released.add(instance);
+      return true;
+    }
+  }
+
+  private static final class RecordingCallback implements DecodeJob.Callback<Object> {
+    private final List<Resource<?>> ready = new ArrayList<>();
+    private final List<GlideException> failures = new ArrayList<>();
+
+    @Override
+    public void onResourceReady(
+        Resource<Object> resource, DataSource dataSource, boolean isLoadedFromAlternateCacheKey) {
+      ready.add(resource);
+    }
+
+    @Override
+    public void onLoadFailed(GlideException e) {
+      failures.add(e);
+    }
+
+    @Override
+    public void reschedule(DecodeJob<?> job) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isDecodeStaged() {
+      return false;
+    }
+
+    @Override
+    public boolean rescheduleDecode(DecodeJob<?> job) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package com.example.glidemini.load.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.example.glidemini.testutil.TestKey;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import org.junit.Test;
+
+public class KeyLocksTest {
+  @Test
+  public void get_withEqualKeys_returnsSameLock() {
+    KeyLocks locks = new KeyLocks(64);
+
+    assertSame(locks.get(new TestKey("a")), locks.get(new TestKey("a")));
+  }
+
+  @Test
+  public void get_withManyKeys_usesEveryStripe() {
+    KeyLocks locks = new KeyLocks(64);
+    Set<Object> used = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+    for (int i = 0; i < 1000; i++) {
+      used.add(locks.get(new TestKey("key" + i)));
+    }
+
+    assertEquals(64, used.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void new_withStripesThatAreNotPowerOfTwo_throws() {
+    new KeyLocks(48);
+  }
+}
@@ -0,0 +1,71 @@
+package com.example.glidemini.load.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import androidx.annotation.NonNull;
+import com.example.glidemini.cache.key.Key;
+import com.example.glidemini.testutil.TestKey;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class LoadHedgingTest {
+  private final Key key = new TestKey("key");
+  private final LoadHedging loadHedging = new LoadHedging();
+
+  @Test
+  public void getDeadlineMillis_byDefault_isDisabled() {
+    assertEquals(0, loadHedging.getDeadlineMillis());
+  }
+
+  @Test
+  public void record_countsEachOutcomeSeparately() {
+    loadHedging.record(key, LoadHedging.Outcome.CACHE_WON_RACE, /*elapsedMillis=*/ 1);
+    loadHedging.record(key, LoadHedging.Outcome.CACHE_WON_RACE, /*elapsedMillis=*/ 2);
+    loadHedging.record(key, LoadHedging.Outcome.FAILED, /*elapsedMillis=*/ 3);
+
+    assertEquals(2, loadHedging.getCount(LoadHedging.Outcome.CACHE_WON_RACE));
+    assertEquals(1, loadHedging.getCount(LoadHedging.Outcome.FAILED));
+    assertEquals(0, loadHedging.getCount(LoadHedging.Outcome.SOURCE_WON_RACE));
+  }
+
+  @Test
+  public void record_withListener_reportsOutcome() {
+    RecordingListener listener = new RecordingListener();
+    loadHedging.setListener(listener);
+
+    loadHedging.record(key, LoadHedging.Outcome.SOURCE_WON_RACE, /*elapsedMillis=*/ 42);
+
+    assertEquals(1, listener.outcomes.size());
+    assertSame(key, listener.keys.get(0));
+    assertEquals(LoadHedging.Outcome.SOURCE_WON_RACE, listener.outcomes.get(0));
+    assertEquals(42L, (long) listener.elapsedMillis.get(0));
+  }
+
+  @Test
+  public void record_afterListenerRemoved_onlyCounts() {
+    RecordingListener listener = new RecordingListener();
+    loadHedging.setListener(listener);
+    loadHedging.setListener(null);
+
+    loadHedging.record(key, LoadHedging.Outcome.FAILED, /*elapsedMillis=*/ 1);
+
+    assertEquals(0, listener.outcomes.size());
+    assertEquals(1, loadHedging.getCount(LoadHedging.Outcome.FAILED));
+  }
+
+  private static final class RecordingListener implements LoadHedging.Listener {
+    private final List<Key> keys = new ArrayList<>();
+    private final List<LoadHedging.Outcome> outcomes = new ArrayList<>();
+    private final List<Long> elapsedMillis = new ArrayList<>();
+
+    @Override
+    public void onHedgedLoadFinished(
+        @NonNull Key key, @NonNull LoadHedging.Outcome outcome, long elapsedMillis) {
+      keys.add(key);
+      outcomes.add(outcome);
+      this.elapsedMillis.add(elapsedMillis);
+    }
+  }
+}
@@ -0,0 +1,288 @@
+package com.example.glidemini.load.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentCallbacks2;
+import androidx.annotation.NonNull;
+import com.example.glidemini.cache.DiskCache;
+import com.example.glidemini.cache.key.Key;
+import com.example.glidemini.testutil.TestKey;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResourceEncodeQueueTest {
+  private static final long MAX_PENDING_BYTES = 100;
+
+  private final List<Key> written = new ArrayList<>();
+  private final List<String> finished = new ArrayList<>();
+  private final ManualExecutor executor = new ManualExecutor();
+  private ResourceEncodeQueue queue;
+
+  @Before
+  public void setUp() {
+    queue = newQueue(executor);
+  }
+
+  @Test
+  public void enqueue_writesInOrderOnExecutor() {
+    enqueue("first", 10);
+    enqueue("second", 10);
+    assertTrue(written.isEmpty());
+
+    executor.runAll();
+
+    assertEquals(Arrays.<Key>asList(new TestKey("first"), new TestKey("second")), written);
+    assertEquals(Arrays.asList("first", "second"), finished);
+  }
+
+  @Test
+  public void enqueue_whileDraining_postsSingleDrain() {
+    enqueue("first", 10);
+    enqueue("second", 10);
+    enqueue("third", 10);
+
+    assertEquals(1, executor.tasks.size());
+  }
+
+  @Test
+  public void enqueue_afterDrain_postsNewDrain() {
+    enqueue("first", 10);
+    executor.runAll();
+
+    enqueue("second", 10);
+
+    assertEquals(1, executor.tasks.size());
+    executor.runAll();
+    assertEquals(Arrays.<Key>asList(new TestKey("first"), new TestKey("second")), written);
+  }
+
+  @Test
+  public void enqueue_withQueuedKey_dropsDuplicate() {
+    enqueue("key", 10);
+    enqueue("key", 10);
+
+    assertEquals(Collections.singletonList("key"), finished);
+    executor.runAll();
+    assertEquals(Collections.<Key>singletonList(new TestKey("key")), written);
+    assertEquals(Arrays.asList("key", "key"), finished);
+  }
+
+  @Test
+  public void enqueue_withWrittenKey_writesAgain() {
+    enqueue("key", 10);
+    executor.runAll();
+
+    enqueue("key", 10);
+    executor.runAll();
+
+    assertEquals(Arrays.<Key>asList(new TestKey("key"), new TestKey("key")), written);
+  }
+
+  @Test
+  public void enqueue_overBudget_dropsWrite() {
+    enqueue("first", 60);
+    enqueue("second", 50);
+
+    assertEquals(Collections.singletonList("second"), finished);
+    executor.runAll();
+    assertEquals(Collections.<Key>singletonList(new TestKey("first")), written);
+  }
+
+  @Test
+  public void enqueue_upToBudget_keepsWrite() {
+    enqueue("first", 60);
+    enqueue("second", 40);
+
+    executor.runAll();
+
+    assertEquals(Arrays.<Key>asList(new TestKey("first"), new TestKey("second")), written);
+  }
+
+  @Test
+  public void enqueue_largerThanBudgetWithEmptyQueue_keepsWrite() {
+    enqueue("large", MAX_PENDING_BYTES * 2);
+    enqueue("small", 1);
+
+    assertEquals(Collections.singletonList("small"), finished);
+    executor.runAll();
+    assertEquals(Collections.<Key>singletonList(new TestKey("large")), written);
+  }
+
+  @Test
+  public void enqueue_afterDrain_freesBudget() {
+    enqueue("first", 100);
+    executor.runAll();
+
+    enqueue("second", 100);
+    executor.runAll();
+
+    assertEquals(Arrays.<Key>asList(new TestKey("first"), new TestKey("second")), written);
+  }
+
+  @Test
+  public void enqueue_withRejectingExecutor_dropsWrite() {
+    queue =
+        newQueue(
+            new Executor() {
+              @Override
+              public void execute(@NonNull Runnable command) {
+                throw new RejectedExecutionException();
+              }
+            });
+
+    enqueue("key", 10);
+
+    assertTrue(written.isEmpty());
+    assertEquals(Collections.singletonList("key"), finished);
+  }
+
+  @Test
+  public void dropAll_finishesWaitingWritesWithoutWriting() {
+    enqueue("first", 10);
+    enqueue("second", 10);
+
+    assertEquals(2, queue.dropAll());
+
+    assertEquals(Arrays.asList("first", "second"), finished);
+    executor.runAll();
+    assertTrue(written.isEmpty());
+    assertEquals(2, finished.size());
+  }
+
+  @Test
+  public void dropAll_freesBudget() {
+    enqueue("first", 100);
+    queue.dropAll();
+    executor.runAll();
+
+    enqueue("second", 100);
+    executor.runAll();
+
+    assertEquals(Collections.<Key>singletonList(new TestKey("second")), written);
+  }
+
+  @Test
+  public void trimMemory_withBackgroundLevel_dropsWaitingWrites() {
+    enqueue("key", 10);
+
+    queue.trimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+
+    executor.runAll();
+    assertTrue(written.isEmpty());
+    assertEquals(Collections.singletonList("key"), finished);
+  }
+
+  @Test
+  public void trimMemory_withModerateRunningLevel_keepsWaitingWrites() {
+    enqueue("key", 10);
+
+    queue.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+
+    executor.runAll();
+    assertEquals(Collections.<Key>singletonList(new TestKey("key")), written);
+  }
+
+  @Test
+  public void drain_withFailingWriter_keepsDraining() {
+    queue.enqueue(
+        new TestKey("broken"),
+        new DiskCache.Writer() {
+          @Override
+          public boolean write(@NonNull File file) {
+            throw new IllegalStateException("broken encoder");
+          }
+        },
+        10,
+        new Finished("broken"));
+    enqueue("next", 10);
+
+    executor.runAll();
+
+    assertEquals(Collections.<Key>singletonList(new TestKey("next")), written);
+    assertEquals(Arrays.asList("broken", "next"), finished);
+  }
+
+  private ResourceEncodeQueue newQueue(Executor executor) {
+    final DiskCache diskCache = new RecordingDiskCache();
+    return new ResourceEncodeQueue(
+        new DecodeJob.DiskCacheProvider() {
+          @Override
+          public DiskCache getDiskCache() {
+            return diskCache;
+          }
+        },
+        executor,
+        MAX_PENDING_BYTES);
+  }
+
+  private void enqueue(String id, long sizeBytes) {
+    queue.enqueue(
+        new TestKey(id),
+        new DiskCache.Writer() {
+          @Override
+          public boolean write(@NonNull File file) {
+            return true;
+          }
+        },
+        (int) sizeBytes,
+        new Finished(id));
+  }
+
+  private final class Finished implements Runnable {
+    private final String id;
+
+    Finished(String id) {
+      this.id = id;
+    }
+
+    @Override
+    public void run() {
+      finished.add(id);
+    }
+  }
+
+  private final class RecordingDiskCache implements DiskCache {
+    @Override
+    public File get(Key key) {
+      return null;
+    }
+
+    @Override
+    public void put(Key key, Writer writer) {
+      writer.write(new File("unused"));
+      written.add(key);
+    }
+
+    @Override
+    public void delete(Key key) {}
+
+    @Override
+    public void clear() {}
+  }
+
+  private static final class ManualExecutor implements Executor {
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    @Override
+    public void execute(@NonNull Runnable command) {
+      tasks.add(command);
+    }
+
+    void runAll() {
+      Runnable next;
+      while ((next = tasks.poll()) != null) {
+        next.run();
+      }
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package com.example.glidemini.load.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.glidemini.testutil.TestKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class SourceFetchCoalescerTest {
+  private final SourceFetchCoalescer coalescer = new SourceFetchCoalescer();
+  private final DataCacheKey key = new DataCacheKey(new TestKey("url"), new TestKey("signature"));
+
+  @Test
+  public void startOrWait_withFetchInProgress_waits() {
+    assertTrue(coalescer.startOrWait(key, new TestWaiter()));
+    assertFalse(coalescer.startOrWait(equalKey(), new TestWaiter()));
+  }
+
+  @Test
+  public void startOrWait_withOtherSignature_startsSecondFetch() {
+    assertTrue(coalescer.startOrWait(key, new TestWaiter()));
+
+    assertTrue(
+        coalescer.startOrWait(
+            new DataCacheKey(new TestKey("url"), new TestKey("other")), new TestWaiter()));
+  }
+
+  @Test
+  public void finish_notifiesEveryWaiter() {
+    coalescer.startOrWait(key, new TestWaiter());
+    TestWaiter first = new TestWaiter();
+    TestWaiter second = new TestWaiter();
+    coalescer.startOrWait(key, first);
+    coalescer.startOrWait(key, second);
+
+    coalescer.finish(key, /*isCached=*/ true);
+
+    assertEquals(Arrays.asList(true), first.results);
+    assertEquals(Arrays.asList(true), second.results);
+  }
+
+  @Test
+  public void finish_endsFetch() {
+    coalescer.startOrWait(key, new TestWaiter());
+
+    coalescer.finish(key, /*isCached=*/ true);
+
+    assertTrue(coalescer.startOrWait(key, new TestWaiter()));
+  }
+
+  @Test
+  public void finish_withoutFetchInProgress_doesNothing() {
+    coalescer.finish(key, /*isCached=*/ false);
+
+    assertTrue(coalescer.startOrWait(key, new TestWaiter()));
+  }
+
+  @Test
+  public void finish_withFailedFetch_letsFirstWaiterLeadNextFetch() {
+    coalescer.startOrWait(key, new TestWaiter());
+    // Waiters that have to fetch the data themselves go through the coalescer again, on the
+    // leader's thread.
+    final List<Boolean> isLeader = new ArrayList<>();
+    SourceFetchCoalescer.Waiter retrying =
+        new SourceFetchCoalescer.Waiter() {
+          @Override
+          public void onSharedFetchFinished(boolean isCached) {
+            isLeader.add(coalescer.startOrWait(key, this));
+          }
+        };
+    coalescer.startOrWait(key, retrying);
+    coalescer.startOrWait(key, retrying);
+
+    coalescer.finish(key, /*isCached=*/ false);
+
+    assertEquals(Arrays.asList(true, false), isLeader);
+  }
+
+  @Test
+  public void stopWaiting_removesWaiter() {
+    coalescer.startOrWait(key, new TestWaiter());
+    TestWaiter waiter = new TestWaiter();
+    coalescer.startOrWait(key, waiter);
+
+    assertTrue(coalescer.stopWaiting(key, waiter));
+    coalescer.finish(key, /*isCached=*/ true);
+
+    assertTrue(waiter.results.isEmpty());
+  }
+
+  @Test
+  public void stopWaiting_afterFinish_returnsFalse() {
+    coalescer.startOrWait(key, new TestWaiter());
+    TestWaiter waiter = new TestWaiter();
+    coalescer.startOrWait(key, waiter);
+    coalescer.finish(key, /*isCached=*/ true);
+
+    assertFalse(coalescer.stopWaiting(key, waiter));
+    assertEquals(Arrays.asList(true), waiter.results);
+  }
+
+  @Test
+  public void stopWaiting_withLeader_returnsFalse() {
+    TestWaiter leader = new TestWaiter();
+    coalescer.startOrWait(key, leader);
+
+    assertFalse(coalescer.stopWaiting(key, leader));
+  }
+
+  private static DataCacheKey equalKey() {
+    return new DataCacheKey(new TestKey("url"), new TestKey("signature"));
+  }
+
+  private static final class TestWaiter implements SourceFetchCoalescer.Waiter {
+    final List<Boolean> results = new ArrayList<>();
+
+    @Override
+    public void onSharedFetchFinished(boolean isCached) {
+      results.add(isCached);
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package com.example.glidemini.load.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+import com.example.glidemini.bitmapRecycle.ArrayPool;
+import com.example.glidemini.load.DataSource;
+import com.example.glidemini.loader.model.DataFetcher;
+import com.example.glidemini.loader.model.Priority;
+import com.example.glidemini.util.ByteBufferUtil;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TeeDataFetcherTest {
+  private File file;
+  private CountingFetcher wrapped;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("tee", ".tmp");
+    wrapped = new CountingFetcher();
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void cleanup_beforeSourceIsExhausted_keepsWrappedFetcher() throws IOException {
+    TeeDataFetcher fetcher = newFetcher(bytes(100));
+    fetcher.getStream().read(new byte[10]);
+
+    fetcher.cleanup();
+
+    assertEquals(0, wrapped.cleanupCount);
+    assertTrue(fetcher.copyRemaining());
+    fetcher.release();
+    assertEquals(1, wrapped.cleanupCount);
+    assertArrayEquals(bytes(100), Files.readAllBytes(file.toPath()));
+  }
+
+  @Test
+  public void cleanup_afterSourceIsExhausted_cleansUpWrappedFetcher() throws IOException {
+    TeeDataFetcher fetcher = newFetcher(bytes(100));
+    ByteBufferUtil.fromStream(fetcher.getStream());
+
+    fetcher.cleanup();
+
+    assertEquals(1, wrapped.cleanupCount);
+    assertTrue(fetcher.copyRemaining());
+    fetcher.release();
+    assertArrayEquals(bytes(100), Files.readAllBytes(file.toPath()));
+  }
+
+  private TeeDataFetcher newFetcher(byte[] data) throws IOException {
+    return new TeeDataFetcher(wrapped, new ByteArrayInputStream(data), file, new HeapArrayPool());
+  }
+
+  private static byte[] bytes(int length) {
+    byte[] result = new byte[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = (byte) i;
+    }
+    return result;
+  }
+
+  private static final class CountingFetcher implements DataFetcher<InputStream> {
+    int cleanupCount;
+
+    @Override
+    public void loadData(
+        @NonNull Priority priority, @NonNull DataCallback<? super InputStream> callback) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void cleanup() {
+      cleanupCount++;
+    }
+
+    @Override
+    public void cancel() {}
+
+    @NonNull
+    @Override
+    public Class<InputStream> getDataClass() {
+      return InputStream.class;
+    }
+
+    @NonNull
+    @Override
+    public DataSource getDataSource() {
+      return DataSource.REMOTE;
+    }
+  }
+
+  private static final class HeapArrayPool implements ArrayPool {
+    @Override
+    public <T> void put(T array) {}
+
+    @Override
+    public <T> T get(int size, Class<T> arrayClass) {
+      return getExact(size, arrayClass);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T getExact(int size, Class<T> arrayClass) {
+      return (T) new byte[size];
+    }
+
+    @Override
+    public void clearMemory() {}
+
+    @Override
+    public void trimMemory(int level) {}
+  }
+}
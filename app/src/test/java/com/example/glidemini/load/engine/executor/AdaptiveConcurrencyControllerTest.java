@@ -0,0 +1,275 @@
+package com.example.glidemini.load.engine.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class AdaptiveConcurrencyControllerTest {
+  private static final long TASK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private final FakeClock clock = new FakeClock();
+  private final RecordingListener listener = new RecordingListener();
+  private final BacklogQueue queue = new BacklogQueue();
+  private ThreadPoolExecutor executor;
+
+  @After
+  public void tearDown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructor_withMaxBelowMin_throws() {
+    new AdaptiveConcurrencyController(4, 2, listener, clock);
+  }
+
+  @Test
+  public void onTaskCompleted_beforeSampleInterval_makesNoDecision() {
+    AdaptiveConcurrencyController controller = newController(1, 8, /*threadCount=*/ 2);
+    queue.depth = 10;
+
+    clock.advanceMillis(AdaptiveConcurrencyController.SAMPLE_INTERVAL_MS - 1);
+    runTasks(controller, 5, /*blockedFraction=*/ 0.9f);
+
+    assertEquals(0, listener.decisions.size());
+    assertEquals(2, executor.getCorePoolSize());
+  }
+
+  @Test
+  public void onTaskCompleted_ioBoundWithBacklog_addsThread() {
+    AdaptiveConcurrencyController controller = newController(1, 8, /*threadCount=*/ 2);
+    queue.depth = 10;
+
+    sample(controller, /*tasks=*/ 10, /*blockedFraction=*/ 0.9f);
+
+    AdaptiveConcurrencyController.Decision decision = lastDecision();
+    assertEquals(AdaptiveConcurrencyController.Reason.IO_BOUND_BACKLOG, decision.getReason());
+    assertEquals(2, decision.getPreviousThreadCount());
+    assertEquals(3, decision.getThreadCount());
+    assertEquals(3, executor.getCorePoolSize());
+    assertEquals(3, executor.getMaximumPoolSize());
+  }
+
+  @Test
+  public void onTaskCompleted_ioBoundAtMaxThreadCount_keepsSize() {
+    AdaptiveConcurrencyController controller = newController(1, 2, /*threadCount=*/ 2);
+    queue.depth = 10;
+
+    sample(controller, /*tasks=*/ 10, /*blockedFraction=*/ 0.9f);
+
+    assertEquals(
+        AdaptiveConcurrencyController.Reason.AT_MAX_THREAD_COUNT, lastDecision().getReason());
+    assertEquals(2, executor.getCorePoolSize());
+  }
+
+  @Test
+  public void onTaskCompleted_withoutBacklog_keepsSize() {
+    AdaptiveConcurrencyController controller = newController(1, 8, /*threadCount=*/ 2);
+
+    sample(controller, /*tasks=*/ 10, /*blockedFraction=*/ 0.9f);
+
+    assertEquals(AdaptiveConcurrencyController.Reason.NO_BACKLOG, lastDecision().getReason());
+    assertEquals(2, executor.getCorePoolSize());
+  }
+
+  @Test
+  public void onTaskCompleted_neitherIoNorCpuBound_keepsSize() {
+    AdaptiveConcurrencyController controller = newController(1, 8, /*threadCount=*/ 1);
+    queue.depth = 10;
+
+    sample(controller, /*tasks=*/ 10, /*blockedFraction=*/ 0.3f);
+
+    assertEquals(AdaptiveConcurrencyController.Reason.BALANCED, lastDecision().getReason());
+    assertEquals(1, executor.getCorePoolSize());
+  }
+
+  @Test
+  public void onTaskCompleted_cpuBoundWithMoreThreadsThanCores_halvesDownToCores() {
+    int cores = RuntimeCompat.availableProcessors();
+    int threadCount = cores * 4;
+    AdaptiveConcurrencyController controller = newController(1, threadCount, threadCount);
+    queue.depth = 10;
+
+    sample(controller, /*tasks=*/ 10, /*blockedFraction=*/ 0f);
+
+    AdaptiveConcurrencyController.Decision decision = lastDecision();
+    assertEquals(AdaptiveConcurrencyController.Reason.CPU_BOUND, decision.getReason());
+    assertEquals(Math.max(cores, threadCount / 2), decision.getThreadCount());
+    assertEquals(decision.getThreadCount(), executor.getCorePoolSize());
+  }
+
+  @Test
+  public void onTaskCompleted_throughputDropAfterIncrease_halves() {
+    AdaptiveConcurrencyController controller = newController(1, 8, /*threadCount=*/ 4);
+    queue.depth = 10;
+    sample(controller, /*tasks=*/ 20, /*blockedFraction=*/ 0.9f);
+    assertEquals(5, executor.getCorePoolSize());
+
+    sample(controller, /*tasks=*/ 10, /*blockedFraction=*/ 0.9f);
+
+    AdaptiveConcurrencyController.Decision decision = lastDecision();
+    assertEquals(AdaptiveConcurrencyController.Reason.THROUGHPUT_DROPPED, decision.getReason());
+    assertEquals(5, decision.getPreviousThreadCount());
+    assertEquals(2, decision.getThreadCount());
+    assertEquals(2, executor.getCorePoolSize());
+  }
+
+  @Test
+  public void onTaskCompleted_throughputDropAtMinThreadCount_keepsSize() {
+    AdaptiveConcurrencyController controller = newController(3, 8, /*threadCount=*/ 3);
+    queue.depth = 10;
+    sample(controller, /*tasks=*/ 20, /*blockedFraction=*/ 0.9f);
+    assertEquals(4, executor.getCorePoolSize());
+
+    sample(controller, /*tasks=*/ 10, /*blockedFraction=*/ 0.9f);
+
+    assertEquals(
+        AdaptiveConcurrencyController.Reason.THROUGHPUT_DROPPED, lastDecision().getReason());
+    assertEquals(3, executor.getCorePoolSize());
+  }
+
+  @Test
+  public void onTaskCompleted_throughputDropWithinTolerance_keepsGrowing() {
+    AdaptiveConcurrencyController controller = newController(1, 8, /*threadCount=*/ 2);
+    queue.depth = 10;
+    sample(controller, /*tasks=*/ 20, /*blockedFraction=*/ 0.9f);
+
+    sample(controller, /*tasks=*/ 19, /*blockedFraction=*/ 0.9f);
+
+    assertEquals(AdaptiveConcurrencyController.Reason.IO_BOUND_BACKLOG, lastDecision().getReason());
+    assertEquals(4, executor.getCorePoolSize());
+  }
+
+  @Test
+  public void onTaskCompleted_throughputDropAfterIdlePool_isNotComparedToPreviousSample() {
+    AdaptiveConcurrencyController controller = newController(1, 8, /*threadCount=*/ 2);
+    queue.depth = 10;
+    sample(controller, /*tasks=*/ 20, /*blockedFraction=*/ 0.9f);
+
+    // Nothing ran for a while, so the few tasks since say nothing about the extra thread.
+    clock.advanceMillis(3 * AdaptiveConcurrencyController.SAMPLE_INTERVAL_MS);
+    runTasks(controller, 2, /*blockedFraction=*/ 0.9f);
+
+    assertEquals(AdaptiveConcurrencyController.Reason.IO_BOUND_BACKLOG, lastDecision().getReason());
+    assertEquals(4, executor.getCorePoolSize());
+  }
+
+  @Test
+  public void onTaskCompleted_reportsThroughputAndBlockedFractionOfSample() {
+    AdaptiveConcurrencyController controller = newController(1, 8, /*threadCount=*/ 2);
+    queue.depth = 7;
+
+    clock.advanceMillis(AdaptiveConcurrencyController.SAMPLE_INTERVAL_MS / 2);
+    runTasks(controller, 10, /*blockedFraction=*/ 0.75f);
+    clock.advanceMillis(AdaptiveConcurrencyController.SAMPLE_INTERVAL_MS / 2);
+    runTasks(controller, 1, /*blockedFraction=*/ 0.75f);
+
+    AdaptiveConcurrencyController.Decision decision = lastDecision();
+    assertEquals(1, listener.decisions.size());
+    assertEquals(11f, decision.getThroughput(), 0.01f);
+    assertEquals(0.75f, decision.getBlockedFraction(), 0.001f);
+    assertEquals(7, decision.getQueueDepth());
+  }
+
+  @Test
+  public void onTaskCompleted_eachSampleOnlyCountsTasksSinceThePreviousOne() {
+    AdaptiveConcurrencyController controller = newController(1, 8, /*threadCount=*/ 2);
+    sample(controller, /*tasks=*/ 20, /*blockedFraction=*/ 0.1f);
+
+    sample(controller, /*tasks=*/ 5, /*blockedFraction=*/ 0.9f);
+
+    AdaptiveConcurrencyController.Decision decision = lastDecision();
+    assertEquals(2, listener.decisions.size());
+    assertEquals(5f, decision.getThroughput(), 0.01f);
+    assertEquals(0.9f, decision.getBlockedFraction(), 0.001f);
+  }
+
+  @Test
+  public void onTaskCompleted_withCpuTimeAboveWallTime_countsTaskAsNotBlocked() {
+    AdaptiveConcurrencyController controller = newController(1, 8, /*threadCount=*/ 2);
+    clock.advanceMillis(AdaptiveConcurrencyController.SAMPLE_INTERVAL_MS);
+
+    // CPU time is measured by a coarser clock than wall time, so it can come out ahead.
+    controller.onTaskCompleted(TASK_NANOS, 2 * TASK_NANOS);
+
+    assertEquals(0f, lastDecision().getBlockedFraction(), 0f);
+  }
+
+  private AdaptiveConcurrencyController newController(
+      int minThreadCount, int maxThreadCount, int threadCount) {
+    AdaptiveConcurrencyController controller =
+        new AdaptiveConcurrencyController(minThreadCount, maxThreadCount, listener, clock);
+    executor =
+        new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS, queue);
+    controller.attach(executor);
+    return controller;
+  }
+
+  // Runs the given number of tasks over one sample interval, the last one triggers a decision.
+  private void sample(AdaptiveConcurrencyController controller, int tasks, float blockedFraction) {
+    runTasks(controller, tasks - 1, blockedFraction);
+    clock.advanceMillis(AdaptiveConcurrencyController.SAMPLE_INTERVAL_MS);
+    int decisions = listener.decisions.size();
+    runTasks(controller, 1, blockedFraction);
+    assertTrue("No decision made", listener.decisions.size() > decisions);
+  }
+
+  private static void runTasks(
+      AdaptiveConcurrencyController controller, int count, float blockedFraction) {
+    long cpuNanos = (long) (TASK_NANOS * (1 - blockedFraction));
+    for (int i = 0; i < count; i++) {
+      controller.onTaskCompleted(TASK_NANOS, cpuNanos);
+    }
+  }
+
+  private AdaptiveConcurrencyController.Decision lastDecision() {
+    assertTrue("No decision made", listener.decisions.size() > 0);
+    return listener.decisions.get(listener.decisions.size() - 1);
+  }
+
+  private static final class FakeClock extends AdaptiveConcurrencyController.Clock {
+    private long nanos;
+
+    void advanceMillis(long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Override
+    long nanoTime() {
+      return nanos;
+    }
+
+    @Override
+    long threadCpuTimeNanos() {
+      throw new UnsupportedOperationException("Tests report CPU time directly");
+    }
+  }
+
+  // Reports a backlog without holding tasks, so growing the pool only starts idle threads.
+  private static final class BacklogQueue extends LinkedBlockingQueue<Runnable> {
+    volatile int depth;
+
+    @Override
+    public int size() {
+      return depth;
+    }
+  }
+
+  private static final class RecordingListener implements AdaptiveConcurrencyController.Listener {
+    private final List<AdaptiveConcurrencyController.Decision> decisions = new ArrayList<>();
+
+    @Override
+    public void onDecision(@NonNull AdaptiveConcurrencyController.Decision decision) {
+      decisions.add(decision);
+    }
+  }
+}
@@ -0,0 +1,240 @@
+package com.example.glidemini.load.engine.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class ExecutorMetricsTest {
+  private static final ExecutorMetrics.QueueDepthProvider NO_QUEUE =
+      new ExecutorMetrics.QueueDepthProvider() {
+        @Override
+        public int getQueueDepth() {
+          return 0;
+        }
+      };
+
+  @Test
+  public void snapshot_countsSubmittedCompletedAndRejectedTasks() {
+    ExecutorMetrics metrics = newMetrics();
+    for (int i = 0; i < 3; i++) {
+      metrics.onSubmitted();
+    }
+    metrics.onRejected();
+    metrics.onCompleted(millis(1), NO_QUEUE);
+    metrics.onCompleted(millis(1), NO_QUEUE);
+
+    ExecutorStats stats = metrics.snapshot(/*queueDepth=*/ 5);
+
+    assertEquals("test", stats.getName());
+    assertEquals(3, stats.getSubmittedCount());
+    assertEquals(2, stats.getCompletedCount());
+    assertEquals(1, stats.getRejectedCount());
+    assertEquals(5, stats.getQueueDepth());
+  }
+
+  @Test
+  public void onCompleted_recordsRunTimeInBucketOfDuration() {
+    ExecutorMetrics metrics = newMetrics();
+
+    metrics.onCompleted(TimeUnit.MICROSECONDS.toNanos(500), NO_QUEUE);
+    metrics.onCompleted(millis(3), NO_QUEUE);
+    metrics.onCompleted(millis(3), NO_QUEUE);
+    metrics.onCompleted(millis(40_000), NO_QUEUE);
+
+    ExecutorStats.Histogram runTime = metrics.snapshot(0).getRunTime();
+    assertEquals(4, runTime.getCount());
+    assertEquals(1, runTime.getCount(0));
+    // [2, 4)ms.
+    assertEquals(2, runTime.getCount(2));
+    assertEquals(1, runTime.getCount(runTime.getBucketCount() - 1));
+    assertEquals(40_006, runTime.getTotalMillis());
+    assertEquals(40_000, runTime.getMaxMillis());
+    assertEquals(0, metrics.snapshot(0).getWaitTime().getCount());
+  }
+
+  @Test
+  public void recordWait_recordsWaitTimeOnly() {
+    ExecutorMetrics metrics = newMetrics();
+
+    metrics.recordWait(millis(5));
+    metrics.recordWait(millis(9));
+
+    ExecutorStats stats = metrics.snapshot(0);
+    ExecutorStats.Histogram waitTime = stats.getWaitTime();
+    assertEquals(2, waitTime.getCount());
+    // [4, 8)ms and [8, 16)ms.
+    assertEquals(1, waitTime.getCount(3));
+    assertEquals(1, waitTime.getCount(4));
+    assertEquals(14, waitTime.getTotalMillis());
+    assertEquals(9, waitTime.getMaxMillis());
+    assertEquals(0, stats.getRunTime().getCount());
+    assertEquals(0, stats.getCompletedCount());
+  }
+
+  @Test
+  public void dequeue_recordsQueueWaitInMetrics() throws InterruptedException {
+    ExecutorMetrics metrics = newMetrics();
+    PriorityTaskQueue queue =
+        new PriorityTaskQueue(
+            /*agingMillis=*/ 0, /*isLifoWithinPriority=*/ false, Integer.MAX_VALUE, metrics);
+    queue.offer(new Task());
+    queue.offer(new Task());
+    Thread.sleep(20);
+
+    queue.poll();
+    queue.poll();
+    queue.poll();
+
+    ExecutorStats.Histogram waitTime = metrics.snapshot(0).getWaitTime();
+    assertEquals(2, waitTime.getCount());
+    assertTrue(waitTime.getMaxMillis() >= 20);
+    assertTrue(waitTime.getTotalMillis() >= 40);
+  }
+
+  @Test
+  public void onCompleted_withZeroInterval_pushesSnapshotOfEveryCompletion() {
+    RecordingListener listener = new RecordingListener();
+    ExecutorMetrics metrics = new ExecutorMetrics("test", listener, /*pushIntervalMillis=*/ 0);
+    metrics.onSubmitted();
+    metrics.onSubmitted();
+
+    metrics.onCompleted(millis(1), queueOf(1));
+    metrics.onCompleted(millis(1), queueOf(0));
+
+    assertEquals(2, listener.stats.size());
+    assertEquals(1, listener.stats.get(0).getCompletedCount());
+    assertEquals(1, listener.stats.get(0).getQueueDepth());
+    assertEquals(2, listener.stats.get(1).getCompletedCount());
+    assertEquals(0, listener.stats.get(1).getQueueDepth());
+  }
+
+  @Test
+  public void onCompleted_beforeInterval_doesNotPush() {
+    RecordingListener listener = new RecordingListener();
+    ExecutorMetrics metrics =
+        new ExecutorMetrics("test", listener, /*pushIntervalMillis=*/ TimeUnit.HOURS.toMillis(1));
+
+    metrics.onCompleted(millis(1), NO_QUEUE);
+
+    assertEquals(0, listener.stats.size());
+    assertEquals(1, metrics.snapshot(0).getCompletedCount());
+  }
+
+  @Test
+  public void snapshot_duringConcurrentCompletions_isConsistent() throws InterruptedException {
+    final ExecutorMetrics metrics = newMetrics();
+    final int threads = 4;
+    final int tasksPerThread = 50_000;
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicBoolean isDone = new AtomicBoolean();
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      Thread worker =
+          new Thread() {
+            @Override
+            public void run() {
+              try {
+                start.await();
+                for (int i = 0; i < tasksPerThread; i++) {
+                  metrics.onSubmitted();
+                  metrics.recordWait(millis(1));
+                  metrics.onCompleted(millis(2), NO_QUEUE);
+                }
+              } catch (Throwable e) {
+                failure.set(e);
+              }
+            }
+          };
+      worker.start();
+      workers.add(worker);
+    }
+    Thread snapshotter =
+        new Thread() {
+          @Override
+          public void run() {
+            try {
+              start.await();
+              while (!isDone.get()) {
+                assertConsistent(metrics.snapshot(0));
+              }
+            } catch (Throwable e) {
+              failure.set(e);
+            }
+          }
+        };
+    snapshotter.start();
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    isDone.set(true);
+    snapshotter.join();
+    assertNull(failure.get());
+
+    ExecutorStats stats = metrics.snapshot(0);
+    assertConsistent(stats);
+    assertEquals(threads * tasksPerThread, stats.getCompletedCount());
+    assertEquals(threads * tasksPerThread, stats.getWaitTime().getCount());
+  }
+
+  // Every task waits 1ms and runs 2ms, so each histogram's totals follow from its count.
+  private static void assertConsistent(ExecutorStats stats) {
+    ExecutorStats.Histogram runTime = stats.getRunTime();
+    long completed = stats.getCompletedCount();
+    assertTrue(stats + "", completed <= stats.getSubmittedCount());
+    assertEquals(completed, runTime.getCount());
+    assertEquals(completed, runTime.getCount(2));
+    assertEquals(2 * completed, runTime.getTotalMillis());
+    assertEquals(completed == 0 ? 0 : 2, runTime.getMaxMillis());
+    ExecutorStats.Histogram waitTime = stats.getWaitTime();
+    assertEquals(waitTime.getCount(), waitTime.getCount(1));
+    assertEquals(waitTime.getCount(), waitTime.getTotalMillis());
+    assertEquals(waitTime.getCount() == 0 ? 0 : 1, waitTime.getMaxMillis());
+  }
+
+  private static ExecutorMetrics newMetrics() {
+    return new ExecutorMetrics("test", /*listener=*/ null, /*pushIntervalMillis=*/ 0);
+  }
+
+  private static long millis(long millis) {
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  private static ExecutorMetrics.QueueDepthProvider queueOf(final int depth) {
+    return new ExecutorMetrics.QueueDepthProvider() {
+      @Override
+      public int getQueueDepth() {
+        return depth;
+      }
+    };
+  }
+
+  private static final class Task implements PrioritizedTask {
+    @Override
+    public int getPriority() {
+      return 0;
+    }
+
+    @Override
+    public void run() {}
+  }
+
+  private static final class RecordingListener implements ExecutorStats.Listener {
+    private final List<ExecutorStats> stats = new ArrayList<>();
+
+    @Override
+    public void onStats(@NonNull ExecutorStats stats) {
+      this.stats.add(stats);
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package com.example.glidemini.load.engine.executor;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ExecutorStatsTest {
+
+  @Test
+  public void histogram_sumsBucketCounts() {
+    ExecutorStats.Histogram histogram = histogram(/*totalMillis=*/ 30, /*maxMillis=*/ 20, 1, 0, 2);
+
+    assertEquals(3, histogram.getCount());
+    assertEquals(10, histogram.getAverageMillis());
+  }
+
+  @Test
+  public void histogram_empty_reportsZeros() {
+    ExecutorStats.Histogram histogram = histogram(0, 0, 0, 0, 0);
+
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getAverageMillis());
+    assertEquals(0, histogram.getPercentileMillis(99));
+  }
+
+  @Test
+  public void getBucketUpperBoundMillis_doublesPerBucket() {
+    ExecutorStats.Histogram histogram = histogram(0, 0, 0, 0, 0, 0);
+
+    assertEquals(1, histogram.getBucketUpperBoundMillis(0));
+    assertEquals(2, histogram.getBucketUpperBoundMillis(1));
+    assertEquals(4, histogram.getBucketUpperBoundMillis(2));
+    assertEquals(Long.MAX_VALUE, histogram.getBucketUpperBoundMillis(3));
+  }
+
+  @Test
+  public void getPercentileMillis_returnsUpperBoundOfBucketHoldingRank() {
+    // 90 tasks under 1ms, 9 in [2, 4)ms, 1 in [4, 8)ms.
+    ExecutorStats.Histogram histogram = histogram(100, /*maxMillis=*/ 7, 90, 0, 9, 1, 0);
+
+    assertEquals(1, histogram.getPercentileMillis(50));
+    assertEquals(1, histogram.getPercentileMillis(90));
+    assertEquals(4, histogram.getPercentileMillis(99));
+    assertEquals(7, histogram.getPercentileMillis(100));
+  }
+
+  @Test
+  public void getPercentileMillis_neverExceedsMax() {
+    ExecutorStats.Histogram histogram = histogram(3, /*maxMillis=*/ 3, 0, 0, 1, 0);
+
+    assertEquals(3, histogram.getPercentileMillis(50));
+  }
+
+  @Test
+  public void getPercentileMillis_inLastBucket_returnsMax() {
+    ExecutorStats.Histogram histogram = histogram(50_000, /*maxMillis=*/ 50_000, 0, 0, 1);
+
+    assertEquals(50_000, histogram.getPercentileMillis(50));
+  }
+
+  private static ExecutorStats.Histogram histogram(
+      long totalMillis, long maxMillis, long... counts) {
+    return new ExecutorStats.Histogram(counts, totalMillis, maxMillis);
+  }
+}
@@ -0,0 +1,142 @@
+package com.example.glidemini.load.engine.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.example.glidemini.loader.model.Priority;
+import org.junit.Test;
+
+public class PriorityTaskQueueTest {
+
+  @Test
+  public void poll_runsHigherPriorityFirstAndFifoWithinPriority() throws InterruptedException {
+    PriorityTaskQueue queue = newQueue(/*agingMillis=*/ 0, /*isLifo=*/ false);
+    TestTask low = new TestTask(Priority.LOW);
+    TestTask first = new TestTask(Priority.HIGH);
+    TestTask second = new TestTask(Priority.HIGH);
+
+    offerAll(queue, low, first, second);
+
+    assertSame(first, queue.poll());
+    assertSame(second, queue.poll());
+    assertSame(low, queue.poll());
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void poll_inLifoMode_runsNewestFirstWithinPriority() throws InterruptedException {
+    PriorityTaskQueue queue = newQueue(/*agingMillis=*/ 0, /*isLifo=*/ true);
+    TestTask first = new TestTask(Priority.NORMAL);
+    TestTask second = new TestTask(Priority.NORMAL);
+
+    offerAll(queue, first, second);
+
+    assertSame(second, queue.poll());
+    assertSame(first, queue.poll());
+  }
+
+  @Test
+  public void poll_withAgedLowPriorityTask_runsItBeforeNewerHigherPriorityTask()
+      throws InterruptedException {
+    PriorityTaskQueue queue = newQueue(/*agingMillis=*/ 10, /*isLifo=*/ false);
+    TestTask low = new TestTask(Priority.LOW);
+    queue.offer(low);
+    // Three aging steps take LOW past NORMAL.
+    Thread.sleep(40);
+    TestTask normal = new TestTask(Priority.NORMAL);
+    queue.offer(normal);
+
+    assertSame(low, queue.poll());
+    assertSame(normal, queue.poll());
+  }
+
+  @Test
+  public void reprioritize_insertsTaskByQueueTime() throws InterruptedException {
+    PriorityTaskQueue queue = newQueue(/*agingMillis=*/ 0, /*isLifo=*/ false);
+    TestTask first = new TestTask(Priority.HIGH);
+    TestTask raised = new TestTask(Priority.LOW);
+    TestTask last = new TestTask(Priority.HIGH);
+    offerAll(queue, first, raised, last);
+
+    raised.priority = Priority.HIGH;
+    assertTrue(queue.reprioritize(raised));
+
+    assertSame(first, queue.poll());
+    assertSame(raised, queue.poll());
+    assertSame(last, queue.poll());
+  }
+
+  @Test
+  public void reprioritize_inLifoMode_insertsTaskByQueueTime() throws InterruptedException {
+    PriorityTaskQueue queue = newQueue(/*agingMillis=*/ 0, /*isLifo=*/ true);
+    TestTask first = new TestTask(Priority.HIGH);
+    TestTask raised = new TestTask(Priority.LOW);
+    TestTask last = new TestTask(Priority.HIGH);
+    offerAll(queue, first, raised, last);
+
+    raised.priority = Priority.HIGH;
+    assertTrue(queue.reprioritize(raised));
+
+    assertSame(last, queue.poll());
+    assertSame(raised, queue.poll());
+    assertSame(first, queue.poll());
+  }
+
+  @Test
+  public void reprioritize_withTaskThatIsNotQueued_returnsFalse() {
+    PriorityTaskQueue queue = newQueue(/*agingMillis=*/ 0, /*isLifo=*/ false);
+
+    assertFalse(queue.reprioritize(new TestTask(Priority.HIGH)));
+    assertEquals(0, queue.size());
+  }
+
+  @Test
+  public void offer_whenFull_returnsFalse() {
+    PriorityTaskQueue queue =
+        new PriorityTaskQueue(
+            /*agingMillis=*/ 0,
+            /*isLifo=*/ false,
+            /*capacity=*/ 1,
+            new ExecutorMetrics("test", /*listener=*/ null, /*pushIntervalMillis=*/ 0));
+
+    assertTrue(queue.offer(new TestTask(Priority.LOW)));
+    assertFalse(queue.offer(new TestTask(Priority.IMMEDIATE)));
+    assertEquals(0, queue.remainingCapacity());
+  }
+
+  private static PriorityTaskQueue newQueue(long agingMillis, boolean isLifo) {
+    return new PriorityTaskQueue(
+        agingMillis,
+        isLifo,
+        Integer.MAX_VALUE,
+        new ExecutorMetrics("test", /*listener=*/ null, /*pushIntervalMillis=*/ 0));
+  }
+
+  // Queue times come from System.nanoTime(), keep them distinct.
+  private static void offerAll(PriorityTaskQueue queue, TestTask... tasks)
+      throws InterruptedException {
+    for (TestTask task : tasks) {
+      queue.offer(task);
+      Thread.sleep(1);
+    }
+  }
+
+  private static final class TestTask implements PrioritizedTask {
+    Priority priority;
+
+    TestTask(Priority priority) {
+      this.priority = priority;
+    }
+
+    @Override
+    public int getPriority() {
+      return priority.ordinal();
+    }
+
+    @Override
+    public void run() {}
+  }
+}
@@ -0,0 +1,89 @@
+package com.example.glidemini.load.engine.executor;
+
+import com.example.glidemini.benchmark.Benchmark;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares a single stage source executor with a staged one on loads that wait for the network
+ * and then decode, run with {@code -Pbenchmark}.
+ *
+ * <p>Fetches sleep to stand in for network latency and decodes spin for a fixed time. Staged loads
+ * hand off to the decode stage like {@code DecodeJob} does, and decode on the I/O thread when the
+ * handoff is full.
+ */
+public class StagedSourceExecutorBenchmarkTest {
+  private static final int LOAD_COUNT = 200;
+  private static final long[] FETCH_MILLIS = {5, 50, 200};
+  private static final long DECODE_MILLIS = 3;
+
+  @Before
+  public void setUp() {
+    Benchmark.assumeEnabled();
+  }
+
+  @Test
+  public void loads() throws InterruptedException {
+    for (long fetchMillis : FETCH_MILLIS) {
+      double singleStage = loadsPerSecond(GlideExecutor.newSourceExecutor(), fetchMillis);
+      double staged = loadsPerSecond(GlideExecutor.newStagedSourceExecutor(), fetchMillis);
+      Benchmark.report(
+          String.format(
+              Locale.US,
+              "%d loads, %d ms fetch, %d ms decode: single stage %.0f loads/s, staged %.0f loads/s",
+              LOAD_COUNT,
+              fetchMillis,
+              DECODE_MILLIS,
+              singleStage,
+              staged));
+    }
+  }
+
+  private static double loadsPerSecond(final GlideExecutor executor, final long fetchMillis)
+      throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(LOAD_COUNT);
+    final GlideExecutor decodeStage = executor.getDecodeStage();
+    long startNanos = System.nanoTime();
+    for (int i = 0; i < LOAD_COUNT; i++) {
+      executor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                Thread.sleep(fetchMillis);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+              }
+              Runnable decode =
+                  new Runnable() {
+                    @Override
+                    public void run() {
+                      spin(DECODE_MILLIS);
+                      done.countDown();
+                    }
+                  };
+              if (decodeStage == null || !decodeStage.tryExecute(decode)) {
+                decode.run();
+              }
+            }
+          });
+    }
+    done.await();
+    double seconds = (System.nanoTime() - startNanos) / 1e9;
+    // Also shuts the decode stage down.
+    executor.shutdown();
+    return LOAD_COUNT / seconds;
+  }
+
+  // Busy for the given time, like a decode holding a CPU.
+  static void spin(long millis) {
+    long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    while (System.nanoTime() < end) {
+      // Spin.
+    }
+  }
+}
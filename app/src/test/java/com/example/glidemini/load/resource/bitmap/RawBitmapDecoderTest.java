@@ -0,0 +1,175 @@
+package com.example.glidemini.load.resource.bitmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.graphics.Bitmap;
+import com.example.glidemini.bitmapRecycle.BitmapPoolAdapter;
+import com.example.glidemini.load.Options;
+import com.example.glidemini.load.engine.Resource;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class RawBitmapDecoderTest {
+  // Offsets of the header fields, see RawBitmapFormat.
+  private static final int CONFIG_OFFSET = 5;
+  private static final int WIDTH_OFFSET = 8;
+  private static final int HEIGHT_OFFSET = 12;
+  private static final int ROW_BYTES_OFFSET = 16;
+  private static final int BYTE_COUNT_OFFSET = 20;
+
+  private final RawBitmapDecoder decoder = new RawBitmapDecoder(new BitmapPoolAdapter());
+  private final Options options = new Options();
+
+  @Test
+  public void decode_ofEncodedBitmap_restoresSizeConfigAndPixels() throws IOException {
+    Bitmap original = newBitmap(7, 5);
+    ByteBuffer data = encode(original);
+
+    assertTrue(decoder.handles(data, options));
+    Resource<Bitmap> resource = decoder.decode(data, 100, 100, options);
+
+    Bitmap decoded = resource.get();
+    assertEquals(7, decoded.getWidth());
+    assertEquals(5, decoded.getHeight());
+    assertEquals(Bitmap.Config.ARGB_8888, decoded.getConfig());
+    for (int y = 0; y < 5; y++) {
+      for (int x = 0; x < 7; x++) {
+        assertEquals(original.getPixel(x, y), decoded.getPixel(x, y));
+      }
+    }
+  }
+
+  @Test
+  public void decode_leavesSourcePositionAlone() throws IOException {
+    ByteBuffer data = encode(newBitmap(3, 3));
+
+    decoder.decode(data, 3, 3, options);
+
+    assertEquals(0, data.position());
+  }
+
+  @Test
+  public void handles_withoutMagic_returnsFalse() {
+    ByteBuffer data = encode(newBitmap(3, 3));
+    data.putInt(0, 0x89504e47);
+
+    assertFalse(decoder.handles(data, options));
+  }
+
+  @Test
+  public void handles_withTruncatedHeader_returnsFalse() {
+    ByteBuffer data = encode(newBitmap(3, 3));
+    data.limit(RawBitmapFormat.HEADER_SIZE - 1);
+
+    assertFalse(decoder.handles(data, options));
+  }
+
+  @Test
+  public void decode_withTruncatedPixels_throws() {
+    ByteBuffer data = encode(newBitmap(3, 3));
+    data.limit(data.limit() - 1);
+
+    assertInvalid(data);
+  }
+
+  @Test
+  public void decode_withUnknownConfig_throws() {
+    ByteBuffer data = encode(newBitmap(3, 3));
+    data.put(CONFIG_OFFSET, (byte) 42);
+
+    assertInvalid(data);
+  }
+
+  @Test
+  public void decode_withNonPositiveDimensions_throws() {
+    ByteBuffer data = encode(newBitmap(3, 3));
+    data.putInt(WIDTH_OFFSET, 0);
+    assertInvalid(data);
+
+    data = encode(newBitmap(3, 3));
+    data.putInt(HEIGHT_OFFSET, -3);
+    assertInvalid(data);
+  }
+
+  @Test
+  public void decode_withByteCountNotMatchingRows_throws() {
+    ByteBuffer data = encode(newBitmap(3, 3));
+    data.putInt(BYTE_COUNT_OFFSET, data.getInt(BYTE_COUNT_OFFSET) - 4);
+
+    assertInvalid(data);
+  }
+
+  @Test
+  public void decode_withRowBytesTooSmallForWidth_throws() {
+    ByteBuffer data = encode(newBitmap(3, 3));
+    // Rows and byte count still match, but rejected before a bitmap this wide is allocated.
+    data.putInt(WIDTH_OFFSET, 1_000_000);
+
+    assertInvalid(data);
+  }
+
+  @Test
+  public void decode_withRowsOverflowingInt_throws() {
+    ByteBuffer data = encode(newBitmap(3, 3));
+    // 65536 * 65536 wraps around to a byte count of 0 as an int.
+    data.putInt(WIDTH_OFFSET, 1);
+    data.putInt(HEIGHT_OFFSET, 65536);
+    data.putInt(ROW_BYTES_OFFSET, 65536);
+    data.putInt(BYTE_COUNT_OFFSET, 0);
+
+    assertInvalid(data);
+  }
+
+  @Test
+  public void decode_withRowsLargerThanData_throws() {
+    ByteBuffer data = encode(newBitmap(3, 3));
+    data.putInt(HEIGHT_OFFSET, 100_000);
+    data.putInt(BYTE_COUNT_OFFSET, 1_200_000);
+
+    assertInvalid(data);
+  }
+
+  // Checks the header itself is rejected, before the decoder allocates a bitmap for it.
+  private void assertInvalid(ByteBuffer data) {
+    try {
+      RawBitmapFormat.readHeader(data.duplicate());
+      fail("Expected an IOException");
+    } catch (IOException expected) {
+      // Expected.
+    }
+    try {
+      decoder.decode(data, 3, 3, options);
+      fail("Expected an IOException");
+    } catch (IOException expected) {
+      // Expected.
+    }
+  }
+
+  private static Bitmap newBitmap(int width, int height) {
+    Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        bitmap.setPixel(x, y, 0xff000000 | (x * 40) << 16 | (y * 40) << 8 | (x + y));
+      }
+    }
+    return bitmap;
+  }
+
+  // Lays the bitmap out the way BitmapEncoder writes it with ENCODE_RAW_PIXELS.
+  private static ByteBuffer encode(Bitmap bitmap) {
+    ByteBuffer buffer = ByteBuffer.allocate(RawBitmapFormat.HEADER_SIZE + bitmap.getByteCount());
+    RawBitmapFormat.writeHeader(buffer, bitmap);
+    bitmap.copyPixelsToBuffer(buffer);
+    buffer.rewind();
+    return buffer;
+  }
+}
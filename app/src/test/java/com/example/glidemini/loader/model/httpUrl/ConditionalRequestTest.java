@@ -0,0 +1,159 @@
+package com.example.glidemini.loader.model.httpUrl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.example.glidemini.cache.key.GlideUrl;
+import com.example.glidemini.load.CacheValidators;
+import com.example.glidemini.load.HttpException;
+import com.example.glidemini.loader.model.DataFetcher;
+import com.example.glidemini.loader.model.Priority;
+import com.example.glidemini.testutil.LocalHttpServer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Revalidation of cached source data against a local server, see {@link CacheValidators}. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class ConditionalRequestTest {
+  private LocalHttpServer server;
+  private HttpConnectionManager connectionManager;
+  private GlideUrl url;
+  private volatile byte[] body = "first".getBytes();
+  @Nullable private volatile String eTag = "\"v1\"";
+  private volatile String cacheControl = "max-age=60";
+  @Nullable private volatile String lastIfNoneMatch;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new LocalHttpServer();
+    server.serve(
+        "/image",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            serve(exchange);
+          }
+        });
+    connectionManager = new HttpConnectionManager();
+    url = server.url("/image");
+  }
+
+  @After
+  public void tearDown() {
+    server.close();
+  }
+
+  @Test
+  public void load_recordsValidatorsOfResponse() throws IOException {
+    Result result = load(/*validators=*/ null);
+
+    assertArrayEquals("first".getBytes(), result.data);
+    CacheValidators validators = result.validators;
+    assertEquals("\"v1\"", validators.getETag());
+    assertEquals(60_000, validators.getMaxAgeMillis());
+    assertNull(lastIfNoneMatch);
+  }
+
+  @Test
+  public void load_withUnchangedSource_failsWithNotModified() throws IOException {
+    CacheValidators cached = load(null).validators;
+    cacheControl = "max-age=120";
+
+    Result result = load(cached);
+
+    assertEquals("\"v1\"", lastIfNoneMatch);
+    assertTrue(result.exception instanceof HttpException);
+    assertEquals(
+        CacheValidators.HTTP_NOT_MODIFIED, ((HttpException) result.exception).getStatusCode());
+    CacheValidators refreshed = cached.refresh(result.validators, System.currentTimeMillis());
+    assertEquals(cached.getVersion(), refreshed.getVersion());
+    assertEquals(120_000, refreshed.getMaxAgeMillis());
+  }
+
+  @Test
+  public void load_withModifiedSource_returnsNewDataAndVersion() throws IOException {
+    CacheValidators cached = load(null).validators;
+    eTag = "\"v2\"";
+    body = "second".getBytes();
+
+    Result result = load(cached);
+
+    assertArrayEquals("second".getBytes(), result.data);
+    assertFalse(cached.getVersion().equals(result.validators.getVersion()));
+  }
+
+  @Test
+  public void load_withoutValidatorsInResponse_onlyRecordsAge() throws IOException {
+    eTag = null;
+
+    Result result = load(null);
+
+    assertFalse(result.validators.hasValidators());
+    assertEquals(60_000, result.validators.getMaxAgeMillis());
+  }
+
+  private Result load(@Nullable CacheValidators validators) throws IOException {
+    PooledHttpUrlFetcher fetcher =
+        new PooledHttpUrlFetcher(url, /*timeout=*/ 2500, connectionManager);
+    if (validators != null) {
+      fetcher.setConditionalValidators(validators);
+    }
+    final Result result = new Result();
+    fetcher.loadData(
+        Priority.NORMAL,
+        new DataFetcher.DataCallback<InputStream>() {
+          @Override
+          public void onDataReady(@Nullable InputStream data) {
+            try {
+              result.data = LocalHttpServer.readFully(data);
+            } catch (IOException e) {
+              result.exception = e;
+            }
+          }
+
+          @Override
+          public void onLoadFailed(@NonNull Exception e) {
+            result.exception = e;
+          }
+        });
+    result.validators = fetcher.getResponseValidators();
+    fetcher.cleanup();
+    return result;
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    lastIfNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+    String currentETag = eTag;
+    if (currentETag != null) {
+      exchange.getResponseHeaders().set("ETag", currentETag);
+    }
+    exchange.getResponseHeaders().set("Cache-Control", cacheControl);
+    if (currentETag != null && currentETag.equals(lastIfNoneMatch)) {
+      exchange.sendResponseHeaders(CacheValidators.HTTP_NOT_MODIFIED, -1);
+      exchange.close();
+      return;
+    }
+    LocalHttpServer.respond(exchange, HttpURLConnection.HTTP_OK, body);
+  }
+
+  private static final class Result {
+    @Nullable byte[] data;
+    @Nullable Exception exception;
+    @Nullable CacheValidators validators;
+  }
+}
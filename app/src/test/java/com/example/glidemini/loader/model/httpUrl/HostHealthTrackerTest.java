@@ -0,0 +1,312 @@
+package com.example.glidemini.loader.model.httpUrl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import com.example.glidemini.load.HttpException;
+import com.example.glidemini.loader.model.httpUrl.HostHealthTracker.State;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Covers retries and the circuit breaker's state transitions, on Robolectric's clock. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class HostHealthTrackerTest {
+  private static final String HOST = "example.com";
+  private static final int FAILURE_THRESHOLD = 3;
+  private static final long COOLDOWN_MILLIS = 1000;
+  private static final int MAX_RETRIES = 2;
+
+  private final List<String> transitions = new ArrayList<>();
+  private HostHealthTracker tracker;
+
+  @Before
+  public void setUp() {
+    tracker = newTracker(MAX_RETRIES);
+  }
+
+  @Test
+  public void fetch_withTransientFailures_retriesUntilSuccess() throws IOException {
+    TestRequest request = new TestRequest(serverError(), serverError(), "data");
+
+    assertEquals("data", tracker.fetch(HOST, request));
+    assertEquals(3, request.attempts);
+    assertEquals(2, request.retries);
+    assertEquals(State.CLOSED, tracker.getState(HOST));
+  }
+
+  @Test
+  public void fetch_withTransientFailures_throwsLastFailureAfterMaxRetries() {
+    HttpException last = new HttpException("Unavailable", 503);
+    TestRequest request = new TestRequest(serverError(), serverError(), last);
+
+    assertThrows(last, request);
+    assertEquals(MAX_RETRIES + 1, request.attempts);
+  }
+
+  @Test
+  public void fetch_withNonTransientFailure_doesNotRetry() {
+    HttpException notFound = new HttpException("Not found", 404);
+    TestRequest request = new TestRequest(notFound, "data");
+
+    assertThrows(notFound, request);
+    assertEquals(1, request.attempts);
+  }
+
+  @Test
+  public void fetch_cancelledWhileBackingOff_returnsNull() throws IOException {
+    TestRequest request = new TestRequest(serverError(), "data");
+    request.cancelOnRetry = true;
+
+    assertNull(tracker.fetch(HOST, request));
+    assertEquals(1, request.attempts);
+  }
+
+  @Test
+  public void fetch_belowFailureThreshold_staysClosed() {
+    failTimes(FAILURE_THRESHOLD - 1);
+
+    assertEquals(State.CLOSED, tracker.getState(HOST));
+    assertTrue(transitions.isEmpty());
+  }
+
+  @Test
+  public void fetch_atFailureThreshold_opensCircuitAndStopsRetrying() {
+    tracker = newTracker(/*maxRetries=*/ FAILURE_THRESHOLD + 1);
+    TestRequest request = new TestRequest(serverError(), serverError(), serverError(), "data");
+
+    assertThrows(null, request);
+    assertEquals(FAILURE_THRESHOLD, request.attempts);
+    assertEquals(State.OPEN, tracker.getState(HOST));
+    assertEquals(Arrays.asList("CLOSED -> OPEN"), transitions);
+  }
+
+  @Test
+  public void fetch_whileOpen_failsWithoutRequest() {
+    failTimes(FAILURE_THRESHOLD);
+    TestRequest request = new TestRequest("data");
+
+    HttpException e = assertThrows(null, request);
+    assertEquals(-1, e.getStatusCode());
+    assertEquals(0, request.attempts);
+  }
+
+  @Test
+  public void fetch_whileOpen_onOtherHost_isAllowed() throws IOException {
+    failTimes(FAILURE_THRESHOLD);
+
+    assertEquals("data", tracker.fetch("other.com", new TestRequest("data")));
+  }
+
+  @Test
+  public void fetch_afterCooldown_allowsOneProbe() throws IOException {
+    failTimes(FAILURE_THRESHOLD);
+    advanceClock(COOLDOWN_MILLIS);
+    final List<State> statesDuringProbe = new ArrayList<>();
+    final List<Integer> concurrentAttempts = new ArrayList<>();
+    TestRequest probe =
+        new TestRequest("data") {
+          @Override
+          public String execute() throws IOException {
+            statesDuringProbe.add(tracker.getState(HOST));
+            TestRequest concurrent = new TestRequest("data");
+            try {
+              tracker.fetch(HOST, concurrent);
+            } catch (HttpException e) {
+              // Expected, only the probe is allowed.
+            }
+            concurrentAttempts.add(concurrent.attempts);
+            return super.execute();
+          }
+        };
+
+    assertEquals("data", tracker.fetch(HOST, probe));
+    assertEquals(Arrays.asList(State.HALF_OPEN), statesDuringProbe);
+    assertEquals(Arrays.asList(0), concurrentAttempts);
+    assertEquals(State.CLOSED, tracker.getState(HOST));
+    assertEquals(
+        Arrays.asList("CLOSED -> OPEN", "OPEN -> HALF_OPEN", "HALF_OPEN -> CLOSED"), transitions);
+  }
+
+  @Test
+  public void fetch_withFailedProbe_reopensCircuit() {
+    failTimes(FAILURE_THRESHOLD);
+    advanceClock(COOLDOWN_MILLIS);
+    HttpException failure = serverError();
+
+    assertThrows(failure, new TestRequest(failure, "data"));
+    assertEquals(State.OPEN, tracker.getState(HOST));
+    assertEquals(
+        Arrays.asList("CLOSED -> OPEN", "OPEN -> HALF_OPEN", "HALF_OPEN -> OPEN"), transitions);
+    assertEquals(-1, assertThrows(null, new TestRequest("data")).getStatusCode());
+  }
+
+  @Test
+  public void fetch_withNonTransientProbeFailure_closesCircuit() {
+    failTimes(FAILURE_THRESHOLD);
+    advanceClock(COOLDOWN_MILLIS);
+    HttpException notFound = new HttpException("Not found", 404);
+
+    assertThrows(notFound, new TestRequest(notFound));
+    assertEquals(State.CLOSED, tracker.getState(HOST));
+  }
+
+  @Test
+  public void fetch_withCancelledProbe_allowsNextProbeAfterCooldown() throws IOException {
+    failTimes(FAILURE_THRESHOLD);
+    advanceClock(COOLDOWN_MILLIS);
+    TestRequest cancelled = new TestRequest((Object) null);
+
+    assertNull(tracker.fetch(HOST, cancelled));
+    assertEquals(State.HALF_OPEN, tracker.getState(HOST));
+    assertThrows(null, new TestRequest("data"));
+
+    advanceClock(COOLDOWN_MILLIS);
+    assertEquals("data", tracker.fetch(HOST, new TestRequest("data")));
+    assertEquals(State.CLOSED, tracker.getState(HOST));
+  }
+
+  @Test
+  public void fetch_withNonTransientFailure_resetsFailureCount() {
+    failTimes(FAILURE_THRESHOLD - 1);
+    HttpException notFound = new HttpException("Not found", 404);
+    assertThrows(notFound, new TestRequest(notFound));
+    failTimes(FAILURE_THRESHOLD - 1);
+
+    assertEquals(State.CLOSED, tracker.getState(HOST));
+  }
+
+  @Test
+  public void isTransient_forTemporaryErrors_returnsTrue() {
+    assertTrue(HostHealthTracker.isTransient(new SocketTimeoutException()));
+    assertTrue(HostHealthTracker.isTransient(new ConnectException()));
+    assertTrue(HostHealthTracker.isTransient(new HttpException("", 500)));
+    assertTrue(HostHealthTracker.isTransient(new HttpException("", 408)));
+    assertTrue(HostHealthTracker.isTransient(new HttpException("", 429)));
+    assertTrue(
+        HostHealthTracker.isTransient(new HttpException("", -1, new SocketTimeoutException())));
+  }
+
+  @Test
+  public void isTransient_forPermanentErrors_returnsFalse() {
+    assertFalse(HostHealthTracker.isTransient(new HttpException("", 404)));
+    assertFalse(HostHealthTracker.isTransient(new HttpException("", 400)));
+    assertFalse(HostHealthTracker.isTransient(new FileNotFoundException()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void new_withMaxBackoffBelowInitialBackoff_throws() {
+    new HostHealthTracker(
+        FAILURE_THRESHOLD,
+        COOLDOWN_MILLIS,
+        MAX_RETRIES,
+        /*initialBackoffMillis=*/ 10,
+        /*maxBackoffMillis=*/ 5);
+  }
+
+  private HostHealthTracker newTracker(int maxRetries) {
+    // Backoffs sleep on the real clock, keep them short.
+    HostHealthTracker result =
+        new HostHealthTracker(
+            FAILURE_THRESHOLD,
+            COOLDOWN_MILLIS,
+            maxRetries,
+            /*initialBackoffMillis=*/ 1,
+            /*maxBackoffMillis=*/ 2);
+    result.setListener(
+        new HostHealthTracker.Listener() {
+          @Override
+          public void onStateChanged(
+              @NonNull String host, @NonNull State previous, @NonNull State current) {
+            assertEquals(HOST, host);
+            transitions.add(previous + " -> " + current);
+          }
+        });
+    return result;
+  }
+
+  private void failTimes(int times) {
+    for (int i = 0; i < times; i++) {
+      // Cancelled requests aren't retried, so each fetch counts as a single failure.
+      TestRequest request = new TestRequest(serverError());
+      request.isCancelled = true;
+      try {
+        tracker.fetch(HOST, request);
+        fail("Expected a failure");
+      } catch (IOException e) {
+        // Expected.
+      }
+    }
+  }
+
+  private HttpException assertThrows(IOException expected, TestRequest request) {
+    try {
+      tracker.fetch(HOST, request);
+    } catch (HttpException e) {
+      if (expected != null) {
+        assertEquals(expected, e);
+      }
+      return e;
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    throw new AssertionError("Expected an HttpException");
+  }
+
+  private static HttpException serverError() {
+    return new HttpException("Unavailable", 503);
+  }
+
+  private static void advanceClock(long millis) {
+    SystemClock.setCurrentTimeMillis(SystemClock.elapsedRealtime() + millis);
+  }
+
+  /** Returns or throws the given results in order, repeating the last one. */
+  private static class TestRequest implements HostHealthTracker.Request<String> {
+    private final Object[] results;
+    int attempts;
+    int retries;
+    boolean cancelOnRetry;
+    boolean isCancelled;
+
+    TestRequest(Object... results) {
+      this.results = results;
+    }
+
+    @Override
+    public String execute() throws IOException {
+      Object result = results[Math.min(attempts, results.length - 1)];
+      attempts++;
+      if (result instanceof IOException) {
+        throw (IOException) result;
+      }
+      return (String) result;
+    }
+
+    @Override
+    public void onRetry() {
+      retries++;
+      isCancelled |= cancelOnRetry;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return isCancelled;
+    }
+  }
+}
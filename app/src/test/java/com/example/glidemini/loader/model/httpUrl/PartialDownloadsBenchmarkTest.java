@@ -0,0 +1,183 @@
+package com.example.glidemini.loader.model.httpUrl;
+
+import static com.example.glidemini.testutil.LocalHttpServer.readFully;
+import static org.junit.Assert.assertArrayEquals;
+
+import com.example.glidemini.benchmark.Benchmark;
+import com.example.glidemini.cache.key.GlideUrl;
+import com.example.glidemini.testutil.LocalHttpServer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Measures a large download that's cancelled half way and then loaded again, with and without
+ * {@link PartialDownloads}, run with {@code -Pbenchmark}.
+ *
+ * <p>The local server sends the body in chunks with a short pause between them to stand in for a
+ * slow network. Reports the time per cancelled and repeated load and the bytes the server sent.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class PartialDownloadsBenchmarkTest {
+  private static final String ETAG = "\"v1\"";
+  private static final byte[] BODY = bytes(1024 * 1024);
+  private static final int CHUNK_SIZE = 16 * 1024;
+  private static final long CHUNK_DELAY_MILLIS = 1;
+  private static final int CANCEL_AFTER = BODY.length / 2;
+  private static final int LOADS = 10;
+
+  private final AtomicLong bytesSent = new AtomicLong();
+  private LocalHttpServer server;
+  private File directory;
+  private GlideUrl url;
+
+  @Before
+  public void setUp() throws IOException {
+    Benchmark.assumeEnabled();
+    server = new LocalHttpServer();
+    server.serve(
+        "/image",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            serve(exchange);
+          }
+        });
+    directory = Files.createTempDirectory("partial_benchmark").toFile();
+    url = server.url("/image");
+  }
+
+  @After
+  public void tearDown() {
+    if (server != null) {
+      server.close();
+    }
+    if (directory != null) {
+      File[] files = directory.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          file.delete();
+        }
+      }
+      directory.delete();
+    }
+  }
+
+  @Test
+  public void loadAfterCancel() throws Exception {
+    bytesSent.set(0);
+    Benchmark.measure(
+        "cancel and reload without PartialDownloads",
+        LOADS,
+        new Benchmark.Op() {
+          @Override
+          public void run(int i) throws IOException {
+            load(/*partialDownloads=*/ null, CANCEL_AFTER);
+            assertArrayEquals(BODY, load(/*partialDownloads=*/ null, Integer.MAX_VALUE));
+          }
+        });
+    reportBytesSent("without PartialDownloads");
+
+    bytesSent.set(0);
+    final PartialDownloads partialDownloads =
+        new PartialDownloads(
+            directory,
+            PartialDownloads.DEFAULT_MAX_SIZE,
+            PartialDownloads.DEFAULT_MIN_CONTENT_LENGTH);
+    Benchmark.measure(
+        "cancel and reload with PartialDownloads",
+        LOADS,
+        new Benchmark.Op() {
+          @Override
+          public void run(int i) throws IOException {
+            load(partialDownloads, CANCEL_AFTER);
+            assertArrayEquals(BODY, load(partialDownloads, Integer.MAX_VALUE));
+          }
+        });
+    reportBytesSent("with PartialDownloads");
+  }
+
+  // Follows the same steps as HttpUrlFetcher: resume if possible, otherwise record.
+  private byte[] load(PartialDownloads partialDownloads, int limit) throws IOException {
+    PartialDownloads.Download download =
+        partialDownloads == null ? null : partialDownloads.start(url);
+    HttpURLConnection connection = (HttpURLConnection) new URL(url.toStringUrl()).openConnection();
+    try {
+      connection.setUseCaches(false);
+      if (download != null) {
+        download.prepare(connection);
+      }
+      connection.connect();
+      InputStream body = connection.getInputStream();
+      if (download != null) {
+        InputStream resumed = download.resume(connection, body);
+        body = resumed != null ? resumed : download.record(connection, body);
+      }
+      return readFully(body, limit);
+    } finally {
+      connection.disconnect();
+      if (download != null) {
+        download.close();
+      }
+    }
+  }
+
+  private void reportBytesSent(String name) {
+    Benchmark.report(
+        "bytes sent " + name + ": " + bytesSent.get() / (2 * LOADS) + " per cancelled load");
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    String range = exchange.getRequestHeaders().getFirst("Range");
+    String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+    exchange.getResponseHeaders().set("ETag", ETAG);
+    int start = 0;
+    if (range != null && ETAG.equals(ifRange)) {
+      start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+      exchange
+          .getResponseHeaders()
+          .set("Content-Range", "bytes " + start + "-" + (BODY.length - 1) + "/" + BODY.length);
+      exchange.sendResponseHeaders(HttpURLConnection.HTTP_PARTIAL, BODY.length - start);
+    } else {
+      exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, BODY.length);
+    }
+    OutputStream os = exchange.getResponseBody();
+    try {
+      for (int offset = start; offset < BODY.length; offset += CHUNK_SIZE) {
+        int count = Math.min(CHUNK_SIZE, BODY.length - offset);
+        os.write(BODY, offset, count);
+        os.flush();
+        bytesSent.addAndGet(count);
+        Thread.sleep(CHUNK_DELAY_MILLIS);
+      }
+    } catch (IOException e) {
+      // The client cancelled the load.
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static byte[] bytes(int length) {
+    byte[] result = new byte[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = (byte) (i * 31);
+    }
+    return result;
+  }
+}
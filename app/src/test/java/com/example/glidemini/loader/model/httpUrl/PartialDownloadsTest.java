@@ -0,0 +1,257 @@
+package com.example.glidemini.loader.model.httpUrl;
+
+import static com.example.glidemini.testutil.LocalHttpServer.readFully;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.glidemini.cache.SafeKeyGenerator;
+import com.example.glidemini.cache.key.GlideUrl;
+import com.example.glidemini.testutil.LocalHttpServer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class PartialDownloadsTest {
+  private static final String ETAG = "\"v1\"";
+  private static final byte[] BODY = bytes(64 * 1024);
+
+  private LocalHttpServer server;
+  private File directory;
+  private PartialDownloads partialDownloads;
+  private GlideUrl url;
+  private volatile String eTag = ETAG;
+  private volatile String lastRange;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new LocalHttpServer();
+    server.serve(
+        "/image",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            serve(exchange);
+          }
+        });
+    directory = Files.createTempDirectory("partial").toFile();
+    partialDownloads =
+        new PartialDownloads(directory, /*maxSize=*/ 1024 * 1024, /*minContentLength=*/ 1024);
+    url = server.url("/image");
+  }
+
+  @After
+  public void tearDown() {
+    server.close();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void close_afterPartialRead_resumesFromSavedBytes() throws IOException {
+    PartialDownloads.Download first = partialDownloads.start(url);
+    HttpURLConnection connection = connect(first);
+    InputStream recorded = first.record(connection, connection.getInputStream());
+    readFully(recorded, 10 * 1024);
+    connection.disconnect();
+    first.close();
+
+    PartialDownloads.Download second = partialDownloads.start(url);
+    connection = connect(second);
+    InputStream resumed = second.resume(connection, connection.getInputStream());
+
+    assertEquals("bytes=" + 10 * 1024 + "-", lastRange);
+    assertNotNull(resumed);
+    assertEquals(BODY.length, second.getTotalLength());
+    assertArrayEquals(BODY, readFully(resumed));
+    connection.disconnect();
+    second.close();
+    assertEquals(0, directory.listFiles().length);
+  }
+
+  @Test
+  public void resume_withChangedValidator_fallsBackToFullDownload() throws IOException {
+    PartialDownloads.Download first = partialDownloads.start(url);
+    HttpURLConnection connection = connect(first);
+    readFully(first.record(connection, connection.getInputStream()), 10 * 1024);
+    connection.disconnect();
+    first.close();
+    eTag = "\"v2\"";
+
+    PartialDownloads.Download second = partialDownloads.start(url);
+    connection = connect(second);
+    InputStream body = connection.getInputStream();
+
+    assertNull(second.resume(connection, body));
+    assertArrayEquals(BODY, readFully(second.record(connection, body)));
+    connection.disconnect();
+    second.close();
+  }
+
+  @Test
+  public void close_afterCompleteRead_deletesRecording() throws IOException {
+    PartialDownloads.Download download = partialDownloads.start(url);
+    HttpURLConnection connection = connect(download);
+    readFully(download.record(connection, connection.getInputStream()));
+    connection.disconnect();
+    download.close();
+
+    assertEquals(0, directory.listFiles().length);
+  }
+
+  @Test
+  public void discard_dropsSavedBytes() throws IOException {
+    PartialDownloads.Download first = partialDownloads.start(url);
+    HttpURLConnection connection = connect(first);
+    readFully(first.record(connection, connection.getInputStream()), 10 * 1024);
+    connection.disconnect();
+    first.close();
+
+    PartialDownloads.Download second = partialDownloads.start(url);
+    second.discard();
+    second.close();
+
+    assertEquals(0, directory.listFiles().length);
+  }
+
+  @Test
+  public void start_whileInUse_returnsNull() {
+    PartialDownloads.Download first = partialDownloads.start(url);
+
+    assertNull(partialDownloads.start(url));
+    first.close();
+    PartialDownloads.Download second = partialDownloads.start(url);
+    assertNotNull(second);
+    second.close();
+  }
+
+  @Test
+  public void close_withoutSavingAnything_keepsOtherRecordings() throws IOException {
+    PartialDownloads small =
+        new PartialDownloads(directory, /*maxSize=*/ 1, /*minContentLength=*/ 1024);
+    File stale = new File(directory, "stale.part");
+    assertTrue(stale.createNewFile() || stale.exists());
+    Files.write(stale.toPath(), new byte[16]);
+
+    small.start(url).close();
+
+    assertTrue(stale.exists());
+    assertFalse(new File(directory, "stale.meta").exists());
+  }
+
+  @Test
+  public void start_withMurmur3Scheme_resumesFromSavedBytes() throws IOException {
+    PartialDownloads murmur =
+        new PartialDownloads(
+            directory,
+            /*maxSize=*/ 1024 * 1024,
+            /*minContentLength=*/ 1024,
+            SafeKeyGenerator.Scheme.MURMUR3_128);
+    PartialDownloads.Download first = murmur.start(url);
+    HttpURLConnection connection = connect(first);
+    readFully(first.record(connection, connection.getInputStream()), 10 * 1024);
+    connection.disconnect();
+    first.close();
+    String safeKey = new SafeKeyGenerator(SafeKeyGenerator.Scheme.MURMUR3_128).getSafeKey(url);
+    assertTrue(new File(directory, safeKey + ".part").exists());
+
+    PartialDownloads.Download second = murmur.start(url);
+    connection = connect(second);
+
+    assertNotNull(second.resume(connection, connection.getInputStream()));
+    assertEquals("bytes=" + 10 * 1024 + "-", lastRange);
+    connection.disconnect();
+    second.close();
+  }
+
+  @Test
+  public void start_withMetaWithoutKeyScheme_startsOver() throws IOException {
+    String safeKey = new SafeKeyGenerator().getSafeKey(url);
+    Files.write(new File(directory, safeKey + ".part").toPath(), Arrays.copyOf(BODY, 100));
+    DataOutputStream out =
+        new DataOutputStream(new FileOutputStream(new File(directory, safeKey + ".meta")));
+    try {
+      // The magic of the first meta format, which had no key scheme.
+      out.writeInt(0x47504458);
+      out.writeUTF(ETAG);
+      out.writeLong(BODY.length);
+    } finally {
+      out.close();
+    }
+
+    PartialDownloads.Download download = partialDownloads.start(url);
+    HttpURLConnection connection = connect(download);
+
+    assertNull(download.resume(connection, connection.getInputStream()));
+    assertNull(lastRange);
+    assertFalse(new File(directory, safeKey + ".part").exists());
+    connection.disconnect();
+    download.close();
+  }
+
+  private HttpURLConnection connect(PartialDownloads.Download download) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url.toStringUrl()).openConnection();
+    connection.setUseCaches(false);
+    download.prepare(connection);
+    connection.connect();
+    return connection;
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    String range = exchange.getRequestHeaders().getFirst("Range");
+    String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+    lastRange = range;
+    exchange.getResponseHeaders().set("ETag", eTag);
+    int start = 0;
+    if (range != null && eTag.equals(ifRange)) {
+      start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+      exchange
+          .getResponseHeaders()
+          .set("Content-Range", "bytes " + start + "-" + (BODY.length - 1) + "/" + BODY.length);
+      exchange.sendResponseHeaders(HttpURLConnection.HTTP_PARTIAL, BODY.length - start);
+    } else {
+      exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, BODY.length);
+    }
+    OutputStream os = exchange.getResponseBody();
+    try {
+      os.write(BODY, start, BODY.length - start);
+    } catch (IOException e) {
+      // The client stopped reading.
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static byte[] bytes(int length) {
+    byte[] result = new byte[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = (byte) (i * 31);
+    }
+    return result;
+  }
+}
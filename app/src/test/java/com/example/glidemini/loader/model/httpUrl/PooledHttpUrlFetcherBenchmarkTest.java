@@ -0,0 +1,118 @@
+package com.example.glidemini.loader.model.httpUrl;
+
+import com.example.glidemini.benchmark.Benchmark;
+import com.example.glidemini.cache.key.GlideUrl;
+import com.example.glidemini.testutil.LocalHttpServer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Compares {@link HttpUrlFetcher} and {@link PooledHttpUrlFetcher} against a local server that
+ * adds a fixed latency to every response, run with {@code -Pbenchmark}.
+ *
+ * <p>Reports loads per second and how many connections the server saw. Loopback connections are
+ * much cheaper to open than real ones, so the connection count matters more than the rate.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class PooledHttpUrlFetcherBenchmarkTest {
+  private static final int THREADS = 16;
+  private static final int LOADS_PER_THREAD = 25;
+  private static final long LATENCY_MILLIS = 20;
+  private static final byte[] BODY = new byte[32 * 1024];
+
+  private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+  private LocalHttpServer server;
+
+  @Before
+  public void setUp() throws IOException {
+    Benchmark.assumeEnabled();
+    server = new LocalHttpServer();
+    server.serve(
+        "/",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            serve(exchange);
+          }
+        });
+  }
+
+  @After
+  public void tearDown() {
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  @Test
+  public void load() throws Exception {
+    final GlideUrl[] urls = new GlideUrl[LOADS_PER_THREAD];
+    for (int i = 0; i < urls.length; i++) {
+      urls[i] = server.url("/" + i);
+    }
+
+    clientPorts.clear();
+    Benchmark.measureThroughput(
+        "HttpUrlFetcher",
+        THREADS,
+        LOADS_PER_THREAD,
+        new Benchmark.ThreadOp() {
+          @Override
+          public void run(int thread, int i) throws IOException {
+            check(
+                PooledHttpUrlFetcherTest.load(
+                    new HttpUrlFetcher(
+                        urls[i],
+                        /*timeout=*/ 2500,
+                        new DefaultHttpUrlConnectionFactory(),
+                        /*partialDownloads=*/ null,
+                        /*hostHealthTracker=*/ null)));
+          }
+        });
+    Benchmark.report("HttpUrlFetcher connections: " + clientPorts.size());
+
+    clientPorts.clear();
+    final HttpConnectionManager connectionManager = new HttpConnectionManager();
+    Benchmark.measureThroughput(
+        "PooledHttpUrlFetcher",
+        THREADS,
+        LOADS_PER_THREAD,
+        new Benchmark.ThreadOp() {
+          @Override
+          public void run(int thread, int i) throws IOException {
+            check(
+                PooledHttpUrlFetcherTest.load(
+                    new PooledHttpUrlFetcher(urls[i], /*timeout=*/ 2500, connectionManager)));
+          }
+        });
+    Benchmark.report("PooledHttpUrlFetcher connections: " + clientPorts.size());
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    clientPorts.add(exchange.getRemoteAddress().getPort());
+    try {
+      Thread.sleep(LATENCY_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    LocalHttpServer.respond(exchange, HttpURLConnection.HTTP_OK, BODY);
+  }
+
+  private static void check(PooledHttpUrlFetcherTest.Result result) throws IOException {
+    if (result.data == null || result.data.length != BODY.length) {
+      throw new IOException("Load failed", result.exception);
+    }
+  }
+}
@@ -0,0 +1,239 @@
+package com.example.glidemini.loader.model.httpUrl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.example.glidemini.cache.key.GlideUrl;
+import com.example.glidemini.loader.model.DataFetcher;
+import com.example.glidemini.loader.model.Priority;
+import com.example.glidemini.testutil.LocalHttpServer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Loads through {@link PooledHttpUrlFetcher} from a local server. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class PooledHttpUrlFetcherTest {
+  private static final byte[] BODY = "image".getBytes();
+
+  private final AtomicInteger activeRequests = new AtomicInteger();
+  private final AtomicInteger maxActiveRequests = new AtomicInteger();
+  private final AtomicInteger redirectRequests = new AtomicInteger();
+  private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+  private LocalHttpServer server;
+  private volatile long responseDelayMillis;
+  private volatile CountDownLatch responseGate = new CountDownLatch(0);
+
+  @Before
+  public void setUp() throws IOException {
+    server = new LocalHttpServer();
+    server.serve(
+        "/image",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            serveImage(exchange);
+          }
+        });
+    server.serve(
+        "/old",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            redirectRequests.incrementAndGet();
+            exchange.getResponseHeaders().set("Location", "/image");
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_MOVED_PERM, -1);
+            exchange.close();
+          }
+        });
+  }
+
+  @After
+  public void tearDown() {
+    responseGate.countDown();
+    server.close();
+  }
+
+  @Test
+  public void loadData_returnsBody() throws Exception {
+    Result result =
+        load(new PooledHttpUrlFetcher(server.url("/image"), 2500, new HttpConnectionManager()));
+
+    assertNull(result.exception);
+    assertArrayEquals(BODY, result.data);
+  }
+
+  @Test
+  public void loadData_fromManyThreads_limitsConnectionsPerHost() throws Exception {
+    final HttpConnectionManager connectionManager =
+        new HttpConnectionManager(
+            /*maxConnectionsPerHost=*/ 2, /*maxConnections=*/ 16, /*redirectCacheSize=*/ 10);
+    responseDelayMillis = 50;
+    final List<Result> results = Collections.synchronizedList(new ArrayList<Result>());
+    final GlideUrl url = server.url("/image");
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      Thread thread =
+          new Thread() {
+            @Override
+            public void run() {
+              try {
+                results.add(load(new PooledHttpUrlFetcher(url, 2500, connectionManager)));
+              } catch (IOException e) {
+                throw new RuntimeException(e);
+              }
+            }
+          };
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(6, results.size());
+    for (Result result : results) {
+      assertArrayEquals(BODY, result.data);
+    }
+    assertTrue("max active requests: " + maxActiveRequests, maxActiveRequests.get() <= 2);
+    assertEquals(0, connectionManager.getActiveConnectionCount());
+  }
+
+  @Test
+  public void loadData_afterPermanentRedirect_requestsTargetDirectly() throws Exception {
+    HttpConnectionManager connectionManager = new HttpConnectionManager();
+
+    Result first = load(new PooledHttpUrlFetcher(server.url("/old"), 2500, connectionManager));
+    Result second = load(new PooledHttpUrlFetcher(server.url("/old"), 2500, connectionManager));
+
+    assertArrayEquals(BODY, first.data);
+    assertArrayEquals(BODY, second.data);
+    assertEquals(1, redirectRequests.get());
+  }
+
+  @Test
+  public void loadData_afterSuccessfulLoad_reusesConnection() throws Exception {
+    HttpConnectionManager connectionManager = new HttpConnectionManager();
+
+    load(new PooledHttpUrlFetcher(server.url("/image"), 2500, connectionManager));
+    load(new PooledHttpUrlFetcher(server.url("/image"), 2500, connectionManager));
+
+    assertEquals(1, clientPorts.size());
+  }
+
+  @Test
+  public void cancel_whileWaitingForConnection_stopsWaiting() throws Exception {
+    final HttpConnectionManager connectionManager =
+        new HttpConnectionManager(
+            /*maxConnectionsPerHost=*/ 1, /*maxConnections=*/ 16, /*redirectCacheSize=*/ 10);
+    responseGate = new CountDownLatch(1);
+    Thread holder =
+        new Thread() {
+          @Override
+          public void run() {
+            try {
+              load(new PooledHttpUrlFetcher(server.url("/image"), 2500, connectionManager));
+            } catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        };
+    holder.start();
+    while (connectionManager.getActiveConnectionCount() == 0) {
+      Thread.sleep(5);
+    }
+    final PooledHttpUrlFetcher waiting =
+        new PooledHttpUrlFetcher(server.url("/image"), 2500, connectionManager);
+    final CountDownLatch done = new CountDownLatch(1);
+    final Result[] result = new Result[1];
+    Thread waiter =
+        new Thread() {
+          @Override
+          public void run() {
+            try {
+              result[0] = load(waiting);
+            } catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+            done.countDown();
+          }
+        };
+    waiter.start();
+
+    waiting.cancel();
+
+    assertTrue(done.await(1, TimeUnit.SECONDS));
+    assertNull(result[0].data);
+    assertNull(result[0].exception);
+    responseGate.countDown();
+    holder.join();
+  }
+
+  private void serveImage(HttpExchange exchange) throws IOException {
+    clientPorts.add(exchange.getRemoteAddress().getPort());
+    int active = activeRequests.incrementAndGet();
+    int max;
+    while (active > (max = maxActiveRequests.get())
+        && !maxActiveRequests.compareAndSet(max, active)) {
+      // Retry.
+    }
+    try {
+      responseGate.await();
+      Thread.sleep(responseDelayMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      activeRequests.decrementAndGet();
+    }
+    LocalHttpServer.respond(exchange, HttpURLConnection.HTTP_OK, BODY);
+  }
+
+  static Result load(DataFetcher<InputStream> fetcher) throws IOException {
+    final Result result = new Result();
+    fetcher.loadData(
+        Priority.NORMAL,
+        new DataFetcher.DataCallback<InputStream>() {
+          @Override
+          public void onDataReady(@Nullable InputStream data) {
+            try {
+              result.data = data == null ? null : LocalHttpServer.readFully(data);
+            } catch (IOException e) {
+              result.exception = e;
+            }
+          }
+
+          @Override
+          public void onLoadFailed(@NonNull Exception e) {
+            result.exception = e;
+          }
+        });
+    fetcher.cleanup();
+    return result;
+  }
+
+  static final class Result {
+    @Nullable byte[] data;
+    @Nullable Exception exception;
+  }
+}
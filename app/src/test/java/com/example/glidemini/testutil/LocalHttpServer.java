@@ -0,0 +1,78 @@
+package com.example.glidemini.testutil;
+
+import com.example.glidemini.cache.key.GlideUrl;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An HTTP server on the loopback interface for tests of the fetchers, started on construction.
+ *
+ * <p>Requests are served concurrently, each on its own thread. Call {@link #close()} once the test
+ * is done.
+ */
+public final class LocalHttpServer {
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final HttpServer server;
+
+  public LocalHttpServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    // The default executor serves one request at a time.
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /** Serves requests for the given path and every path below it with the given handler. */
+  public void serve(String path, HttpHandler handler) {
+    server.createContext(path, handler);
+  }
+
+  public String urlString(String path) {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+  }
+
+  public GlideUrl url(String path) {
+    return new GlideUrl(urlString(path));
+  }
+
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  /** Sends the given body with the given status code and ends the exchange. */
+  public static void respond(HttpExchange exchange, int statusCode, byte[] body)
+      throws IOException {
+    exchange.sendResponseHeaders(statusCode, body.length);
+    OutputStream os = exchange.getResponseBody();
+    try {
+      os.write(body);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /** Reads the given stream to its end. */
+  public static byte[] readFully(InputStream is) throws IOException {
+    return readFully(is, Integer.MAX_VALUE);
+  }
+
+  /** Reads at most {@code limit} bytes of the given stream. */
+  public static byte[] readFully(InputStream is, int limit) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int read;
+    while (os.size() < limit
+        && (read = is.read(buffer, 0, Math.min(buffer.length, limit - os.size()))) != -1) {
+      os.write(buffer, 0, read);
+    }
+    return os.toByteArray();
+  }
+}
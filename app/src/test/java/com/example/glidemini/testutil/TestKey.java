@@ -0,0 +1,37 @@
+package com.example.glidemini.testutil;
+
+import androidx.annotation.NonNull;
+import com.example.glidemini.cache.key.Key;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+
+/** A {@link Key} identified by a string, equal to other keys with the same id. */
+public final class TestKey implements Key {
+  private static final Charset CHARSET = Charset.forName("UTF-8");
+
+  private final String id;
+
+  public TestKey(String id) {
+    this.id = id;
+  }
+
+  @Override
+  public void updateDiskCacheKey(@NonNull MessageDigest messageDigest) {
+    messageDigest.update(id.getBytes(CHARSET));
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof TestKey && ((TestKey) o).id.equals(id);
+  }
+
+  @Override
+  public int hashCode() {
+    return id.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "TestKey{" + id + "}";
+  }
+}
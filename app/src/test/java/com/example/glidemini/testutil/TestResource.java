@@ -0,0 +1,45 @@
+package com.example.glidemini.testutil;
+
+import androidx.annotation.NonNull;
+import com.example.glidemini.load.engine.Resource;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** A {@link Resource} of a given size that counts how often it's recycled. */
+public final class TestResource implements Resource<Object> {
+  private final int size;
+  private final AtomicInteger recycleCount = new AtomicInteger();
+
+  public TestResource() {
+    this(/*size=*/ 1);
+  }
+
+  public TestResource(int size) {
+    this.size = size;
+  }
+
+  @NonNull
+  @Override
+  public Class<Object> getResourceClass() {
+    return Object.class;
+  }
+
+  @NonNull
+  @Override
+  public Object get() {
+    return this;
+  }
+
+  @Override
+  public int getSize() {
+    return size;
+  }
+
+  @Override
+  public void recycle() {
+    recycleCount.incrementAndGet();
+  }
+
+  public int getRecycleCount() {
+    return recycleCount.get();
+  }
+}